@@ -0,0 +1,101 @@
+package com.wire.helium.bench;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.wire.helium.HeliumJsonProvider;
+import com.wire.helium.models.Event;
+import com.wire.helium.models.EventFilter;
+import com.wire.helium.models.NotificationList;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a page of 500 mixed notifications, nine in ten of them messages and the rest member joins, for a
+ * consumer that only handles member joins: bound eagerly and then looked at, read with a filter for member joins,
+ * and read lazily with every payload kept but only the member joins bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventFilterBenchmark {
+    private static final String JOIN = "conversation.member-join";
+
+    public enum Mode {
+        EAGER(null),
+        FILTERED(EventFilter.types(JOIN)),
+        LAZY(EventFilter.all());
+
+        final EventFilter filter;
+
+        Mode(EventFilter filter) {
+            this.filter = filter;
+        }
+    }
+
+    @Param
+    public Mode mode;
+
+    private ObjectReader reader;
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        reader = HeliumJsonProvider.mapper().readerFor(NotificationList.class);
+        if (mode.filter != null) {
+            reader = reader.withAttribute(EventFilter.class, mode.filter);
+        }
+
+        Random random = new Random(42);
+        QualifiedId conversation = new QualifiedId(UUID.randomUUID(), "wire.com");
+        NotificationList list = new NotificationList();
+        list.hasMore = true;
+        for (int i = 0; i < 500; i++) {
+            Payload payload = new Payload();
+            payload.conversation = conversation;
+            payload.from = new QualifiedId(UUID.randomUUID(), "wire.com");
+            payload.time = Instant.now().toString();
+            payload.data = new Payload.Data();
+            if (i % 10 == 0) {
+                payload.type = JOIN;
+                payload.data.userIds = List.of(new QualifiedId(UUID.randomUUID(), "wire.com"));
+            } else {
+                byte[] cipher = new byte[256];
+                random.nextBytes(cipher);
+                payload.type = "conversation.otr-message-add";
+                payload.data.sender = Long.toHexString(random.nextLong());
+                payload.data.recipient = Long.toHexString(random.nextLong());
+                payload.data.text = Base64.getEncoder().encodeToString(cipher);
+            }
+            Event event = new Event();
+            event.id = UUID.randomUUID();
+            event.payload = new Payload[]{payload};
+            list.notifications.add(event);
+        }
+        body = HeliumJsonProvider.mapper().writeValueAsBytes(list);
+    }
+
+    @Benchmark
+    public int joins(Blackhole blackhole) throws Exception {
+        NotificationList list = reader.readValue(body);
+        int joins = 0;
+        for (Event event : list.notifications) {
+            blackhole.consume(event.id);
+            if (event.getTypes().contains(JOIN)) {
+                blackhole.consume(event.getPayloads());
+                joins++;
+            }
+        }
+        return joins;
+    }
+}
@@ -0,0 +1,167 @@
+package com.wire.helium.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.helium.HeliumJsonProvider;
+import com.wire.helium.models.Access;
+import com.wire.helium.models.Event;
+import com.wire.helium.models.NotificationList;
+import com.wire.helium.models.model.response.ConversationListIdsResponse;
+import com.wire.helium.models.model.response.ConversationListResponse;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Member;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.models.otr.Devices;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode throughput of the models Helium reads, through the plain {@link JacksonJsonProvider} and through
+ * {@link HeliumJsonProvider}. The bodies are shaped like the backend's: a page of 100 message notifications, 100
+ * conversations with 10 members, 1000 conversation ids, a client mismatch with 100 missing clients and a token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonDecodeBenchmark {
+    public enum Model {
+        ACCESS(Access.class),
+        NOTIFICATIONS(NotificationList.class),
+        CONVERSATIONS(ConversationListResponse.class),
+        CONVERSATION_IDS(ConversationListIdsResponse.class),
+        MISMATCH(Devices.class);
+
+        final Class<?> type;
+
+        Model(Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    public enum Codec {
+        JACKSON,
+        HELIUM
+    }
+
+    @Param
+    public Model model;
+
+    @Param
+    public Codec codec;
+
+    private JacksonJsonProvider provider;
+    private Class<Object> type;
+    private byte[] body;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        provider = codec == Codec.HELIUM ? new HeliumJsonProvider() : new JacksonJsonProvider();
+        type = (Class<Object>) model.type;
+        body = new ObjectMapper().writeValueAsBytes(sample(model));
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return provider.readFrom(type, type, null, MediaType.APPLICATION_JSON_TYPE, null, new ByteArrayInputStream(body));
+    }
+
+    private static Object sample(Model model) {
+        Random random = new Random(42);
+        switch (model) {
+            case ACCESS: {
+                Access access = new Access();
+                access.userId = UUID.randomUUID();
+                access.accessToken = Base64.getEncoder().encodeToString(bytes(random, 300));
+                access.expiresIn = 900;
+                access.tokenType = "Bearer";
+                return access;
+            }
+            case NOTIFICATIONS: {
+                NotificationList list = new NotificationList();
+                list.hasMore = true;
+                QualifiedId conversation = qualifiedId();
+                for (int i = 0; i < 100; i++) {
+                    Payload payload = new Payload();
+                    payload.type = "conversation.otr-message-add";
+                    payload.conversation = conversation;
+                    payload.from = qualifiedId();
+                    payload.time = Instant.now().toString();
+                    payload.data = new Payload.Data();
+                    payload.data.sender = Long.toHexString(random.nextLong());
+                    payload.data.recipient = Long.toHexString(random.nextLong());
+                    payload.data.text = Base64.getEncoder().encodeToString(bytes(random, 256));
+                    Event event = new Event();
+                    event.id = UUID.randomUUID();
+                    event.payload = new Payload[]{payload};
+                    list.notifications.add(event);
+                }
+                return list;
+            }
+            case CONVERSATIONS: {
+                ConversationListResponse response = new ConversationListResponse();
+                response.found = new ArrayList<>();
+                response.failed = List.of();
+                response.notFound = List.of();
+                for (int i = 0; i < 100; i++) {
+                    Conversation conversation = new Conversation();
+                    conversation.id = qualifiedId();
+                    conversation.name = "Conversation " + i;
+                    conversation.creator = UUID.randomUUID();
+                    conversation.protocol = Conversation.Protocol.PROTEUS;
+                    conversation.members = new Payload.Members();
+                    conversation.members.others = new ArrayList<>();
+                    for (int m = 0; m < 10; m++) {
+                        Member member = new Member();
+                        member.id = qualifiedId();
+                        member.status = 0;
+                        conversation.members.others.add(member);
+                    }
+                    response.found.add(conversation);
+                }
+                return response;
+            }
+            case CONVERSATION_IDS: {
+                ConversationListIdsResponse response = new ConversationListIdsResponse();
+                response.hasMore = true;
+                response.pagingState = Base64.getEncoder().encodeToString(bytes(random, 48));
+                response.qualifiedConversations = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    response.qualifiedConversations.add(qualifiedId());
+                }
+                return response;
+            }
+            default: {
+                Devices devices = new Devices();
+                for (int i = 0; i < 50; i++) {
+                    QualifiedId user = qualifiedId();
+                    devices.missing.add(user, List.of(Long.toHexString(random.nextLong()), Long.toHexString(random.nextLong())));
+                }
+                return devices;
+            }
+        }
+    }
+
+    private static QualifiedId qualifiedId() {
+        return new QualifiedId(UUID.randomUUID(), "wire.com");
+    }
+
+    private static byte[] bytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
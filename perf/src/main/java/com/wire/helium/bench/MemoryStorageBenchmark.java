@@ -0,0 +1,56 @@
+package com.wire.helium.bench;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.helium.storage.MemoryStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session fetch/persist round trips of {@link MemoryStorage} from many threads, the access pattern of concurrent
+ * decryption. With <code>maxSessions</code> below <code>sessions</code> the clock eviction is part of the cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class MemoryStorageBenchmark {
+    private static final int BOTS = 100;
+
+    @Param({"1000", "100000"})
+    public int sessions;
+
+    @Param({"0", "10000"})
+    public int maxSessions;
+
+    private MemoryStorage storage;
+    private String[] bots;
+    private String[] sids;
+    private final byte[] data = new byte[1024];
+
+    @Setup
+    public void setup() {
+        storage = new MemoryStorage(maxSessions, null, 10_000);
+        bots = new String[BOTS];
+        for (int i = 0; i < BOTS; i++) {
+            bots[i] = "bot-" + i;
+        }
+        sids = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            sids[i] = "user_" + i + "_client";
+        }
+    }
+
+    @Benchmark
+    public byte[] fetchAndPersist() throws Exception {
+        int session = ThreadLocalRandom.current().nextInt(sessions);
+        IRecord record = storage.fetchSession(bots[session % BOTS], sids[session]);
+        byte[] previous = record.getData();
+        record.persist(data);
+        return previous;
+    }
+}
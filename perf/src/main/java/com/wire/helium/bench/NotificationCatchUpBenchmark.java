@@ -0,0 +1,74 @@
+package com.wire.helium.bench;
+
+import com.wire.helium.models.Event;
+import com.wire.helium.models.NotificationList;
+import com.wire.helium.notifications.CursorStore;
+import com.wire.helium.notifications.FileCursorStore;
+import com.wire.helium.notifications.MemoryCursorStore;
+import com.wire.helium.notifications.NotificationCursor;
+import com.wire.helium.notifications.NotificationReader;
+import com.wire.helium.notifications.NotificationSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catch-up rate of {@link NotificationReader} over an in-memory backlog, i.e. the pure cost of paging and
+ * checkpointing. Compare <code>checkpointInterval=1</code> (checkpoint per event) with batched checkpoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationCatchUpBenchmark {
+    private static final int BACKLOG = 10_000;
+
+    @Param({"memory", "file"})
+    public String store;
+
+    @Param({"1", "100", "1000"})
+    public int checkpointInterval;
+
+    private final List<Event> events = new ArrayList<>();
+    private final Map<UUID, Integer> positions = new HashMap<>();
+    private CursorStore cursorStore;
+    private NotificationSource source;
+
+    @Setup
+    public void setup() throws Exception {
+        for (int i = 0; i < BACKLOG; i++) {
+            Event event = new Event();
+            event.id = UUID.randomUUID();
+            events.add(event);
+            positions.put(event.id, i);
+        }
+        cursorStore = "file".equals(store)
+                ? new FileCursorStore(Files.createTempDirectory("helium-cursors"))
+                : new MemoryCursorStore();
+        source = (since, size) -> {
+            int from = since == null ? 0 : positions.get(since) + 1;
+            int to = Math.min(events.size(), from + size);
+            NotificationList list = new NotificationList();
+            list.notifications = events.subList(from, to);
+            list.hasMore = to < events.size();
+            return list;
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BACKLOG)
+    public int catchUp(Blackhole blackhole) throws Exception {
+        String key = UUID.randomUUID().toString();
+        NotificationCursor cursor = new NotificationCursor(cursorStore, key, checkpointInterval, Long.MAX_VALUE);
+        return new NotificationReader(source, cursor).catchUp(blackhole::consume);
+    }
+}
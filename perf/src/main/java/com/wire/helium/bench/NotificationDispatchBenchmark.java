@@ -0,0 +1,70 @@
+package com.wire.helium.bench;
+
+import com.wire.helium.models.Event;
+import com.wire.helium.notifications.NotificationDispatcher;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catch-up throughput of {@link NotificationDispatcher} with a CPU bound handler standing in for Proteus decryption.
+ * Run on the target machine and compare the scores for increasing <code>parallelism</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationDispatchBenchmark {
+    private static final int EVENTS = 4_000;
+    private static final int CONVERSATIONS = 256;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private final List<Event> events = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        List<QualifiedId> conversations = new ArrayList<>();
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            conversations.add(new QualifiedId(UUID.randomUUID(), "wire.com"));
+        }
+        for (int i = 0; i < EVENTS; i++) {
+            Payload payload = new Payload();
+            payload.conversation = conversations.get(i % CONVERSATIONS);
+            Event event = new Event();
+            event.id = UUID.randomUUID();
+            event.payload = new Payload[]{payload};
+            events.add(event);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public long dispatch() throws Exception {
+        try (NotificationDispatcher dispatcher = new NotificationDispatcher(NotificationDispatchBenchmark::decrypt, parallelism, 1_000)) {
+            for (Event event : events) {
+                dispatcher.submit(event);
+            }
+            dispatcher.awaitIdle();
+            return dispatcher.completedCount();
+        }
+    }
+
+    private static void decrypt(Event event) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] block = new byte[4096];
+        for (int i = 0; i < 16; i++) {
+            digest.update(block);
+        }
+        block[0] = digest.digest()[0];
+    }
+}
@@ -0,0 +1,84 @@
+package com.wire.helium.bench;
+
+import com.wire.helium.API;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.http.PageSizer;
+import com.wire.helium.http.Transport;
+import com.wire.helium.notifications.MemoryCursorStore;
+import com.wire.helium.notifications.NotificationCursor;
+import com.wire.helium.notifications.NotificationReader;
+import com.wire.helium.notifications.NotificationSource;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.ws.rs.client.Client;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to list 3000 conversations and catch up on 5000 notifications against the {@link BackendSimulator} with a
+ * fixed latency per request and a small one per item, with the fixed page sizes and with a {@link PageSizer}.
+ * The sizer is shared by all invocations, so it has settled by the end of the warmup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PagingBenchmark {
+    private static final int CONVERSATIONS = 3_000;
+    private static final int NOTIFICATIONS = 5_000;
+
+    @Param({"fixed", "adaptive"})
+    public String paging;
+
+    @Param({"5", "50"})
+    public int latencyMillis;
+
+    private BackendSimulator backend;
+    private Client client;
+    private API api;
+    private String clientId;
+
+    @Setup
+    public void setup() throws Exception {
+        BackendSimulator.Config config = new BackendSimulator.Config();
+        config.latencyMillis = latencyMillis;
+        config.perItemLatencyMicros = 20;
+        backend = new BackendSimulator(config);
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+        client = Transport.newClient(Transport.Engine.JERSEY);
+
+        BackendSimulator.Account account = backend.addAccount();
+        clientId = backend.addClient(account.id);
+        List<QualifiedId> conversations = backend.populate(account, CONVERSATIONS, 2, 1);
+        backend.addNotifications(account.id, conversations.get(0), NOTIFICATIONS, 64);
+
+        api = new API(client, null, account.getToken());
+        if ("adaptive".equals(paging)) {
+            api.setPageSizer(new PageSizer());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        backend.close();
+    }
+
+    @Benchmark
+    public List<Conversation> listConversations() {
+        return api.getUserConversations();
+    }
+
+    @Benchmark
+    public int catchUp(Blackhole blackhole) throws Exception {
+        NotificationCursor cursor = new NotificationCursor(new MemoryCursorStore(), UUID.randomUUID().toString());
+        return new NotificationReader(NotificationSource.of(api, clientId), cursor).catchUp(blackhole::consume);
+    }
+}
@@ -0,0 +1,149 @@
+package com.wire.helium.bench;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.helium.API;
+import com.wire.helium.ProtobufBodyWriter;
+import com.wire.helium.models.BinaryRecipients;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side cost of sending a message to many clients: {@link Recipients} with Base64 ciphertexts and hex client
+ * ids, as produced by xenon's crypto, against {@link BinaryRecipients} holding the bytes the crypto box returns.
+ * Both send the same request body, so the Base64 encoding is measured on both sides.
+ * Requests are serialized into a connector that discards them, so only recipient handling and encoding are measured.
+ * Run with <code>-prof gc</code> for the bytes allocated per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecipientsBenchmark {
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    @Param({"256"})
+    public int cipherSize;
+
+    private Client client;
+    private API api;
+    private String senderHex;
+    private QualifiedId[] users;
+    private String[] clientHex;
+    private long[] clientIds;
+    private byte[][] ciphers;
+
+    @Setup
+    public void setup() {
+        System.setProperty(Const.WIRE_BOTS_SDK_API, "http://localhost");
+        client = ClientBuilder.newClient(new ClientConfig().connectorProvider((c, config) -> new DiscardingConnector()))
+                .register(JacksonJsonProvider.class)
+                .register(ProtobufBodyWriter.class);
+        api = new API(client, new QualifiedId(UUID.randomUUID(), "wire.local"), "token");
+
+        Random random = new Random(42);
+        senderHex = Long.toHexString(random.nextLong() >>> 1);
+        users = new QualifiedId[clients];
+        clientHex = new String[clients];
+        clientIds = new long[clients];
+        ciphers = new byte[clients][cipherSize];
+        for (int i = 0; i < clients; i++) {
+            users[i] = new QualifiedId(UUID.randomUUID(), "wire.local");
+            clientIds[i] = random.nextLong() >>> 1;
+            clientHex[i] = Long.toHexString(clientIds[i]);
+            random.nextBytes(ciphers[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public Devices stringRecipients() throws Exception {
+        Recipients recipients = new Recipients();
+        for (int i = 0; i < clients; i++) {
+            recipients.add(users[i], clientHex[i], Base64.getEncoder().encodeToString(ciphers[i]));
+        }
+        return api.sendMessage(new OtrMessage(senderHex, recipients), false);
+    }
+
+    @Benchmark
+    public Devices binaryRecipients() throws Exception {
+        BinaryRecipients recipients = new BinaryRecipients();
+        for (int i = 0; i < clients; i++) {
+            recipients.add(users[i], clientIds[i], ciphers[i]);
+        }
+        return api.sendMessage(BinaryRecipients.clientId(senderHex), recipients, false);
+    }
+
+    /**
+     * Serializes the request entity into nothing and answers 201 without a body
+     */
+    private static class DiscardingConnector implements Connector {
+        private static final OutputStream DISCARD = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        @Override
+        public ClientResponse apply(ClientRequest request) {
+            if (request.hasEntity()) {
+                request.setStreamProvider(contentLength -> DISCARD);
+                try {
+                    request.writeEntity();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            ClientResponse response = new ClientResponse(Response.Status.CREATED, request);
+            response.setEntityStream(new ByteArrayInputStream(new byte[0]));
+            return response;
+        }
+
+        @Override
+        public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+            callback.response(apply(request));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public String getName() {
+            return "discard";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
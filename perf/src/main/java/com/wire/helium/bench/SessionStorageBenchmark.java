@@ -0,0 +1,106 @@
+package com.wire.helium.bench;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.helium.HeliumMigrations;
+import com.wire.helium.storage.WriteBehindStorage;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.wire.xenon.crypto.storage.JdbiStorage;
+import org.flywaydb.core.Flyway;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session round trips per second, each one standing for a message sent to one client, against a local Postgres.
+ * Connection settings are read from the same POSTGRES_URL, POSTGRES_USER and POSTGRES_PASSWORD variables as the tests,
+ * connections are pooled as they would be in a service.
+ * <p>
+ *     <code>jdbi</code> is xenon's JdbiStorage writing every session synchronously, <code>sync</code> and
+ *     <code>writeBehind</code> are the two modes of {@link WriteBehindStorage}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Threads(8)
+@Fork(1)
+public class SessionStorageBenchmark {
+    private static final int BOTS = 10;
+    private static final int SESSIONS_PER_BOT = 500;
+
+    @Param({"jdbi", "sync", "writeBehind"})
+    public String storageType;
+
+    private HikariDataSource dataSource;
+    private IStorage storage;
+    private String[] bots;
+    private String[] sids;
+    private final byte[] session = new byte[1024];
+
+    @Setup
+    public void setup() {
+        String databaseUrl = System.getenv("POSTGRES_URL");
+        String jdbcUrl = "jdbc:postgresql://" + (databaseUrl != null ? databaseUrl : "localhost/postgres");
+        String user = System.getenv("POSTGRES_USER") != null ? System.getenv("POSTGRES_USER") : "postgres";
+        String password = System.getenv("POSTGRES_PASSWORD") != null ? System.getenv("POSTGRES_PASSWORD") : "postgres";
+
+        Flyway.configure().dataSource(jdbcUrl, user, password).baselineOnMigrate(true).load().migrate();
+        HeliumMigrations.configure(Flyway.configure().dataSource(jdbcUrl, user, password)).load().migrate();
+        HikariConfig pool = new HikariConfig();
+        pool.setJdbcUrl(jdbcUrl);
+        pool.setUsername(user);
+        pool.setPassword(password);
+        pool.setMaximumPoolSize(16);
+        dataSource = new HikariDataSource(pool);
+        Jdbi jdbi = Jdbi.create(dataSource).installPlugin(new SqlObjectPlugin());
+
+        switch (storageType) {
+            case "jdbi":
+                storage = new JdbiStorage(jdbi);
+                break;
+            case "sync":
+                storage = new WriteBehindStorage(jdbi, WriteBehindStorage.Mode.SYNC, 0, 1, 0);
+                break;
+            default:
+                storage = new WriteBehindStorage(jdbi);
+                break;
+        }
+
+        bots = new String[BOTS];
+        for (int i = 0; i < BOTS; i++) {
+            bots[i] = "bench-" + UUID.randomUUID();
+        }
+        sids = new String[SESSIONS_PER_BOT];
+        for (int i = 0; i < SESSIONS_PER_BOT; i++) {
+            sids[i] = "user_" + i + "_client";
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (storage instanceof WriteBehindStorage) {
+            ((WriteBehindStorage) storage).close();
+        }
+        for (String bot : bots) {
+            storage.purge(bot);
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public byte[] fetchAndPersist() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        IRecord record = storage.fetchSession(bots[random.nextInt(BOTS)], sids[random.nextInt(SESSIONS_PER_BOT)]);
+        byte[] previous = record.getData();
+        record.persist(session);
+        return previous;
+    }
+}
@@ -0,0 +1,73 @@
+package com.wire.helium.bench;
+
+import com.wire.helium.API;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.http.Transport;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.client.Client;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second of both {@link Transport.Engine}s against the in-process {@link BackendSimulator}, for a JSON
+ * GET and a protobuf message send. Run with <code>-prof gc</code> to compare allocations per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class TransportBenchmark {
+    @Param({"JERSEY", "JDK"})
+    public Transport.Engine engine;
+
+    private BackendSimulator backend;
+    private Client client;
+    private API api;
+    private String senderClient;
+    private Recipients recipients;
+
+    @Setup
+    public void setup() throws Exception {
+        backend = new BackendSimulator();
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+        client = Transport.newClient(engine);
+
+        BackendSimulator.Account sender = backend.addAccount();
+        senderClient = backend.addClient(sender.id);
+        recipients = new Recipients();
+        QualifiedId[] members = new QualifiedId[11];
+        members[0] = sender.id;
+        String cipher = Base64.getEncoder().encodeToString(new byte[1024]);
+        for (int i = 1; i < members.length; i++) {
+            members[i] = backend.addUser(BackendSimulator.DOMAIN);
+            recipients.add(members[i], backend.addClient(members[i]), cipher);
+        }
+        api = new API(client, backend.addConversation("transport", members), sender.getToken());
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        backend.close();
+    }
+
+    @Benchmark
+    public User getSelf() {
+        return api.getSelf();
+    }
+
+    @Benchmark
+    public Devices sendMessage() throws Exception {
+        return api.sendMessage(new OtrMessage(senderClient, recipients), false);
+    }
+}
@@ -0,0 +1,76 @@
+package com.wire.helium.loadtest;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects GC pause durations reported through the JMX notifications of the collectors.
+ * Concurrent cycles (e.g. "G1 Concurrent GC") are not counted as pauses.
+ */
+class GcMonitor implements AutoCloseable {
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final AtomicLong pauses = new AtomicLong();
+    private final AtomicLong totalPauseMillis = new AtomicLong();
+    private final AtomicLong maxPauseMillis = new AtomicLong();
+
+    private final NotificationListener listener = (notification, handback) -> {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        if (info.getGcName().contains("Concurrent")) {
+            return;
+        }
+        long duration = info.getGcInfo().getDuration();
+        pauses.incrementAndGet();
+        totalPauseMillis.addAndGet(duration);
+        maxPauseMillis.accumulateAndGet(duration, Math::max);
+    };
+
+    GcMonitor() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) gc;
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    void reset() {
+        pauses.set(0);
+        totalPauseMillis.set(0);
+        maxPauseMillis.set(0);
+    }
+
+    long getPauses() {
+        return pauses.get();
+    }
+
+    long getTotalPauseMillis() {
+        return totalPauseMillis.get();
+    }
+
+    long getMaxPauseMillis() {
+        return maxPauseMillis.get();
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException ignore) {
+            }
+        }
+    }
+}
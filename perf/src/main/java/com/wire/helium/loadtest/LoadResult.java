@@ -0,0 +1,77 @@
+package com.wire.helium.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Locale;
+
+/**
+ * Outcome of one load test scenario, written as JSON and as one CSV row.
+ */
+public class LoadResult {
+    @JsonProperty
+    public String heliumVersion;
+    @JsonProperty
+    public String timestamp;
+    @JsonProperty
+    public String mode;
+    @JsonProperty
+    public int conversationSize;
+    @JsonProperty
+    public int payloadSize;
+    @JsonProperty
+    public int concurrency;
+    @JsonProperty
+    public int simulatedLatencyMillis;
+    @JsonProperty
+    public double durationSeconds;
+
+    @JsonProperty
+    public long messages;
+    @JsonProperty
+    public long errors;
+    @JsonProperty
+    public double messagesPerSecond;
+
+    @JsonProperty
+    public double p50Micros;
+    @JsonProperty
+    public double p99Micros;
+    @JsonProperty
+    public double p999Micros;
+    @JsonProperty
+    public double maxMicros;
+
+    // Allocated by the sender threads only, the in-process simulator is excluded
+    @JsonProperty
+    public double allocatedMBPerSecond;
+    @JsonProperty
+    public long allocatedBytesPerMessage;
+
+    // Process wide, includes the simulator
+    @JsonProperty
+    public long gcPauses;
+    @JsonProperty
+    public long gcPauseTotalMillis;
+    @JsonProperty
+    public long gcPauseMaxMillis;
+
+    static final String CSV_HEADER = "helium_version,timestamp,mode,conversation_size,payload_size,concurrency,"
+            + "simulated_latency_ms,duration_s,messages,errors,messages_per_s,p50_us,p99_us,p999_us,max_us,"
+            + "alloc_mb_per_s,alloc_bytes_per_msg,gc_pauses,gc_pause_total_ms,gc_pause_max_ms";
+
+    String toCsv() {
+        return String.join(",",
+                heliumVersion, timestamp, mode,
+                Integer.toString(conversationSize), Integer.toString(payloadSize), Integer.toString(concurrency),
+                Integer.toString(simulatedLatencyMillis), format("%.1f", durationSeconds),
+                Long.toString(messages), Long.toString(errors), format("%.1f", messagesPerSecond),
+                format("%.0f", p50Micros), format("%.0f", p99Micros), format("%.0f", p999Micros),
+                format("%.0f", maxMicros),
+                format("%.2f", allocatedMBPerSecond), Long.toString(allocatedBytesPerMessage),
+                Long.toString(gcPauses), Long.toString(gcPauseTotalMillis), Long.toString(gcPauseMaxMillis));
+    }
+
+    private static String format(String format, double value) {
+        return String.format(Locale.ROOT, format, value);
+    }
+}
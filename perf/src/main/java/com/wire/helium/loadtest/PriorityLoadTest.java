@@ -0,0 +1,158 @@
+package com.wire.helium.loadtest;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.helium.API;
+import com.wire.helium.ProtobufBodyWriter;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.http.RequestScheduler;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.glassfish.jersey.client.JerseyClientBuilder;
+
+import javax.ws.rs.client.Client;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures send latency while bulk catch-up work (notification paging, conversation listing) saturates a backend
+ * with a fixed number of worker threads, once with requests sent as they come and once through a
+ * {@link RequestScheduler}.
+ * <pre>
+ * java -cp target/benchmarks.jar com.wire.helium.loadtest.PriorityLoadTest \
+ *      --server-threads 8 --bulk 32 --senders 2 --latency 10 --duration 20 --warmup 5
+ * </pre>
+ */
+public class PriorityLoadTest {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int serverThreads = Integer.parseInt(options.getOrDefault("server-threads", "8"));
+        int bulkWorkers = Integer.parseInt(options.getOrDefault("bulk", "32"));
+        int senders = Integer.parseInt(options.getOrDefault("senders", "2"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+
+        BackendSimulator.Config config = new BackendSimulator.Config();
+        config.threads = serverThreads;
+        config.latencyMillis = Integer.parseInt(options.getOrDefault("latency", "10"));
+
+        try (BackendSimulator backend = new BackendSimulator(config)) {
+            System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+            Client client = JerseyClientBuilder.createClient()
+                    .register(JacksonJsonProvider.class)
+                    .register(ProtobufBodyWriter.class);
+
+            for (String mode : List.of("fifo", "scheduled")) {
+                RequestScheduler scheduler = mode.equals("scheduled")
+                        ? new RequestScheduler(serverThreads, serverThreads - 1, serverThreads - 2, 2_000, 60_000)
+                        : null;
+                Result result = run(backend, client, scheduler, bulkWorkers, senders, warmup, duration);
+                System.out.printf(Locale.ROOT, "%s: send p50=%dus p99=%dus p999=%dus max=%dus (%d sends), bulk %.0f req/s%n",
+                        mode, result.sends.getValueAtPercentile(50), result.sends.getValueAtPercentile(99),
+                        result.sends.getValueAtPercentile(99.9), result.sends.getMaxValue(),
+                        result.sends.getTotalCount(), result.bulkRequests / (double) duration);
+            }
+            client.close();
+        }
+    }
+
+    private static Result run(BackendSimulator backend, Client client, RequestScheduler scheduler, int bulkWorkers,
+                              int senders, int warmupSeconds, int durationSeconds) throws Exception {
+        BackendSimulator.Account account = backend.addAccount();
+        String clientId = backend.addClient(account.id);
+        backend.populate(account, 300, 2, 1);
+        QualifiedId self = account.id;
+        backend.addNotifications(self, backend.addConversation("bulk", self), 1_000, 256);
+
+        QualifiedId peer = backend.addUser(BackendSimulator.DOMAIN);
+        Recipients recipients = new Recipients();
+        recipients.add(peer, backend.addClient(peer), Base64.getEncoder().encodeToString(new byte[256]));
+        QualifiedId convId = backend.addConversation("interactive", self, peer);
+
+        API api = new API(client, convId, account.getToken());
+        api.setScheduler(scheduler);
+
+        Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+        LongAdder bulkRequests = new LongAdder();
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long measureEnd = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < bulkWorkers; i++) {
+            boolean notifications = i % 2 == 0;
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < measureEnd) {
+                    try {
+                        if (notifications) {
+                            api.retrieveNotifications(clientId, null, 100);
+                        } else {
+                            api.getUserConversationIds();
+                        }
+                        if (System.nanoTime() >= measureStart) {
+                            bulkRequests.increment();
+                        }
+                    } catch (Exception ignored) {
+                        // counted as missing throughput
+                    }
+                }
+            }, "bulk-" + i));
+        }
+        for (int i = 0; i < senders; i++) {
+            threads.add(new Thread(() -> {
+                long now;
+                while ((now = System.nanoTime()) < measureEnd) {
+                    try {
+                        api.sendMessage(new OtrMessage(clientId, recipients), false);
+                        if (now >= measureStart) {
+                            recorder.recordValue(Math.min((System.nanoTime() - now) / 1000, HIGHEST_TRACKABLE_MICROS));
+                        }
+                        Thread.sleep(20);   // users type, they do not send in a closed loop
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception ignored) {
+                        // latency is only recorded for successful sends
+                    }
+                }
+            }, "sender-" + i));
+        }
+
+        threads.forEach(Thread::start);
+        Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(measureStart - System.nanoTime())));
+        recorder.reset();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Result result = new Result();
+        result.sends = recorder.getIntervalHistogram();
+        result.bulkRequests = bulkRequests.sum();
+        return result;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static final class Result {
+        Histogram sends;
+        long bulkRequests;
+    }
+}
@@ -0,0 +1,243 @@
+package com.wire.helium.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.helium.API;
+import com.wire.helium.ProtobufBodyWriter;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.glassfish.jersey.client.JerseyClientBuilder;
+
+import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load test: concurrent senders push messages through {@link API#sendMessage} (or
+ * {@link API#sendPartialMessage}) against an in-process {@link BackendSimulator}, for every combination of
+ * conversation size, payload size and concurrency.
+ * <p>
+ *     Each scenario writes <code>&lt;out&gt;/&lt;scenario&gt;.json</code> and appends a row to
+ *     <code>&lt;out&gt;/results.csv</code>, tagged with the Helium version so runs of different versions can be compared.
+ * </p>
+ * <pre>
+ * java -cp target/benchmarks.jar com.wire.helium.loadtest.SendLoadTest \
+ *      --conversation-sizes 2,50,500 --payload-sizes 256,4096 --concurrency 1,16,64 \
+ *      --duration 20 --warmup 5 --latency 2 --out load-results
+ * </pre>
+ */
+public class SendLoadTest {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final BackendSimulator backend;
+    private final Client client;
+    private final Path out;
+    private final String heliumVersion;
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    SendLoadTest(BackendSimulator backend, Client client, Path out) throws IOException {
+        this.backend = backend;
+        this.client = client;
+        this.out = out;
+        this.heliumVersion = readHeliumVersion();
+        Files.createDirectories(out);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        List<Integer> conversationSizes = ints(options.getOrDefault("conversation-sizes", "2,50,500"));
+        List<Integer> payloadSizes = ints(options.getOrDefault("payload-sizes", "256,4096"));
+        List<Integer> concurrencies = ints(options.getOrDefault("concurrency", "1,16,64"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        String mode = options.getOrDefault("mode", "full");
+
+        BackendSimulator.Config config = new BackendSimulator.Config();
+        config.latencyMillis = Integer.parseInt(options.getOrDefault("latency", "0"));
+        config.jitterMillis = Integer.parseInt(options.getOrDefault("jitter", "0"));
+        config.perRecipientLatencyMicros = Integer.parseInt(options.getOrDefault("recipient-latency-us", "0"));
+        config.threads = Math.max(config.threads, Collections.max(concurrencies) * 2);
+
+        try (BackendSimulator backend = new BackendSimulator(config)) {
+            System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+            Client client = JerseyClientBuilder.createClient()
+                    .register(JacksonJsonProvider.class)
+                    .register(ProtobufBodyWriter.class);
+
+            SendLoadTest test = new SendLoadTest(backend, client, Path.of(options.getOrDefault("out", "load-results")));
+            for (int conversationSize : conversationSizes) {
+                for (int payloadSize : payloadSizes) {
+                    for (int concurrency : concurrencies) {
+                        LoadResult result = test.run(mode, conversationSize, payloadSize, concurrency, warmup, duration);
+                        System.out.printf(Locale.ROOT, "%s size=%d payload=%d concurrency=%d: %.0f msg/s, p50=%.0fus p99=%.0fus p999=%.0fus, %d B/msg, gc pauses=%d (%d ms)%n",
+                                mode, conversationSize, payloadSize, concurrency, result.messagesPerSecond,
+                                result.p50Micros, result.p99Micros, result.p999Micros, result.allocatedBytesPerMessage,
+                                result.gcPauses, result.gcPauseTotalMillis);
+                    }
+                }
+            }
+            client.close();
+        }
+    }
+
+    LoadResult run(String mode, int conversationSize, int payloadSize, int concurrency,
+                   int warmupSeconds, int durationSeconds) throws Exception {
+        BackendSimulator.Account sender = backend.addAccount();
+        String senderClient = backend.addClient(sender.id);
+
+        // One client per member, every message is encrypted for all of them
+        QualifiedId[] members = new QualifiedId[conversationSize];
+        members[0] = sender.id;
+        Recipients recipients = new Recipients();
+        String cipher = Base64.getEncoder().encodeToString(new byte[payloadSize]);
+        for (int i = 1; i < conversationSize; i++) {
+            members[i] = backend.addUser(BackendSimulator.DOMAIN);
+            recipients.add(members[i], backend.addClient(members[i]), cipher);
+        }
+        QualifiedId convId = backend.addConversation("load", members);
+        QualifiedId reportOnly = conversationSize > 1 ? members[1] : sender.id;
+        boolean partial = mode.equals("partial");
+
+        API api = new API(client, convId, sender.getToken());
+        Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+        LongAdder messages = new LongAdder();
+        LongAdder errors = new LongAdder();
+        AtomicLong allocated = new AtomicLong();
+
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long measureEnd = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        CountDownLatch done = new CountDownLatch(concurrency);
+
+        try (GcMonitor gc = new GcMonitor()) {
+            for (int t = 0; t < concurrency; t++) {
+                Thread thread = new Thread(() -> {
+                    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                    long allocatedAtStart = -1;
+                    try {
+                        long now;
+                        while ((now = System.nanoTime()) < measureEnd) {
+                            boolean measuring = now >= measureStart;
+                            if (measuring && allocatedAtStart < 0) {
+                                allocatedAtStart = threads.getCurrentThreadAllocatedBytes();
+                            }
+                            try {
+                                OtrMessage msg = new OtrMessage(senderClient, recipients);
+                                Devices devices = partial
+                                        ? api.sendPartialMessage(msg, reportOnly)
+                                        : api.sendMessage(msg, false);
+                                if (!devices.missing.isEmpty()) {
+                                    throw new IllegalStateException("Unexpected missing clients");
+                                }
+                                if (measuring) {
+                                    recorder.recordValue(Math.min((System.nanoTime() - now) / 1000, HIGHEST_TRACKABLE_MICROS));
+                                    messages.increment();
+                                }
+                            } catch (Exception e) {
+                                if (measuring) {
+                                    errors.increment();
+                                }
+                            }
+                        }
+                        if (allocatedAtStart >= 0) {
+                            allocated.addAndGet(threads.getCurrentThreadAllocatedBytes() - allocatedAtStart);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "load-sender-" + t);
+                thread.start();
+            }
+
+            // Drop what was recorded during warmup, including GC pauses
+            Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(measureStart - System.nanoTime())));
+            gc.reset();
+            recorder.reset();
+            done.await();
+
+            Histogram histogram = recorder.getIntervalHistogram();
+            LoadResult result = new LoadResult();
+            result.heliumVersion = heliumVersion;
+            result.timestamp = Instant.now().toString();
+            result.mode = mode;
+            result.conversationSize = conversationSize;
+            result.payloadSize = payloadSize;
+            result.concurrency = concurrency;
+            result.simulatedLatencyMillis = backend.getConfig().latencyMillis;
+            result.durationSeconds = durationSeconds;
+            result.messages = messages.sum();
+            result.errors = errors.sum();
+            result.messagesPerSecond = result.messages / (double) durationSeconds;
+            result.p50Micros = histogram.getValueAtPercentile(50);
+            result.p99Micros = histogram.getValueAtPercentile(99);
+            result.p999Micros = histogram.getValueAtPercentile(99.9);
+            result.maxMicros = histogram.getMaxValue();
+            result.allocatedMBPerSecond = allocated.get() / (1024.0 * 1024.0) / durationSeconds;
+            result.allocatedBytesPerMessage = result.messages > 0 ? allocated.get() / result.messages : 0;
+            result.gcPauses = gc.getPauses();
+            result.gcPauseTotalMillis = gc.getTotalPauseMillis();
+            result.gcPauseMaxMillis = gc.getMaxPauseMillis();
+
+            write(result);
+            return result;
+        }
+    }
+
+    private void write(LoadResult result) throws IOException {
+        String scenario = String.format("send-%s-c%d-p%d-t%d-%s", result.mode, result.conversationSize,
+                result.payloadSize, result.concurrency, result.heliumVersion);
+        mapper.writeValue(out.resolve(scenario + ".json").toFile(), result);
+
+        Path csv = out.resolve("results.csv");
+        if (!Files.exists(csv)) {
+            Files.writeString(csv, LoadResult.CSV_HEADER + "\n", StandardCharsets.UTF_8);
+        }
+        Files.writeString(csv, result.toCsv() + "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    private static String readHeliumVersion() throws IOException {
+        try (InputStream in = SendLoadTest.class.getResourceAsStream("/helium-perf.properties")) {
+            Properties properties = new Properties();
+            if (in != null) {
+                properties.load(in);
+            }
+            return properties.getProperty("helium.version", "unknown");
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static List<Integer> ints(String csv) {
+        List<Integer> values = new ArrayList<>();
+        for (String value : csv.split(",")) {
+            values.add(Integer.parseInt(value.trim()));
+        }
+        return values;
+    }
+}
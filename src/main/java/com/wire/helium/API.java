@@ -20,14 +20,29 @@ package com.wire.helium;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.google.protobuf.ByteString;
+import com.wire.helium.models.BinaryRecipients;
+import com.wire.helium.models.ClientPreKeys;
+import com.wire.helium.models.CompactConversations;
 import com.wire.helium.models.Connection;
+import com.wire.helium.models.Event;
+import com.wire.helium.models.EventFilter;
 import com.wire.helium.models.NotificationList;
+import com.wire.helium.models.QualifiedIds;
 import com.wire.helium.models.model.request.ConversationListPaginationConfig;
 import com.wire.helium.models.model.request.ConversationListRequest;
 import com.wire.helium.models.model.response.ConversationListIdsResponse;
 import com.wire.helium.models.model.response.ConversationListResponse;
 import com.wire.helium.models.model.response.PublicKeysResponse;
+import com.wire.helium.http.ConcurrencyLimiter;
+import com.wire.helium.http.ConcurrencyLimiter.EndpointClass;
+import com.wire.helium.http.ConditionalCache;
+import com.wire.helium.http.Deadline;
+import com.wire.helium.http.Hedger;
+import com.wire.helium.http.PageSizer;
+import com.wire.helium.http.RequestScheduler.Priority;
+import com.wire.helium.http.SingleFlight;
 import com.wire.messages.Otr;
 import com.wire.xenon.WireAPI;
 import com.wire.xenon.assets.IAsset;
@@ -40,6 +55,7 @@ import com.wire.xenon.models.otr.*;
 import com.wire.xenon.tools.Logger;
 import com.wire.xenon.tools.Util;
 
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
@@ -49,13 +65,23 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class API extends LoginClient implements WireAPI {
+    // Maximum number of conversation ids the backend accepts in one /conversations/list request
+    public static final int CONVERSATION_LIST_LIMIT = 1000;
+    // Conversation ids per /conversations/list-ids page without a PageSizer, its starting size
+    public static final int CONVERSATION_IDS_PAGE_SIZE = 100;
+
+    private static final ObjectReader NOTIFICATIONS_READER = HeliumJsonProvider.mapper().readerFor(NotificationList.class);
+
     private final WebTarget versionedPath;
     private final WebTarget conversationsPath;
     private final WebTarget usersPath;
@@ -69,6 +95,13 @@ public class API extends LoginClient implements WireAPI {
 
     private final String token;
     private final QualifiedId convId;
+    private String clientId;
+    private SingleFlight singleFlight = new SingleFlight();
+    private ConditionalCache conditionalCache;
+    private String conditionalCacheScope;
+    private ConcurrencyLimiter concurrencyLimiter;
+    private Hedger hedger;
+    private PageSizer pageSizer;
 
     public API(Client client, QualifiedId convId, String token) {
         super(client);
@@ -102,8 +135,24 @@ public class API extends LoginClient implements WireAPI {
      */
     @Override
     public Devices sendMessage(OtrMessage msg, boolean ignoreMissing) throws HttpException {
-        final Otr.QualifiedNewOtrMessage.Builder protoMsgBuilder = createProtoMessageBuilder(msg);
+        return sendMessage(createProtoMessageBuilder(msg), ignoreMissing);
+    }
 
+    /**
+     * Same as {@link #sendMessage(OtrMessage, boolean)} for ciphertexts held as bytes, which are Base64 encoded
+     * straight into the request body. Sends the same message as the Base64 ciphertexts would.
+     * @param sender the sending client, see {@link BinaryRecipients#clientId(String)}
+     * @param recipients ciphertexts per client
+     * @param ignoreMissing when true, missing clients won't be blocking and just be returned,
+     *                      when false, any missing recipient will block the message to be sent to anyone
+     * @return devices that had issues or still need the message
+     * @throws HttpException on any error response from the backend
+     */
+    public Devices sendMessage(long sender, BinaryRecipients recipients, boolean ignoreMissing) throws HttpException {
+        return sendMessage(recipients.toProtoMessageBuilder(sender), ignoreMissing);
+    }
+
+    private Devices sendMessage(Otr.QualifiedNewOtrMessage.Builder protoMsgBuilder, boolean ignoreMissing) throws HttpException {
         if (ignoreMissing) {
             protoMsgBuilder.setIgnoreAll(Otr.ClientMismatchStrategy.IgnoreAll.getDefaultInstance());
         } else {
@@ -111,14 +160,14 @@ public class API extends LoginClient implements WireAPI {
         }
         final Otr.QualifiedNewOtrMessage protoMsg = protoMsgBuilder.build();
 
-        Response response = conversationsPath.
+        Response response = invoke(EndpointClass.MESSAGES, conversationsPath.
                 path(convId.domain).
                 path(convId.id.toString()).
                 path("proteus/messages").
                 queryParam("ignore_missing", ignoreMissing).
                 request(MediaType.APPLICATION_JSON).
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                post(Entity.entity(protoMsg, "application/x-protobuf"));
+                buildPost(Entity.entity(protoMsg, "application/x-protobuf")));
 
         int statusCode = response.getStatus();
         if (statusCode == 412) {
@@ -144,31 +193,47 @@ public class API extends LoginClient implements WireAPI {
      */
     @Override
     public Devices sendPartialMessage(OtrMessage msg, QualifiedId userId) throws HttpException {
+        return sendPartialMessage(msg, List.of(userId));
+    }
+
+    /**
+     * Sends E2E encrypted messages to a subset of the conversation members in one request. Only clients of those
+     * users are reported as missing, so the message needs to be encrypted for them alone: send it without
+     * recipients first, then encrypt for the returned missing clients.
+     * @param msg the message with the already encrypted clients of the users
+     * @param userIds If a client of any of these users is missing, the message is not sent
+     * @return devices that had issues or still need the message, missing clients limited to the given users
+     * @throws HttpException on any error response from the backend
+     */
+    public Devices sendPartialMessage(OtrMessage msg, Collection<QualifiedId> userIds) throws HttpException {
         final Otr.QualifiedNewOtrMessage.Builder protoMsgBuilder = createProtoMessageBuilder(msg);
         final Otr.ClientMismatchStrategy.ReportOnly reportOnly = Otr.ClientMismatchStrategy.ReportOnly.newBuilder()
             .addAllUserIds(
-                List.of(
-                    Otr.QualifiedUserId.newBuilder()
+                userIds.stream()
+                    .map(userId -> Otr.QualifiedUserId.newBuilder()
                         .setDomain(userId.domain)
                         .setId(userId.id.toString())
                         .build()
-                )
+                    )
+                    .collect(Collectors.toList())
             )
             .build();
         protoMsgBuilder.setReportOnly(reportOnly);
         final Otr.QualifiedNewOtrMessage protoMsg = protoMsgBuilder.build();
 
-        Response response = conversationsPath.
+        Response response = invoke(EndpointClass.MESSAGES, conversationsPath.
                 path(convId.domain).
                 path(convId.id.toString()).
                 path("proteus/messages").
                 request(MediaType.APPLICATION_JSON).
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                post(Entity.entity(protoMsg, "application/x-protobuf"));
+                buildPost(Entity.entity(protoMsg, "application/x-protobuf")));
 
         int statusCode = response.getStatus();
         if (statusCode == 412) {
-            return response.readEntity(Devices.class);
+            Devices devices = response.readEntity(Devices.class);
+            retainUsers(devices.missing, userIds);
+            return devices;
         } else if (statusCode >= 400) {
             String msgError = response.readEntity(String.class);
             Logger.error("SendPartialMessage http error: %s, status: %d", msgError, response.getStatus());
@@ -179,6 +244,15 @@ public class API extends LoginClient implements WireAPI {
         return new Devices();
     }
 
+    /**
+     * The backend may list missing clients of other members as well, they must not be encrypted for.
+     */
+    private static void retainUsers(Missing missing, Collection<QualifiedId> userIds) {
+        Set<QualifiedId> targets = new HashSet<>(userIds);
+        missing.forEach((domain, users) -> users.keySet().removeIf(id -> !targets.contains(new QualifiedId(id, domain))));
+        missing.values().removeIf(Map::isEmpty);
+    }
+
     private Otr.QualifiedNewOtrMessage.Builder createProtoMessageBuilder(OtrMessage msg) {
         final Otr.QualifiedNewOtrMessage.Builder messageBuilder = Otr.QualifiedNewOtrMessage.newBuilder();
 
@@ -236,11 +310,16 @@ public class API extends LoginClient implements WireAPI {
         if (missing.isEmpty())
             return new PreKeys();
 
-        Response response = usersPath.path("list-prekeys").
+        // Not hedged: every answer claims one-time prekeys, a duplicate request would use up a second set
+        return fetchPreKeys(missing);
+    }
+
+    private PreKeys fetchPreKeys(Missing missing) {
+        Response response = invoke(EndpointClass.PREKEYS, usersPath.path("list-prekeys").
                 request(MediaType.APPLICATION_JSON).
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
                 accept(MediaType.APPLICATION_JSON).
-                post(Entity.entity(missing, MediaType.APPLICATION_JSON));
+                buildPost(Entity.entity(missing, MediaType.APPLICATION_JSON)));
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -252,6 +331,10 @@ public class API extends LoginClient implements WireAPI {
 
     @Override
     public byte[] downloadAsset(String assetKey, String domain, String assetToken) throws HttpException {
+        return hedged(Hedger.Call.ASSET, () -> fetchAsset(assetKey, domain, assetToken));
+    }
+
+    private byte[] fetchAsset(String assetKey, String domain, String assetToken) throws HttpException {
         Invocation.Builder req = assetsPath
                 .path(domain)
                 .path(assetKey)
@@ -261,7 +344,7 @@ public class API extends LoginClient implements WireAPI {
         if (assetToken != null)
             req.header("Asset-Token", assetToken);
 
-        Response response = req.get();
+        Response response = invoke(EndpointClass.ASSETS, req.buildGet());
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -277,12 +360,12 @@ public class API extends LoginClient implements WireAPI {
         Connection connection = new Connection();
         connection.setStatus("accepted");
 
-        Response response = connectionsPath.
+        Response response = invoke(EndpointClass.OTHER, connectionsPath.
                 path(user.domain).
                 path(user.id.toString()).
                 request(MediaType.APPLICATION_JSON).
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                put(Entity.entity(connection, MediaType.APPLICATION_JSON));
+                buildPut(Entity.entity(connection, MediaType.APPLICATION_JSON)));
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -326,10 +409,10 @@ public class API extends LoginClient implements WireAPI {
         os.write(asset.getEncryptedData());
         os.write("\r\n--frontier--\r\n".getBytes(StandardCharsets.UTF_8));
 
-        Response response = assetsPath
+        Response response = invoke(EndpointClass.ASSETS, assetsPath
                 .request(MediaType.APPLICATION_JSON_TYPE)
                 .header(HttpHeaders.AUTHORIZATION, bearer(token))
-                .post(Entity.entity(os.toByteArray(), "multipart/mixed; boundary=frontier"));
+                .buildPost(Entity.entity(os.toByteArray(), "multipart/mixed; boundary=frontier")));
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -341,31 +424,26 @@ public class API extends LoginClient implements WireAPI {
 
     @Override
     public Conversation getConversation() {
-        Response response = conversationsPath.
-                path(convId.domain).
-                path(convId.id.toString()).
-                request().
-                header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                get();
+        return singleFlight.execute(SingleFlight.Endpoint.CONVERSATION, token, convId, this::fetchConversation);
+    }
 
-        if (response.getStatus() >= 400) {
-            String msgError = response.readEntity(String.class);
-            Logger.error("GetConversation http error: %s, status: %d", msgError, response.getStatus());
-            throw new RuntimeException(msgError);
-        }
+    private Conversation fetchConversation() {
+        WebTarget target = conversationsPath.
+                path(convId.domain).
+                path(convId.id.toString());
 
-        return response.readEntity(Conversation.class);
+        return conditionalGet(target, ConditionalCache.conversationTag(convId), Conversation.class, "GetConversation");
     }
 
     @Override
     public boolean deleteConversation(UUID teamId) throws HttpException {
-        Response response = teamsPath.
+        Response response = invoke(EndpointClass.OTHER, teamsPath.
                 path(teamId.toString()).
                 path("conversations").
                 path(convId.id.toString()).
                 request().
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                delete();
+                buildDelete());
 
         if (isErrorResponse(response.getStatus())) {
             String msgError = response.readEntity(String.class);
@@ -383,13 +461,13 @@ public class API extends LoginClient implements WireAPI {
         service.service = serviceId;
         service.provider = providerId;
 
-        Response response = conversationsPath.
+        Response response = invoke(EndpointClass.OTHER, conversationsPath.
                 path(convId.id.toString()).
                 path("bots").
                 request().
                 accept(MediaType.APPLICATION_JSON).
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                post(Entity.entity(service, MediaType.APPLICATION_JSON));
+                buildPost(Entity.entity(service, MediaType.APPLICATION_JSON)));
 
         if (isErrorResponse(response.getStatus())) {
             String msgError = response.readEntity(String.class);
@@ -405,13 +483,13 @@ public class API extends LoginClient implements WireAPI {
         _NewConv newConv = new _NewConv();
         newConv.users = Arrays.asList(userIds);
 
-        Response response = conversationsPath.
+        Response response = invoke(EndpointClass.OTHER, conversationsPath.
                 path(convId.domain).
                 path(convId.id.toString()).
                 path("members").
                 request().
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                post(Entity.entity(newConv, MediaType.APPLICATION_JSON));
+                buildPost(Entity.entity(newConv, MediaType.APPLICATION_JSON)));
 
         if (isErrorResponse(response.getStatus())) {
             String msgError = response.readEntity(String.class);
@@ -432,10 +510,10 @@ public class API extends LoginClient implements WireAPI {
             newConv.team.teamId = teamId;
         }
 
-        Response response = conversationsPath.
+        Response response = invoke(EndpointClass.OTHER, conversationsPath.
                 request(MediaType.APPLICATION_JSON).
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                post(Entity.entity(newConv, MediaType.APPLICATION_JSON));
+                buildPost(Entity.entity(newConv, MediaType.APPLICATION_JSON)));
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -456,11 +534,11 @@ public class API extends LoginClient implements WireAPI {
             newConv.team.teamId = teamId;
         }
 
-        Response response = conversationsPath
+        Response response = invoke(EndpointClass.OTHER, conversationsPath
                 .path("one2one")
                 .request(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.AUTHORIZATION, bearer(token))
-                .post(Entity.entity(newConv, MediaType.APPLICATION_JSON));
+                .buildPost(Entity.entity(newConv, MediaType.APPLICATION_JSON)));
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -473,7 +551,7 @@ public class API extends LoginClient implements WireAPI {
 
     @Override
     public void leaveConversation(QualifiedId user) throws HttpException {
-        Response response = conversationsPath
+        Response response = invoke(EndpointClass.OTHER, conversationsPath
                 .path(convId.domain)
                 .path(convId.id.toString())
                 .path("members")
@@ -481,7 +559,7 @@ public class API extends LoginClient implements WireAPI {
                 .path(user.id.toString())
                 .request(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.AUTHORIZATION, bearer(token))
-                .delete();
+                .buildDelete());
 
         if (isErrorResponse(response.getStatus())) {
             String msgError = response.readEntity(String.class);
@@ -493,23 +571,55 @@ public class API extends LoginClient implements WireAPI {
     }
 
     /**
-     * Unused in base api, only needed for bot specific purposes which already extend this API.
+     * Adds one-time prekeys to the client set with {@link #setClientId(String)}.
      * @param preKeys list of pre-generated prekeys to upload to the backend
+     * @throws UnsupportedOperationException if no client id was set
      */
     @Override
     public void uploadPreKeys(ArrayList<PreKey> preKeys) {
-        throw new UnsupportedOperationException("Bot specific feature, use a more specific API implementation");
+        if (clientId == null) {
+            throw new UnsupportedOperationException("No client id set, use uploadPreKeys(clientId, preKeys)");
+        }
+        uploadPreKeys(clientId, preKeys);
+    }
+
+    /**
+     * Adds one-time prekeys to a client of the user with a PUT to /clients/{clientId}. Prekeys with the id of one
+     * already stored replace it.
+     * @param clientId client to add the prekeys to
+     * @param preKeys  prekeys generated by the client's crypto box
+     * @throws RuntimeException if the request fails
+     */
+    public void uploadPreKeys(String clientId, List<PreKey> preKeys) throws RuntimeException {
+        Response response = invoke(EndpointClass.PREKEYS, clientsPath
+            .path(clientId)
+            .request(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.AUTHORIZATION, bearer(token))
+            .buildPut(Entity.json(new ClientPreKeys(preKeys))));
+
+        if (isErrorResponse(response.getStatus())) {
+            String errorResponse = response.readEntity(String.class);
+            Logger.error("uploadPreKeys error: %s, clientId: %s, status: %d", errorResponse, clientId, response.getStatus());
+            throw new RuntimeException(errorResponse);
+        }
+
+        response.close();
     }
 
     @Override
     public ArrayList<Integer> getAvailablePrekeys(String clientId) {
-        Response response = clientsPath.
+        return singleFlight.execute(SingleFlight.Endpoint.AVAILABLE_PREKEYS, token, clientId,
+                () -> fetchAvailablePrekeys(clientId));
+    }
+
+    private ArrayList<Integer> fetchAvailablePrekeys(String clientId) {
+        Response response = invoke(EndpointClass.PREKEYS, clientsPath.
                 path(clientId).
                 path("prekeys").
                 request().
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
                 accept(MediaType.APPLICATION_JSON).
-                get();
+                buildGet());
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -535,13 +645,18 @@ public class API extends LoginClient implements WireAPI {
      */
     @Override
     public User getUser(QualifiedId userId) throws HttpException {
-        Response response = usersPath
+        return singleFlight.execute(SingleFlight.Endpoint.USER, token, userId,
+                () -> hedged(Hedger.Call.USER, () -> fetchUser(userId)));
+    }
+
+    private User fetchUser(QualifiedId userId) {
+        Response response = invoke(EndpointClass.READS, usersPath
             .path(userId.domain)
             .path(userId.id.toString())
             .request()
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
             .accept(MediaType.APPLICATION_JSON)
-            .get();
+            .buildGet());
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
@@ -552,6 +667,27 @@ public class API extends LoginClient implements WireAPI {
     }
 
     public NotificationList retrieveNotifications(String client, UUID since, int size) throws HttpException {
+        return retrieveNotifications(client, since, size, null);
+    }
+
+    /**
+     * Gets a page of notifications, decoded lazily when a filter is given: payloads of other types are skipped while
+     * parsing and the accepted ones are bound on {@link Event#getPayloads()}. Skipped events are still in the page,
+     * so the position keeps moving.
+     *
+     * @param client client id
+     * @param since  id of the last notification seen, null for the oldest available
+     * @param size   page size, replaced by the size the {@link PageSizer} picks when one is set
+     * @param filter payload types to keep, null to bind all payloads right away
+     * @return the page
+     * @throws HttpException on any error response from the backend
+     */
+    public NotificationList retrieveNotifications(String client, UUID since, int size, EventFilter filter)
+            throws HttpException {
+        PageSizer pageSizer = this.pageSizer;
+        if (pageSizer != null) {
+            size = pageSizer.size(PageSizer.Endpoint.NOTIFICATIONS);
+        }
         WebTarget webTarget = notificationsPath
                 .queryParam("client", client)
                 .queryParam("size", size);
@@ -561,22 +697,57 @@ public class API extends LoginClient implements WireAPI {
                     .queryParam("since", since.toString());
         }
 
-        Response response = webTarget
+        Invocation invocation = webTarget
                 .request(MediaType.APPLICATION_JSON)
                 .accept(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.AUTHORIZATION, bearer(token))
-                .get();
+                .buildGet();
+        Page page = new Page(PageSizer.Endpoint.NOTIFICATIONS);
+        Response response = page.request(invocation);
 
         int status = response.getStatus();
 
         if (status == 200) {
-            return response.readEntity(NotificationList.class);
+            NotificationList notifications = page.read(() -> readNotifications(response, filter));
+            // has_more is optional, a missing one means the last page
+            page.received(notifications.notifications.size(), Boolean.TRUE.equals(notifications.hasMore), response);
+            return notifications;
+        } else if (status == 404) {   // `since` is gone, the body (if any) holds the notifications still available
+            NotificationList notifications = readNotificationGap(response, filter);
+            notifications.gap = since != null;
+            return notifications;
+        } else if (status == 401) {   // Nginx returns text/html for 401. Cannot deserialize as json
+            response.readEntity(String.class);
+            throw new AuthException(status);
+        } else if (status == 403) {
+            throw response.readEntity(AuthException.class);
+        }
+
+        throw response.readEntity(HttpException.class);
+    }
+
+    /**
+     * Gets the most recent notification of the client, used as starting point after a resync.
+     *
+     * @param client client id
+     * @return the last notification or null if there is none yet
+     * @throws HttpException on any error response from the backend
+     */
+    public Event getLastNotification(String client) throws HttpException {
+        Response response = invoke(EndpointClass.READS, notificationsPath
+                .path("last")
+                .queryParam("client", client)
+                .request(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.AUTHORIZATION, bearer(token))
+                .buildGet());
+
+        int status = response.getStatus();
+
+        if (status == 200) {
+            return response.readEntity(Event.class);
         } else if (status == 404) {
-            final NotificationList emptyNotifications = new NotificationList();
-            emptyNotifications.hasMore = false;
-            emptyNotifications.notifications = new ArrayList<>();
             response.close();
-            return emptyNotifications;
+            return null;
         } else if (status == 401) {   // Nginx returns text/html for 401. Cannot deserialize as json
             response.readEntity(String.class);
             throw new AuthException(status);
@@ -587,15 +758,54 @@ public class API extends LoginClient implements WireAPI {
         throw response.readEntity(HttpException.class);
     }
 
+    private static NotificationList readNotifications(Response response, EventFilter filter) {
+        if (filter == null) {
+            return response.readEntity(NotificationList.class);
+        }
+        // The filter travels as a context attribute to the Event deserializer, which the entity providers cannot pass
+        try (InputStream in = response.readEntity(InputStream.class)) {
+            return NOTIFICATIONS_READER.withAttribute(EventFilter.class, filter).readValue(in);
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    private NotificationList readNotificationGap(Response response, EventFilter filter) {
+        NotificationList notifications = null;
+        try {
+            if (response.hasEntity()) {
+                notifications = readNotifications(response, filter);
+            }
+        } catch (Exception e) {
+            Logger.warning("retrieveNotifications - unreadable 404 body: %s", e.getMessage());
+        } finally {
+            response.close();
+        }
+
+        if (notifications == null || notifications.notifications == null) {
+            notifications = new NotificationList();
+            notifications.notifications = new ArrayList<>();
+        }
+        if (notifications.hasMore == null) {
+            notifications.hasMore = false;
+        }
+        return notifications;
+    }
+
     public boolean hasDevice(QualifiedId userId, String clientId) {
-        Response response = usersPath.
+        return singleFlight.execute(SingleFlight.Endpoint.DEVICE, token, List.of(userId, clientId),
+                () -> fetchHasDevice(userId, clientId));
+    }
+
+    private boolean fetchHasDevice(QualifiedId userId, String clientId) {
+        Response response = invoke(EndpointClass.READS, usersPath.
                 path(userId.domain).
                 path(userId.id.toString()).
                 path("clients").
                 path(clientId).
                 request(MediaType.APPLICATION_JSON).
                 header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                get();
+                buildGet());
 
         response.close();
         return response.getStatus() == 200;
@@ -603,17 +813,61 @@ public class API extends LoginClient implements WireAPI {
 
     @Override
     public User getSelf() {
-        Response response = selfPath.
+        return singleFlight.execute(SingleFlight.Endpoint.SELF, token, null, this::fetchSelf);
+    }
+
+    private User fetchSelf() {
+        return conditionalGet(selfPath, ConditionalCache.selfTag(), User.class, "GetSelf");
+    }
+
+    /**
+     * GET through the conditional cache when one is set: fresh entries are served without a request, stale ones are
+     * revalidated with their validators.
+     */
+    private <T> T conditionalGet(WebTarget target, String tag, Class<T> type, String name) {
+        ConditionalCache cache = conditionalCache;
+        String scope = conditionalCacheScope;
+        String uri = target.getUri().toString();
+        // Taken before the lookup, an event invalidating the resource meanwhile keeps this response out of the cache
+        long generation = cache != null ? cache.generation() : 0;
+        ConditionalCache.Entry cached = cache != null ? cache.lookup(scope, uri) : null;
+        if (cached != null && cache.isFresh(cached)) {
+            cache.served(cached, false);
+            return type.cast(cached.getEntity());
+        }
+
+        Invocation.Builder request = target.
                 request(MediaType.APPLICATION_JSON).
-                header(HttpHeaders.AUTHORIZATION, bearer(token)).
-                get();
+                header(HttpHeaders.AUTHORIZATION, bearer(token));
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                request.header(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                request.header(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+        }
+        Response response = invoke(EndpointClass.READS, request.buildGet());
+
+        if (cached != null && response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+            response.close();
+            cache.served(cached, true);
+            return type.cast(cached.getEntity());
+        }
 
         if (response.getStatus() >= 400) {
             String msgError = response.readEntity(String.class);
-            Logger.error("GetSelf http error: %s, status: %d", msgError, response.getStatus());
+            Logger.error("%s http error: %s, status: %d", name, msgError, response.getStatus());
             throw new RuntimeException(msgError);
         }
-        return response.readEntity(User.class);
+
+        T entity = response.readEntity(type);
+        if (cache != null) {
+            cache.store(scope, uri, tag, generation, entity,
+                    response.getHeaderString(HttpHeaders.ETAG),
+                    response.getHeaderString(HttpHeaders.LAST_MODIFIED));
+        }
+        return entity;
     }
 
     /**
@@ -638,11 +892,11 @@ public class API extends LoginClient implements WireAPI {
      */
     @Override
     public FeatureConfig getFeatureConfig() {
-        Response featureConfigsResponse = versionedPath
+        Response featureConfigsResponse = invoke(EndpointClass.READS, versionedPath
             .path("feature-configs")
             .request(MediaType.APPLICATION_JSON)
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
-            .get();
+            .buildGet());
 
         if (isErrorResponse(featureConfigsResponse.getStatus())) {
             String msgError = featureConfigsResponse.readEntity(String.class);
@@ -656,11 +910,11 @@ public class API extends LoginClient implements WireAPI {
             return FeatureConfig.disabledMls();
         }
 
-        Response mlsPublicKeysResponse = mlsPath
+        Response mlsPublicKeysResponse = invoke(EndpointClass.READS, mlsPath
             .path("public-keys")
             .request(MediaType.APPLICATION_JSON)
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
-            .get();
+            .buildGet());
 
         if (isErrorResponse(mlsPublicKeysResponse.getStatus())) {
             String msgError = mlsPublicKeysResponse.readEntity(String.class);
@@ -693,11 +947,11 @@ public class API extends LoginClient implements WireAPI {
      */
     @Override
     public void uploadClientPublicKey(String clientId, ClientUpdate clientUpdate) throws RuntimeException {
-        Response response = clientsPath
+        Response response = invoke(EndpointClass.OTHER, clientsPath
             .path(clientId)
             .request(MediaType.APPLICATION_JSON)
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
-            .put(Entity.json(clientUpdate));
+            .buildPut(Entity.json(clientUpdate)));
 
         if (isErrorResponse(response.getStatus())) {
             String errorResponse = response.readEntity(String.class);
@@ -729,13 +983,13 @@ public class API extends LoginClient implements WireAPI {
      */
     @Override
     public void uploadClientKeyPackages(String clientId, KeyPackageUpdate keyPackageUpdate) throws RuntimeException {
-        Response response = mlsPath
+        Response response = invoke(EndpointClass.OTHER, mlsPath
             .path("key-packages")
             .path("self")
             .path(clientId)
             .request(MediaType.APPLICATION_JSON)
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
-            .post(Entity.json(keyPackageUpdate));
+            .buildPost(Entity.json(keyPackageUpdate)));
 
         if (isErrorResponse(response.getStatus())) {
             String errorResponse = response.readEntity(String.class);
@@ -754,14 +1008,14 @@ public class API extends LoginClient implements WireAPI {
 
     @Override
     public byte[] getConversationGroupInfo(QualifiedId conversationId) throws RuntimeException {
-        Response response = conversationsPath
+        Response response = invoke(EndpointClass.READS, conversationsPath
             .path(conversationId.domain)
             .path(conversationId.id.toString())
             .path("groupinfo")
             .request()
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
             .accept("message/mls")
-            .get();
+            .buildGet());
 
         if (isSuccessResponse(response.getStatus())) {
             return response.readEntity(byte[].class);
@@ -777,11 +1031,11 @@ public class API extends LoginClient implements WireAPI {
 
     @Override
     public void commitMlsBundle(byte[] commitBundle) {
-        Response response = mlsPath
+        Response response = invoke(EndpointClass.OTHER, mlsPath
             .path("commit-bundles")
             .request(MediaType.APPLICATION_JSON)
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
-            .post(Entity.entity(commitBundle, "message/mls"));
+            .buildPost(Entity.entity(commitBundle, "message/mls")));
 
         if (isSuccessResponse(response.getStatus())) {
             Logger.info("commitMlsBundle success.");
@@ -799,92 +1053,395 @@ public class API extends LoginClient implements WireAPI {
 
     /**
      * <p>
-     *     In order to get user conversations, first we need to get all the paginated conversation ids.
+     *     In order to get user conversations, first we need to get all the paginated conversation ids,
+     *     {@link #CONVERSATION_IDS_PAGE_SIZE} per page unless a {@link PageSizer} is set.
      * </p>
      * <p>
      *     For getting the conversation details, we need to do a "paginated" request, as the backend has a limit of
-     *     1000 conversation ids per request.
+     *     {@link #CONVERSATION_LIST_LIMIT} conversation ids per request.
      * </p>
      *
      * @return List of {@link Conversation} details from the fetched conversation ids.
      */
     @Override
     public List<Conversation> getUserConversations() {
+        List<Conversation> conversations = new ArrayList<>();
+        getConversations(getUserConversationIdsCompact(), conversations);
+        return conversations;
+    }
+
+    /**
+     * Like {@link #getUserConversations()}, but collects the conversations in their compact form, which takes a
+     * fraction of the heap for accounts with many conversations.
+     *
+     * @return details of all the conversations the user is part of
+     */
+    public CompactConversations getUserConversationsCompact() {
+        QualifiedIds conversationIds = getUserConversationIdsCompact();
+        CompactConversations conversations = new CompactConversations(conversationIds.size());
+        getConversations(conversationIds, conversations);
+        return conversations;
+    }
+
+    /**
+     * Fetches the details of any number of conversations, {@link #CONVERSATION_LIST_LIMIT} per request or as many as
+     * the {@link PageSizer} picks when one is set.
+     *
+     * @param conversationIds conversations to fetch
+     * @param into            receives the details of the conversations found
+     */
+    public void getConversations(List<QualifiedId> conversationIds, List<Conversation> into) {
+        try {
+            listConversations(conversationIds, into, false);
+        } catch (HttpException e) {
+            throw new IllegalStateException(e); // not thrown when lenient
+        }
+    }
+
+    /**
+     * Like {@link #getConversations(List, List)}, but a failed request fails the whole load instead of leaving out
+     * the conversations it was asked for. Needed by callers that must not mistake a failure for no conversations.
+     *
+     * @param conversationIds conversations to fetch
+     * @param into            receives the details of the conversations found, those of the requests before a failure
+     * @throws HttpException on any error response from the backend
+     */
+    public void listConversations(List<QualifiedId> conversationIds, List<Conversation> into) throws HttpException {
+        listConversations(conversationIds, into, true);
+    }
+
+    private void listConversations(List<QualifiedId> conversationIds, List<Conversation> into, boolean strict)
+            throws HttpException {
+        int startIndex = 0;
+        while (startIndex < conversationIds.size()) {
+            PageSizer pageSizer = this.pageSizer;
+            int size = pageSizer == null ? CONVERSATION_LIST_LIMIT : pageSizer.size(PageSizer.Endpoint.CONVERSATIONS);
+            int endIndex = Math.min(startIndex + size, conversationIds.size());
+            into.addAll(listConversations(conversationIds.subList(startIndex, endIndex),
+                    endIndex < conversationIds.size(), strict));
+            startIndex = endIndex;
+        }
+    }
+
+    /**
+     * Pages through <code>/conversations/list-ids</code>.
+     *
+     * @return ids of all the conversations the user is part of, the ones listed before an error when a page fails
+     */
+    public List<QualifiedId> getUserConversationIds() {
+        return new ArrayList<>(getUserConversationIdsCompact());
+    }
+
+    /**
+     * Like {@link #getUserConversationIds()}, but collects the ids in a {@link QualifiedIds}, which takes a fraction
+     * of the heap for accounts with many conversations and can only be appended to.
+     *
+     * @return ids of all the conversations the user is part of, the ones listed before an error when a page fails
+     */
+    public QualifiedIds getUserConversationIdsCompact() {
+        try {
+            return listConversationIds(false);
+        } catch (HttpException e) {
+            throw new IllegalStateException(e); // not thrown when lenient
+        }
+    }
+
+    /**
+     * Like {@link #getUserConversationIds()}, but a failed page fails the whole listing instead of cutting it short.
+     * Needed by callers that treat a missing id as a conversation the user left.
+     *
+     * @return ids of all the conversations the user is part of
+     * @throws HttpException when a page could not be listed
+     */
+    public List<QualifiedId> listUserConversationIds() throws HttpException {
+        return new ArrayList<>(listUserConversationIdsCompact());
+    }
+
+    /**
+     * Like {@link #listUserConversationIds()}, but collects the ids in a {@link QualifiedIds}, whose
+     * {@link QualifiedIds#contains(Object)} is a hash lookup.
+     *
+     * @return ids of all the conversations the user is part of
+     * @throws HttpException when a page could not be listed
+     */
+    public QualifiedIds listUserConversationIdsCompact() throws HttpException {
+        return listConversationIds(true);
+    }
+
+    private QualifiedIds listConversationIds(boolean strict) throws HttpException {
         ConversationListPaginationConfig pagingConfig = new ConversationListPaginationConfig(
             null,
-            100
+            CONVERSATION_IDS_PAGE_SIZE
         );
 
-        List<QualifiedId> conversationIds = new ArrayList<>();
-        List<Conversation> conversations = new ArrayList<>();
+        QualifiedIds conversationIds = new QualifiedIds();
 
         boolean hasMorePages;
         do {
             hasMorePages = false;
 
-            Response listIdsResponse = conversationsPath
+            PageSizer pageSizer = this.pageSizer;
+            if (pageSizer != null) {
+                pagingConfig.setSize(pageSizer.size(PageSizer.Endpoint.CONVERSATION_IDS));
+            }
+            Invocation invocation = conversationsPath
                 .path("list-ids")
                 .request(MediaType.APPLICATION_JSON)
                 .header(HttpHeaders.AUTHORIZATION, bearer(token))
-                .post(Entity.entity(pagingConfig, MediaType.APPLICATION_JSON));
+                .buildPost(Entity.entity(pagingConfig, MediaType.APPLICATION_JSON));
+            Page page = new Page(PageSizer.Endpoint.CONVERSATION_IDS);
+            Response listIdsResponse = page.request(invocation);
 
             if (isErrorResponse(listIdsResponse.getStatus())) {
                 String msgError = listIdsResponse.readEntity(String.class);
                 Logger.error("getUserConversations - List Ids error: %s, status: %d", msgError, listIdsResponse.getStatus());
+                if (strict) {
+                    throw new HttpException(msgError, listIdsResponse.getStatus());
+                }
             }
 
             if (isSuccessResponse(listIdsResponse.getStatus())) {
-                ConversationListIdsResponse conversationListIds = listIdsResponse.readEntity(ConversationListIdsResponse.class);
+                ConversationListIdsResponse conversationListIds =
+                    page.read(() -> listIdsResponse.readEntity(ConversationListIdsResponse.class));
                 hasMorePages = conversationListIds.hasMore;
+                page.received(conversationListIds.qualifiedConversations.size(), hasMorePages, listIdsResponse);
                 pagingConfig.setPagingState(conversationListIds.pagingState);
 
                 conversationIds.addAll(conversationListIds.qualifiedConversations);
 
                 Logger.info("getUserConversations - List Ids success. has more pages: " + hasMorePages);
+            } else {
+                listIdsResponse.close();    // gives back its scheduler slot, an error body was read above
             }
         } while (hasMorePages);
 
-        if (!conversationIds.isEmpty()) {
-            int startIndex = 0;
-            int endIndex = 1000;
-            do {
-                if (endIndex > conversationIds.size()) {
-                    endIndex = conversationIds.size();
-                }
+        return conversationIds;
+    }
 
-                conversations.addAll(getConversationsFromIds(conversationIds.subList(startIndex, endIndex)));
-                startIndex += 1000;
-                endIndex += 1000;
-            } while (endIndex < conversationIds.size() + 1000);
+    /**
+     * Fetches the details of the given conversations with a single <code>/conversations/list</code> request.
+     *
+     * @param conversationIds at most {@link #CONVERSATION_LIST_LIMIT} ids
+     * @return details of the conversations found, empty on error
+     */
+    public List<Conversation> getConversations(List<QualifiedId> conversationIds) {
+        try {
+            return listConversations(conversationIds, false, false);
+        } catch (HttpException e) {
+            throw new IllegalStateException(e); // not thrown when lenient
         }
+    }
 
-        return conversations;
+    /**
+     * Like {@link #getConversations(List)}, but fails on an error response instead of returning no conversations.
+     * Needed by callers that treat a missing conversation as one the user left.
+     *
+     * @param conversationIds at most {@link #CONVERSATION_LIST_LIMIT} ids
+     * @return details of the conversations found
+     * @throws HttpException on any error response from the backend
+     */
+    public List<Conversation> listConversations(List<QualifiedId> conversationIds) throws HttpException {
+        return listConversations(conversationIds, false, true);
     }
 
-    private List<Conversation> getConversationsFromIds(List<QualifiedId> conversationIds) {
-        Response conversationListResponse = conversationsPath
+    private List<Conversation> listConversations(List<QualifiedId> conversationIds, boolean more, boolean strict)
+            throws HttpException {
+        Invocation invocation = conversationsPath
             .path("/list")
             .request(MediaType.APPLICATION_JSON)
             .header(HttpHeaders.AUTHORIZATION, bearer(token))
-            .post(Entity.entity(
+            .buildPost(Entity.entity(
                 new ConversationListRequest(conversationIds),
                 MediaType.APPLICATION_JSON
             ));
+        Page page = new Page(PageSizer.Endpoint.CONVERSATIONS);
+        Response conversationListResponse = page.request(invocation);
 
         if (conversationListResponse.getStatus() == 200) {
-            ConversationListResponse result = conversationListResponse.readEntity(ConversationListResponse.class);
+            ConversationListResponse result =
+                page.read(() -> conversationListResponse.readEntity(ConversationListResponse.class));
+            page.received(conversationIds.size(), more, conversationListResponse);
 
             return result.found;
         }
 
+        String msgError = conversationListResponse.readEntity(String.class);
         if (conversationListResponse.getStatus() >= 400) {
-            String msgError = conversationListResponse.readEntity(String.class);
             Logger.error("getUserConversations - Conversation List error: %s, status: %d", msgError, conversationListResponse.getStatus());
         }
+        if (strict) {
+            throw new HttpException(msgError, conversationListResponse.getStatus());
+        }
 
         return List.of();
     }
 
+    /**
+     * @param clientId the user's own client, used by calls that take no client id like {@link #uploadPreKeys(ArrayList)}
+     */
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * Replaces the request coalescing of this instance, e.g. with one shared by all API instances of the process.
+     *
+     * @param singleFlight coalescing settings and counters
+     */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Enables conditional caching of conversation and self metadata. The cache should receive the bot's events
+     * through {@link ConditionalCache#onEvent(Event)} so membership changes and renames are never served stale.
+     *
+     * @param conditionalCache cache to use, null to disable caching
+     * @param scope            identifies the user of this API's token, e.g. the user id. APIs created with renewed
+     *                         tokens of the same user pass the same scope and share its entries.
+     */
+    public void setConditionalCache(ConditionalCache conditionalCache, String scope) {
+        this.conditionalCacheScope = scope;
+        this.conditionalCache = conditionalCache;
+    }
+
+    public ConditionalCache getConditionalCache() {
+        return conditionalCache;
+    }
+
+    /**
+     * Puts an adaptive concurrency limit in front of every request of this instance. Share one limiter between all
+     * API instances talking to the same backend so the limit reflects the total load.
+     *
+     * @param concurrencyLimiter limiter to use, null to send requests as they come
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sends a duplicate of slow idempotent calls (users, asset downloads) to cut tail latency.
+     *
+     * @param hedger hedging settings and metrics, null to disable hedging
+     */
+    public void setHedger(Hedger hedger) {
+        this.hedger = hedger;
+    }
+
+    public Hedger getHedger() {
+        return hedger;
+    }
+
+    /**
+     * Sizes the pages of the conversation and notification listings from the latency and size of the previous ones
+     * instead of using fixed sizes. Share one sizer between the API instances talking to the same backend.
+     *
+     * @param pageSizer sizing settings, null for the fixed sizes
+     */
+    public void setPageSizer(PageSizer pageSizer) {
+        this.pageSizer = pageSizer;
+    }
+
+    public PageSizer getPageSizer() {
+        return pageSizer;
+    }
+
+    private <T, E extends Exception> T hedged(Hedger.Call call, SingleFlight.Fetch<T, E> fetch) throws E {
+        Hedger hedger = this.hedger;
+        if (hedger == null) {
+            return fetch.fetch();
+        }
+        // The attempts run on the hedger's threads
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            return hedger.execute(call, () -> deadline.call(fetch));
+        }
+        return hedger.execute(call, fetch);
+    }
+
+    private Response invoke(EndpointClass endpointClass, Invocation invocation) {
+        return invoke(endpointClass, defaultPriority(endpointClass), invocation);
+    }
+
+    private Response invoke(EndpointClass endpointClass, Priority priority, Invocation invocation) {
+        return invoke(endpointClass, priority, () -> send(invocation));
+    }
+
+    /**
+     * @param request sends the request once the scheduler and the limiter let it go
+     */
+    private Response invoke(EndpointClass endpointClass, Priority priority, Supplier<Response> request) {
+        return schedule(priority, () -> {
+            ConcurrencyLimiter limiter = concurrencyLimiter;
+            if (limiter == null) {
+                return request.get();
+            }
+            return limiter.invoke(endpointClass, request);
+        });
+    }
+
+    private static Priority defaultPriority(EndpointClass endpointClass) {
+        switch (endpointClass) {
+            case MESSAGES:
+                return Priority.INTERACTIVE;
+            case ASSETS:
+                return Priority.BULK;
+            default:
+                return Priority.NORMAL;
+        }
+    }
+
+    /**
+     * One request of a paged listing, reported to the {@link PageSizer} if one is set. Its latency is taken from when
+     * the request is sent, after any wait for a scheduler or limiter slot, and only failures of the request itself
+     * count against the page size: no slot in time, or the caller's {@link Deadline}, say nothing about the backend.
+     */
+    private final class Page {
+        private final PageSizer.Endpoint endpoint;
+        private final PageSizer pageSizer = API.this.pageSizer;
+        private long sent;
+
+        Page(PageSizer.Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        Response request(Invocation invocation) {
+            return invoke(EndpointClass.READS, Priority.BULK, () -> {
+                sent = System.nanoTime();
+                return read(() -> send(invocation));
+            });
+        }
+
+        <T> T read(Supplier<T> read) {
+            try {
+                return read.get();
+            } catch (ProcessingException e) {
+                if (pageSizer != null && !Deadline.isDeadlineFailure(e)) {
+                    pageSizer.failed(endpoint);
+                }
+                throw e;
+            }
+        }
+
+        void received(int items, boolean more, Response response) {
+            if (pageSizer != null) {
+                pageSizer.record(endpoint, items, more, System.nanoTime() - sent, response.getLength());
+            }
+        }
+    }
+
     private boolean isErrorResponse(int statusCode) {
         return Response.Status.Family.familyOf(statusCode).equals(Response.Status.Family.CLIENT_ERROR)
             || Response.Status.Family.familyOf(statusCode).equals(Response.Status.Family.SERVER_ERROR);
@@ -0,0 +1,101 @@
+package com.wire.helium;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import com.wire.helium.models.Access;
+import com.wire.helium.models.Event;
+import com.wire.helium.models.NotificationList;
+import com.wire.helium.models.model.response.ConversationListIdsResponse;
+import com.wire.helium.models.model.response.ConversationListResponse;
+import com.wire.helium.models.model.response.PublicKeysResponse;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.PreKeys;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON provider for Helium's clients, registered by {@link com.wire.helium.http.Transport}. All clients share one
+ * mapper with default Jackson settings plus the Blackbird module, which replaces reflective property access with
+ * generated lambdas. Readers and writers are kept per type, and the ones of the models read on hot paths are created
+ * when the class is loaded instead of on the first response.
+ * <p>
+ *     Registering the plain {@link JacksonJsonProvider} instead keeps working, just slower.
+ * </p>
+ */
+@Provider
+@Consumes(MediaType.WILDCARD)
+@Produces(MediaType.WILDCARD)
+public class HeliumJsonProvider extends JacksonJsonProvider {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new BlackbirdModule())
+            // The container owns the entity streams, like in JacksonJsonProvider
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final Map<Type, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final Map<Type, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    static {
+        for (Class<?> type : List.of(Access.class, NotificationList.class, Event.class, ConversationListResponse.class,
+                ConversationListIdsResponse.class, PublicKeysResponse.class, Conversation.class, User.class,
+                Devices.class, PreKeys.class)) {
+            reader(type);
+        }
+    }
+
+    public HeliumJsonProvider() {
+        super(MAPPER);
+    }
+
+    /**
+     * @return the mapper of all Helium clients, must not be reconfigured
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                           MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        // An empty body is read as null, like JacksonJsonProvider does. Peeking is cheaper than going through
+        // ObjectReader.createParser().
+        PushbackInputStream in = new PushbackInputStream(entityStream, 1);
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        in.unread(first);
+        return reader(genericType != null ? genericType : type).readValue(in);
+    }
+
+    @Override
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        Type key = genericType != null ? genericType : type;
+        WRITERS.computeIfAbsent(key, t -> MAPPER.writerFor(MAPPER.constructType(t))).writeValue(entityStream, value);
+    }
+
+    private static ObjectReader reader(Type type) {
+        return READERS.computeIfAbsent(type, t -> MAPPER.readerFor(MAPPER.constructType(t)));
+    }
+}
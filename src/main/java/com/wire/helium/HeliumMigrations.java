@@ -0,0 +1,32 @@
+package com.wire.helium;
+
+import org.flywaydb.core.api.configuration.FluentConfiguration;
+
+/**
+ * Flyway setup for the tables Helium adds to xenon's schema. Helium's migrations live in their own location and
+ * history table, so their versions never collide with the ones xenon ships in <code>db/migration</code>.
+ * Run them after xenon's:
+ * <pre>
+ *     Flyway.configure().dataSource(url, user, password).load().migrate();
+ *     HeliumMigrations.configure(Flyway.configure().dataSource(url, user, password)).load().migrate();
+ * </pre>
+ */
+public final class HeliumMigrations {
+    public static final String LOCATION = "classpath:db/helium";
+    public static final String TABLE = "helium_schema_history";
+
+    private HeliumMigrations() {
+    }
+
+    /**
+     * Points the configuration at Helium's migrations. The schema already holds xenon's tables, so the history
+     * table is baselined before the first migration and all of them run.
+     */
+    public static FluentConfiguration configure(FluentConfiguration configuration) {
+        return configuration
+                .locations(LOCATION)
+                .table(TABLE)
+                .baselineOnMigrate(true)
+                .baselineVersion("0");
+    }
+}
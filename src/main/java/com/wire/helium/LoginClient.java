@@ -19,6 +19,8 @@
 package com.wire.helium;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.wire.helium.http.Deadline;
+import com.wire.helium.http.RequestScheduler;
 import com.wire.helium.models.Access;
 import com.wire.helium.models.BackendConfiguration;
 import com.wire.helium.models.NewClient;
@@ -36,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class LoginClient {
     private static final String LABEL = "wbots";
@@ -46,6 +49,7 @@ public class LoginClient {
     private final WebTarget loginPath;
     private final WebTarget accessPath;
     private final WebTarget cookiesPath;
+    private RequestScheduler scheduler;
 
     public LoginClient(Client client) {
         WebTarget baseTarget = client.target(host());
@@ -57,6 +61,39 @@ public class LoginClient {
         cookiesPath = versionedTarget.path("cookies");
     }
 
+    /**
+     * Lets the requests of this instance take connection slots by priority. Share one scheduler between all clients
+     * of the process so sends and token renewals of any bot go before catch-up work.
+     *
+     * @param scheduler scheduler to use, null to send requests as they come
+     */
+    public void setScheduler(RequestScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    protected Response schedule(RequestScheduler.Priority priority, Supplier<Response> call) {
+        RequestScheduler scheduler = this.scheduler;
+        if (scheduler == null) {
+            return call.get();
+        }
+        return scheduler.invoke(priority, call);
+    }
+
+    /**
+     * Sends the request, bounded by the {@link Deadline} bound to the current thread if there is one.
+     */
+    protected static Response send(Invocation invocation) {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return invocation.invoke();
+        }
+        return deadline.invoke(invocation);
+    }
+
     public static String bearer(String token) {
         return "Bearer " + token;
     }
@@ -98,10 +135,11 @@ public class LoginClient {
         login.password = password;
         login.label = LABEL;
 
-        Response response = loginPath.
+        Invocation invocation = loginPath.
                 queryParam("persist", persisted).
                 request(MediaType.APPLICATION_JSON).
-                post(Entity.entity(login, MediaType.APPLICATION_JSON));
+                buildPost(Entity.entity(login, MediaType.APPLICATION_JSON));
+        Response response = schedule(RequestScheduler.Priority.INTERACTIVE, () -> send(invocation));
 
         int status = response.getStatus();
 
@@ -191,8 +229,9 @@ public class LoginClient {
             .request(MediaType.APPLICATION_JSON)
             .cookie(cookie);
 
-        Response response = builder.
-                post(Entity.entity(null, MediaType.APPLICATION_JSON));
+        Invocation invocation = builder.
+                buildPost(Entity.entity(null, MediaType.APPLICATION_JSON));
+        Response response = schedule(RequestScheduler.Priority.INTERACTIVE, () -> send(invocation));
 
         int status = response.getStatus();
 
@@ -20,13 +20,14 @@ import java.lang.reflect.Type;
 @Provider
 @Produces("application/x-protobuf")
 public class ProtobufBodyWriter implements MessageBodyWriter<GeneratedMessageV3> {
+    private static final MediaType PROTOBUF_TYPE = new MediaType("application", "x-protobuf");
+
     @Override
     public boolean isWriteable(Class type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-        if (type != GeneratedMessageV3.class) {
+        if (!GeneratedMessageV3.class.isAssignableFrom(type)) {
             return false;
         }
-        boolean mediaTypeAcceptable = mediaType != null && mediaType.getType() != null;
-        return mediaTypeAcceptable && mediaType.getType().equals("application/x-protobuf");
+        return mediaType != null && mediaType.isCompatible(PROTOBUF_TYPE);
     }
 
     @Override
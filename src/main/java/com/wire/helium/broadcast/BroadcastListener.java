@@ -0,0 +1,10 @@
+package com.wire.helium.broadcast;
+
+/**
+ * Receives the outcome of each conversation of a broadcast as soon as it is known. Called from the broadcast's
+ * worker threads, so implementations must be thread safe and should return quickly.
+ */
+@FunctionalInterface
+public interface BroadcastListener {
+    void onResult(BroadcastResult result);
+}
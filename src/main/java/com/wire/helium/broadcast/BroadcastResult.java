@@ -0,0 +1,68 @@
+package com.wire.helium.broadcast;
+
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.models.otr.Devices;
+
+/**
+ * Outcome of a broadcast for one conversation.
+ */
+public class BroadcastResult {
+    private final QualifiedId conversationId;
+    private final Devices devices;
+    private final int unreachable;
+    private final int sends;
+    private final long elapsedMillis;
+    private final Exception error;
+
+    BroadcastResult(QualifiedId conversationId, Devices devices, int unreachable, int sends, long elapsedMillis, Exception error) {
+        this.conversationId = conversationId;
+        this.devices = devices;
+        this.unreachable = unreachable;
+        this.sends = sends;
+        this.elapsedMillis = elapsedMillis;
+        this.error = error;
+    }
+
+    public QualifiedId getConversationId() {
+        return conversationId;
+    }
+
+    /**
+     * @return true when the backend accepted the message for the conversation
+     */
+    public boolean isDelivered() {
+        return error == null;
+    }
+
+    /**
+     * @return the backend's answer to the last send, e.g. clients it failed to send to. Null when not delivered.
+     */
+    public Devices getDevices() {
+        return devices;
+    }
+
+    /**
+     * @return clients of the conversation no session could be opened with, e.g. because they ran out of prekeys
+     */
+    public int getUnreachable() {
+        return unreachable;
+    }
+
+    /**
+     * @return messages posted for the conversation, including retries after rate limiting
+     */
+    public int getSends() {
+        return sends;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return why the message could not be delivered, null when it was
+     */
+    public Exception getError() {
+        return error;
+    }
+}
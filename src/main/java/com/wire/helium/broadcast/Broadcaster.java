@@ -0,0 +1,405 @@
+package com.wire.helium.broadcast;
+
+import com.wire.helium.API;
+import com.wire.xenon.WireAPI;
+import com.wire.xenon.assets.IGeneric;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+import com.wire.xenon.tools.Logger;
+
+import javax.ws.rs.client.Client;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Sends one message to many conversations at once.
+ * <p>
+ *     Conversations are worked on in parallel by a bounded pool. Each one takes two posts: the first, without any
+ *     recipients, makes the backend list the clients of the conversation, the second carries their ciphertexts.
+ *     Sessions are shared through the {@link Crypto} store: a recipient met in several conversations gets its prekey
+ *     fetched once, even when those conversations are worked on at the same time, and is encrypted for from the
+ *     session afterwards. Ciphertexts themselves are not reused, the recipient would reject them as duplicates.
+ * </p>
+ * <p>
+ *     Posts are paced to <code>sendsPerSecond</code>. A 420, 429 or 503 answer, or a failed prekey request, pauses
+ *     all workers with an exponential backoff before the request is retried, at most <code>maxRetries</code> times.
+ * </p>
+ */
+public class Broadcaster implements Closeable {
+    private static final long BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final long SESSION_WAIT_MILLIS = 60_000;
+
+    private final Function<QualifiedId, ? extends WireAPI> apis;
+    private final Crypto crypto;
+    private final String clientId;
+    private final ExecutorService executor;
+    private final long intervalNanos;
+    private final int maxRetries;
+    private final Map<ClientKey, CompletableFuture<Void>> opening = new ConcurrentHashMap<>();
+
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder preKeyRequests = new LongAdder();
+    private final LongAdder sharedSessions = new LongAdder();
+
+    private long nextSendNanos = System.nanoTime();
+    private long pausedUntilNanos = System.nanoTime();
+
+    /**
+     * 32 conversations at a time, at most 100 posts per second.
+     *
+     * @param client   client to create an {@link API} per conversation with
+     * @param token    access token of the bot
+     * @param crypto   the bot's crypto box, must allow concurrent use like <code>CryptoDatabase</code>
+     * @param clientId the bot's client
+     */
+    public Broadcaster(Client client, String token, Crypto crypto, String clientId) {
+        this(convId -> new API(client, convId, token), crypto, clientId, 32, 100, 5);
+    }
+
+    /**
+     * @param apis           creates the API for a conversation, e.g. with a shared concurrency limiter
+     * @param crypto         the bot's crypto box, must allow concurrent use
+     * @param clientId       the bot's client
+     * @param parallelism    conversations worked on at the same time
+     * @param sendsPerSecond posts per second at most, 0 for no pacing
+     * @param maxRetries     retries of a rate limited post
+     */
+    public Broadcaster(Function<QualifiedId, ? extends WireAPI> apis, Crypto crypto, String clientId, int parallelism,
+                       double sendsPerSecond, int maxRetries) {
+        this.apis = apis;
+        this.crypto = crypto;
+        this.clientId = clientId;
+        this.intervalNanos = sendsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / sendsPerSecond) : 0;
+        this.maxRetries = maxRetries;
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "helium-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @see #broadcast(byte[], Collection, BroadcastListener)
+     */
+    public CompletableFuture<Summary> broadcast(IGeneric message, Collection<QualifiedId> conversations,
+                                                BroadcastListener listener) throws Exception {
+        return broadcast(message.createGenericMsg().toByteArray(), conversations, listener);
+    }
+
+    /**
+     * Sends the message to every conversation. Returns at once, the listener learns about each conversation as it
+     * completes.
+     *
+     * @param content       serialized generic message
+     * @param conversations conversations to send to
+     * @param listener      receives the result of each conversation, may be null
+     * @return completes with the totals once every conversation is done
+     */
+    public CompletableFuture<Summary> broadcast(byte[] content, Collection<QualifiedId> conversations,
+                                                BroadcastListener listener) {
+        CompletableFuture<Summary> done = new CompletableFuture<>();
+        long start = System.nanoTime();
+        AtomicInteger remaining = new AtomicInteger(conversations.size());
+        AtomicInteger delivered = new AtomicInteger();
+        if (conversations.isEmpty()) {
+            done.complete(new Summary(0, 0, 0));
+            return done;
+        }
+
+        for (QualifiedId convId : conversations) {
+            executor.execute(() -> {
+                BroadcastResult result = send(convId, content);
+                if (result.isDelivered()) {
+                    delivered.incrementAndGet();
+                }
+                if (listener != null) {
+                    try {
+                        listener.onResult(result);
+                    } catch (RuntimeException e) {
+                        Logger.exception(e, "Broadcast listener failed for %s", convId);
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    done.complete(new Summary(delivered.get(), conversations.size() - delivered.get(), elapsed));
+                }
+            });
+        }
+        return done;
+    }
+
+    /**
+     * @return messages posted, including retries
+     */
+    public long getSends() {
+        return sends.sum();
+    }
+
+    /**
+     * @return posts that were rate limited by the backend, and failed prekey requests
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public long getPreKeyRequests() {
+        return preKeyRequests.sum();
+    }
+
+    /**
+     * @return recipients whose session was being opened for another conversation and was waited for
+     */
+    public long getSharedSessions() {
+        return sharedSessions.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private BroadcastResult send(QualifiedId convId, byte[] content) {
+        long start = System.nanoTime();
+        int[] posts = new int[1];
+        int unreachable = 0;
+        try {
+            WireAPI api = apis.apply(convId);
+            OtrMessage msg = new OtrMessage(clientId, new Recipients());
+
+            // Reports every client of the conversation as missing
+            Devices devices = post(api, msg, false, posts);
+            // Devices.hasMissing() answers the opposite of its name
+            if (!devices.missing.isEmpty()) {
+                Recipients recipients = encrypt(api, devices.missing, content);
+                unreachable = count(devices.missing) - count(recipients);
+                msg.add(recipients);
+
+                // Like WireClientBase, clients that joined in between are not waited for
+                devices = post(api, msg, true, posts);
+            }
+            return new BroadcastResult(convId, devices, unreachable, posts[0], elapsedMillis(start), null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BroadcastResult(convId, null, unreachable, posts[0], elapsedMillis(start), e);
+        } catch (Exception e) {
+            Logger.warning("Broadcast to %s failed: %s", convId, e);
+            return new BroadcastResult(convId, null, unreachable, posts[0], elapsedMillis(start), e);
+        }
+    }
+
+    private Devices post(WireAPI api, OtrMessage msg, boolean ignoreMissing, int[] posts) throws HttpException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            pace();
+            posts[0]++;
+            sends.increment();
+            try {
+                return api.sendMessage(msg, ignoreMissing);
+            } catch (HttpException e) {
+                if (!isRateLimited(e.getCode()) || attempt >= maxRetries) {
+                    throw e;
+                }
+                throttled.increment();
+                pause(attempt);
+            }
+        }
+    }
+
+    /**
+     * Encrypts for the clients with a session, opens sessions for the others. A client whose session is being opened
+     * by another conversation is waited for instead of fetching a second prekey for it.
+     */
+    private Recipients encrypt(WireAPI api, Missing missing, byte[] content) throws Exception {
+        Recipients recipients = crypto.encrypt(missing, content);
+
+        Missing mine = new Missing();
+        Missing waiting = new Missing();
+        List<CompletableFuture<Void>> others = new ArrayList<>();
+        Map<ClientKey, CompletableFuture<Void>> claimed = new HashMap<>();
+        for (QualifiedId userId : missing.toUserIds()) {
+            for (String client : missing.toClients(userId)) {
+                if (recipients.get(userId, client) != null) {
+                    continue;
+                }
+                ClientKey key = new ClientKey(userId, client);
+                CompletableFuture<Void> opened = new CompletableFuture<>();
+                CompletableFuture<Void> other = opening.putIfAbsent(key, opened);
+                if (other == null) {
+                    claimed.put(key, opened);
+                    mine.add(userId, client);
+                } else {
+                    others.add(other);
+                    waiting.add(userId, client);
+                }
+            }
+        }
+
+        try {
+            if (!mine.isEmpty()) {
+                // Opened by another conversation between the first encryption and the claim
+                Recipients late = crypto.encrypt(mine, content);
+                recipients.add(late);
+                Missing fetch = without(mine, late);
+                if (!fetch.isEmpty()) {
+                    preKeyRequests.increment();
+                    recipients.add(crypto.encrypt(withoutEmpty(fetchPreKeys(api, fetch)), content));
+                }
+            }
+        } finally {
+            claimed.forEach((key, opened) -> {
+                opening.remove(key, opened);
+                opened.complete(null);
+            });
+        }
+
+        if (!waiting.isEmpty()) {
+            sharedSessions.add(count(waiting));
+            CompletableFuture.allOf(others.toArray(new CompletableFuture<?>[0])).get(SESSION_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            recipients.add(crypto.encrypt(waiting, content));
+        }
+        return recipients;
+    }
+
+    /**
+     * {@link WireAPI#getPreKeys(Missing)} does not tell rate limiting apart from other errors, so any failure is
+     * retried with the same backoff.
+     */
+    private PreKeys fetchPreKeys(WireAPI api, Missing missing) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return api.getPreKeys(missing);
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                throttled.increment();
+                pause(attempt);
+                try {
+                    pace();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void pace() throws InterruptedException {
+        long sendAt;
+        synchronized (this) {
+            long now = System.nanoTime();
+            sendAt = Math.max(now, Math.max(nextSendNanos, pausedUntilNanos));
+            nextSendNanos = sendAt + intervalNanos;
+        }
+        long wait = sendAt - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void pause(int attempt) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << Math.min(attempt, 16));
+        long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(jittered);
+        synchronized (this) {
+            if (until - pausedUntilNanos > 0) {
+                pausedUntilNanos = until;
+            }
+        }
+    }
+
+    private static boolean isRateLimited(int code) {
+        return code == 420 || code == 429 || code == 503;
+    }
+
+    private static Missing without(Missing missing, Recipients recipients) {
+        Missing ret = new Missing();
+        for (QualifiedId userId : missing.toUserIds()) {
+            for (String client : missing.toClients(userId)) {
+                if (recipients.get(userId, client) == null) {
+                    ret.add(userId, client);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Clients that ran out of prekeys are listed without one, they are left out rather than failing the encryption.
+     */
+    private static PreKeys withoutEmpty(PreKeys preKeys) {
+        for (Map<?, Map<String, PreKey>> users : preKeys.qualifiedUserClientPrekeys.values()) {
+            for (Map<String, PreKey> clients : users.values()) {
+                clients.values().removeIf(preKey -> preKey == null || preKey.key == null);
+            }
+        }
+        return preKeys;
+    }
+
+    private static int count(Missing missing) {
+        int ret = 0;
+        for (QualifiedId userId : missing.toUserIds()) {
+            ret += missing.toClients(userId).size();
+        }
+        return ret;
+    }
+
+    private static int count(Recipients recipients) {
+        return recipients.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private record ClientKey(QualifiedId userId, String clientId) {
+    }
+
+    /**
+     * Totals of a finished broadcast.
+     */
+    public static class Summary {
+        private final int delivered;
+        private final int failed;
+        private final long elapsedMillis;
+
+        Summary(int delivered, int failed, long elapsedMillis) {
+            this.delivered = delivered;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getDelivered() {
+            return delivered;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+}
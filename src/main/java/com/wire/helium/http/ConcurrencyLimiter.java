@@ -0,0 +1,254 @@
+package com.wire.helium.http;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Adaptive limit on the number of concurrent backend requests, kept separately per {@link EndpointClass}.
+ * <p>
+ *     The limit grows additively (about one per round trip) while requests succeed with a latency close to the
+ *     lowest one observed recently, shrinks slightly when latency climbs beyond <code>latencyTolerance</code> times
+ *     that baseline and is halved on 429, 503 or a read timeout, unless the timeout came from the caller's
+ *     {@link Deadline}. Only responses to requests started after the last
+ *     halving count, so a burst of rejections shrinks the limit once.
+ * </p>
+ * <p>
+ *     Callers above the limit wait in line for at most <code>maxWaitMillis</code>, and at most <code>maxQueued</code>
+ *     of them per class. Beyond that the call fails with a {@link ProcessingException}, like a connection failure.
+ *     One instance can be shared by all {@link com.wire.helium.API} instances talking to the same backend.
+ * </p>
+ */
+public class ConcurrencyLimiter {
+    public enum EndpointClass {
+        MESSAGES,
+        PREKEYS,
+        ASSETS,
+        READS,
+        OTHER
+    }
+
+    private static final int BASELINE_WINDOW = 500;
+
+    private final long maxWaitNanos;
+    private final int maxQueued;
+    private final double latencyTolerance;
+    private final Map<EndpointClass, Limit> limits = new EnumMap<>(EndpointClass.class);
+
+    /**
+     * Starts at 20 concurrent requests per class, adapting between 1 and 200. Callers wait at most 5 seconds.
+     */
+    public ConcurrencyLimiter() {
+        this(20, 1, 200, 5_000, 1_000, 2.0);
+    }
+
+    /**
+     * @param initialLimit     concurrent requests allowed per class before any feedback
+     * @param minLimit         lower bound of the limit
+     * @param maxLimit         upper bound of the limit
+     * @param maxWaitMillis    longest time a call waits for a free slot
+     * @param maxQueued        calls waiting per class at most, further calls are rejected at once
+     * @param latencyTolerance latency relative to the baseline above which the limit shrinks
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long maxWaitMillis, int maxQueued,
+                              double latencyTolerance) {
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.maxQueued = maxQueued;
+        this.latencyTolerance = latencyTolerance;
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            limits.put(endpointClass, new Limit(initialLimit, minLimit, maxLimit));
+        }
+    }
+
+    /**
+     * Performs the request once a slot of its class is free and adapts the limit to the outcome.
+     *
+     * @param endpointClass kind of request
+     * @param call          sends the request
+     * @return the response of the call
+     * @throws ProcessingException when no slot became free in time, or thrown by the call
+     */
+    public Response invoke(EndpointClass endpointClass, Supplier<Response> call) {
+        Limit limit = limits.get(endpointClass);
+        limit.acquire();
+
+        long start = System.nanoTime();
+        Outcome outcome = Outcome.IGNORED;
+        try {
+            Response response = call.get();
+            int status = response.getStatus();
+            if (status == 429 || status == Response.Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+                outcome = Outcome.DROPPED;
+            } else if (status < 500) {
+                outcome = Outcome.SUCCESS;
+            }
+            return response;
+        } catch (ProcessingException e) {
+            // A timeout set from the caller's deadline says nothing about the backend
+            boolean timeout = e.getCause() instanceof SocketTimeoutException || e.getCause() instanceof HttpTimeoutException;
+            if (timeout && !Deadline.isDeadlineFailure(e)) {
+                outcome = Outcome.DROPPED;
+            }
+            throw e;
+        } finally {
+            limit.release(outcome, start, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return current number of concurrent requests allowed for the class
+     */
+    public int getLimit(EndpointClass endpointClass) {
+        return limits.get(endpointClass).current();
+    }
+
+    public int getInFlight(EndpointClass endpointClass) {
+        return limits.get(endpointClass).inFlight();
+    }
+
+    /**
+     * @return responses that made the limit shrink (429, 503, read timeouts)
+     */
+    public long getDropped(EndpointClass endpointClass) {
+        return limits.get(endpointClass).dropped.sum();
+    }
+
+    /**
+     * @return calls that failed because no slot became free in time
+     */
+    public long getRejected(EndpointClass endpointClass) {
+        return limits.get(endpointClass).rejected.sum();
+    }
+
+    private enum Outcome {
+        SUCCESS,
+        DROPPED,
+        IGNORED
+    }
+
+    private class Limit {
+        private final int minLimit;
+        private final int maxLimit;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        private double limit;
+        private int inFlight;
+        private int waiting;
+        private long baselineNanos;
+        private long windowMinNanos = Long.MAX_VALUE;
+        private int windowSamples;
+        private long lastDecrease = System.nanoTime();
+
+        Limit(int initialLimit, int minLimit, int maxLimit) {
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        void acquire() {
+            lock.lock();
+            try {
+                if (inFlight < (int) limit) {
+                    inFlight++;
+                    return;
+                }
+                if (waiting >= maxQueued) {
+                    rejected.increment();
+                    throw new ProcessingException("Too many requests waiting for the concurrency limit");
+                }
+
+                waiting++;
+                try {
+                    long remaining = Deadline.boundWait(maxWaitNanos);
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            Deadline.checkCurrent();
+                            rejected.increment();
+                            throw new ProcessingException("Timed out waiting for the concurrency limit");
+                        }
+                        remaining = available.awaitNanos(remaining);
+                    }
+                    inFlight++;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessingException("Interrupted while waiting for the concurrency limit", e);
+                } finally {
+                    waiting--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(Outcome outcome, long start, long rttNanos) {
+            lock.lock();
+            try {
+                inFlight--;
+                if (outcome == Outcome.DROPPED) {
+                    dropped.increment();
+                    if (start - lastDecrease > 0) {
+                        limit = Math.max(minLimit, limit / 2);
+                        lastDecrease = System.nanoTime();
+                    }
+                } else if (outcome == Outcome.SUCCESS) {
+                    sample(rttNanos);
+                    if (rttNanos > latencyTolerance * baselineNanos) {
+                        if (start - lastDecrease > 0) {
+                            limit = Math.max(minLimit, limit * 0.9);
+                            lastDecrease = System.nanoTime();
+                        }
+                    } else if (inFlight + 1 >= limit / 2) {    // only grow while the limit is actually used
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Baseline is the lowest latency of the previous window, so it can recover when the backend gets slower.
+         */
+        private void sample(long rttNanos) {
+            windowMinNanos = Math.min(windowMinNanos, rttNanos);
+            if (baselineNanos == 0 || rttNanos < baselineNanos) {
+                baselineNanos = rttNanos;
+            }
+            if (++windowSamples >= BASELINE_WINDOW) {
+                baselineNanos = windowMinNanos;
+                windowMinNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+        }
+
+        int current() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int inFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
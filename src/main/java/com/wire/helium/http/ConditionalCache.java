@@ -0,0 +1,266 @@
+package com.wire.helium.http;
+
+import com.wire.helium.models.Event;
+import com.wire.helium.notifications.ResyncListener;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP cache for metadata GETs of {@link com.wire.helium.API} (conversation and self).
+ * <p>
+ *     Entities are stored together with their validators (<code>ETag</code>, <code>Last-Modified</code>). Within
+ *     <code>maxStaleMillis</code> after they were fetched or revalidated they are served without contacting the
+ *     backend. After that the request is sent with <code>If-None-Match</code>/<code>If-Modified-Since</code> and a
+ *     304 answer serves the stored entity again, skipping download and JSON decoding. Entries without validators are
+ *     only served within the stale window.
+ * </p>
+ * <p>
+ *     The cache holds at most <code>maxEntries</code> entities and evicts the least recently used one beyond that.
+ *     Entries are tagged by resource, {@link #onEvent(Event)} drops the ones that an incoming event changes
+ *     (member join/leave, rename, user updates) and it can be registered as a {@link ResyncListener}.
+ *     Cached entities are shared between callers and must not be modified.
+ * </p>
+ * <p>
+ *     Entries are kept per scope, which identifies the user whose token fetched them rather than the token itself,
+ *     so they outlive token renewals. A fetch takes a {@link #generation()} before it is sent and passes it to
+ *     {@link #store}, which drops the entity when its resource was invalidated meanwhile: the response may predate
+ *     the event.
+ * </p>
+ */
+public class ConditionalCache implements ResyncListener {
+    private static final String SELF_TAG = "self";
+
+    private final int maxEntries;
+    private final long maxStaleMillis;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Generation of the last invalidation per tag, the most recent ones only
+    private final LinkedHashMap<String, Long> invalidated = new LinkedHashMap<>();
+    private long generation; // guarded by this
+    // Newest generation no longer tracked per tag, stores started before it are dropped
+    private long forgotten; // guarded by this
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param maxEntries     entities kept at most
+     * @param maxStaleMillis how long an entity is served without asking the backend, 0 to always revalidate
+     */
+    public ConditionalCache(int maxEntries, long maxStaleMillis) {
+        this.maxEntries = maxEntries;
+        this.maxStaleMillis = maxStaleMillis;
+    }
+
+    public static String conversationTag(QualifiedId conversationId) {
+        return "conversation:" + conversationId.domain + "/" + conversationId.id;
+    }
+
+    public static String selfTag() {
+        return SELF_TAG;
+    }
+
+    /**
+     * @param scope the user the request is made for
+     * @return the stored entry for the request, or null
+     */
+    public synchronized Entry lookup(String scope, String uri) {
+        return entries.get(new Key(scope, uri));
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #store} once the response arrived
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @return true when the entry may be served without asking the backend
+     */
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.validatedAt < maxStaleMillis;
+    }
+
+    /**
+     * Records that a stored entity was served, with or without a 304 round trip.
+     */
+    public void served(Entry entry, boolean revalidated) {
+        if (revalidated) {
+            entry.validatedAt = System.currentTimeMillis();
+            revalidations.increment();
+        } else {
+            hits.increment();
+        }
+    }
+
+    /**
+     * Stores a freshly downloaded entity, unless its resource was invalidated since the request was sent.
+     *
+     * @param scope      the user the request was made for
+     * @param generation {@link #generation()} taken before the request was sent
+     */
+    public synchronized void store(String scope, String uri, String tag, long generation, Object entity, String etag,
+                                   String lastModified) {
+        misses.increment();
+        Long invalidatedAt = invalidated.get(tag);
+        if (generation < forgotten || (invalidatedAt != null && generation < invalidatedAt)) {
+            dropped.increment();
+            return;
+        }
+        entries.put(new Key(scope, uri), new Entry(tag, entity, etag, lastModified));
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Drops all entries of a resource, for every scope, and the responses for it still in flight.
+     */
+    public synchronized void invalidate(String tag) {
+        generation++;
+        invalidated.remove(tag);
+        invalidated.put(tag, generation);
+        Iterator<Long> eldest = invalidated.values().iterator();
+        while (invalidated.size() > maxEntries && eldest.hasNext()) {
+            forgotten = Math.max(forgotten, eldest.next());
+            eldest.remove();
+        }
+
+        entries.values().removeIf(entry -> {
+            boolean match = entry.tag.equals(tag);
+            if (match) {
+                invalidations.increment();
+            }
+            return match;
+        });
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        forgotten = generation;
+        invalidated.clear();
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    /**
+     * Drops the entries an event makes outdated. Meant to be called for every event the bot receives.
+     */
+    public void onEvent(Event event) {
+        Payload[] payloads = event.getPayloads();
+        if (payloads == null) {
+            return;
+        }
+        for (Payload payload : payloads) {
+            if (payload == null || payload.type == null) {
+                continue;
+            }
+            switch (payload.type) {
+                case "conversation.member-join":
+                case "conversation.member-leave":
+                case "conversation.member-update":
+                case "conversation.rename":
+                case "conversation.delete":
+                case "conversation.protocol-update":
+                    if (payload.conversation != null) {
+                        invalidate(conversationTag(payload.conversation));
+                    }
+                    break;
+                case "user.update":
+                    invalidate(SELF_TAG);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void onResync(List<Conversation> conversations) {
+        invalidateAll();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return entities served within the stale window, without a request
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return entities served after a 304 answer
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    /**
+     * @return entities downloaded in full
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return downloaded entities not stored because their resource was invalidated while they were fetched
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public static final class Entry {
+        final String tag;
+        final Object entity;
+        final String etag;
+        final String lastModified;
+        volatile long validatedAt = System.currentTimeMillis();
+
+        Entry(String tag, Object entity, String etag, String lastModified) {
+            this.tag = tag;
+            this.entity = entity;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public Object getEntity() {
+            return entity;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private record Key(String scope, String uri) {
+    }
+}
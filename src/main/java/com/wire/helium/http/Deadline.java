@@ -0,0 +1,306 @@
+package com.wire.helium.http;
+
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Point in time by which a piece of work has to be done, which can also be cancelled before. Bind it around API calls
+ * with {@link #call(SingleFlight.Fetch)}: every request they send gets the remaining time as its connect and read
+ * timeout, waiting for a request slot ends with it, and no request is started once it passed. A multi-step call or a
+ * paged load is thereby bounded as a whole.
+ * <p>
+ *     While a deadline is bound requests are sent asynchronously, so {@link #cancel()} from any thread aborts the
+ *     ones in flight and the calling thread returns right away. The work fails with a {@link DeadlineException}
+ *     caused by a {@link TimeoutException} when the deadline passed, or by a {@link CancellationException} when it
+ *     was cancelled. A response body still being read when the deadline passes is bounded by the read timeout only;
+ *     {@link #isDeadlineFailure(Throwable)} tells that timeout from a slow backend.
+ * </p>
+ * <p>
+ *     Binding a deadline while another one is bound limits the work by both. A call coalesced by {@link SingleFlight}
+ *     waits for the shared request no longer than its own deadline, and sends the request again when it failed on the
+ *     deadline of the caller that sent it. Hedged calls keep the deadline on the hedger's threads.
+ * </p>
+ */
+public final class Deadline {
+    // Request property holding the deadline, for connectors that can abort an exchange themselves
+    static final String PROPERTY = Deadline.class.getName();
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAt;       // System.nanoTime(), unused when !expires
+    private final boolean expires;
+    private final List<Deadline> outer; // deadlines this one was bound within
+    private final Set<Runnable> aborts = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    private Deadline(long expiresAt, boolean expires, List<Deadline> outer) {
+        this.expiresAt = expiresAt;
+        this.expires = expires;
+        this.outer = outer;
+    }
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos(), true, List.of());
+    }
+
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout), true, List.of());
+    }
+
+    /**
+     * @return a deadline that never passes, to cancel work only
+     */
+    public static Deadline none() {
+        return new Deadline(0, false, List.of());
+    }
+
+    /**
+     * @return the deadline bound to the current thread, null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the work with this deadline bound to the current thread.
+     *
+     * @throws DeadlineException when the deadline passed or was cancelled, before or during the work
+     */
+    public <T, E extends Exception> T call(SingleFlight.Fetch<T, E> work) throws E {
+        Deadline previous = CURRENT.get();
+        Deadline bound = this;
+        if (previous != null && previous != this) {
+            boolean expires = this.expires || previous.expires;
+            long expiresAt = !previous.expires || (this.expires && this.expiresAt - previous.expiresAt < 0)
+                    ? this.expiresAt
+                    : previous.expiresAt;
+            bound = new Deadline(expiresAt, expires, List.of(this, previous));
+        }
+        bound.check();
+        CURRENT.set(bound);
+        try {
+            return work.fetch();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Fails the work this deadline is bound around and aborts its requests in flight.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Runnable abort : aborts) {
+            abort.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        if (cancelled) {
+            return true;
+        }
+        for (Deadline deadline : outer) {
+            if (deadline.isCancelled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isExpired() {
+        return expires && System.nanoTime() - expiresAt >= 0;
+    }
+
+    /**
+     * @return time left, {@link Long#MAX_VALUE} for a deadline that never passes
+     */
+    public long remainingMillis() {
+        return expires ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime())) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @throws DeadlineException when the deadline passed or was cancelled
+     */
+    public void check() {
+        if (isCancelled()) {
+            throw new DeadlineException("Cancelled", new CancellationException());
+        }
+        if (isExpired()) {
+            throw new DeadlineException("Deadline exceeded", new TimeoutException());
+        }
+    }
+
+    /**
+     * Tells failures caused by the deadline from failures of the backend, which is what feedback on the backend's
+     * health, like {@link ConcurrencyLimiter} and {@link PageSizer}, has to go by.
+     *
+     * @return whether the failure is a {@link DeadlineException}, or any failure after the deadline bound to the
+     * current thread passed or was cancelled, such as the read timeout it set
+     */
+    public static boolean isDeadlineFailure(Throwable failure) {
+        if (failure instanceof DeadlineException) {
+            return true;
+        }
+        Deadline deadline = CURRENT.get();
+        return deadline != null && (deadline.isCancelled() || deadline.isExpired());
+    }
+
+    /**
+     * Sends the request bounded by this deadline.
+     *
+     * @return the response
+     * @throws DeadlineException when the deadline passed or was cancelled, also when the timeouts it set fired
+     * @throws ProcessingException when the request failed
+     */
+    public Response invoke(Invocation invocation) {
+        check();
+        if (expires) {
+            int timeout = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remainingMillis()));
+            invocation.property(ClientProperties.CONNECT_TIMEOUT, timeout);
+            invocation.property(ClientProperties.READ_TIMEOUT, timeout);
+        }
+        invocation.property(PROPERTY, this);
+
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        Future<Response> inFlight = invocation.submit(new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                // Nobody reads a response that arrives after the caller gave up
+                if (!result.complete(response)) {
+                    response.close();
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        });
+        Runnable abort = () -> {
+            result.cancel(false);
+            inFlight.cancel(true);
+        };
+        addAbort(abort);
+        try {
+            if (isCancelled()) {
+                abort.run();
+            }
+            return expires ? result.get(expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS) : result.get();
+        } catch (TimeoutException e) {
+            abort.run();
+            throw new DeadlineException("Deadline exceeded", e);
+        } catch (CancellationException e) {
+            throw new DeadlineException("Cancelled", e);
+        } catch (InterruptedException e) {
+            abort.run();
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("Interrupted while waiting for the response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (isCancelled() || isExpired()) {
+                // The connect or read timeout taken from the deadline fired
+                try {
+                    check();
+                } catch (DeadlineException deadline) {
+                    deadline.addSuppressed(cause);
+                    throw deadline;
+                }
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ProcessingException(cause);
+        } finally {
+            removeAbort(abort);
+        }
+    }
+
+    /**
+     * @throws DeadlineException when the deadline bound to the current thread passed or was cancelled
+     */
+    static void checkCurrent() {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.check();
+        }
+    }
+
+    /**
+     * Waits for work another thread does, bounded by the deadline bound to the current thread. Cancelling that
+     * deadline ends the wait, the work itself goes on.
+     *
+     * @throws DeadlineException when the deadline passed or was cancelled before the work completed
+     */
+    static <T> T await(CompletableFuture<T> work) throws InterruptedException, ExecutionException {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return work.get();
+        }
+        deadline.check();
+
+        CompletableFuture<T> wait = work.copy();
+        Runnable abort = () -> wait.cancel(false);
+        deadline.addAbort(abort);
+        try {
+            if (deadline.isCancelled()) {
+                abort.run();
+            }
+            return deadline.expires ? wait.get(deadline.expiresAt - System.nanoTime(), TimeUnit.NANOSECONDS) : wait.get();
+        } catch (TimeoutException e) {
+            throw new DeadlineException("Deadline exceeded", e);
+        } catch (CancellationException e) {
+            if (deadline.isCancelled()) {
+                throw new DeadlineException("Cancelled", e);
+            }
+            throw e;
+        } finally {
+            deadline.removeAbort(abort);
+        }
+    }
+
+    /**
+     * @return the wait bounded by the time left of the current deadline
+     */
+    static long boundWait(long nanos) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null || !deadline.expires) {
+            return nanos;
+        }
+        return Math.min(nanos, deadline.expiresAt - System.nanoTime());
+    }
+
+    void addAbort(Runnable abort) {
+        aborts.add(abort);
+        for (Deadline deadline : outer) {
+            deadline.addAbort(abort);
+        }
+    }
+
+    void removeAbort(Runnable abort) {
+        aborts.remove(abort);
+        for (Deadline deadline : outer) {
+            deadline.removeAbort(abort);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.wire.helium.http;
+
+import javax.ws.rs.ProcessingException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Work failed because its {@link Deadline} passed or was cancelled, not because the backend failed. Caused by a
+ * {@link TimeoutException} or a {@link CancellationException}.
+ */
+public class DeadlineException extends ProcessingException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,318 @@
+package com.wire.helium.http;
+
+import com.wire.xenon.tools.Logger;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedged requests for idempotent calls: when no answer arrived after the recent <code>percentile</code> latency of
+ * the call, the same request is sent a second time and whichever answers first wins. The other attempt is aborted
+ * through a {@link Deadline} of its own, which gives back its request slots right away; a response that still
+ * arrives is closed.
+ * <p>
+ *     Hedges draw from a budget of <code>budgetRatio</code> extra requests per call (with a small burst), so a slow
+ *     backend cannot be flooded with duplicates. Aborted attempts that have not ended yet count against the budget
+ *     too. Until <code>minSamples</code> latencies of a call were recorded it is not hedged and runs on the calling
+ *     thread. If the first attempt fails before a hedge was sent its exception is thrown right away, otherwise
+ *     an exception is only thrown when both attempts failed.
+ * </p>
+ * <p>
+ *     Only calls without side effects may be hedged. Prekey lookups are not: each answer claims one-time prekeys
+ *     of the clients, so a duplicate would use up prekeys nobody starts a session with.
+ * </p>
+ */
+public class Hedger {
+    public enum Call {
+        USER,
+        ASSET
+    }
+
+    private static final int WINDOW = 1024;
+    private static final int RECOMPUTE_EVERY = 64;
+    private static final double MAX_BUDGET = 10;
+
+    private final ExecutorService executor;
+    private final double percentile;
+    private final double budgetRatio;
+    private final int minSamples;
+    private final Map<Call, Stats> stats = new EnumMap<>(Call.class);
+    private double budget = MAX_BUDGET;
+    private int losers;
+
+    /**
+     * Hedges after the p95 latency, for at most 5% extra requests.
+     */
+    public Hedger() {
+        this(newExecutor(), 95, 0.05, 100);
+    }
+
+    /**
+     * @param executor    runs the attempts, needs at least two threads per concurrent call
+     * @param percentile  latency percentile after which the hedge is sent
+     * @param budgetRatio extra requests allowed per call
+     * @param minSamples  latencies recorded before a call is hedged
+     */
+    public Hedger(ExecutorService executor, double percentile, double budgetRatio, int minSamples) {
+        this.executor = executor;
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+        this.minSamples = minSamples;
+        for (Call call : Call.values()) {
+            stats.put(call, new Stats());
+        }
+    }
+
+    /**
+     * Performs the call, hedging it when it takes longer than usual.
+     *
+     * @param call  kind of call, latencies are tracked per kind
+     * @param fetch the idempotent request, may run twice at the same time
+     * @return the first successful result
+     * @throws E the exception of a failed attempt when no attempt succeeded
+     */
+    @SuppressWarnings("unchecked")
+    public <T, E extends Exception> T execute(Call call, SingleFlight.Fetch<T, E> fetch) throws E {
+        Stats stats = this.stats.get(call);
+        stats.requests.increment();
+        deposit();
+
+        long start = System.nanoTime();
+        long threshold = stats.threshold;
+        if (threshold == 0) {
+            T result = fetch.fetch();
+            stats.record(System.nanoTime() - start, percentile, minSamples);
+            return result;
+        }
+
+        CompletableFuture<Win<T>> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        Attempt<T, E> primary = new Attempt<>(fetch, winner, pending, stats, start, false);
+        Attempt<T, E> hedge = null;
+        primary.submit();
+
+        try {
+            try {
+                return winner.get(threshold, TimeUnit.NANOSECONDS).result;
+            } catch (TimeoutException e) {
+                if (withdraw()) {
+                    stats.hedges.increment();
+                    pending.incrementAndGet();
+                    hedge = new Attempt<>(fetch, winner, pending, stats, System.nanoTime(), true);
+                    hedge.submit();
+                } else {
+                    stats.budgetExhausted.increment();
+                }
+            }
+            Win<T> win = winner.get();
+            if (win.hedge) {
+                stats.hedgeWins.increment();
+            }
+            return win.result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + call, e);
+        } catch (ExecutionException | CancellationException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (E) cause;    // the same Fetch type is used for every attempt
+        } finally {
+            primary.abandon();
+            if (hedge != null) {
+                hedge.abandon();
+            }
+        }
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget - losers < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    private synchronized void addLosers(int delta) {
+        losers += delta;
+    }
+
+    /**
+     * @return latency after which the call is currently hedged in milliseconds, 0 while not hedged
+     */
+    public double getThresholdMillis(Call call) {
+        return stats.get(call).threshold / 1e6;
+    }
+
+    public long getRequests(Call call) {
+        return stats.get(call).requests.sum();
+    }
+
+    /**
+     * @return duplicate requests sent, divide by {@link #getRequests(Call)} for the hedge rate
+     */
+    public long getHedges(Call call) {
+        return stats.get(call).hedges.sum();
+    }
+
+    /**
+     * @return hedges that answered before the original request, divide by {@link #getHedges(Call)} for the win rate
+     */
+    public long getHedgeWins(Call call) {
+        return stats.get(call).hedgeWins.sum();
+    }
+
+    /**
+     * @return slow calls that were not hedged because the budget was used up
+     */
+    public long getBudgetExhausted(Call call) {
+        return stats.get(call).budgetExhausted.sum();
+    }
+
+    /**
+     * @return attempts that lost and were aborted, but have not ended yet
+     */
+    public synchronized int getLosersRunning() {
+        return losers;
+    }
+
+    private static ExecutorService newExecutor() {
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "helium-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private record Win<T>(T result, boolean hedge) {
+    }
+
+    /**
+     * One attempt of a hedged call, run on the executor.
+     */
+    private final class Attempt<T, E extends Exception> implements Runnable {
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int ENDED = 2;
+        private static final int ABANDONED = 3;
+
+        private final SingleFlight.Fetch<T, E> fetch;
+        private final CompletableFuture<Win<T>> winner;
+        private final AtomicInteger pending;
+        private final Stats stats;
+        private final long start;
+        private final boolean hedge;
+        private final Deadline deadline = Deadline.none();
+        private final AtomicInteger state = new AtomicInteger(NEW);
+        private Future<?> future;
+
+        Attempt(SingleFlight.Fetch<T, E> fetch, CompletableFuture<Win<T>> winner, AtomicInteger pending, Stats stats,
+                long start, boolean hedge) {
+            this.fetch = fetch;
+            this.winner = winner;
+            this.pending = pending;
+            this.stats = stats;
+            this.start = start;
+            this.hedge = hedge;
+        }
+
+        void submit() {
+            future = executor.submit(this);
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(NEW, RUNNING)) {
+                return;
+            }
+            T result;
+            try {
+                result = deadline.call(fetch);
+            } catch (Throwable e) {
+                end();
+                // Reported once no other attempt can succeed anymore
+                if (pending.decrementAndGet() == 0) {
+                    winner.completeExceptionally(e);
+                }
+                return;
+            }
+            stats.record(System.nanoTime() - start, percentile, minSamples);
+            // Ended before it may win, so the winner is never counted as a loser
+            if (!end() || !winner.complete(new Win<>(result, hedge))) {
+                close(result);
+            }
+        }
+
+        /**
+         * @return false when the attempt was abandoned, it lost
+         */
+        private boolean end() {
+            if (state.compareAndSet(RUNNING, ENDED)) {
+                return true;
+            }
+            addLosers(-1);
+            return false;
+        }
+
+        /**
+         * Aborts the requests of the attempt unless it ended. Until it noticed it counts against the budget.
+         */
+        void abandon() {
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                addLosers(1);
+            } else if (!state.compareAndSet(NEW, ABANDONED)) {
+                return;
+            }
+            deadline.cancel();
+            future.cancel(true);
+        }
+
+        private void close(T result) {
+            if (result instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) result).close();
+                } catch (Exception e) {
+                    Logger.warning("Hedger: failed to close the result of a losing attempt: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static class Stats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder hedges = new LongAdder();
+        final LongAdder hedgeWins = new LongAdder();
+        final LongAdder budgetExhausted = new LongAdder();
+        final long[] latencies = new long[WINDOW];
+        long samples;
+        volatile long threshold;
+
+        synchronized void record(long latency, double percentile, int minSamples) {
+            latencies[(int) (samples++ % WINDOW)] = latency;
+            if (samples >= minSamples && samples % RECOMPUTE_EVERY == 0) {
+                long[] sorted = Arrays.copyOf(latencies, (int) Math.min(samples, WINDOW));
+                Arrays.sort(sorted);
+                threshold = sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length))];
+            }
+        }
+    }
+}
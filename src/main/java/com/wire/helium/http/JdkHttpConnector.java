@@ -0,0 +1,167 @@
+package com.wire.helium.http;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Jersey connector on the JDK {@link HttpClient}: HTTP/2 with multiplexed streams where the server supports it,
+ * HTTP/1.1 otherwise. Request entities are serialized into a byte array and handed to the client as is, response
+ * bodies are streamed.
+ * <p>
+ *     Honors {@link ClientProperties#READ_TIMEOUT} per request, as the time until the response headers arrived.
+ *     Connect timeout, redirects and the executor are properties of the {@link HttpClient}, see
+ *     {@link JdkHttpConnectorProvider}. Cancelling a {@link Deadline} aborts the exchanges it bounds; Jersey does not
+ *     pass the cancellation of its own futures on to the connector.
+ * </p>
+ */
+public class JdkHttpConnector implements Connector {
+    // Set by the JDK client itself, it refuses to send them
+    private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        RESTRICTED_HEADERS.addAll(List.of("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+    }
+
+    private final HttpClient httpClient;
+
+    public JdkHttpConnector(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        try {
+            HttpResponse<InputStream> response = httpClient.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofInputStream());
+            return toClientResponse(request, response);
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        }
+    }
+
+    @Override
+    public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+        HttpRequest httpRequest;
+        try {
+            httpRequest = toHttpRequest(request);
+        } catch (IOException | RuntimeException e) {
+            callback.failure(e);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+        Deadline deadline = request.resolveProperty(Deadline.PROPERTY, Deadline.class);
+        if (deadline != null) {
+            // Cancelling the exchange's own future aborts it, a dependent future would only stop waiting
+            Runnable abort = () -> exchange.cancel(true);
+            deadline.addAbort(abort);
+            exchange.whenComplete((response, throwable) -> deadline.removeAbort(abort));
+            if (deadline.isCancelled()) {
+                abort.run();
+            }
+        }
+        return exchange.whenComplete((response, throwable) -> {
+            if (throwable != null) {
+                callback.failure(throwable);
+            } else {
+                callback.response(toClientResponse(request, response));
+            }
+        });
+    }
+
+    @Override
+    public String getName() {
+        return "JDK HttpClient " + httpClient.version();
+    }
+
+    @Override
+    public void close() {
+        // HttpClient has no lifecycle before Java 21, its threads end once it is unreachable
+    }
+
+    private static HttpRequest toHttpRequest(ClientRequest request) throws IOException {
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        if (request.hasEntity()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+            request.setStreamProvider(contentLength -> out);
+            request.writeEntity();
+            body = HttpRequest.BodyPublishers.ofByteArray(out.toByteArray());
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri())
+                .method(request.getMethod(), body);
+
+        Integer readTimeout = request.resolveProperty(ClientProperties.READ_TIMEOUT, Integer.class);
+        if (readTimeout != null && readTimeout > 0) {
+            builder.timeout(Duration.ofMillis(readTimeout));
+        }
+
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if (RESTRICTED_HEADERS.contains(header.getKey())) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        return builder.build();
+    }
+
+    private static ClientResponse toClientResponse(ClientRequest request, HttpResponse<InputStream> response) {
+        ClientResponse clientResponse = new ClientResponse(status(response.statusCode()), request);
+        response.headers().map().forEach((name, values) -> {
+            if (!name.startsWith(":")) {    // HTTP/2 pseudo headers
+                clientResponse.getHeaders().addAll(name, values);
+            }
+        });
+        clientResponse.setEntityStream(response.body());
+        return clientResponse;
+    }
+
+    private static Response.StatusType status(int code) {
+        Response.Status status = Response.Status.fromStatusCode(code);
+        if (status != null) {
+            return status;
+        }
+        // Codes JAX-RS has no constant for
+        Response.Status.Family family = Response.Status.Family.familyOf(code);
+        return new Response.StatusType() {
+            @Override
+            public int getStatusCode() {
+                return code;
+            }
+
+            @Override
+            public Response.Status.Family getFamily() {
+                return family;
+            }
+
+            @Override
+            public String getReasonPhrase() {
+                return "";
+            }
+        };
+    }
+}
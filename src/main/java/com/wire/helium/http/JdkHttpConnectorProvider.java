@@ -0,0 +1,55 @@
+package com.wire.helium.http;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Configuration;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Plugs {@link JdkHttpConnector} into a Jersey client:
+ * <pre>
+ * Client client = ClientBuilder.newClient(new ClientConfig().connectorProvider(new JdkHttpConnectorProvider()));
+ * </pre>
+ */
+public class JdkHttpConnectorProvider implements ConnectorProvider {
+    private final HttpClient httpClient;
+
+    /**
+     * Builds an HTTP/2 client per Jersey client, using its {@link ClientProperties#CONNECT_TIMEOUT} and
+     * {@link ClientProperties#FOLLOW_REDIRECTS} settings.
+     */
+    public JdkHttpConnectorProvider() {
+        this(null);
+    }
+
+    /**
+     * @param httpClient client to send all requests with, e.g. with its own executor or SSL context
+     */
+    public JdkHttpConnectorProvider(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public Connector getConnector(Client client, Configuration runtimeConfig) {
+        if (httpClient != null) {
+            return new JdkHttpConnector(httpClient);
+        }
+
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .sslContext(client.getSslContext());
+
+        int connectTimeout = ClientProperties.getValue(runtimeConfig.getProperties(), ClientProperties.CONNECT_TIMEOUT, 0);
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+        boolean followRedirects = ClientProperties.getValue(runtimeConfig.getProperties(), ClientProperties.FOLLOW_REDIRECTS, true);
+        builder.followRedirects(followRedirects ? HttpClient.Redirect.NORMAL : HttpClient.Redirect.NEVER);
+
+        return new JdkHttpConnector(builder.build());
+    }
+}
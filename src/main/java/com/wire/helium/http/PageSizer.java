@@ -0,0 +1,141 @@
+package com.wire.helium.http;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Picks the page size of the paged listings from the latency and payload size of the previous pages, so fast links
+ * use few large pages and slow ones small pages that finish in time.
+ * <p>
+ *     A page slower than <code>targetMillis</code> shrinks the next one in proportion, down to half. A full page, one
+ *     with more to come, that took less than half the target doubles the next one. Pages are also kept under
+ *     <code>maxPageBytes</code>, estimated from the bytes per item seen so far, and a failed request halves the size.
+ *     Sizes stay within the limits of each endpoint. Latencies are measured from when the request is sent, so time
+ *     spent waiting for a request slot does not count.
+ * </p>
+ */
+public class PageSizer {
+    public enum Endpoint {
+        /**
+         * <code>/conversations/list-ids</code>, in ids
+         */
+        CONVERSATION_IDS(10, 100, 1_000),
+        /**
+         * <code>/conversations/list</code>, in conversations
+         */
+        CONVERSATIONS(10, 1_000, 1_000),
+        /**
+         * <code>/notifications</code>, in notifications
+         */
+        NOTIFICATIONS(100, 500, 10_000);
+
+        public final int min;
+        public final int initial;
+        public final int max;
+
+        Endpoint(int min, int initial, int max) {
+            this.min = min;
+            this.initial = initial;
+            this.max = max;
+        }
+    }
+
+    // Weight of the latest page in the bytes per item average
+    private static final double ALPHA = 0.3;
+
+    private final long targetNanos;
+    private final long maxPageBytes;
+    private final Map<Endpoint, Stats> stats = new EnumMap<>(Endpoint.class);
+
+    /**
+     * Pages of up to 1 second and 4 MB.
+     */
+    public PageSizer() {
+        this(1_000, 4 << 20);
+    }
+
+    /**
+     * @param targetMillis latency a page should stay under
+     * @param maxPageBytes response size a page should stay under
+     */
+    public PageSizer(long targetMillis, long maxPageBytes) {
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.maxPageBytes = maxPageBytes;
+        for (Endpoint endpoint : Endpoint.values()) {
+            stats.put(endpoint, new Stats(endpoint.initial));
+        }
+    }
+
+    /**
+     * @return number of items to ask for in the next page
+     */
+    public int size(Endpoint endpoint) {
+        Stats stats = this.stats.get(endpoint);
+        synchronized (stats) {
+            return stats.size;
+        }
+    }
+
+    /**
+     * Adjusts the size after a page was received.
+     *
+     * @param items items in the page
+     * @param more  whether more pages follow, only then a fast page grows the size
+     * @param nanos latency of the request
+     * @param bytes size of the response body, negative when unknown
+     */
+    public void record(Endpoint endpoint, int items, boolean more, long nanos, long bytes) {
+        Stats stats = this.stats.get(endpoint);
+        stats.pages.increment();
+        synchronized (stats) {
+            int size = stats.size;
+            if (nanos > targetNanos) {
+                size = (int) (size * Math.max(0.5, (double) targetNanos / nanos));
+            } else if (more && items >= size && nanos < targetNanos / 2) {
+                size = size * 2;
+            }
+            if (bytes >= 0 && items > 0) {
+                double perItem = (double) bytes / items;
+                stats.bytesPerItem = stats.bytesPerItem == 0 ? perItem : ALPHA * perItem + (1 - ALPHA) * stats.bytesPerItem;
+                size = (int) Math.min(size, maxPageBytes / stats.bytesPerItem);
+            }
+            stats.size = clamp(endpoint, size);
+        }
+    }
+
+    /**
+     * Halves the size after a request failed, e.g. timed out.
+     */
+    public void failed(Endpoint endpoint) {
+        Stats stats = this.stats.get(endpoint);
+        stats.failures.increment();
+        synchronized (stats) {
+            stats.size = clamp(endpoint, stats.size / 2);
+        }
+    }
+
+    public long getPages(Endpoint endpoint) {
+        return stats.get(endpoint).pages.sum();
+    }
+
+    public long getFailures(Endpoint endpoint) {
+        return stats.get(endpoint).failures.sum();
+    }
+
+    private static int clamp(Endpoint endpoint, int size) {
+        return Math.max(endpoint.min, Math.min(endpoint.max, size));
+    }
+
+    private static final class Stats {
+        private final LongAdder pages = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private int size;
+        private double bytesPerItem;
+
+        Stats(int size) {
+            this.size = size;
+        }
+    }
+}
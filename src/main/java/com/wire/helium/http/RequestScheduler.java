@@ -0,0 +1,246 @@
+package com.wire.helium.http;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Hands out a fixed number of connection slots to requests by {@link Priority}, so message sends and token renewal
+ * are not stuck behind catch-up work.
+ * <p>
+ *     A free slot goes to the oldest waiter of the highest priority, as long as its class is below its budget:
+ *     {@link Priority#INTERACTIVE} may use every slot, {@link Priority#NORMAL} and {@link Priority#BULK} at most
+ *     their own budget, which keeps slots free for interactive requests. A waiter is treated as one class higher for
+ *     every <code>agingMillis</code> it waited, so bulk work is never starved completely, though budgets still apply.
+ *     Callers give up after <code>maxWaitMillis</code>, or when their {@link Deadline} passes, with a
+ *     {@link ProcessingException}.
+ * </p>
+ * <p>
+ *     A connection stays busy until the response body was read. {@link Priority#BULK} responses, asset downloads and
+ *     listing pages, are handed back unbuffered and hold their slot until the body was read to its end or the
+ *     response closed, so their callers must do either. Other responses are small and buffered in memory before the
+ *     slot is released.
+ * </p>
+ */
+public class RequestScheduler {
+    public enum Priority {
+        INTERACTIVE,
+        NORMAL,
+        BULK
+    }
+
+    private final int connections;
+    private final long agingNanos;
+    private final long maxWaitNanos;
+    private final Map<Priority, Integer> budgets = new EnumMap<>(Priority.class);
+    private final Map<Priority, ArrayDeque<Waiter>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> running = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> completed = new EnumMap<>(Priority.class);
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition granted = lock.newCondition();
+    private int inUse;
+
+    /**
+     * 32 slots, of which normal requests may use 24 and bulk requests 8. Waiters age by one class every 2 seconds.
+     */
+    public RequestScheduler() {
+        this(32, 24, 8, 2_000, 60_000);
+    }
+
+    /**
+     * @param connections   requests running at the same time
+     * @param normalBudget  slots normal requests may use at most
+     * @param bulkBudget    slots bulk requests may use at most
+     * @param agingMillis   waiting time after which a request competes like the next higher class
+     * @param maxWaitMillis longest time a request waits for a slot
+     */
+    public RequestScheduler(int connections, int normalBudget, int bulkBudget, long agingMillis, long maxWaitMillis) {
+        this.connections = connections;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        budgets.put(Priority.INTERACTIVE, connections);
+        budgets.put(Priority.NORMAL, Math.min(normalBudget, connections));
+        budgets.put(Priority.BULK, Math.min(bulkBudget, connections));
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            running.put(priority, 0);
+            completed.put(priority, new LongAdder());
+        }
+    }
+
+    /**
+     * Performs the request once a slot is granted to it. The slot is given back once the response body was read,
+     * see {@link RequestScheduler}.
+     *
+     * @param priority class of the request
+     * @param call     sends the request
+     * @return the response of the call, its body buffered unless it is a bulk request
+     * @throws ProcessingException when no slot was granted in time, the body could not be read, or thrown by the call
+     */
+    public Response invoke(Priority priority, Supplier<Response> call) {
+        acquire(priority);
+        Response response;
+        try {
+            response = call.get();
+        } catch (RuntimeException | Error e) {
+            release(priority);
+            throw e;
+        }
+        if (priority == Priority.BULK) {
+            return new SlotResponse(response, () -> release(priority));
+        }
+        try {
+            response.bufferEntity();
+        } catch (RuntimeException e) {
+            response.close();
+            throw e;
+        } finally {
+            release(priority);
+        }
+        return response;
+    }
+
+    private void acquire(Priority priority) {
+        lock.lock();
+        try {
+            Waiter waiter = new Waiter(priority, System.nanoTime());
+            queues.get(priority).addLast(waiter);
+            dispatch();
+
+            long remaining = Deadline.boundWait(maxWaitNanos);
+            while (!waiter.granted) {
+                if (remaining <= 0) {
+                    queues.get(priority).remove(waiter);
+                    Deadline.checkCurrent();
+                    timedOut.increment();
+                    throw new ProcessingException("Timed out waiting for a " + priority + " request slot");
+                }
+                try {
+                    remaining = granted.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    if (waiter.granted) {
+                        release(priority);
+                    } else {
+                        queues.get(priority).remove(waiter);
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new ProcessingException("Interrupted while waiting for a request slot", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Priority priority) {
+        lock.lock();
+        try {
+            inUse--;
+            running.merge(priority, -1, Integer::sum);
+            completed.get(priority).increment();
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Grants free slots to the waiters with the best effective priority. Called with the lock held.
+     */
+    private void dispatch() {
+        boolean any = false;
+        long now = System.nanoTime();
+        while (inUse < connections) {
+            Waiter next = null;
+            long best = Long.MAX_VALUE;
+            for (Priority priority : Priority.values()) {
+                Waiter head = queues.get(priority).peekFirst();
+                if (head == null || running.get(priority) >= budgets.get(priority)) {
+                    continue;
+                }
+                long rank = priority.ordinal() - (agingNanos > 0 ? (now - head.enqueued) / agingNanos : 0);
+                if (rank < best) {
+                    best = rank;
+                    next = head;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+
+            queues.get(next.priority).pollFirst();
+            if (best < next.priority.ordinal() && hasHigherWaiter(next.priority)) {
+                promoted.increment();
+            }
+            next.granted = true;
+            inUse++;
+            running.merge(next.priority, 1, Integer::sum);
+            any = true;
+        }
+        if (any) {
+            granted.signalAll();
+        }
+    }
+
+    private boolean hasHigherWaiter(Priority priority) {
+        for (Priority higher : Priority.values()) {
+            if (higher.ordinal() < priority.ordinal() && !queues.get(higher).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getRunning(Priority priority) {
+        lock.lock();
+        try {
+            return running.get(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued(Priority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCompleted(Priority priority) {
+        return completed.get(priority).sum();
+    }
+
+    /**
+     * @return requests that got a slot ahead of a waiting higher class because they aged
+     */
+    public long getPromoted() {
+        return promoted.sum();
+    }
+
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    private static final class Waiter {
+        final Priority priority;
+        final long enqueued;
+        boolean granted;
+
+        Waiter(Priority priority, long enqueued) {
+            this.priority = priority;
+            this.enqueued = enqueued;
+        }
+    }
+}
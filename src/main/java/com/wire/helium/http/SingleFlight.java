@@ -0,0 +1,151 @@
+package com.wire.helium.http;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lets concurrent identical reads share one backend request: the first caller performs it, callers arriving while
+ * it is in flight wait for its result or exception. Nothing is cached, the next call after completion fetches again.
+ * <p>
+ *     Coalescing is opt-in per {@link Endpoint}. Requests are only shared between callers using the same access
+ *     token, so one instance can be shared by all {@link com.wire.helium.API} instances of a process.
+ *     Waiters receive the same result object, which must therefore not be modified.
+ * </p>
+ * <p>
+ *     A waiter waits no longer than its own {@link Deadline}. When the request failed because the deadline of the
+ *     caller that sent it passed or was cancelled, the waiters send it again instead of failing with it.
+ * </p>
+ */
+public class SingleFlight {
+    public enum Endpoint {
+        CONVERSATION,
+        USER,
+        SELF,
+        DEVICE,
+        AVAILABLE_PREKEYS
+    }
+
+    @FunctionalInterface
+    public interface Fetch<T, E extends Exception> {
+        T fetch() throws E;
+    }
+
+    private final Set<Endpoint> enabled = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Map<Endpoint, LongAdder> requests = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LongAdder> shared = new EnumMap<>(Endpoint.class);
+
+    /**
+     * Coalescing disabled for every endpoint.
+     */
+    public SingleFlight() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            requests.put(endpoint, new LongAdder());
+            shared.put(endpoint, new LongAdder());
+        }
+    }
+
+    /**
+     * @return instance coalescing all endpoints
+     */
+    public static SingleFlight allEndpoints() {
+        SingleFlight singleFlight = new SingleFlight();
+        singleFlight.enable(EnumSet.allOf(Endpoint.class));
+        return singleFlight;
+    }
+
+    public SingleFlight enable(Set<Endpoint> endpoints) {
+        enabled.addAll(endpoints);
+        return this;
+    }
+
+    public SingleFlight disable(Set<Endpoint> endpoints) {
+        enabled.removeAll(endpoints);
+        return this;
+    }
+
+    public boolean isEnabled(Endpoint endpoint) {
+        return enabled.contains(endpoint);
+    }
+
+    /**
+     * Runs the fetch, or waits for an identical one already in flight.
+     *
+     * @param endpoint kind of request
+     * @param token    access token the request is made with
+     * @param argument what distinguishes the request within the endpoint, may be null
+     * @param fetch    the backend request
+     * @return the result of the request that was performed
+     * @throws E the exception thrown by the request that was performed
+     * @throws DeadlineException when the deadline of this caller passed or was cancelled while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public <T, E extends Exception> T execute(Endpoint endpoint, String token, Object argument, Fetch<T, E> fetch) throws E {
+        if (!enabled.contains(endpoint)) {
+            return fetch.fetch();
+        }
+
+        Key key = new Key(endpoint, token, argument);
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> leader;
+        while ((leader = inFlight.putIfAbsent(key, mine)) != null) {
+            shared.get(endpoint).increment();
+            try {
+                return (T) Deadline.await(leader);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for " + endpoint, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof DeadlineException) {
+                    // The sender ran out of its own time, which says nothing about the time of this caller
+                    shared.get(endpoint).decrement();
+                    inFlight.remove(key, leader);
+                    continue;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (E) cause;    // the same Fetch type is used for every call of an endpoint
+            }
+        }
+
+        requests.get(endpoint).increment();
+        try {
+            T result = fetch.fetch();
+            mine.complete(result);
+            return result;
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * @return requests actually sent for the endpoint while coalescing was enabled
+     */
+    public long getRequests(Endpoint endpoint) {
+        return requests.get(endpoint).sum();
+    }
+
+    /**
+     * @return calls that were served by another caller's request, i.e. requests saved
+     */
+    public long getShared(Endpoint endpoint) {
+        return shared.get(endpoint).sum();
+    }
+
+    private record Key(Endpoint endpoint, String token, Object argument) {
+    }
+}
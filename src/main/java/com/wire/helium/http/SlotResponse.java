@@ -0,0 +1,229 @@
+package com.wire.helium.http;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Response holding a {@link RequestScheduler} slot until its body was read. Reading an entity, buffering it or closing
+ * the response gives the slot back; an entity read as {@link InputStream} gives it back when the stream reaches its
+ * end or is closed.
+ */
+final class SlotResponse extends Response {
+    private final Response response;
+    private final Runnable release;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    SlotResponse(Response response, Runnable release) {
+        this.response = response;
+        this.release = release;
+    }
+
+    @Override
+    public <T> T readEntity(Class<T> entityType) {
+        return read(() -> response.readEntity(entityType));
+    }
+
+    @Override
+    public <T> T readEntity(GenericType<T> entityType) {
+        return read(() -> response.readEntity(entityType));
+    }
+
+    @Override
+    public <T> T readEntity(Class<T> entityType, Annotation[] annotations) {
+        return read(() -> response.readEntity(entityType, annotations));
+    }
+
+    @Override
+    public <T> T readEntity(GenericType<T> entityType, Annotation[] annotations) {
+        return read(() -> response.readEntity(entityType, annotations));
+    }
+
+    @Override
+    public boolean bufferEntity() {
+        try {
+            return response.bufferEntity();
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            response.close();
+        } finally {
+            release();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(Supplier<T> read) {
+        T entity;
+        try {
+            entity = read.get();
+        } catch (RuntimeException | Error e) {
+            release();
+            throw e;
+        }
+        if (entity instanceof InputStream) {
+            // Still streamed from the connection
+            return (T) new SlotStream((InputStream) entity);
+        }
+        release();
+        return entity;
+    }
+
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+
+    @Override
+    public int getStatus() {
+        return response.getStatus();
+    }
+
+    @Override
+    public StatusType getStatusInfo() {
+        return response.getStatusInfo();
+    }
+
+    @Override
+    public Object getEntity() {
+        return response.getEntity();
+    }
+
+    @Override
+    public boolean hasEntity() {
+        return response.hasEntity();
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        return response.getMediaType();
+    }
+
+    @Override
+    public Locale getLanguage() {
+        return response.getLanguage();
+    }
+
+    @Override
+    public int getLength() {
+        return response.getLength();
+    }
+
+    @Override
+    public Set<String> getAllowedMethods() {
+        return response.getAllowedMethods();
+    }
+
+    @Override
+    public Map<String, NewCookie> getCookies() {
+        return response.getCookies();
+    }
+
+    @Override
+    public EntityTag getEntityTag() {
+        return response.getEntityTag();
+    }
+
+    @Override
+    public Date getDate() {
+        return response.getDate();
+    }
+
+    @Override
+    public Date getLastModified() {
+        return response.getLastModified();
+    }
+
+    @Override
+    public URI getLocation() {
+        return response.getLocation();
+    }
+
+    @Override
+    public Set<Link> getLinks() {
+        return response.getLinks();
+    }
+
+    @Override
+    public boolean hasLink(String relation) {
+        return response.hasLink(relation);
+    }
+
+    @Override
+    public Link getLink(String relation) {
+        return response.getLink(relation);
+    }
+
+    @Override
+    public Link.Builder getLinkBuilder(String relation) {
+        return response.getLinkBuilder(relation);
+    }
+
+    @Override
+    public MultivaluedMap<String, Object> getMetadata() {
+        return response.getMetadata();
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getStringHeaders() {
+        return response.getStringHeaders();
+    }
+
+    @Override
+    public String getHeaderString(String name) {
+        return response.getHeaderString(name);
+    }
+
+    private final class SlotStream extends FilterInputStream {
+        SlotStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ended(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return ended(super.read(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                release();
+            }
+        }
+
+        private int ended(int read) {
+            if (read < 0) {
+                release();
+            }
+            return read;
+        }
+    }
+}
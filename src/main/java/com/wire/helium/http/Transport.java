@@ -0,0 +1,46 @@
+package com.wire.helium.http;
+
+import com.wire.helium.HeliumJsonProvider;
+import com.wire.helium.ProtobufBodyWriter;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+/**
+ * Creates clients for {@link com.wire.helium.LoginClient} and {@link com.wire.helium.API} on a chosen HTTP engine.
+ * Helium only talks JAX-RS, the engine is the Jersey connector underneath, so clients built elsewhere (e.g. by
+ * Dropwizard) keep working. Either way the JSON and protobuf providers Helium needs are registered, JSON through the
+ * shared {@link HeliumJsonProvider}.
+ */
+public final class Transport {
+    public enum Engine {
+        /**
+         * Jersey's default connector on {@link java.net.HttpURLConnection}, HTTP/1.1
+         */
+        JERSEY,
+        /**
+         * {@link JdkHttpConnector} on {@link java.net.http.HttpClient}, HTTP/2 where available
+         */
+        JDK
+    }
+
+    private Transport() {
+    }
+
+    public static Client newClient(Engine engine) {
+        return newClient(engine, new ClientConfig());
+    }
+
+    /**
+     * @param engine HTTP engine to send requests with
+     * @param config further settings, e.g. timeouts. Its connector provider is replaced.
+     */
+    public static Client newClient(Engine engine, ClientConfig config) {
+        config.connectorProvider(engine == Engine.JDK ? new JdkHttpConnectorProvider() : new HttpUrlConnectorProvider());
+        return ClientBuilder.newClient(config)
+                .register(HeliumJsonProvider.class)
+                .register(ProtobufBodyWriter.class);
+    }
+}
@@ -0,0 +1,148 @@
+package com.wire.helium.models;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.wire.helium.API;
+import com.wire.messages.Otr;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Recipients of an encrypted message held as client ids as numbers and ciphertexts as bytes, the form the crypto box
+ * returns them in. Unlike {@link com.wire.xenon.models.otr.Recipients} no hex client ids or Base64 strings are made
+ * on the way to the request body: each ciphertext is Base64 encoded straight into the bytes of the protobuf
+ * <code>text</code> field, the same field content {@link API#sendMessage(com.wire.xenon.models.otr.OtrMessage, boolean)}
+ * sends. The buffers are read when the message is built, so they must not change before.
+ * Sent with {@link API#sendMessage(long, BinaryRecipients, boolean)}.
+ * <p>
+ *     Not thread safe.
+ * </p>
+ */
+public class BinaryRecipients {
+    private final Map<String, Map<UUID, Clients>> domains = new HashMap<>();
+    private int size;
+
+    /**
+     * @param clientId client id as formatted by the backend
+     * @return the client id as a number
+     */
+    public static long clientId(String clientId) {
+        return Long.parseUnsignedLong(clientId, 16);
+    }
+
+    /**
+     * Adds the ciphertext for a client, replacing the one added before for the same client.
+     *
+     * @param userId   owner of the client
+     * @param clientId the client
+     * @param cipher   encrypted message, the remaining bytes are sent
+     * @return this
+     */
+    public BinaryRecipients add(QualifiedId userId, long clientId, ByteBuffer cipher) {
+        Clients clients = domains
+                .computeIfAbsent(userId.domain, k -> new HashMap<>())
+                .computeIfAbsent(userId.id, k -> new Clients());
+        if (clients.put(clientId, cipher)) {
+            size++;
+        }
+        return this;
+    }
+
+    public BinaryRecipients add(QualifiedId userId, long clientId, byte[] cipher) {
+        return add(userId, clientId, ByteBuffer.wrap(cipher));
+    }
+
+    /**
+     * @return the ciphertext added for the client, null if there is none
+     */
+    public ByteBuffer get(QualifiedId userId, long clientId) {
+        Map<UUID, Clients> users = domains.get(userId.domain);
+        Clients clients = users == null ? null : users.get(userId.id);
+        return clients == null ? null : clients.get(clientId);
+    }
+
+    /**
+     * @return number of clients
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param sender client id of the sender
+     * @return message to the recipients, without a client mismatch strategy
+     */
+    public Otr.QualifiedNewOtrMessage.Builder toProtoMessageBuilder(long sender) {
+        Otr.QualifiedNewOtrMessage.Builder messageBuilder = Otr.QualifiedNewOtrMessage.newBuilder()
+                .setSender(Otr.ClientId.newBuilder().setClient(sender));
+
+        for (Map.Entry<String, Map<UUID, Clients>> domain : domains.entrySet()) {
+            Otr.QualifiedUserEntry.Builder domainBuilder = messageBuilder.addRecipientsBuilder()
+                    .setDomain(domain.getKey());
+            for (Map.Entry<UUID, Clients> user : domain.getValue().entrySet()) {
+                Otr.UserEntry.Builder userBuilder = domainBuilder.addEntriesBuilder()
+                        .setUser(Otr.UserId.newBuilder().setUuid(API.getProtoBytesFromUUID(user.getKey())));
+                Clients clients = user.getValue();
+                for (int i = 0; i < clients.size; i++) {
+                    userBuilder.addClientsBuilder()
+                            .setClient(Otr.ClientId.newBuilder().setClient(clients.ids[i]))
+                            .setText(encode(clients.ciphers[i]));
+                }
+            }
+        }
+        return messageBuilder;
+    }
+
+    private static ByteString encode(ByteBuffer cipher) {
+        // The encoded buffer is new and never changed, so it needs no defensive copy
+        return UnsafeByteOperations.unsafeWrap(Base64.getEncoder().encode(cipher.duplicate()));
+    }
+
+    /**
+     * Clients of one user, a handful at most, in parallel arrays
+     */
+    private static final class Clients {
+        private long[] ids = new long[2];
+        private ByteBuffer[] ciphers = new ByteBuffer[2];
+        private int size;
+
+        /**
+         * @return true if the client was not there yet
+         */
+        boolean put(long clientId, ByteBuffer cipher) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == clientId) {
+                    ciphers[i] = cipher;
+                    return false;
+                }
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                ciphers = Arrays.copyOf(ciphers, size * 2);
+            }
+            ids[size] = clientId;
+            ciphers[size] = cipher;
+            size++;
+            return true;
+        }
+
+        ByteBuffer get(long clientId) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == clientId) {
+                    return ciphers[i];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.wire.helium.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.wire.xenon.models.otr.PreKey;
+
+import java.util.List;
+
+/**
+ * Body of <code>PUT /clients/{id}</code> adding one-time prekeys to a client
+ */
+public class ClientPreKeys {
+    @JsonProperty("prekeys")
+    public List<PreKey> prekeys;
+
+    public ClientPreKeys() {
+    }
+
+    public ClientPreKeys(List<PreKey> prekeys) {
+        this.prekeys = prekeys;
+    }
+}
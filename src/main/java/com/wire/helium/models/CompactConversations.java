@@ -0,0 +1,189 @@
+package com.wire.helium.models;
+
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Member;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.backend.models.Service;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * List of conversations stored column-wise: conversation and member ids in {@link QualifiedIds}, the other fields in
+ * arrays, so a large account takes a fraction of the heap of the {@link Conversation} objects. {@link #get(int)}
+ * creates the conversation on every call; {@link #id(int)}, {@link #name(int)} and {@link #members(int)} read single
+ * fields without that.
+ * <p>
+ *     Members without an id are not kept. Appending is the only change supported. Not thread safe.
+ * </p>
+ */
+public class CompactConversations extends AbstractList<Conversation> implements RandomAccess {
+    private static final byte HAS_CREATOR = 1;
+    private static final byte HAS_MEMBERS = 2;
+    private static final byte HAS_OTHERS = 4;
+    private static final Conversation.Protocol[] PROTOCOLS = Conversation.Protocol.values();
+    private static final int NO_STATUS = Integer.MIN_VALUE;
+
+    private final QualifiedIds ids;
+    private String[] names;
+    private String[] mlsGroupIds;
+    private byte[] protocols;
+    private byte[] flags;
+    private long[] creatorMost;
+    private long[] creatorLeast;
+    // Members of conversation i are memberIds[memberStart[i], memberStart[i + 1])
+    private int[] memberStart;
+
+    private final QualifiedIds memberIds;
+    private int[] memberStatus;
+    private final Map<Integer, Service> services = new HashMap<>();
+
+    public CompactConversations() {
+        this(16);
+    }
+
+    public CompactConversations(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new QualifiedIds(capacity);
+        names = new String[capacity];
+        mlsGroupIds = new String[capacity];
+        protocols = new byte[capacity];
+        flags = new byte[capacity];
+        creatorMost = new long[capacity];
+        creatorLeast = new long[capacity];
+        memberStart = new int[capacity + 1];
+        memberIds = new QualifiedIds(capacity * 4);
+        memberStatus = new int[capacity * 4];
+    }
+
+    @Override
+    public boolean add(Conversation conversation) {
+        int i = ids.size();
+        if (i == names.length) {
+            grow(i + (i >> 1) + 1);
+        }
+        ids.add(conversation.id);
+        names[i] = conversation.name;
+        mlsGroupIds[i] = conversation.mlsGroupId;
+        protocols[i] = (byte) (conversation.protocol == null ? -1 : conversation.protocol.ordinal());
+        byte flag = 0;
+        if (conversation.creator != null) {
+            flag |= HAS_CREATOR;
+            creatorMost[i] = conversation.creator.getMostSignificantBits();
+            creatorLeast[i] = conversation.creator.getLeastSignificantBits();
+        }
+        if (conversation.members != null) {
+            flag |= HAS_MEMBERS;
+            if (conversation.members.others != null) {
+                flag |= HAS_OTHERS;
+                for (Member member : conversation.members.others) {
+                    if (member.id != null) {
+                        addMember(member);
+                    }
+                }
+            }
+        }
+        flags[i] = flag;
+        memberStart[i + 1] = memberIds.size();
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Conversation get(int i) {
+        Conversation conversation = new Conversation();
+        conversation.id = ids.get(i);
+        conversation.name = names[i];
+        conversation.mlsGroupId = mlsGroupIds[i];
+        conversation.protocol = protocols[i] < 0 ? null : PROTOCOLS[protocols[i]];
+        if ((flags[i] & HAS_CREATOR) != 0) {
+            conversation.creator = new UUID(creatorMost[i], creatorLeast[i]);
+        }
+        if ((flags[i] & HAS_MEMBERS) != 0) {
+            conversation.members = new Payload.Members();
+            if ((flags[i] & HAS_OTHERS) != 0) {
+                conversation.members.others = new ArrayList<>(memberStart[i + 1] - memberStart[i]);
+                for (int m = memberStart[i]; m < memberStart[i + 1]; m++) {
+                    Member member = new Member();
+                    member.id = memberIds.get(m);
+                    member.status = memberStatus[m] == NO_STATUS ? null : memberStatus[m];
+                    member.service = services.get(m);
+                    conversation.members.others.add(member);
+                }
+            }
+        }
+        return conversation;
+    }
+
+    @Override
+    public int size() {
+        return ids.size();
+    }
+
+    public QualifiedId id(int i) {
+        return ids.get(i);
+    }
+
+    public String name(int i) {
+        checkIndex(i);
+        return names[i];
+    }
+
+    /**
+     * @return ids of the other members, a view
+     */
+    public List<QualifiedId> members(int i) {
+        checkIndex(i);
+        return memberIds.subList(memberStart[i], memberStart[i + 1]);
+    }
+
+    /**
+     * @return position of the conversation with the given id, -1 if there is none
+     */
+    public int indexOfId(QualifiedId conversationId) {
+        return ids.indexOf(conversationId);
+    }
+
+    /**
+     * @return ids of all the conversations, a view
+     */
+    public List<QualifiedId> ids() {
+        return Collections.unmodifiableList(ids);
+    }
+
+    private void addMember(Member member) {
+        int m = memberIds.size();
+        if (m == memberStatus.length) {
+            memberStatus = Arrays.copyOf(memberStatus, m + (m >> 1) + 1);
+        }
+        memberIds.add(member.id);
+        memberStatus[m] = member.status == null ? NO_STATUS : member.status;
+        if (member.service != null) {
+            services.put(m, member.service);
+        }
+    }
+
+    private void grow(int capacity) {
+        names = Arrays.copyOf(names, capacity);
+        mlsGroupIds = Arrays.copyOf(mlsGroupIds, capacity);
+        protocols = Arrays.copyOf(protocols, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        creatorMost = Arrays.copyOf(creatorMost, capacity);
+        creatorLeast = Arrays.copyOf(creatorLeast, capacity);
+        memberStart = Arrays.copyOf(memberStart, capacity + 1);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size());
+        }
+    }
+}
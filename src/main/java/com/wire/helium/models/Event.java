@@ -18,13 +18,29 @@
 
 package com.wire.helium.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
+/**
+ * One notification. Read without an {@link EventFilter}, the payloads are bound right away into {@link #payload}.
+ * Read with a filter, {@link #payload} stays null until {@link #getPayloads()} binds the accepted payloads, while
+ * {@link #getTypes()} and {@link #getConversation()} answer from what was picked up while scanning. Use the
+ * accessors in code that may see both.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
+@JsonDeserialize(using = EventDeserializer.class)
 public class Event {
     @JsonProperty
     public UUID id;
@@ -32,4 +48,101 @@ public class Event {
     public Payload[] payload;
     @JsonProperty("transient")
     public boolean trans;
+
+    // Accepted payloads not bound yet, read with a filter only
+    @JsonIgnore
+    RawPayload[] raw;
+    // Number of payloads the filter dropped
+    @JsonIgnore
+    int dropped;
+
+    /**
+     * @return the payloads, bound on the first call when the event was read with a filter
+     * @throws UncheckedIOException when a buffered payload cannot be bound
+     */
+    @JsonIgnore
+    public Payload[] getPayloads() {
+        if (payload == null && raw != null) {
+            Payload[] bound = new Payload[raw.length];
+            for (int i = 0; i < raw.length; i++) {
+                bound[i] = raw[i].bind();
+            }
+            payload = bound;
+            raw = null;
+        }
+        return payload;
+    }
+
+    /**
+     * @return types of the payloads, without binding them
+     */
+    @JsonIgnore
+    public List<String> getTypes() {
+        List<String> types = new ArrayList<>();
+        if (raw != null) {
+            for (RawPayload p : raw) {
+                types.add(p.type);
+            }
+        } else if (payload != null) {
+            for (Payload p : payload) {
+                if (p != null) {
+                    types.add(p.type);
+                }
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @return conversation of the first payload that has one, without binding the payloads; null if none has
+     */
+    @JsonIgnore
+    public QualifiedId getConversation() {
+        if (raw != null) {
+            for (RawPayload p : raw) {
+                if (p.conversation != null) {
+                    return p.conversation;
+                }
+            }
+        } else if (payload != null) {
+            for (Payload p : payload) {
+                if (p != null && p.conversation != null) {
+                    return p.conversation;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the filter dropped every payload; the event still moves the notification cursor
+     */
+    @JsonIgnore
+    public boolean isSkipped() {
+        return dropped > 0 && (raw == null || raw.length == 0) && (payload == null || payload.length == 0);
+    }
+
+    /**
+     * A payload as buffered JSON tokens plus the fields needed before binding
+     */
+    static final class RawPayload {
+        final String type;
+        final QualifiedId conversation;
+        private final TokenBuffer json;
+
+        RawPayload(String type, QualifiedId conversation, TokenBuffer json) {
+            this.type = type;
+            this.conversation = conversation;
+            this.json = json;
+        }
+
+        Payload bind() {
+            try (JsonParser parser = json.asParser()) {
+                parser.nextToken();
+                return parser.readValueAs(Payload.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package com.wire.helium.models;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.deser.ResolvableDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads an {@link Event}. Without an {@link EventFilter} in the context attributes the payloads are bound as they
+ * come; with one they are scanned, see {@link #scan(JsonParser, DeserializationContext, EventFilter)}.
+ */
+class EventDeserializer extends StdDeserializer<Event> implements ResolvableDeserializer {
+    private static final long serialVersionUID = 1L;
+    private static final String CONVERSATION = "qualified_conversation";
+
+    // Looked up once instead of per value
+    private JsonDeserializer<Object> uuids;
+    private JsonDeserializer<Object> payloads;
+    private JsonDeserializer<Object> qualifiedIds;
+
+    EventDeserializer() {
+        super(Event.class);
+    }
+
+    @Override
+    public void resolve(DeserializationContext ctxt) throws JsonMappingException {
+        uuids = ctxt.findRootValueDeserializer(ctxt.constructType(UUID.class));
+        payloads = ctxt.findRootValueDeserializer(ctxt.constructType(Payload[].class));
+        qualifiedIds = ctxt.findRootValueDeserializer(ctxt.constructType(QualifiedId.class));
+    }
+
+    @Override
+    public Event deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return (Event) ctxt.handleUnexpectedToken(Event.class, p);
+        }
+        EventFilter filter = (EventFilter) ctxt.getAttribute(EventFilter.class);
+        Event event = new Event();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken token = p.nextToken();
+            switch (name) {
+                case "id":
+                    event.id = token == JsonToken.VALUE_NULL ? null : (UUID) uuids.deserialize(p, ctxt);
+                    break;
+                case "transient":
+                    event.trans = p.getValueAsBoolean();
+                    break;
+                case "payload":
+                    if (token == JsonToken.VALUE_NULL) {
+                        break;
+                    }
+                    if (filter == null) {
+                        event.payload = (Payload[]) payloads.deserialize(p, ctxt);
+                    } else {
+                        readRaw(p, ctxt, filter, event);
+                    }
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+        return event;
+    }
+
+    private void readRaw(JsonParser p, DeserializationContext ctxt, EventFilter filter, Event event)
+            throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            ctxt.handleUnexpectedToken(Payload[].class, p);
+            return;
+        }
+        List<Event.RawPayload> accepted = new ArrayList<>(1);
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            Event.RawPayload payload = scan(p, ctxt, filter);
+            if (payload == null) {
+                event.dropped++;
+            } else {
+                accepted.add(payload);
+            }
+        }
+        event.raw = accepted.toArray(new Event.RawPayload[0]);
+    }
+
+    /**
+     * Buffers one payload object and picks up its type and conversation on the way. As soon as the type turns out
+     * to be filtered, the rest of the object is skipped, which costs no more than tokenizing it.
+     *
+     * @return the buffered payload, null if the filter dropped it
+     */
+    private Event.RawPayload scan(JsonParser p, DeserializationContext ctxt, EventFilter filter)
+            throws IOException {
+        // Created on the first field kept, so payloads starting with a filtered type allocate nothing
+        TokenBuffer buffer = null;
+        String type = null;
+        QualifiedId conversation = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken token = p.nextToken();
+            if ("type".equals(name) && token == JsonToken.VALUE_STRING) {
+                type = p.getText();
+                if (!filter.accepts(type)) {
+                    skipRest(p);
+                    return null;
+                }
+            } else if (CONVERSATION.equals(name) && token == JsonToken.START_OBJECT) {
+                TokenBuffer value = ctxt.bufferForInputBuffering(p);
+                value.copyCurrentStructure(p);
+                try (JsonParser parser = value.asParser()) {
+                    parser.nextToken();
+                    conversation = (QualifiedId) qualifiedIds.deserialize(parser, ctxt);
+                }
+                buffer = field(buffer, p, ctxt, name);
+                buffer.append(value);
+                continue;
+            }
+            buffer = field(buffer, p, ctxt, name);
+            buffer.copyCurrentStructure(p);
+        }
+        if (buffer == null) {
+            buffer = field(null, p, ctxt, null);
+        }
+        buffer.writeEndObject();
+        return type == null && !filter.accepts(null) ? null : new Event.RawPayload(type, conversation, buffer);
+    }
+
+    /**
+     * Starts the buffer if needed and writes a field name into it, none if the name is null
+     */
+    private static TokenBuffer field(TokenBuffer buffer, JsonParser p, DeserializationContext ctxt, String name)
+            throws IOException {
+        if (buffer == null) {
+            buffer = ctxt.bufferForInputBuffering(p);
+            buffer.writeStartObject();
+        }
+        if (name != null) {
+            buffer.writeFieldName(name);
+        }
+        return buffer;
+    }
+
+    private static void skipRest(JsonParser p) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            p.nextToken();
+            p.skipChildren();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.wire.helium.models;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Payload types a client wants out of the notification stream. Events read with a filter are decoded lazily: every
+ * payload is scanned for its <code>type</code>, the ones of other types are skipped without binding, and the
+ * accepted ones are kept as buffered JSON until {@link Event#getPayloads()} is called.
+ * <p>
+ *     Immutable; {@link #with(String...)} returns a new filter, so each subscriber can add the types it handles.
+ * </p>
+ */
+public final class EventFilter {
+    private static final EventFilter ALL = new EventFilter(null);
+
+    // null accepts every type
+    private final Set<String> types;
+
+    private EventFilter(Set<String> types) {
+        this.types = types;
+    }
+
+    /**
+     * @return filter that keeps every payload, for lazy decoding alone
+     */
+    public static EventFilter all() {
+        return ALL;
+    }
+
+    /**
+     * @param types payload types to keep, e.g. <code>conversation.otr-message-add</code>
+     */
+    public static EventFilter types(String... types) {
+        return types(Arrays.asList(types));
+    }
+
+    public static EventFilter types(Collection<String> types) {
+        return new EventFilter(Collections.unmodifiableSet(new HashSet<>(types)));
+    }
+
+    /**
+     * @return filter that also keeps the given types
+     */
+    public EventFilter with(String... types) {
+        if (this.types == null) {
+            return this;
+        }
+        Set<String> union = new HashSet<>(this.types);
+        union.addAll(Arrays.asList(types));
+        return new EventFilter(Collections.unmodifiableSet(union));
+    }
+
+    public boolean accepts(String type) {
+        return types == null || types.contains(type);
+    }
+
+    /**
+     * @return the accepted types, null if all are accepted
+     */
+    public Set<String> getTypes() {
+        return types;
+    }
+
+    @Override
+    public String toString() {
+        return types == null ? "EventFilter[all]" : "EventFilter" + types;
+    }
+}
@@ -1,5 +1,6 @@
 package com.wire.helium.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -16,4 +17,8 @@ public class NotificationList {
     @JsonProperty
     @NotNull
     public List<Event> notifications = new ArrayList<>();
+
+    // Set when the requested `since` id is unknown to the backend: notifications were lost and local state must be resynced
+    @JsonIgnore
+    public boolean gap;
 }
@@ -0,0 +1,177 @@
+package com.wire.helium.models;
+
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+/**
+ * List of qualified ids stored in primitive arrays: the UUID bits as two longs and the domain as an index into a table
+ * of the distinct domains, 20 bytes per id instead of a {@link QualifiedId}, its {@link UUID} and a domain string each.
+ * {@link #get(int)} creates the id on every call, hold on to it only when needed; {@link #uuid(int)} and
+ * {@link #domain(int)} read the parts.
+ * <p>
+ *     Appending is the only change supported. {@link #indexOf(Object)} and {@link #contains(Object)} use a hash index
+ *     built on first use. Not thread safe.
+ * </p>
+ */
+public class QualifiedIds extends AbstractList<QualifiedId> implements RandomAccess {
+    private long[] most;
+    private long[] least;
+    private int[] domains;
+    private int size;
+
+    private final Map<String, Integer> domainIndex = new HashMap<>();
+    private final List<String> domainTable = new ArrayList<>();
+
+    // Open addressing table of position + 1, 0 is free; null until the first lookup
+    private int[] index;
+
+    public QualifiedIds() {
+        this(16);
+    }
+
+    public QualifiedIds(int capacity) {
+        capacity = Math.max(capacity, 1);
+        most = new long[capacity];
+        least = new long[capacity];
+        domains = new int[capacity];
+    }
+
+    @Override
+    public boolean add(QualifiedId id) {
+        return add(id.id, id.domain);
+    }
+
+    public boolean add(UUID id, String domain) {
+        if (size == most.length) {
+            int capacity = size + (size >> 1) + 1;
+            most = Arrays.copyOf(most, capacity);
+            least = Arrays.copyOf(least, capacity);
+            domains = Arrays.copyOf(domains, capacity);
+        }
+        most[size] = id.getMostSignificantBits();
+        least[size] = id.getLeastSignificantBits();
+        domains[size] = intern(domain);
+        size++;
+        modCount++;
+        if (index != null) {
+            if (size * 2 > index.length) {
+                index = null;
+            } else {
+                insert(size - 1);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public QualifiedId get(int i) {
+        return new QualifiedId(uuid(i), domain(i));
+    }
+
+    public UUID uuid(int i) {
+        checkIndex(i);
+        return new UUID(most[i], least[i]);
+    }
+
+    public String domain(int i) {
+        checkIndex(i);
+        int domain = domains[i];
+        return domain < 0 ? null : domainTable.get(domain);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of distinct domains
+     */
+    public int domainCount() {
+        return domainTable.size();
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof QualifiedId)) {
+            return -1;
+        }
+        QualifiedId id = (QualifiedId) o;
+        if (id.id == null) {
+            return -1;
+        }
+        Integer domain = id.domain == null ? Integer.valueOf(-1) : domainIndex.get(id.domain);
+        if (domain == null) {
+            return -1;
+        }
+        long m = id.id.getMostSignificantBits();
+        long l = id.id.getLeastSignificantBits();
+        if (index == null) {
+            buildIndex();
+        }
+        int mask = index.length - 1;
+        for (int slot = hash(m, l, domain) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int i = index[slot] - 1;
+            if (most[i] == m && least[i] == l && domains[i] == domain) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    private int intern(String domain) {
+        if (domain == null) {
+            return -1;
+        }
+        return domainIndex.computeIfAbsent(domain, d -> {
+            domainTable.add(d);
+            return domainTable.size() - 1;
+        });
+    }
+
+    private void buildIndex() {
+        index = new int[Math.max(16, Integer.highestOneBit(Math.max(size, 1) * 4 - 1) << 1)];
+        for (int i = 0; i < size; i++) {
+            insert(i);
+        }
+    }
+
+    /**
+     * Adds a position to the index unless an equal id is there already, so lookups find the first one
+     */
+    private void insert(int i) {
+        int mask = index.length - 1;
+        int slot = hash(most[i], least[i], domains[i]) & mask;
+        for (; index[slot] != 0; slot = (slot + 1) & mask) {
+            int other = index[slot] - 1;
+            if (most[other] == most[i] && least[other] == least[i] && domains[other] == domains[i]) {
+                return;
+            }
+        }
+        index[slot] = i + 1;
+    }
+
+    private static int hash(long most, long least, int domain) {
+        long h = (most ^ least) * 0x9E3779B97F4A7C15L + domain;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size);
+        }
+    }
+}
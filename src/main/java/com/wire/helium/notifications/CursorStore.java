@@ -0,0 +1,26 @@
+package com.wire.helium.notifications;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Durable storage for the id of the last processed notification.
+ * The key is chosen by the caller and should identify the user and the client the notifications are fetched for.
+ */
+public interface CursorStore {
+    /**
+     * @param key user/client key
+     * @return the last checkpointed notification id or null when nothing was stored yet
+     * @throws IOException when the underlying storage cannot be read
+     */
+    UUID load(String key) throws IOException;
+
+    /**
+     * Stores the id of the last processed notification, replacing any previous value.
+     *
+     * @param key user/client key
+     * @param lastEventId id of the last processed notification, null to start from the beginning of the stream
+     * @throws IOException when the underlying storage cannot be written
+     */
+    void save(String key, UUID lastEventId) throws IOException;
+}
@@ -0,0 +1,20 @@
+package com.wire.helium.notifications;
+
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.util.UUID;
+
+public interface CursorsDAO {
+    @SqlUpdate("INSERT INTO Notification_Cursors (id, last_event) VALUES (:id, CAST(:lastEvent AS UUID)) " +
+            "ON CONFLICT (id) DO UPDATE SET last_event = EXCLUDED.last_event")
+    int upsert(@Bind("id") String id,
+               @Bind("lastEvent") UUID lastEvent);
+
+    @SqlQuery("SELECT last_event FROM Notification_Cursors WHERE id = :id")
+    UUID get(@Bind("id") String id);
+
+    @SqlUpdate("DELETE FROM Notification_Cursors WHERE id = :id")
+    int delete(@Bind("id") String id);
+}
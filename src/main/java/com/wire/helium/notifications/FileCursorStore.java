@@ -0,0 +1,53 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.tools.FileNames;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * {@link CursorStore} keeping one small file per key inside a directory.
+ * <p>
+ *     Every save writes a temporary file and atomically moves it over the previous one,
+ *     so a crash in the middle of a checkpoint leaves either the old or the new id, never a torn file.
+ *     File names are the keys in URL-safe Base64, so any key stays inside the directory.
+ * </p>
+ */
+public class FileCursorStore implements CursorStore {
+    private final Path directory;
+
+    public FileCursorStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public UUID load(String key) throws IOException {
+        try {
+            String content = Files.readString(file(key), StandardCharsets.US_ASCII).trim();
+            return content.isEmpty() ? null : UUID.fromString(content);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String key, UUID lastEventId) throws IOException {
+        Path target = file(key);
+        Path tmp = Files.createTempFile(directory, FileNames.encodeKey(key), ".tmp");
+        try {
+            Files.writeString(tmp, lastEventId != null ? lastEventId.toString() : "", StandardCharsets.US_ASCII);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path file(String key) {
+        return directory.resolve(FileNames.encodeKey(key) + ".cursor");
+    }
+}
@@ -0,0 +1,31 @@
+package com.wire.helium.notifications;
+
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.UUID;
+
+/**
+ * {@link CursorStore} backed by the <code>Notification_Cursors</code> table (see {@link com.wire.helium.HeliumMigrations}).
+ * The passed {@link Jdbi} instance must have the SqlObject plugin installed.
+ */
+public class JdbiCursorStore implements CursorStore {
+    private final CursorsDAO cursorsDAO;
+
+    public JdbiCursorStore(Jdbi jdbi) {
+        cursorsDAO = jdbi.onDemand(CursorsDAO.class);
+    }
+
+    @Override
+    public UUID load(String key) {
+        return cursorsDAO.get(key);
+    }
+
+    @Override
+    public void save(String key, UUID lastEventId) {
+        cursorsDAO.upsert(key, lastEventId);
+    }
+
+    public void delete(String key) {
+        cursorsDAO.delete(key);
+    }
+}
@@ -0,0 +1,25 @@
+package com.wire.helium.notifications;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Non-durable {@link CursorStore}, useful for tests and short-lived processes.
+ */
+public class MemoryCursorStore implements CursorStore {
+    private final ConcurrentHashMap<String, UUID> cursors = new ConcurrentHashMap<>();
+
+    @Override
+    public UUID load(String key) {
+        return cursors.get(key);
+    }
+
+    @Override
+    public void save(String key, UUID lastEventId) {
+        if (lastEventId == null) {
+            cursors.remove(key);
+        } else {
+            cursors.put(key, lastEventId);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.wire.helium.notifications;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Position of a notification consumer, checkpointed to a {@link CursorStore} in batches.
+ * <p>
+ *     {@link #advance(UUID)} only moves the in-memory position; the store is written once every
+ *     <code>checkpointInterval</code> events or when <code>maxCheckpointDelayMillis</code> passed since the last write,
+ *     whatever comes first. After a crash at most one batch of already processed events is delivered again,
+ *     handlers must therefore tolerate seeing the tail of the previous run twice.
+ * </p>
+ */
+public class NotificationCursor {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+    public static final long DEFAULT_MAX_CHECKPOINT_DELAY_MILLIS = 5_000;
+
+    private final CursorStore store;
+    private final String key;
+    private final int checkpointInterval;
+    private final long maxCheckpointDelayMillis;
+
+    private UUID position;
+    private UUID checkpointed;
+    private int pending;
+    private long lastCheckpoint;
+    private long checkpoints;
+
+    public NotificationCursor(CursorStore store, String key) throws IOException {
+        this(store, key, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_MAX_CHECKPOINT_DELAY_MILLIS);
+    }
+
+    /**
+     * Creates the cursor and resumes from the id stored under the given key.
+     *
+     * @param store                    where checkpoints are written
+     * @param key                      user/client key
+     * @param checkpointInterval       number of processed events between two checkpoints
+     * @param maxCheckpointDelayMillis upper bound on the time an advanced position stays unsaved
+     * @throws IOException when the stored position cannot be loaded
+     */
+    public NotificationCursor(CursorStore store, String key, int checkpointInterval, long maxCheckpointDelayMillis)
+            throws IOException {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("checkpointInterval must be positive");
+        }
+        this.store = store;
+        this.key = key;
+        this.checkpointInterval = checkpointInterval;
+        this.maxCheckpointDelayMillis = maxCheckpointDelayMillis;
+        this.position = store.load(key);
+        this.checkpointed = position;
+        this.lastCheckpoint = System.currentTimeMillis();
+    }
+
+    /**
+     * @return id of the last processed notification, to be used as <code>since</code> for the next fetch.
+     * Null when the consumer starts from scratch.
+     */
+    public synchronized UUID position() {
+        return position;
+    }
+
+    /**
+     * Marks the notification as processed and checkpoints if the current batch is full.
+     *
+     * @param eventId id of the processed notification
+     * @throws IOException when the checkpoint cannot be written
+     */
+    public synchronized void advance(UUID eventId) throws IOException {
+        advance(eventId, 1);
+    }
+
+    /**
+     * Marks a run of notifications ending with the given one as processed and checkpoints if the current batch is full.
+     *
+     * @param eventId id of the newest processed notification
+     * @param events  number of notifications processed since the previous position
+     * @throws IOException when the checkpoint cannot be written
+     */
+    public synchronized void advance(UUID eventId, int events) throws IOException {
+        if (eventId == null || events == 0) {
+            return;
+        }
+        position = eventId;
+        pending += events;
+        if (pending >= checkpointInterval || System.currentTimeMillis() - lastCheckpoint >= maxCheckpointDelayMillis) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Moves the cursor to the given id and writes it immediately, e.g. after a resync.
+     *
+     * @param eventId new position, null to start from the beginning of the stream
+     * @throws IOException when the checkpoint cannot be written
+     */
+    public synchronized void reset(UUID eventId) throws IOException {
+        position = eventId;
+        pending = 0;
+        write();
+    }
+
+    /**
+     * Writes the current position to the store, if it changed since the last checkpoint.
+     *
+     * @throws IOException when the checkpoint cannot be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        pending = 0;
+        if (position != null && !position.equals(checkpointed)) {
+            write();
+        }
+    }
+
+    /**
+     * @return number of writes issued to the store so far
+     */
+    public synchronized long getCheckpoints() {
+        return checkpoints;
+    }
+
+    private void write() throws IOException {
+        store.save(key, position);
+        checkpointed = position;
+        lastCheckpoint = System.currentTimeMillis();
+        checkpoints++;
+    }
+}
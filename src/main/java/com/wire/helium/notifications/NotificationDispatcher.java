@@ -0,0 +1,226 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.models.Event;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.tools.Logger;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes notifications in parallel while keeping the order of events within the same conversation.
+ * <p>
+ *     Every event is routed to one of <code>parallelism</code> single threaded lanes, chosen by the conversation
+ *     of its payload (events without a conversation all share one lane). Lanes run concurrently, so decrypting
+ *     a busy account's backlog uses all the cores instead of one.
+ * </p>
+ * <p>
+ *     {@link #submit(Event)} blocks once <code>maxInFlight</code> events are queued or running, which throttles
+ *     whoever fetches the notifications. {@link #completedPosition()} is the id of the newest event for which
+ *     all the previously submitted events are done as well, the only position that is safe to checkpoint.
+ * </p>
+ * <p>
+ *     After the first handler failure no further events are run; the failure is reported by
+ *     {@link #getFailure()} and the completed position stays before the failed event.
+ * </p>
+ */
+public class NotificationDispatcher implements Closeable {
+    private static final AtomicInteger DISPATCHER_COUNT = new AtomicInteger();
+
+    private final NotificationHandler handler;
+    private final ExecutorService[] lanes;
+    private final Semaphore inFlight;
+
+    private final ArrayDeque<Slot> pending = new ArrayDeque<>(); // guarded by this
+    private UUID completedPosition; // guarded by this
+    private long completedCount; // guarded by this
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    public NotificationDispatcher(NotificationHandler handler) {
+        this(handler, Runtime.getRuntime().availableProcessors(), 1_000);
+    }
+
+    /**
+     * @param handler     called for every event, concurrently for events of different conversations
+     * @param parallelism number of lanes (threads)
+     * @param maxInFlight maximum number of submitted but not yet completed events
+     */
+    public NotificationDispatcher(NotificationHandler handler, int parallelism, int maxInFlight) {
+        if (parallelism < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("parallelism and maxInFlight must be positive");
+        }
+        this.handler = handler;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.lanes = new ExecutorService[parallelism];
+
+        int id = DISPATCHER_COUNT.incrementAndGet();
+        for (int i = 0; i < parallelism; i++) {
+            String name = String.format("helium-dispatcher-%d-%d", id, i);
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Queues the event on the lane of its conversation, waiting while too many events are in flight.
+     *
+     * @param event notification to process
+     * @return false when the event was not queued because a previous event failed
+     * @throws InterruptedException  when interrupted while waiting for capacity
+     * @throws IllegalStateException when the dispatcher was closed
+     */
+    public boolean submit(Event event) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("NotificationDispatcher is closed");
+        }
+        if (failure != null) {
+            return false;
+        }
+        inFlight.acquire();
+
+        Slot slot = new Slot(event.id);
+        synchronized (this) {
+            pending.addLast(slot);
+        }
+
+        try {
+            execute(event, slot);
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile: the event never runs, so it must not hold back the position or a permit
+            synchronized (this) {
+                pending.remove(slot);
+                advance();
+            }
+            inFlight.release();
+            throw new IllegalStateException("NotificationDispatcher is closed", e);
+        }
+        return true;
+    }
+
+    private void execute(Event event, Slot slot) {
+        lanes[lane(event)].execute(() -> {
+            try {
+                if (failure == null) {
+                    if (!event.isSkipped()) {
+                        handler.onEvent(event);
+                    }
+                    complete(slot);
+                }
+            } catch (Throwable t) {
+                Logger.exception(t, "NotificationDispatcher: failed to process event %s", event.id);
+                fail(t);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * @return id of the newest event that completed together with every event submitted before it,
+     * or null when nothing completed yet
+     */
+    public synchronized UUID completedPosition() {
+        return completedPosition;
+    }
+
+    /**
+     * @return number of events covered by {@link #completedPosition()}
+     */
+    public synchronized long completedCount() {
+        return completedCount;
+    }
+
+    /**
+     * @return {@link #completedPosition()} and {@link #completedCount()}, read together
+     */
+    public synchronized Progress progress() {
+        return new Progress(completedPosition, completedCount);
+    }
+
+    /**
+     * Waits until every submitted event completed or one of them failed.
+     *
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (!pending.isEmpty() && failure == null) {
+            wait();
+        }
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ExecutorService lane : lanes) {
+                lane.awaitTermination(30, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int lane(Event event) {
+        QualifiedId conversation = event.getConversation();
+        return conversation == null ? 0 : Math.floorMod(conversation.hashCode(), lanes.length);
+    }
+
+    private synchronized void complete(Slot slot) {
+        slot.done = true;
+        advance();
+    }
+
+    private void advance() {
+        while (!pending.isEmpty() && pending.peekFirst().done) {
+            completedPosition = pending.pollFirst().id;
+            completedCount++;
+        }
+        if (pending.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    private synchronized void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+        notifyAll();
+    }
+
+    public static final class Progress {
+        public final UUID position;
+        public final long count;
+
+        Progress(UUID position, long count) {
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    private static class Slot {
+        final UUID id;
+        boolean done;
+
+        Slot(UUID id) {
+            this.id = id;
+        }
+    }
+}
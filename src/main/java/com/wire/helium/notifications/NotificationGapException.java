@@ -0,0 +1,24 @@
+package com.wire.helium.notifications;
+
+import com.wire.xenon.exceptions.HttpException;
+
+import java.util.UUID;
+
+/**
+ * The backend does not know the <code>since</code> id anymore, notifications after it were lost.
+ * Local state has to be rebuilt, see {@link NotificationResync}.
+ */
+public class NotificationGapException extends HttpException {
+    private static final long serialVersionUID = 1L;
+
+    private final UUID since;
+
+    public NotificationGapException(UUID since) {
+        super(String.format("Notifications since %s are not available anymore", since), 404);
+        this.since = since;
+    }
+
+    public UUID getSince() {
+        return since;
+    }
+}
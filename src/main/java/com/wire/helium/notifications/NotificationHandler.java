@@ -0,0 +1,8 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.models.Event;
+
+@FunctionalInterface
+public interface NotificationHandler {
+    void onEvent(Event event) throws Exception;
+}
@@ -0,0 +1,303 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.models.NotificationList;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.tools.Logger;
+
+import javax.ws.rs.ProcessingException;
+import java.io.Closeable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Polls the notification streams of many accounts on a small shared pool, for when push is not available.
+ * <p>
+ *     Every registered account is caught up with a {@link NotificationReader} and then scheduled again after its own
+ *     interval: back to <code>minIntervalMillis</code> when the poll returned events, doubled up to
+ *     <code>maxIntervalMillis</code> when it returned nothing or failed. Each delay is jittered by ±20% and the first
+ *     poll of an account is spread over the minimum interval, so accounts registered together drift apart.
+ * </p>
+ * <p>
+ *     Requests of all accounts are paced to <code>pollsPerSecond</code>. A poll due while the budget is used up is
+ *     moved to its slot instead of holding a thread; only the further pages of a busy account wait in place.
+ * </p>
+ * <p>
+ *     Polls of one account never overlap. Failures are logged, reported to the {@link PollFailureListener} and retried
+ *     with the backed off interval.
+ * </p>
+ */
+public class NotificationPoller implements Closeable {
+    private static final AtomicInteger POLLER_COUNT = new AtomicInteger();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final long pollGapNanos;
+    private final int pageSize;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    private long nextPollNanos; // guarded by this
+    private volatile PollFailureListener failureListener;
+    private volatile boolean closed;
+
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public NotificationPoller() {
+        this(4, 50, 1_000, 60_000, NotificationReader.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param threads           size of the pool running the polls
+     * @param pollsPerSecond    upper bound on notification requests of all accounts together, 0 for none
+     * @param minIntervalMillis delay after a poll that returned events
+     * @param maxIntervalMillis longest delay for an idle or failing account
+     * @param pageSize          notifications per request
+     */
+    public NotificationPoller(int threads, double pollsPerSecond, long minIntervalMillis, long maxIntervalMillis,
+                              int pageSize) {
+        if (threads < 1 || pollsPerSecond < 0 || minIntervalMillis < 1 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("Invalid poller settings");
+        }
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        this.maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(maxIntervalMillis);
+        this.pollGapNanos = pollsPerSecond == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / pollsPerSecond);
+        this.pageSize = pageSize;
+
+        int id = POLLER_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread thread = new Thread(r, String.format("helium-poller-%d-%d", id, threadCount.getAndIncrement()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public void setFailureListener(PollFailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Starts polling an account.
+     *
+     * @param key     unique key of the account, e.g. the cursor key
+     * @param source  the account's notification stream
+     * @param cursor  position of the account, checkpointed as events are handled
+     * @param handler called for every event of the account, never concurrently
+     * @return the subscription, to cancel it
+     */
+    public Subscription register(String key, NotificationSource source, NotificationCursor cursor,
+                                 NotificationHandler handler) {
+        if (closed) {
+            throw new IllegalStateException("Poller is closed");
+        }
+        Subscription subscription = new Subscription(key, source, cursor, handler);
+        if (subscriptions.putIfAbsent(key, subscription) != null) {
+            throw new IllegalArgumentException("Already registered: " + key);
+        }
+        subscription.schedule(ThreadLocalRandom.current().nextLong(minIntervalNanos));
+        return subscription;
+    }
+
+    /**
+     * @return the subscription of the account, null if it is not registered
+     */
+    public Subscription getSubscription(String key) {
+        return subscriptions.get(key);
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return number of polls, each one catch up of one account
+     */
+    public long getPolls() {
+        return polls.sum();
+    }
+
+    /**
+     * @return number of notification requests, one per page
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getEvents() {
+        return events.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Stops polling; running polls finish their current page.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the next request slot.
+     *
+     * @return nanoseconds until the slot
+     */
+    private long reserve() {
+        if (pollGapNanos == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextPollNanos);
+            nextPollNanos = slot + pollGapNanos;
+            return slot - now;
+        }
+    }
+
+    private static long jitter(long nanos) {
+        return (long) (nanos * (0.8 + 0.4 * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * One polled account. Its poll runs on one pool thread at a time, the fields below are handed over by the
+     * scheduler.
+     */
+    public final class Subscription {
+        private final String key;
+        private final NotificationSource source;
+        private final NotificationReader reader;
+        private final NotificationHandler handler;
+
+        private long intervalNanos = minIntervalNanos;
+        // The slot of the first request of the poll was reserved before it was scheduled
+        private boolean reserved;
+        private volatile boolean cancelled;
+        private volatile long pollCount;
+
+        private Subscription(String key, NotificationSource source, NotificationCursor cursor,
+                             NotificationHandler handler) {
+            this.key = key;
+            this.source = source;
+            this.reader = new NotificationReader(this::fetch, cursor, pageSize);
+            this.handler = handler;
+        }
+
+        /**
+         * Stops polling the account after the running poll, if any.
+         */
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(key, this);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return current delay between two polls, without jitter
+         */
+        public long getIntervalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+        }
+
+        public long getPolls() {
+            return pollCount;
+        }
+
+        public NotificationCursor getCursor() {
+            return reader.getCursor();
+        }
+
+        private void schedule(long delayNanos) {
+            if (cancelled || closed) {
+                return;
+            }
+            try {
+                scheduler.schedule(this::poll, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed meanwhile
+            }
+        }
+
+        private void poll() {
+            if (cancelled || closed) {
+                return;
+            }
+            if (!reserved) {
+                long wait = reserve();
+                reserved = true;
+                if (wait > 0) {
+                    schedule(wait);
+                    return;
+                }
+            }
+
+            try {
+                int processed = reader.catchUp(handler);
+                events.add(processed);
+                intervalNanos = processed > 0 ? minIntervalNanos : Math.min(intervalNanos * 2, maxIntervalNanos);
+            } catch (Exception e) {
+                failures.increment();
+                intervalNanos = Math.min(intervalNanos * 2, maxIntervalNanos);
+                Logger.exception(e, "NotificationPoller: poll of %s failed", key);
+                PollFailureListener listener = failureListener;
+                if (listener != null) {
+                    try {
+                        listener.onFailure(key, e);
+                    } catch (Exception listenerFailure) {
+                        Logger.exception(listenerFailure, "NotificationPoller: failure listener failed for %s", key);
+                    }
+                }
+            } finally {
+                reserved = false;
+                pollCount++;
+                polls.increment();
+                // Also after an Error, an account that is not scheduled again is never polled again
+                schedule(jitter(intervalNanos));
+            }
+        }
+
+        private NotificationList fetch(UUID since, int size) throws HttpException {
+            if (reserved) {
+                reserved = false;
+            } else {
+                long wait = reserve();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ProcessingException("Interrupted while pacing notification requests", e);
+                    }
+                }
+            }
+            requests.increment();
+            return source.fetch(since, size);
+        }
+    }
+}
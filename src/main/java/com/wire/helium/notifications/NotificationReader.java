@@ -0,0 +1,137 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.models.Event;
+import com.wire.helium.models.NotificationList;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Pages through the notification stream starting after the position of a {@link NotificationCursor}.
+ * <p>
+ *     Events are handed to the handler in order and the cursor is advanced after each one returns.
+ *     When the handler throws, the cursor is checkpointed on the last successfully processed event
+ *     before the exception is rethrown, so the next run resumes exactly at the failed event.
+ * </p>
+ * <p>
+ *     Events whose payloads were all dropped by an {@link com.wire.helium.models.EventFilter} only move the cursor.
+ * </p>
+ * <p>
+ *     When the backend reports that the cursor position is gone, the notifications it still has are processed
+ *     first and {@link NotificationGapException} is thrown after; rebuild the state with {@link NotificationResync}
+ *     and catch up again.
+ * </p>
+ */
+public class NotificationReader {
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    private final NotificationSource source;
+    private final NotificationCursor cursor;
+    private final int pageSize;
+
+    public NotificationReader(NotificationSource source, NotificationCursor cursor) {
+        this(source, cursor, DEFAULT_PAGE_SIZE);
+    }
+
+    public NotificationReader(NotificationSource source, NotificationCursor cursor, int pageSize) {
+        this.source = source;
+        this.cursor = cursor;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Fetches and handles all the notifications available since the cursor position.
+     *
+     * @param handler called for every event not skipped by a filter, in order
+     * @return number of events read, skipped ones included
+     * @throws NotificationGapException after the notifications still available were handled, when the cursor
+     *                                  position is gone
+     * @throws Exception                from fetching, checkpointing or the handler
+     */
+    public int catchUp(NotificationHandler handler) throws Exception {
+        int processed = 0;
+        UUID since;
+        NotificationList page;
+        do {
+            since = cursor.position();
+            page = source.fetch(since, pageSize);
+            for (Event event : page.notifications) {
+                try {
+                    if (!event.isSkipped()) {
+                        handler.onEvent(event);
+                    }
+                } catch (Exception e) {
+                    cursor.checkpoint();
+                    throw e;
+                }
+                cursor.advance(event.id);
+                processed++;
+            }
+        } while (!page.gap && Boolean.TRUE.equals(page.hasMore) && !page.notifications.isEmpty());
+
+        cursor.checkpoint();
+        if (page.gap) {
+            throw new NotificationGapException(since);
+        }
+        return processed;
+    }
+
+    /**
+     * Fetches all the notifications available since the cursor position and hands them to the dispatcher.
+     * <p>
+     *     Fetching runs ahead of processing, bounded by the dispatcher's in-flight limit. The cursor only moves
+     *     to the dispatcher's completed position, so checkpoints never skip an unprocessed event.
+     * </p>
+     *
+     * @param dispatcher processes the events, in order per conversation
+     * @return number of processed events
+     * @throws NotificationGapException after the notifications still available were processed, when the cursor
+     *                                  position is gone
+     * @throws Exception                from fetching, checkpointing or the first failed event
+     */
+    public int catchUp(NotificationDispatcher dispatcher) throws Exception {
+        long start = dispatcher.completedCount();
+        long checkpointed = start;
+        UUID since = cursor.position();
+        UUID gap = null;
+        NotificationList page;
+        do {
+            page = source.fetch(since, pageSize);
+            if (page.gap) {
+                gap = since;
+            }
+            for (Event event : page.notifications) {
+                if (!dispatcher.submit(event)) {
+                    break;
+                }
+                since = event.id;
+            }
+            checkpointed = advance(dispatcher, checkpointed);
+        } while (gap == null && Boolean.TRUE.equals(page.hasMore) && !page.notifications.isEmpty() && dispatcher.getFailure() == null);
+
+        dispatcher.awaitIdle();
+        checkpointed = advance(dispatcher, checkpointed);
+        cursor.checkpoint();
+
+        Throwable failure = dispatcher.getFailure();
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+        if (gap != null) {
+            throw new NotificationGapException(gap);
+        }
+        return (int) (checkpointed - start);
+    }
+
+    private long advance(NotificationDispatcher dispatcher, long checkpointed) throws IOException {
+        NotificationDispatcher.Progress progress = dispatcher.progress();
+        cursor.advance(progress.position, (int) (progress.count - checkpointed));
+        return progress.count;
+    }
+
+    public NotificationCursor getCursor() {
+        return cursor;
+    }
+}
@@ -0,0 +1,118 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.API;
+import com.wire.helium.models.Event;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.tools.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Rebuilds the state of a client in one bulk pass after notifications were lost.
+ * <p>
+ *     The last notification id is read first, so nothing that happens while the conversations are reloaded
+ *     is skipped. Conversation ids are then listed and their details fetched through <code>/conversations/list</code>
+ *     in chunks, in parallel. Finally the registered {@link ResyncListener}s are told to drop their caches
+ *     and the cursor is moved to the last notification, or cleared when there is none.
+ * </p>
+ * <p>
+ *     A failed page or chunk fails the whole resync before any listener is called or the cursor is moved, since a
+ *     conversation missing from the result would be taken for one the user left.
+ * </p>
+ */
+public class NotificationResync {
+    private final API api;
+    private final String client;
+    private final int parallelism;
+    private final List<ResyncListener> listeners = new CopyOnWriteArrayList<>();
+
+    public NotificationResync(API api, String client) {
+        this(api, client, 4);
+    }
+
+    public NotificationResync(API api, String client, int parallelism) {
+        this.api = api;
+        this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    public void addListener(ResyncListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param cursor moved to the last notification once the state is rebuilt, or cleared when the stream is empty,
+     *               may be null
+     * @return the reloaded conversations and the new starting point
+     * @throws Exception on backend errors, then nothing was changed, or when a listener fails
+     */
+    public Result resync(NotificationCursor cursor) throws Exception {
+        long start = System.currentTimeMillis();
+
+        Event last = api.getLastNotification(client);
+        List<QualifiedId> ids = api.listUserConversationIds();
+        List<Conversation> conversations = fetchConversations(ids);
+
+        for (ResyncListener listener : listeners) {
+            listener.onResync(conversations);
+        }
+
+        // An empty stream has no position to resume from, the old one would be reported as a gap again
+        UUID lastEventId = last != null ? last.id : null;
+        if (cursor != null) {
+            cursor.reset(lastEventId);
+        }
+
+        Logger.info("NotificationResync: client %s reloaded %d conversations in %d ms",
+                client, conversations.size(), System.currentTimeMillis() - start);
+        return new Result(lastEventId, conversations);
+    }
+
+    private List<Conversation> fetchConversations(List<QualifiedId> ids) throws Exception {
+        List<Conversation> conversations = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return conversations;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<List<Conversation>>> chunks = new ArrayList<>();
+            for (int from = 0; from < ids.size(); from += API.CONVERSATION_LIST_LIMIT) {
+                List<QualifiedId> chunk = ids.subList(from, Math.min(from + API.CONVERSATION_LIST_LIMIT, ids.size()));
+                chunks.add(executor.submit(() -> api.listConversations(chunk)));
+            }
+            for (Future<List<Conversation>> chunk : chunks) {
+                try {
+                    conversations.addAll(chunk.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return conversations;
+    }
+
+    public static class Result {
+        public final UUID lastEventId;
+        public final List<Conversation> conversations;
+
+        Result(UUID lastEventId, List<Conversation> conversations) {
+            this.lastEventId = lastEventId;
+            this.conversations = conversations;
+        }
+    }
+}
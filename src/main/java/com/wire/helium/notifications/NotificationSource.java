@@ -0,0 +1,27 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.API;
+import com.wire.helium.models.EventFilter;
+import com.wire.helium.models.NotificationList;
+import com.wire.xenon.exceptions.HttpException;
+
+import java.util.UUID;
+
+/**
+ * One page of the notification stream of a client.
+ */
+@FunctionalInterface
+public interface NotificationSource {
+    NotificationList fetch(UUID since, int size) throws HttpException;
+
+    static NotificationSource of(API api, String client) {
+        return (since, size) -> api.retrieveNotifications(client, since, size);
+    }
+
+    /**
+     * @param filter payload types the handlers care about; events left without payloads are not handed to them
+     */
+    static NotificationSource of(API api, String client, EventFilter filter) {
+        return (since, size) -> api.retrieveNotifications(client, since, size, filter);
+    }
+}
@@ -0,0 +1,10 @@
+package com.wire.helium.notifications;
+
+/**
+ * Notified when a poll of {@link NotificationPoller} failed. A {@link NotificationGapException} means the account must
+ * be resynced with {@link NotificationResync} before it is polled successfully again.
+ */
+@FunctionalInterface
+public interface PollFailureListener {
+    void onFailure(String key, Exception error);
+}
@@ -0,0 +1,13 @@
+package com.wire.helium.notifications;
+
+import com.wire.xenon.backend.models.Conversation;
+
+import java.util.List;
+
+/**
+ * Notified after {@link NotificationResync} reloaded the conversations, so local caches can be invalidated or rebuilt.
+ */
+@FunctionalInterface
+public interface ResyncListener {
+    void onResync(List<Conversation> conversations);
+}
@@ -0,0 +1,47 @@
+package com.wire.helium.prekeys;
+
+import com.wire.helium.tools.FileNames;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * {@link PreKeyIdStore} keeping one small file per client inside a directory, replaced atomically on every save.
+ * File names are the client ids encoded by {@link FileNames#encodeKey(String)}.
+ */
+public class FilePreKeyIdStore implements PreKeyIdStore {
+    private final Path directory;
+
+    public FilePreKeyIdStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public Integer load(String clientId) throws IOException {
+        try {
+            String content = Files.readString(file(clientId), StandardCharsets.US_ASCII).trim();
+            return content.isEmpty() ? null : Integer.valueOf(content);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String clientId, int nextId) throws IOException {
+        Path tmp = Files.createTempFile(directory, FileNames.encodeKey(clientId), ".tmp");
+        try {
+            Files.writeString(tmp, Integer.toString(nextId), StandardCharsets.US_ASCII);
+            Files.move(tmp, file(clientId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path file(String clientId) {
+        return directory.resolve(FileNames.encodeKey(clientId) + ".prekey");
+    }
+}
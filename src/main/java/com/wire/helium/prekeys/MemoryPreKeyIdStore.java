@@ -0,0 +1,20 @@
+package com.wire.helium.prekeys;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Non-durable {@link PreKeyIdStore}, useful for tests and short-lived processes.
+ */
+public class MemoryPreKeyIdStore implements PreKeyIdStore {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    @Override
+    public Integer load(String clientId) {
+        return ids.get(clientId);
+    }
+
+    @Override
+    public void save(String clientId, int nextId) {
+        ids.put(clientId, nextId);
+    }
+}
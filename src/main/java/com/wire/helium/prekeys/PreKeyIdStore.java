@@ -0,0 +1,25 @@
+package com.wire.helium.prekeys;
+
+import java.io.IOException;
+
+/**
+ * Durable storage for the id of the next one-time prekey a client generates, so a restarted bot never generates
+ * prekeys under ids whose previous prekeys peers may still use.
+ */
+public interface PreKeyIdStore {
+    /**
+     * @param clientId the client the prekeys are generated for
+     * @return the next prekey id or null when nothing was stored yet
+     * @throws IOException when the underlying storage cannot be read
+     */
+    Integer load(String clientId) throws IOException;
+
+    /**
+     * Stores the next prekey id, replacing any previous value.
+     *
+     * @param clientId the client the prekeys are generated for
+     * @param nextId   id of the next prekey to generate
+     * @throws IOException when the underlying storage cannot be written
+     */
+    void save(String clientId, int nextId) throws IOException;
+}
@@ -0,0 +1,200 @@
+package com.wire.helium.prekeys;
+
+import com.wire.helium.API;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.tools.Logger;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a client stocked with one-time prekeys, so peers opening sessions with it never have to fall back to the
+ * last resort prekey.
+ * <p>
+ *     The number of prekeys left on the backend is polled every <code>pollMillis</code> and estimated in between
+ *     from {@link #consumed(int)}, which the bot calls for every session a peer opened with it. Once fewer than
+ *     <code>minAvailable</code> are left, new prekeys are generated by the crypto box and uploaded in batches of
+ *     <code>uploadBatch</code> until <code>targetAvailable</code> are available again. Generation and upload run on
+ *     a worker thread, never on the caller's.
+ * </p>
+ * <p>
+ *     The id of the next prekey is kept in a {@link PreKeyIdStore} and reserved there before prekeys are generated,
+ *     so ids only move forward, also across restarts and when the backend has none left. Generating a prekey under
+ *     an id peers claimed earlier would replace the private key their first messages need. Without a stored id the
+ *     replenisher starts after the highest id still on the backend.
+ * </p>
+ */
+public class PreKeyReplenisher implements Closeable {
+    // Id of the last resort prekey, one-time prekey ids wrap around below it
+    public static final int LAST_RESORT_ID = 0xFFFF;
+
+    private final API api;
+    private final Crypto crypto;
+    private final String clientId;
+    private final PreKeyIdStore idStore;
+    private final int minAvailable;
+    private final int targetAvailable;
+    private final int uploadBatch;
+    private final long pollMillis;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean checkPending = new AtomicBoolean();
+    private final AtomicInteger estimate = new AtomicInteger(-1);
+    private volatile boolean closed;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private int nextId = -1;
+
+    /**
+     * Refills to 100 prekeys when fewer than 40 are left, checking every minute.
+     */
+    public PreKeyReplenisher(API api, Crypto crypto, String clientId, PreKeyIdStore idStore) {
+        this(api, crypto, clientId, idStore, 40, 100, 50, 60_000);
+    }
+
+    /**
+     * @param api             API of the client's user
+     * @param crypto          the client's crypto box, generates the prekeys
+     * @param clientId        the client to keep stocked
+     * @param idStore         keeps the next prekey id, must be durable unless the crypto box is not
+     * @param minAvailable    prekeys left below which new ones are uploaded
+     * @param targetAvailable prekeys available after a refill
+     * @param uploadBatch     prekeys per upload request
+     * @param pollMillis      time between checks of the backend count
+     */
+    public PreKeyReplenisher(API api, Crypto crypto, String clientId, PreKeyIdStore idStore, int minAvailable,
+                             int targetAvailable, int uploadBatch, long pollMillis) {
+        this.api = api;
+        this.crypto = crypto;
+        this.clientId = clientId;
+        this.idStore = idStore;
+        this.minAvailable = minAvailable;
+        this.targetAvailable = targetAvailable;
+        this.uploadBatch = uploadBatch;
+        this.pollMillis = pollMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "helium-prekeys");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks right away and then every <code>pollMillis</code>.
+     *
+     * @return this
+     */
+    public PreKeyReplenisher start() {
+        executor.scheduleWithFixedDelay(this::checkQuietly, 0, pollMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Counts prekeys used up by peers since the last check, e.g. one per decrypted prekey message. Schedules a check
+     * when the estimate falls below the minimum. Ignored once closed.
+     *
+     * @param count prekeys used
+     */
+    public void consumed(int count) {
+        int left = estimate.updateAndGet(current -> current < 0 ? current : Math.max(0, current - count));
+        if (left >= 0 && left < minAvailable && !closed && checkPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::checkQuietly);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile
+                Logger.debug("PreKeyReplenisher: closed, no check for client %s", clientId);
+            }
+        }
+    }
+
+    /**
+     * Fetches the prekey ids left on the backend and uploads new prekeys if too few are left. Runs on the calling
+     * thread.
+     *
+     * @return prekeys available afterwards
+     * @throws Exception if the count could not be fetched, the next id could not be loaded or saved, or prekeys
+     *                   could not be generated or uploaded
+     */
+    public synchronized int check() throws Exception {
+        checkPending.set(false);
+        checks.increment();
+
+        List<Integer> ids = api.getAvailablePrekeys(clientId);
+        int available = 0;
+        int maxId = -1;
+        for (Integer id : ids) {
+            if (id != LAST_RESORT_ID) {
+                available++;
+                maxId = Math.max(maxId, id);
+            }
+        }
+        if (nextId < 0) {
+            Integer stored = idStore.load(clientId);
+            nextId = stored != null ? stored : (maxId + 1) % LAST_RESORT_ID;
+        }
+        estimate.set(available);
+
+        if (available >= minAvailable) {
+            return available;
+        }
+        while (available < targetAvailable) {
+            int count = Math.min(uploadBatch, targetAvailable - available);
+            int first = nextId;
+            // Reserved first, a crash after generating must not hand out the same ids again
+            nextId = (first + count) % LAST_RESORT_ID;
+            idStore.save(clientId, nextId);
+
+            List<PreKey> preKeys = crypto.newPreKeys(first, count);
+            api.uploadPreKeys(clientId, preKeys);
+
+            available += count;
+            estimate.addAndGet(count);
+            uploaded.add(count);
+        }
+        return available;
+    }
+
+    /**
+     * @return prekeys believed to be left on the backend, -1 before the first check
+     */
+    public int getEstimate() {
+        return estimate.get();
+    }
+
+    public long getChecks() {
+        return checks.sum();
+    }
+
+    public long getUploaded() {
+        return uploaded.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    private void checkQuietly() {
+        try {
+            check();
+        } catch (Exception e) {
+            failures.increment();
+            Logger.exception(e, "PreKeyReplenisher: check failed for client %s", clientId);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.wire.helium.storage;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.cryptobox.StorageException;
+import com.wire.xenon.tools.Logger;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cryptobox storage keeping identities, prekeys and sessions on the heap, for ephemeral bots that don't need
+ * their crypto state to survive a restart.
+ * <p>
+ *     Sessions are kept in a map per box, so lookups need no composite key. Each session has its own lock,
+ *     taken by {@link #fetchSession(String, String)} and released by {@link IRecord#persist(byte[])}, which
+ *     cryptobox calls once the session was used. Threads working on different sessions never wait for each other.
+ *     A lock that is not released within <code>lockTimeoutMillis</code> is taken over, like the database storage
+ *     would after a transaction timeout.
+ * </p>
+ * <p>
+ *     Cryptobox skips the persist when it fails between the two, e.g. on an I/O error in its session directory.
+ *     A thread fetching a session it fetched before and never persisted takes the lock back right away, as it
+ *     cannot be using that record anymore; other threads would wait for the timeout, unless the failed caller
+ *     releases its locks with {@link #releaseHeldSessions()}.
+ * </p>
+ * <p>
+ *     With <code>maxSessions</code> set, idle sessions are evicted in approximate LRU order (clock algorithm) and
+ *     handed to the optional {@link SessionSpill}, which is asked again when an evicted session is fetched.
+ *     A session whose spill fails stays in memory. Without a spill, evicted sessions are lost: messages from that
+ *     peer fail to decrypt until the peer sets up a new session.
+ * </p>
+ */
+public class MemoryStorage implements IStorage {
+    private static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 10_000;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Slot>> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, byte[]> identities = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, PreKey>> prekeys = new ConcurrentHashMap<>();
+
+    private final int maxSessions;
+    private final SessionSpill spill;
+    private final long lockTimeoutMillis;
+    private final AtomicInteger size = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Slot> clock = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong lockTimeouts = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * Unbounded storage.
+     */
+    public MemoryStorage() {
+        this(0, null, DEFAULT_LOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxSessions       number of sessions kept in memory, 0 for unbounded
+     * @param spill             receives evicted sessions, may be null
+     * @param lockTimeoutMillis how long fetchSession waits for a session used by another thread
+     */
+    public MemoryStorage(int maxSessions, SessionSpill spill, long lockTimeoutMillis) {
+        this.maxSessions = maxSessions;
+        this.spill = spill;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    @Override
+    public IRecord fetchSession(String id, String sid) throws StorageException {
+        ConcurrentHashMap<String, Slot> box = sessions.computeIfAbsent(id, k -> new ConcurrentHashMap<>());
+        while (true) {
+            Slot slot = box.get(sid);
+            if (slot == null) {
+                // Locked before it is published, so no other thread gets it before it is restored
+                Slot fresh = new Slot(id, sid);
+                long owner = lock(fresh);
+                slot = box.putIfAbsent(sid, fresh);
+                if (slot == null) {
+                    try {
+                        fresh.data = restore(id, sid);
+                    } catch (Throwable e) {
+                        // Never counted, the next fetch asks the spill again
+                        fresh.evicted = true;
+                        box.remove(sid, fresh);
+                        unlock(fresh, owner);
+                        throw e;
+                    }
+                    size.incrementAndGet();
+                    clock.offer(fresh);
+                    evict();
+                    fresh.referenced = true;
+                    return new Record(fresh, owner);
+                }
+            }
+
+            long owner = lock(slot);
+            if (slot.evicted) {     // lost the race against eviction, look it up again
+                unlock(slot, owner);
+                continue;
+            }
+            slot.referenced = true;
+            return new Record(slot, owner);
+        }
+    }
+
+    @Override
+    public byte[] fetchIdentity(String id) {
+        return identities.get(id);
+    }
+
+    @Override
+    public void insertIdentity(String id, byte[] data) {
+        identities.put(id, data);
+    }
+
+    @Override
+    public PreKey[] fetchPrekeys(String id) {
+        Map<Integer, PreKey> keys = prekeys.get(id);
+        return keys == null || keys.isEmpty() ? null : keys.values().toArray(new PreKey[0]);
+    }
+
+    @Override
+    public void insertPrekey(String id, int kid, byte[] data) {
+        prekeys.computeIfAbsent(id, k -> new ConcurrentHashMap<>()).put(kid, new PreKey(kid, data));
+    }
+
+    @Override
+    public void purge(String id) throws StorageException {
+        ConcurrentHashMap<String, Slot> box = sessions.remove(id);
+        if (box != null) {
+            for (Slot slot : box.values()) {
+                slot.evicted = true;
+                size.decrementAndGet();
+            }
+            clock.removeIf(slot -> slot.evicted);
+        }
+        prekeys.remove(id);
+        identities.remove(id);
+
+        if (spill != null) {
+            try {
+                spill.purge(id);
+            } catch (IOException e) {
+                throw storageException(e);
+            }
+        }
+    }
+
+    /**
+     * Releases the session locks the current thread still holds, leaving the sessions as they were. Call it after a
+     * crypto operation failed, so other threads do not wait for the lock timeout.
+     *
+     * @return number of locks released
+     */
+    public int releaseHeldSessions() {
+        Thread current = Thread.currentThread();
+        int released = 0;
+        for (ConcurrentHashMap<String, Slot> box : sessions.values()) {
+            for (Slot slot : box.values()) {
+                long owner = slot.owner.get();
+                if (owner != 0 && slot.holder == current && unlock(slot, owner)) {
+                    released++;
+                }
+            }
+        }
+        abandoned.addAndGet(released);
+        return released;
+    }
+
+    /**
+     * @return number of sessions currently held in memory
+     */
+    public int getSessionCount() {
+        return size.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return how often a session lock was taken over because its holder did not persist in time
+     */
+    public long getLockTimeouts() {
+        return lockTimeouts.get();
+    }
+
+    /**
+     * @return how often a lock was released or taken back because its own thread did not persist the session
+     */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * Takes the session lock, or the ownership of a permit that was not handed back in time.
+     *
+     * @return owner token to pass to {@link #unlock(Slot, long)}
+     */
+    private long lock(Slot slot) throws StorageException {
+        Thread current = Thread.currentThread();
+        if (slot.owner.get() != 0 && slot.holder == current) {
+            // Waiting would be waiting for ourselves: the operation that fetched it failed before persisting
+            abandoned.incrementAndGet();
+        } else {
+            try {
+                if (!slot.lock.tryAcquire(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    lockTimeouts.incrementAndGet();
+                    Logger.warning("MemoryStorage: session %s-%s was not persisted within %d ms, taking it over",
+                            slot.id, slot.sid, lockTimeoutMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw storageException(e);
+            }
+        }
+        long owner = slot.epoch.incrementAndGet();
+        slot.holder = current;
+        slot.owner.set(owner);
+        return owner;
+    }
+
+    /**
+     * Releases the lock unless it was taken over meanwhile, in which case the new owner releases it.
+     *
+     * @return false when the lock was taken over
+     */
+    private static boolean unlock(Slot slot, long owner) {
+        if (slot.owner.compareAndSet(owner, 0)) {
+            slot.holder = null;
+            slot.lock.release();
+            return true;
+        }
+        return false;
+    }
+
+    private byte[] restore(String id, String sid) throws StorageException {
+        if (spill == null) {
+            return null;
+        }
+        try {
+            return spill.restore(id, sid);
+        } catch (IOException e) {
+            throw storageException(e);
+        }
+    }
+
+    /**
+     * Clock sweep: recently used sessions get a second chance, sessions in use are skipped.
+     */
+    private void evict() {
+        if (maxSessions <= 0) {
+            return;
+        }
+        int budget = 2 * size.get();
+        while (size.get() > maxSessions && budget-- > 0) {
+            Slot slot = clock.poll();
+            if (slot == null) {
+                return;
+            }
+            if (slot.evicted) {
+                continue;
+            }
+            if (slot.referenced || !slot.lock.tryAcquire()) {
+                slot.referenced = false;
+                clock.offer(slot);
+                continue;
+            }
+
+            try {
+                ConcurrentHashMap<String, Slot> box = sessions.get(slot.id);
+                if (slot.evicted || box == null || box.get(slot.sid) != slot) {
+                    continue;
+                }
+                // Spilled while still in the map and locked, so a fetch of the same session waits for it
+                // instead of restoring what was there before
+                if (spill != null && slot.data != null) {
+                    spill.spill(slot.id, slot.sid, slot.data);
+                }
+                slot.evicted = true;
+                box.remove(slot.sid, slot);
+                size.decrementAndGet();
+                evictions.incrementAndGet();
+            } catch (IOException e) {
+                Logger.exception(e, "MemoryStorage: failed to spill session %s-%s, keeping it", slot.id, slot.sid);
+                clock.offer(slot);
+            } finally {
+                slot.lock.release();
+            }
+        }
+    }
+
+    private static StorageException storageException(Exception cause) {
+        StorageException e = new StorageException(cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+
+    private static final class Slot {
+        final String id;
+        final String sid;
+        final Semaphore lock = new Semaphore(1);
+        final AtomicLong epoch = new AtomicLong();
+        // Token of the record holding the lock, 0 when the lock is free or held by eviction
+        final AtomicLong owner = new AtomicLong();
+        // Thread of the last owner, only compared against the current thread
+        volatile Thread holder;
+        volatile byte[] data;
+        volatile boolean evicted;
+        volatile boolean referenced;
+
+        Slot(String id, String sid) {
+            this.id = id;
+            this.sid = sid;
+        }
+    }
+
+    private static final class Record implements IRecord {
+        private final Slot slot;
+        private final long owner;
+        private final byte[] data;
+
+        Record(Slot slot, long owner) {
+            this.slot = slot;
+            this.owner = owner;
+            this.data = slot.data;
+        }
+
+        @Override
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public void persist(byte[] data) {
+            // A record whose lock was taken over must not overwrite the newer state
+            if (slot.owner.get() == owner) {
+                slot.data = data;
+                unlock(slot, owner);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.wire.helium.storage;
+
+import java.io.IOException;
+
+/**
+ * Secondary tier behind a {@link MemoryStorage}, for example a directory or a table. It is asked for every session
+ * that is not in memory and receives sessions evicted from a size bounded storage.
+ * Calls for the same session never overlap.
+ */
+public interface SessionSpill {
+    /**
+     * Stores an evicted session.
+     */
+    void spill(String id, String sid, byte[] data) throws IOException;
+
+    /**
+     * Returns a previously spilled session. The spill may forget it afterwards.
+     *
+     * @return session data or null when it was never spilled
+     */
+    byte[] restore(String id, String sid) throws IOException;
+
+    /**
+     * Forgets all spilled sessions of the given box.
+     */
+    void purge(String id) throws IOException;
+}
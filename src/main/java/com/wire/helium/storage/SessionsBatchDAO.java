@@ -0,0 +1,53 @@
+package com.wire.helium.storage;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+public interface SessionsBatchDAO {
+    // Rows only move forward, a delayed batch never overwrites a newer session
+    @SqlBatch("INSERT INTO Sessions (id, sid, data, version) VALUES (:id, :sid, :data, :version) " +
+            "ON CONFLICT (id, sid) DO UPDATE SET data = EXCLUDED.data, version = EXCLUDED.version " +
+            "WHERE Sessions.version < EXCLUDED.version")
+    void upsertSessions(@Bind("id") List<String> ids,
+                        @Bind("sid") List<String> sids,
+                        @Bind("data") List<byte[]> data,
+                        @Bind("version") List<Long> versions);
+
+    @SqlBatch("INSERT INTO Prekeys (id, kid, data) VALUES (:id, :kid, :data) " +
+            "ON CONFLICT (id, kid) DO UPDATE SET data = EXCLUDED.data")
+    void upsertPrekeys(@Bind("id") List<String> ids,
+                       @Bind("kid") List<Integer> kids,
+                       @Bind("data") List<byte[]> data);
+
+    @SqlQuery("SELECT data, version FROM Sessions WHERE id = :id AND sid = :sid")
+    @RegisterRowMapper(_Mapper.class)
+    VersionedSession getSession(@Bind("id") String id,
+                                @Bind("sid") String sid);
+
+    @SqlUpdate("DELETE FROM Sessions WHERE id = :id")
+    int deleteSessions(@Bind("id") String id);
+
+    class VersionedSession {
+        public byte[] data;
+        public long version;
+    }
+
+    class _Mapper implements RowMapper<VersionedSession> {
+        @Override
+        public VersionedSession map(ResultSet rs, StatementContext ctx) throws SQLException {
+            VersionedSession session = new VersionedSession();
+            session.data = rs.getBytes("data");
+            session.version = rs.getLong("version");
+            return session;
+        }
+    }
+}
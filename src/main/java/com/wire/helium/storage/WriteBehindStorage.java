@@ -0,0 +1,395 @@
+package com.wire.helium.storage;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.IStorage;
+import com.wire.bots.cryptobox.PreKey;
+import com.wire.bots.cryptobox.StorageException;
+import com.wire.xenon.crypto.storage.IdentitiesDAO;
+import com.wire.xenon.crypto.storage.PrekeysDAO;
+import com.wire.xenon.tools.Logger;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cryptobox storage on the Sessions, Prekeys and Identities tables that keeps hot sessions in a {@link MemoryStorage}.
+ * <p>
+ *     In {@link Mode#SYNC} every persisted session is written before the session lock is released, like
+ *     {@link com.wire.xenon.crypto.storage.JdbiStorage} does; when the write fails the session stays as it was in
+ *     memory too. In {@link Mode#WRITE_BEHIND} sessions and prekeys
+ *     are marked dirty and written by a background thread in batches, every <code>flushIntervalMillis</code> or as
+ *     soon as <code>batchSize</code> sessions are dirty. A crash loses at most the updates of the last interval, so
+ *     peers may have to reset their sessions with the bot. Either way only one process may use a given box.
+ * </p>
+ * <p>
+ *     Sessions carry a version and the table only accepts newer versions, so a delayed batch never overwrites a
+ *     session that was written since. The passed {@link Jdbi} instance must have the SqlObject plugin installed and
+ *     the {@link com.wire.helium.HeliumMigrations} applied, which add the version column.
+ * </p>
+ */
+public class WriteBehindStorage implements IStorage, Closeable {
+    public enum Mode {
+        SYNC,
+        WRITE_BEHIND
+    }
+
+    private final Mode mode;
+    private final int batchSize;
+    private final SessionsBatchDAO sessionsDAO;
+    private final PrekeysDAO prekeysDAO;
+    private final IdentitiesDAO identitiesDAO;
+    private final Jdbi jdbi;
+    private final MemoryStorage hot;
+
+    private final ConcurrentHashMap<SessionKey, Dirty> dirty = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SessionKey, Long> versions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<PendingPrekey> pendingPrekeys = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedSessions = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+
+    /**
+     * Write-behind storage flushing every 50 ms or every 500 dirty sessions, without a bound on hot sessions.
+     */
+    public WriteBehindStorage(Jdbi jdbi) {
+        this(jdbi, Mode.WRITE_BEHIND, 50, 500, 0);
+    }
+
+    /**
+     * @param jdbi                database with the Helium migrations applied
+     * @param mode                when sessions are written
+     * @param flushIntervalMillis longest time a dirty session stays unwritten in write-behind mode
+     * @param batchSize           number of dirty sessions that triggers an early flush
+     * @param maxHotSessions      sessions kept in memory, 0 for unbounded. Evicted sessions are written first.
+     */
+    public WriteBehindStorage(Jdbi jdbi, Mode mode, long flushIntervalMillis, int batchSize, int maxHotSessions) {
+        this.jdbi = jdbi;
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.sessionsDAO = jdbi.onDemand(SessionsBatchDAO.class);
+        this.prekeysDAO = jdbi.onDemand(PrekeysDAO.class);
+        this.identitiesDAO = jdbi.onDemand(IdentitiesDAO.class);
+        this.hot = new MemoryStorage(maxHotSessions, new DatabaseTier(), 10_000);
+
+        if (mode == Mode.WRITE_BEHIND) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "helium-session-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    @Override
+    public IRecord fetchSession(String id, String sid) throws StorageException {
+        return new Record(new SessionKey(id, sid), hot.fetchSession(id, sid));
+    }
+
+    @Override
+    public byte[] fetchIdentity(String id) {
+        IdentitiesDAO._Identity identity = identitiesDAO.get(id);
+        return identity != null ? identity.data : null;
+    }
+
+    @Override
+    public void insertIdentity(String id, byte[] data) {
+        identitiesDAO.insert(id, data);
+    }
+
+    @Override
+    public PreKey[] fetchPrekeys(String id) {
+        Map<Integer, PreKey> keys = new HashMap<>();
+        for (PreKey preKey : prekeysDAO.get(id)) {
+            keys.put(preKey.id, preKey);
+        }
+        for (PendingPrekey pending : pendingPrekeys) {
+            if (pending.id.equals(id)) {
+                keys.put(pending.kid, new PreKey(pending.kid, pending.data));
+            }
+        }
+        return keys.isEmpty() ? null : keys.values().toArray(new PreKey[0]);
+    }
+
+    @Override
+    public void insertPrekey(String id, int kid, byte[] data) {
+        if (mode == Mode.SYNC) {
+            prekeysDAO.insert(id, kid, data);
+        } else {
+            pendingPrekeys.add(new PendingPrekey(id, kid, data));
+        }
+    }
+
+    @Override
+    public void purge(String id) throws StorageException {
+        pendingPrekeys.removeIf(pending -> pending.id.equals(id));
+        dirty.keySet().removeIf(key -> key.id.equals(id));
+        versions.keySet().removeIf(key -> key.id.equals(id));
+        hot.purge(id);  // deletes the sessions through the database tier
+        prekeysDAO.delete(id);
+        identitiesDAO.delete(id);
+    }
+
+    /**
+     * @see MemoryStorage#releaseHeldSessions()
+     */
+    public int releaseHeldSessions() {
+        return hot.releaseHeldSessions();
+    }
+
+    /**
+     * Writes all dirty sessions and pending prekeys now.
+     *
+     * @throws StorageException when the batch could not be written, the entries stay dirty
+     */
+    public synchronized void flush() throws StorageException {
+        flushRequested.set(false);
+
+        List<PendingPrekey> prekeys = new ArrayList<>();
+        for (PendingPrekey pending; prekeys.size() < 10 * batchSize && (pending = pendingPrekeys.poll()) != null; ) {
+            prekeys.add(pending);
+        }
+        List<Map.Entry<SessionKey, Dirty>> sessions = new ArrayList<>(dirty.entrySet());
+        if (sessions.isEmpty() && prekeys.isEmpty()) {
+            return;
+        }
+
+        try {
+            jdbi.useTransaction(handle -> {
+                SessionsBatchDAO dao = handle.attach(SessionsBatchDAO.class);
+                if (!sessions.isEmpty()) {
+                    List<String> ids = new ArrayList<>(sessions.size());
+                    List<String> sids = new ArrayList<>(sessions.size());
+                    List<byte[]> data = new ArrayList<>(sessions.size());
+                    List<Long> sessionVersions = new ArrayList<>(sessions.size());
+                    for (Map.Entry<SessionKey, Dirty> entry : sessions) {
+                        ids.add(entry.getKey().id);
+                        sids.add(entry.getKey().sid);
+                        data.add(entry.getValue().data);
+                        sessionVersions.add(entry.getValue().version);
+                    }
+                    dao.upsertSessions(ids, sids, data, sessionVersions);
+                }
+                if (!prekeys.isEmpty()) {
+                    List<String> ids = new ArrayList<>(prekeys.size());
+                    List<Integer> kids = new ArrayList<>(prekeys.size());
+                    List<byte[]> data = new ArrayList<>(prekeys.size());
+                    for (PendingPrekey pending : prekeys) {
+                        ids.add(pending.id);
+                        kids.add(pending.kid);
+                        data.add(pending.data);
+                    }
+                    dao.upsertPrekeys(ids, kids, data);
+                }
+            });
+        } catch (Exception e) {
+            flushFailures.incrementAndGet();
+            pendingPrekeys.addAll(prekeys);
+            StorageException storageException = new StorageException("Session flush failed: " + e.getMessage());
+            storageException.initCause(e);
+            throw storageException;
+        }
+
+        // Sessions persisted again meanwhile stay dirty
+        for (Map.Entry<SessionKey, Dirty> entry : sessions) {
+            dirty.remove(entry.getKey(), entry.getValue());
+        }
+        flushes.incrementAndGet();
+        flushedSessions.addAndGet(sessions.size());
+    }
+
+    /**
+     * Stops the background thread and writes what is still dirty. Sessions persisted afterwards are written right
+     * away, like in {@link Mode#SYNC}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushQuietly();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getFlushedSessions() {
+        return flushedSessions.get();
+    }
+
+    public long getFlushFailures() {
+        return flushFailures.get();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            Logger.exception(e, "WriteBehindStorage: flush failed, %d sessions stay dirty", dirty.size());
+        }
+    }
+
+    private void persist(SessionKey key, IRecord record, byte[] data) {
+        if (data == null) {
+            record.persist(null);
+            return;
+        }
+
+        // Called under the session lock, versions grow monotonically per session
+        long version;
+        try {
+            version = nextVersion(key);
+        } catch (RuntimeException e) {
+            record.persist(record.getData());
+            throw e;
+        }
+        if (mode == Mode.SYNC || closed) {
+            try {
+                sessionsDAO.upsertSessions(List.of(key.id), List.of(key.sid), List.of(data), List.of(version));
+            } catch (RuntimeException e) {
+                // Releases the lock on the state the table still holds
+                record.persist(record.getData());
+                throw e;
+            }
+            record.persist(data);
+            return;
+        }
+
+        dirty.put(key, new Dirty(data, version));
+        record.persist(data);
+        if (closed) {
+            // Closed meanwhile, the last flush may have missed this session
+            flushQuietly();
+        } else if (dirty.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                flushQuietly();
+            }
+        }
+    }
+
+    /**
+     * Continues from the version last read or written. Without one, e.g. after the box was purged meanwhile,
+     * it continues from the stored row, as the table ignores versions that are not newer.
+     */
+    private long nextVersion(SessionKey key) {
+        Long current = versions.get(key);
+        if (current == null) {
+            SessionsBatchDAO.VersionedSession session = sessionsDAO.getSession(key.id, key.sid);
+            current = session != null ? session.version : 0L;
+        }
+        versions.put(key, current + 1);
+        return current + 1;
+    }
+
+    /**
+     * Loads sessions that are not in memory and writes evicted sessions that are still dirty.
+     */
+    private class DatabaseTier implements SessionSpill {
+        @Override
+        public void spill(String id, String sid, byte[] data) throws IOException {
+            SessionKey key = new SessionKey(id, sid);
+            Dirty pending = dirty.get(key);
+            if (pending != null) {
+                try {
+                    sessionsDAO.upsertSessions(List.of(id), List.of(sid), List.of(pending.data), List.of(pending.version));
+                } catch (JdbiException e) {
+                    throw new IOException(e);   // stays dirty and in memory
+                }
+                dirty.remove(key, pending);
+            }
+            versions.remove(key);
+        }
+
+        @Override
+        public byte[] restore(String id, String sid) throws IOException {
+            // An evicted session whose write failed is newer than the table
+            SessionKey key = new SessionKey(id, sid);
+            Dirty pending = dirty.get(key);
+            if (pending != null) {
+                versions.put(key, pending.version);
+                return pending.data;
+            }
+
+            SessionsBatchDAO.VersionedSession session;
+            try {
+                session = sessionsDAO.getSession(id, sid);
+            } catch (JdbiException e) {
+                throw new IOException(e);   // fails the fetch, the next one reads again
+            }
+            // Seeded for sessions not in the table too, so their first write does not read it again
+            versions.put(key, session != null ? session.version : 0L);
+            return session != null ? session.data : null;
+        }
+
+        @Override
+        public void purge(String id) {
+            sessionsDAO.deleteSessions(id);
+        }
+    }
+
+    private class Record implements IRecord {
+        private final SessionKey key;
+        private final IRecord record;
+
+        Record(SessionKey key, IRecord record) {
+            this.key = key;
+            this.record = record;
+        }
+
+        @Override
+        public byte[] getData() {
+            return record.getData();
+        }
+
+        @Override
+        public void persist(byte[] data) {
+            WriteBehindStorage.this.persist(key, record, data);
+        }
+    }
+
+    private record SessionKey(String id, String sid) {
+    }
+
+    private record Dirty(byte[] data, long version) {
+    }
+
+    private record PendingPrekey(String id, int kid, byte[] data) {
+    }
+}
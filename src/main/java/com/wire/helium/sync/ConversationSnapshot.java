@@ -0,0 +1,117 @@
+package com.wire.helium.sync;
+
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Conversations of an account as of its last {@link ConversationSync}: the details of each one with a hash of them,
+ * plus the ids events marked dirty since. Stores may load the details lazily, the ids and hashes are always in memory.
+ * <p>
+ *     Not thread safe; {@link ConversationSync} guards its snapshot.
+ * </p>
+ */
+public class ConversationSnapshot {
+    private final Map<QualifiedId, Entry> entries = new HashMap<>();
+    private final Set<QualifiedId> dirty = new HashSet<>();
+
+    /**
+     * @return the entry of the conversation, null if it is not in the snapshot
+     */
+    public Entry get(QualifiedId id) {
+        return entries.get(id);
+    }
+
+    /**
+     * @param hash hash of the conversation's details, see {@link ConversationSync#hash(Conversation)}
+     */
+    public void put(Conversation conversation, long hash) {
+        entries.put(conversation.id, new Entry(conversation.id, hash, conversation, null));
+    }
+
+    /**
+     * Adds a conversation whose details are read only when asked for, by stores that can do that cheaply.
+     */
+    void put(QualifiedId id, long hash, Supplier<Conversation> loader) {
+        entries.put(id, new Entry(id, hash, null, loader));
+    }
+
+    public void remove(QualifiedId id) {
+        entries.remove(id);
+        dirty.remove(id);
+    }
+
+    public boolean contains(QualifiedId id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * @return the ids in the snapshot, a live view
+     */
+    public Set<QualifiedId> ids() {
+        return entries.keySet();
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    public List<Conversation> conversations() {
+        List<Conversation> conversations = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            conversations.add(entry.getConversation());
+        }
+        return conversations;
+    }
+
+    /**
+     * @return ids of conversations changed since they were fetched, a live view
+     */
+    public Set<QualifiedId> dirty() {
+        return dirty;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public ConversationSnapshot copy() {
+        ConversationSnapshot copy = new ConversationSnapshot();
+        copy.entries.putAll(entries);
+        copy.dirty.addAll(dirty);
+        return copy;
+    }
+
+    public static final class Entry {
+        public final QualifiedId id;
+        public final long hash;
+        private Conversation conversation;
+        private Supplier<Conversation> loader;
+
+        Entry(QualifiedId id, long hash, Conversation conversation, Supplier<Conversation> loader) {
+            this.id = id;
+            this.hash = hash;
+            this.conversation = conversation;
+            this.loader = loader;
+        }
+
+        /**
+         * @return the details, read on the first call if the store loaded them lazily
+         */
+        public synchronized Conversation getConversation() {
+            if (loader != null) {
+                conversation = loader.get();
+                loader = null;
+            }
+            return conversation;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.wire.helium.sync;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.wire.helium.API;
+import com.wire.helium.HeliumJsonProvider;
+import com.wire.helium.models.Event;
+import com.wire.helium.models.EventFilter;
+import com.wire.helium.models.QualifiedIds;
+import com.wire.helium.notifications.NotificationHandler;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.tools.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the conversations of an account in sync with a local {@link ConversationSnapshot} instead of refetching
+ * all of them like {@link API#getUserConversations()} does.
+ * <p>
+ *     {@link #sync()} lists the conversation ids, which is cheap, and diffs them against the snapshot. Details are
+ *     fetched only for conversations that are new or were marked dirty; ids no longer listed are reported as removed.
+ *     The backend has no per-conversation version, so conversations are marked dirty by the events that change them:
+ *     hand every notification to {@link #onEvent(Event)}, or at least those of {@link #EVENTS}. Marks are persisted
+ *     as they come, so they survive a restart between catching up and the next sync.
+ * </p>
+ * <p>
+ *     With a {@link MappedSnapshotStore} the snapshot is usable right after construction: look conversations up with
+ *     {@link #getConversation(QualifiedId)} while {@link #syncAsync(Executor)} reconciles with the backend.
+ * </p>
+ * <p>
+ *     The snapshot also holds a hash of each conversation's details, which tells a dirty conversation that really
+ *     changed from one whose event did not touch anything kept here.
+ * </p>
+ */
+public class ConversationSync implements NotificationHandler {
+    /**
+     * Payload types that change a conversation's details
+     */
+    public static final EventFilter EVENTS = EventFilter.types(
+            "conversation.create",
+            "conversation.delete",
+            "conversation.rename",
+            "conversation.member-join",
+            "conversation.member-leave",
+            "conversation.member-update",
+            "conversation.protocol-update",
+            "conversation.access-update",
+            "conversation.receipt-mode-update",
+            "conversation.message-timer-update");
+
+    private final API api;
+    private final SnapshotStore store;
+    private final String key;
+    private final ConversationSnapshot snapshot; // guarded by this
+    private final Object syncLock = new Object();
+
+    /**
+     * @param api   client of the account
+     * @param store where the snapshot is kept
+     * @param key   key of the account's snapshot in the store
+     * @throws IOException when the snapshot cannot be loaded
+     */
+    public ConversationSync(API api, SnapshotStore store, String key) throws IOException {
+        this.api = api;
+        this.store = store;
+        this.key = key;
+        this.snapshot = store.load(key);
+    }
+
+    /**
+     * Marks the conversations the event changes as dirty.
+     *
+     * @throws IOException when the mark cannot be persisted
+     */
+    @Override
+    public void onEvent(Event event) throws IOException {
+        boolean relevant = false;
+        for (String type : event.getTypes()) {
+            relevant |= EVENTS.accepts(type);
+        }
+        if (!relevant) {
+            return;
+        }
+        for (Payload payload : event.getPayloads()) {
+            if (payload != null && payload.conversation != null && EVENTS.accepts(payload.type)) {
+                markDirty(payload.conversation);
+            }
+        }
+    }
+
+    /**
+     * @param conversationId conversation to refetch on the next sync
+     * @throws IOException when the mark cannot be persisted
+     */
+    public synchronized void markDirty(QualifiedId conversationId) throws IOException {
+        if (snapshot.dirty().add(conversationId)) {
+            store.markDirty(key, conversationId);
+        }
+    }
+
+    /**
+     * Brings the snapshot up to date and saves it. Syncs run one at a time; events may keep arriving meanwhile.
+     *
+     * @return what changed since the previous sync
+     * @throws HttpException when the conversation ids or details cannot be listed, the snapshot stays as it was
+     * @throws IOException   when the snapshot cannot be saved
+     */
+    public Result sync() throws HttpException, IOException {
+        synchronized (syncLock) {
+            long start = System.currentTimeMillis();
+            // Hashed contains, the diff below stays linear for accounts with many conversations
+            QualifiedIds ids = api.listUserConversationIdsCompact();
+
+            Set<QualifiedId> wanted = new LinkedHashSet<>();
+            Set<QualifiedId> drained = new HashSet<>();
+            List<QualifiedId> removed = new ArrayList<>();
+            synchronized (this) {
+                for (QualifiedId id : ids) {
+                    // Marks are taken now, so one arriving while fetching is kept for the next sync
+                    boolean marked = snapshot.dirty().remove(id);
+                    if (marked) {
+                        drained.add(id);
+                    }
+                    if (marked || !snapshot.contains(id)) {
+                        wanted.add(id);
+                    }
+                }
+                // The listing settles the marks of conversations that are not listed
+                snapshot.dirty().retainAll(ids);
+                for (QualifiedId id : snapshot.ids()) {
+                    if (!ids.contains(id)) {
+                        removed.add(id);
+                    }
+                }
+            }
+
+            List<Conversation> added = new ArrayList<>();
+            List<Conversation> changed = new ArrayList<>();
+            int unchanged = 0;
+            int fetchedCount = 0;
+            boolean saved = false;
+            try {
+                List<Conversation> fetched = fetch(new ArrayList<>(wanted));
+                fetchedCount = fetched.size();
+                synchronized (this) {
+                    for (Conversation conversation : fetched) {
+                        long hash = hash(conversation);
+                        ConversationSnapshot.Entry previous = snapshot.get(conversation.id);
+                        if (previous == null) {
+                            added.add(conversation);
+                        } else if (previous.hash != hash) {
+                            changed.add(conversation);
+                        } else {
+                            unchanged++;
+                        }
+                        snapshot.put(conversation, hash);
+                        drained.remove(conversation.id);
+                    }
+                    for (QualifiedId id : removed) {
+                        snapshot.remove(id);
+                        drained.remove(id);
+                    }
+                    // Dirty conversations the backend did not return are retried next time
+                    snapshot.dirty().addAll(drained);
+                    store.save(key, snapshot);
+                    saved = true;
+                }
+            } finally {
+                if (!saved) {
+                    synchronized (this) {
+                        snapshot.dirty().addAll(drained);
+                    }
+                }
+            }
+
+            Logger.info("ConversationSync: %s has %d conversations, fetched %d (%d new, %d changed), removed %d in %d ms",
+                    key, ids.size(), fetchedCount, added.size(), changed.size(), removed.size(),
+                    System.currentTimeMillis() - start);
+            return new Result(added, changed, removed, unchanged, ids.size());
+        }
+    }
+
+    /**
+     * Runs {@link #sync()} on the executor, so the bot can serve events from the loaded snapshot meanwhile.
+     *
+     * @return completes with the result, or exceptionally with the failure
+     */
+    public CompletableFuture<Result> syncAsync(Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return sync();
+            } catch (HttpException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * @return the conversation as of the last sync, null if it is not known
+     */
+    public synchronized Conversation getConversation(QualifiedId conversationId) {
+        ConversationSnapshot.Entry entry = snapshot.get(conversationId);
+        return entry == null ? null : entry.getConversation();
+    }
+
+    /**
+     * @return the conversations as of the last sync
+     */
+    public synchronized List<Conversation> getConversations() {
+        return snapshot.conversations();
+    }
+
+    public synchronized int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * @return hash of the details of the conversation, as kept in the snapshot
+     */
+    public static long hash(Conversation conversation) {
+        CRC32C crc = new CRC32C();
+        try {
+            crc.update(HeliumJsonProvider.mapper().writeValueAsBytes(conversation));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        return crc.getValue();
+    }
+
+    private List<Conversation> fetch(List<QualifiedId> ids) throws HttpException {
+        List<Conversation> conversations = new ArrayList<>(ids.size());
+        // Strict, a failed request must fail the sync rather than leave new conversations out of it
+        api.listConversations(ids, conversations);
+        return conversations;
+    }
+
+    public static class Result {
+        public final List<Conversation> added;
+        public final List<Conversation> changed;
+        public final List<QualifiedId> removed;
+        public final int unchanged;
+        public final int total;
+
+        Result(List<Conversation> added, List<Conversation> changed, List<QualifiedId> removed, int unchanged, int total) {
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+            this.unchanged = unchanged;
+            this.total = total;
+        }
+    }
+}
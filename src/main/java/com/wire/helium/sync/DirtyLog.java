@@ -0,0 +1,38 @@
+package com.wire.helium.sync;
+
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Append-only file of dirty marks, one <code>uuid@domain</code> per line, shared by the file based snapshot stores
+ */
+final class DirtyLog {
+    private DirtyLog() {
+    }
+
+    static void append(Path file, QualifiedId conversationId) throws IOException {
+        Files.writeString(file, conversationId.id + "@" + conversationId.domain + "\n",
+                StandardCharsets.US_ASCII, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    static void readInto(Path file, Set<QualifiedId> dirty) throws IOException {
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+                int at = line.indexOf('@');
+                if (at > 0) {
+                    dirty.add(new QualifiedId(UUID.fromString(line.substring(0, at)), line.substring(at + 1)));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing marked
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.wire.helium.sync;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.wire.helium.HeliumJsonProvider;
+import com.wire.helium.tools.FileNames;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SnapshotStore} keeping two files per key inside a directory: the snapshot as JSON, replaced atomically on
+ * every save, and the dirty marks since as an append-only list of ids, dropped once a save took them over.
+ * File names are the keys encoded by {@link FileNames#encodeKey(String)}.
+ */
+public class FileSnapshotStore implements SnapshotStore {
+    private static final ObjectReader READER = HeliumJsonProvider.mapper().readerFor(SnapshotFile.class);
+    private static final ObjectWriter WRITER = HeliumJsonProvider.mapper().writerFor(SnapshotFile.class);
+
+    private final Path directory;
+
+    public FileSnapshotStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public synchronized ConversationSnapshot load(String key) throws IOException {
+        ConversationSnapshot snapshot = new ConversationSnapshot();
+        try (InputStream in = Files.newInputStream(file(key, ".snapshot"))) {
+            SnapshotFile content = READER.readValue(in);
+            for (Item item : content.conversations) {
+                snapshot.put(item.conversation, item.hash);
+            }
+            snapshot.dirty().addAll(content.dirty);
+        } catch (NoSuchFileException e) {
+            // first sync
+        }
+        DirtyLog.readInto(file(key, ".dirty"), snapshot.dirty());
+        return snapshot;
+    }
+
+    @Override
+    public synchronized void save(String key, ConversationSnapshot snapshot) throws IOException {
+        SnapshotFile content = new SnapshotFile();
+        for (ConversationSnapshot.Entry entry : snapshot.entries()) {
+            Item item = new Item();
+            item.hash = entry.hash;
+            item.conversation = entry.getConversation();
+            content.conversations.add(item);
+        }
+        content.dirty.addAll(snapshot.dirty());
+
+        Path target = file(key, ".snapshot");
+        Path tmp = Files.createTempFile(directory, FileNames.encodeKey(key), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                WRITER.writeValue(out, content);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Files.deleteIfExists(file(key, ".dirty"));
+    }
+
+    @Override
+    public synchronized void markDirty(String key, QualifiedId conversationId) throws IOException {
+        DirtyLog.append(file(key, ".dirty"), conversationId);
+    }
+
+    private Path file(String key, String suffix) {
+        return directory.resolve(FileNames.encodeKey(key) + suffix);
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class SnapshotFile {
+        @JsonProperty
+        public List<Item> conversations = new ArrayList<>();
+        @JsonProperty
+        public List<QualifiedId> dirty = new ArrayList<>();
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class Item {
+        @JsonProperty
+        public long hash;
+        @JsonProperty
+        public Conversation conversation;
+    }
+}
@@ -0,0 +1,297 @@
+package com.wire.helium.sync;
+
+import com.wire.helium.tools.FileNames;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Member;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.backend.models.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link SnapshotStore} writing snapshots in a binary format that is memory-mapped on load. Loading reads the ids and
+ * hashes only; the details of a conversation are decoded from the mapping when first asked for, so a bot with tens of
+ * thousands of conversations can route events right after startup and reconcile in the background.
+ * <p>
+ *     Saves write a new file and atomically move it over the previous one. Mappings of the previous file stay valid
+ *     until they are garbage collected, so lazily loaded entries keep working after a save. Dirty marks are appended
+ *     to a separate file, and files are named after the keys, like with {@link FileSnapshotStore}.
+ * </p>
+ * <p>
+ *     Layout, big-endian: magic with the format version, the conversation records, the table of domains the records refer to by
+ *     index, the dirty ids, the index of (id, hash, record offset) and a trailer with the offsets of these sections.
+ * </p>
+ */
+public class MappedSnapshotStore implements SnapshotStore {
+    private static final int MAGIC = 0x48435301; // "HCS" 1
+    private static final int TRAILER = 4 * 4;
+    private static final Conversation.Protocol[] PROTOCOLS = Conversation.Protocol.values();
+
+    private final Path directory;
+
+    public MappedSnapshotStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public synchronized ConversationSnapshot load(String key) throws IOException {
+        ConversationSnapshot snapshot = new ConversationSnapshot();
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file(key, ".snap"), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            DirtyLog.readInto(file(key, ".dirty"), snapshot.dirty());
+            return snapshot;
+        }
+
+        if (mapped.capacity() < 4 + TRAILER || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a conversation snapshot: " + file(key, ".snap"));
+        }
+        ByteBuffer in = mapped.duplicate().position(mapped.capacity() - TRAILER);
+        int domainsOffset = in.getInt();
+        int dirtyOffset = in.getInt();
+        int indexOffset = in.getInt();
+        int count = in.getInt();
+
+        in.position(domainsOffset);
+        String[] domains = new String[in.getInt()];
+        for (int i = 0; i < domains.length; i++) {
+            domains[i] = readString(in);
+        }
+
+        in.position(dirtyOffset);
+        for (int i = in.getInt(); i > 0; i--) {
+            snapshot.dirty().add(readId(in, domains));
+        }
+
+        in.position(indexOffset);
+        for (int i = 0; i < count; i++) {
+            QualifiedId id = readId(in, domains);
+            long hash = in.getLong();
+            int offset = in.getInt();
+            snapshot.put(id, hash, () -> readConversation(mapped.duplicate().position(offset), id, domains));
+        }
+
+        DirtyLog.readInto(file(key, ".dirty"), snapshot.dirty());
+        return snapshot;
+    }
+
+    @Override
+    public synchronized void save(String key, ConversationSnapshot snapshot) throws IOException {
+        Path tmp = Files.createTempFile(directory, FileNames.encodeKey(key), ".tmp");
+        try {
+            try (Writer out = new Writer(tmp)) {
+                out.write(snapshot);
+            }
+            Files.move(tmp, file(key, ".snap"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Files.deleteIfExists(file(key, ".dirty"));
+    }
+
+    @Override
+    public synchronized void markDirty(String key, QualifiedId conversationId) throws IOException {
+        DirtyLog.append(file(key, ".dirty"), conversationId);
+    }
+
+    private Path file(String key, String suffix) {
+        return directory.resolve(FileNames.encodeKey(key) + suffix);
+    }
+
+    private static Conversation readConversation(ByteBuffer in, QualifiedId id, String[] domains) {
+        Conversation conversation = new Conversation();
+        conversation.id = id;
+        conversation.name = readString(in);
+        conversation.mlsGroupId = readString(in);
+        byte protocol = in.get();
+        conversation.protocol = protocol < 0 ? null : PROTOCOLS[protocol];
+        conversation.creator = readUUID(in);
+        int members = in.getInt();
+        if (members >= 0) {
+            conversation.members = new Payload.Members();
+            if (members > 0 || in.get() != 0) {
+                conversation.members.others = new ArrayList<>(members);
+                for (int i = 0; i < members; i++) {
+                    conversation.members.others.add(readMember(in, domains));
+                }
+            }
+        }
+        return conversation;
+    }
+
+    private static Member readMember(ByteBuffer in, String[] domains) {
+        Member member = new Member();
+        member.id = in.get() == 0 ? null : readId(in, domains);
+        int status = in.getInt();
+        member.status = status == Integer.MIN_VALUE ? null : status;
+        if (in.get() != 0) {
+            member.service = new Service();
+            member.service.id = readUUID(in);
+            member.service.providerId = readUUID(in);
+        }
+        return member;
+    }
+
+    private static QualifiedId readId(ByteBuffer in, String[] domains) {
+        int domain = in.getInt();
+        return new QualifiedId(new UUID(in.getLong(), in.getLong()), domain < 0 ? null : domains[domain]);
+    }
+
+    private static UUID readUUID(ByteBuffer in) {
+        return in.get() == 0 ? null : new UUID(in.getLong(), in.getLong());
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Streams a snapshot into a file, collecting the domains and record offsets on the way
+     */
+    private static final class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> domainIndex = new HashMap<>();
+        private final List<String> domains = new ArrayList<>();
+
+        Writer(Path file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        }
+
+        void write(ConversationSnapshot snapshot) throws IOException {
+            out.writeInt(MAGIC);
+
+            List<ConversationSnapshot.Entry> entries = new ArrayList<>(snapshot.entries());
+            int[] offsets = new int[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                offsets[i] = out.size();
+                writeConversation(entries.get(i).getConversation());
+            }
+
+            // Domains of the dirty and index ids must be in the table too
+            for (QualifiedId id : snapshot.dirty()) {
+                domain(id.domain);
+            }
+            for (ConversationSnapshot.Entry entry : entries) {
+                domain(entry.id.domain);
+            }
+
+            int domainsOffset = out.size();
+            out.writeInt(domains.size());
+            for (String domain : domains) {
+                writeString(domain);
+            }
+
+            int dirtyOffset = out.size();
+            out.writeInt(snapshot.dirty().size());
+            for (QualifiedId id : snapshot.dirty()) {
+                writeId(id);
+            }
+
+            int indexOffset = out.size();
+            for (int i = 0; i < entries.size(); i++) {
+                ConversationSnapshot.Entry entry = entries.get(i);
+                writeId(entry.id);
+                out.writeLong(entry.hash);
+                out.writeInt(offsets[i]);
+            }
+
+            out.writeInt(domainsOffset);
+            out.writeInt(dirtyOffset);
+            out.writeInt(indexOffset);
+            out.writeInt(entries.size());
+        }
+
+        private void writeConversation(Conversation conversation) throws IOException {
+            writeString(conversation.name);
+            writeString(conversation.mlsGroupId);
+            out.writeByte(conversation.protocol == null ? -1 : conversation.protocol.ordinal());
+            writeUUID(conversation.creator);
+            if (conversation.members == null) {
+                out.writeInt(-1);
+                return;
+            }
+            List<Member> others = conversation.members.others;
+            out.writeInt(others == null ? 0 : others.size());
+            if (others == null || others.isEmpty()) {
+                // Tells an empty list from a missing one
+                out.writeByte(others == null ? 0 : 1);
+                return;
+            }
+            for (Member member : others) {
+                out.writeByte(member.id == null ? 0 : 1);
+                if (member.id != null) {
+                    writeId(member.id);
+                }
+                out.writeInt(member.status == null ? Integer.MIN_VALUE : member.status);
+                out.writeByte(member.service == null ? 0 : 1);
+                if (member.service != null) {
+                    writeUUID(member.service.id);
+                    writeUUID(member.service.providerId);
+                }
+            }
+        }
+
+        private void writeId(QualifiedId id) throws IOException {
+            out.writeInt(domain(id.domain));
+            out.writeLong(id.id.getMostSignificantBits());
+            out.writeLong(id.id.getLeastSignificantBits());
+        }
+
+        private void writeUUID(UUID uuid) throws IOException {
+            out.writeByte(uuid == null ? 0 : 1);
+            if (uuid != null) {
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private int domain(String domain) {
+            if (domain == null) {
+                return -1;
+            }
+            return domainIndex.computeIfAbsent(domain, d -> {
+                domains.add(d);
+                return domains.size() - 1;
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
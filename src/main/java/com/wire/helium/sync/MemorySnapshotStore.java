@@ -0,0 +1,33 @@
+package com.wire.helium.sync;
+
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SnapshotStore} for tests and bots that resync in full after every restart anyway.
+ */
+public class MemorySnapshotStore implements SnapshotStore {
+    private final Map<String, ConversationSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    @Override
+    public ConversationSnapshot load(String key) {
+        ConversationSnapshot snapshot = snapshots.get(key);
+        return snapshot == null ? new ConversationSnapshot() : snapshot.copy();
+    }
+
+    @Override
+    public void save(String key, ConversationSnapshot snapshot) {
+        snapshots.put(key, snapshot.copy());
+    }
+
+    @Override
+    public void markDirty(String key, QualifiedId conversationId) {
+        snapshots.compute(key, (k, snapshot) -> {
+            ConversationSnapshot marked = snapshot == null ? new ConversationSnapshot() : snapshot;
+            marked.dirty().add(conversationId);
+            return marked;
+        });
+    }
+}
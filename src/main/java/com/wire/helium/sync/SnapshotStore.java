@@ -0,0 +1,23 @@
+package com.wire.helium.sync;
+
+import com.wire.xenon.backend.models.QualifiedId;
+
+import java.io.IOException;
+
+/**
+ * Persists the {@link ConversationSnapshot}s of {@link ConversationSync}, one per key.
+ * <p>
+ *     Dirty marks arrive one at a time between two syncs and must be cheap to persist, so they have their own call;
+ *     {@link #save(String, ConversationSnapshot)} replaces the snapshot together with the marks it still holds.
+ * </p>
+ */
+public interface SnapshotStore {
+    /**
+     * @return the saved snapshot with the dirty marks added since, an empty one if there is none
+     */
+    ConversationSnapshot load(String key) throws IOException;
+
+    void save(String key, ConversationSnapshot snapshot) throws IOException;
+
+    void markDirty(String key, QualifiedId conversationId) throws IOException;
+}
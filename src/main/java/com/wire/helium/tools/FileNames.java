@@ -0,0 +1,20 @@
+package com.wire.helium.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * File names for the stores keeping one file per key inside a directory.
+ */
+public final class FileNames {
+    private FileNames() {
+    }
+
+    /**
+     * @return the key in URL-safe Base64, with no separators, dots or other characters file systems treat specially,
+     * so any key stays inside the store's directory
+     */
+    public static String encodeKey(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+}
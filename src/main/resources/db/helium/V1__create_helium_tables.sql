@@ -0,0 +1,8 @@
+-- Position of a notification stream, a cursor without one starts from the beginning of the stream
+CREATE TABLE Notification_Cursors (
+    id         varchar PRIMARY KEY,
+    last_event UUID
+);
+
+-- Lets batched writers skip updates that are older than the stored session
+ALTER TABLE Sessions ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,636 @@
+package com.wire.helium;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.http.ConcurrencyLimiter;
+import com.wire.helium.http.ConditionalCache;
+import com.wire.helium.http.Hedger;
+import com.wire.helium.http.PageSizer;
+import com.wire.helium.http.RequestScheduler;
+import com.wire.helium.http.SingleFlight;
+import com.wire.helium.models.Access;
+import com.wire.helium.models.BinaryRecipients;
+import com.wire.helium.models.CompactConversations;
+import com.wire.helium.models.Event;
+import com.wire.helium.models.EventFilter;
+import com.wire.helium.models.NotificationList;
+import com.wire.helium.models.QualifiedIds;
+import com.wire.helium.notifications.MemoryCursorStore;
+import com.wire.helium.notifications.NotificationCursor;
+import com.wire.helium.notifications.NotificationReader;
+import com.wire.helium.notifications.NotificationSource;
+import com.wire.messages.Otr;
+import com.wire.xenon.Const;
+import com.wire.xenon.assets.IAsset;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.AuthException;
+import com.wire.xenon.models.AssetKey;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+import org.glassfish.jersey.client.JerseyClientBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.Response;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class APITest {
+    private static BackendSimulator backend;
+    private static Client client;
+
+    @BeforeAll
+    public static void before() throws Exception {
+        backend = new BackendSimulator();
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+        client = JerseyClientBuilder.createClient()
+                .register(JacksonJsonProvider.class)
+                .register(ProtobufBodyWriter.class);
+    }
+
+    @AfterAll
+    public static void after() {
+        client.close();
+        backend.close();
+        System.clearProperty(Const.WIRE_BOTS_SDK_API);
+    }
+
+    @Test
+    public void testLoginAndRenew() throws Exception {
+        BackendSimulator.Account account = backend.addAccount();
+        LoginClient loginClient = new LoginClient(client);
+
+        assertThrows(AuthException.class, () -> loginClient.login(account.email, "wrong"));
+
+        Access access = loginClient.login(account.email, account.password);
+        assertEquals(account.id.id, access.getUserId());
+        assertTrue(access.hasCookie());
+
+        Cookie cookie = new Cookie(access.getCookie().name, access.getCookie().value);
+        Access renewed = loginClient.renewAccessToken(null, cookie);
+        assertNotEquals(access.getAccessToken(), renewed.getAccessToken());
+
+        API api = new API(client, null, renewed.getAccessToken());
+        assertEquals(account.id, api.getSelf().id);
+    }
+
+    @Test
+    public void testClientMismatch() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+        String bobClient = backend.addClient(bob);
+        QualifiedId convId = backend.addConversation("mismatch", alice.id, bob);
+
+        API api = new API(client, convId, alice.getToken());
+        long delivered = backend.getDeliveredMessages();
+
+        Devices devices = api.sendMessage(new OtrMessage(aliceClient, new Recipients()), false);
+        assertEquals(List.of(bobClient), List.copyOf(devices.missing.toClients(bob)));
+        assertEquals(delivered, backend.getDeliveredMessages());
+
+        PreKeys preKeys = api.getPreKeys(devices.missing);
+        PreKey preKey = preKeys.qualifiedUserClientPrekeys.get(bob.domain).get(bob.id).get(bobClient);
+        assertNotNull(preKey);
+
+        Recipients recipients = new Recipients();
+        recipients.add(bob, bobClient, "cipher");
+
+        devices = api.sendMessage(new OtrMessage(aliceClient, recipients), false);
+        assertTrue(devices.missing.isEmpty());
+        assertEquals(delivered + 1, backend.getDeliveredMessages());
+
+        Otr.QualifiedNewOtrMessage sent = backend.getLastMessage();
+        assertTrue(sent.hasReportAll());
+        assertEquals("cipher", sent.getRecipients(0).getEntries(0).getClients(0).getText().toStringUtf8());
+    }
+
+    @Test
+    public void testBinaryRecipients() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+        String bobClient = backend.addClient(bob);
+        String bobClient2 = backend.addClient(bob);
+        QualifiedId convId = backend.addConversation("binary", alice.id, bob);
+
+        API api = new API(client, convId, alice.getToken());
+        long sender = BinaryRecipients.clientId(aliceClient);
+
+        BinaryRecipients recipients = new BinaryRecipients()
+                .add(bob, BinaryRecipients.clientId(bobClient), new byte[]{1, 2, 3});
+        Devices devices = api.sendMessage(sender, recipients, false);
+        assertEquals(List.of(bobClient2), List.copyOf(devices.missing.toClients(bob)));
+
+        recipients.add(bob, BinaryRecipients.clientId(bobClient2), new byte[]{4});
+        recipients.add(bob, BinaryRecipients.clientId(bobClient), ByteBuffer.wrap(new byte[]{0, 5, 6}, 1, 2));
+        assertEquals(2, recipients.size());
+
+        long delivered = backend.getDeliveredMessages();
+        devices = api.sendMessage(sender, recipients, false);
+        assertTrue(devices.missing.isEmpty());
+        assertEquals(delivered + 1, backend.getDeliveredMessages());
+
+        Otr.QualifiedNewOtrMessage sent = backend.getLastMessage();
+        assertEquals(sender, sent.getSender().getClient());
+        Map<Long, byte[]> ciphers = new HashMap<>();
+        for (Otr.ClientEntry entry : sent.getRecipients(0).getEntries(0).getClientsList()) {
+            ciphers.put(entry.getClient().getClient(), entry.getText().toByteArray());
+        }
+        assertArrayEquals(Base64.getEncoder().encode(new byte[]{5, 6}), ciphers.get(BinaryRecipients.clientId(bobClient)));
+        assertArrayEquals(Base64.getEncoder().encode(new byte[]{4}), ciphers.get(BinaryRecipients.clientId(bobClient2)));
+    }
+
+    @Test
+    public void testBinaryRecipientsSendSameText() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+        String bobClient = backend.addClient(bob);
+        QualifiedId convId = backend.addConversation("same text", alice.id, bob);
+
+        API api = new API(client, convId, alice.getToken());
+        byte[] cipher = new byte[256];
+        new Random(7).nextBytes(cipher);
+
+        Recipients recipients = new Recipients();
+        recipients.add(bob, bobClient, Base64.getEncoder().encodeToString(cipher));
+        api.sendMessage(new OtrMessage(aliceClient, recipients), false);
+        Otr.ClientEntry text = backend.getLastMessage().getRecipients(0).getEntries(0).getClients(0);
+
+        api.sendMessage(BinaryRecipients.clientId(aliceClient),
+                new BinaryRecipients().add(bob, BinaryRecipients.clientId(bobClient), cipher), false);
+        Otr.ClientEntry binary = backend.getLastMessage().getRecipients(0).getEntries(0).getClients(0);
+
+        assertEquals(text.getClient(), binary.getClient());
+        assertEquals(text.getText(), binary.getText());
+    }
+
+    @Test
+    public void testPartialMessage() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+        backend.addClient(bob);
+        QualifiedId carol = backend.addUser(BackendSimulator.DOMAIN);
+        String carolClient = backend.addClient(carol);
+        QualifiedId convId = backend.addConversation("partial", alice.id, bob, carol);
+
+        API api = new API(client, convId, alice.getToken());
+
+        long delivered = backend.getDeliveredMessages();
+
+        Devices devices = api.sendPartialMessage(new OtrMessage(aliceClient, new Recipients()), carol);
+        assertEquals(List.of(carolClient), List.copyOf(devices.missing.toClients(carol)));
+        assertEquals(delivered, backend.getDeliveredMessages());
+
+        // Bob's client is missing as well, but only Carol's are reported on
+        Recipients recipients = new Recipients();
+        recipients.add(carol, carolClient, "cipher");
+        devices = api.sendPartialMessage(new OtrMessage(aliceClient, recipients), carol);
+        assertTrue(devices.missing.isEmpty());
+        assertEquals(delivered + 1, backend.getDeliveredMessages());
+        assertTrue(backend.getLastMessage().hasReportOnly());
+    }
+
+    @Test
+    public void testTargetedMessage() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+        backend.addClient(bob);
+        QualifiedId carol = backend.addUser(BackendSimulator.DOMAIN);
+        String carolClient = backend.addClient(carol);
+        QualifiedId dave = backend.addUser(BackendSimulator.DOMAIN);
+        String daveClient = backend.addClient(dave);
+        QualifiedId convId = backend.addConversation("targeted", alice.id, bob, carol, dave);
+
+        API api = new API(client, convId, alice.getToken());
+        long requests = backend.getRequests("conversations/proteus/messages");
+        long delivered = backend.getDeliveredMessages();
+
+        // Bob's client is missing too, but he is not a target and must not be encrypted for
+        Devices devices = api.sendPartialMessage(new OtrMessage(aliceClient, new Recipients()), List.of(carol, dave));
+        assertEquals(Set.of(carol, dave), Set.copyOf(devices.missing.toUserIds()));
+        assertEquals(List.of(carolClient), List.copyOf(devices.missing.toClients(carol)));
+        assertEquals(List.of(daveClient), List.copyOf(devices.missing.toClients(dave)));
+
+        Recipients recipients = new Recipients();
+        recipients.add(carol, carolClient, "cipher");
+        recipients.add(dave, daveClient, "cipher");
+        devices = api.sendPartialMessage(new OtrMessage(aliceClient, recipients), List.of(carol, dave));
+        assertTrue(devices.missing.isEmpty());
+        assertEquals(delivered + 1, backend.getDeliveredMessages());
+        assertEquals(requests + 2, backend.getRequests("conversations/proteus/messages"));
+
+        Otr.QualifiedNewOtrMessage sent = backend.getLastMessage();
+        assertEquals(2, sent.getReportOnly().getUserIdsCount());
+        assertEquals(2, sent.getRecipients(0).getEntriesCount());
+    }
+
+    @Test
+    public void testNotificationsGap() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        QualifiedId convId = backend.addConversation("events", alice.id);
+        List<UUID> ids = backend.addNotifications(alice.id, convId, 30, 64);
+
+        API api = new API(client, null, alice.getToken());
+
+        NotificationList page = api.retrieveNotifications(aliceClient, null, 20);
+        assertEquals(20, page.notifications.size());
+        assertTrue(page.hasMore);
+        assertFalse(page.gap);
+
+        page = api.retrieveNotifications(aliceClient, ids.get(19), 20);
+        assertEquals(10, page.notifications.size());
+        assertFalse(page.hasMore);
+
+        backend.expireNotifications(alice.id, 25);
+        page = api.retrieveNotifications(aliceClient, ids.get(19), 20);
+        assertTrue(page.gap);
+        assertEquals(ids.get(25), page.notifications.get(0).id);
+
+        assertEquals(ids.get(29), api.getLastNotification(aliceClient).id);
+    }
+
+    @Test
+    public void testFilteredNotifications() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        QualifiedId convId = backend.addConversation("filtered", alice.id);
+        List<UUID> ids = new ArrayList<>(backend.addNotifications(alice.id, convId, 10, 64));
+        Payload rename = new Payload();
+        rename.type = "conversation.rename";
+        rename.conversation = convId;
+        rename.from = alice.id;
+        ids.add(backend.addNotification(alice.id, rename));
+        ids.addAll(backend.addNotifications(alice.id, convId, 5, 64));
+
+        API api = new API(client, null, alice.getToken());
+        EventFilter filter = EventFilter.types("conversation.rename");
+
+        NotificationList page = api.retrieveNotifications(aliceClient, null, 100, filter);
+        assertEquals(16, page.notifications.size());
+        Event skipped = page.notifications.get(0);
+        assertTrue(skipped.isSkipped());
+        assertEquals(ids.get(0), skipped.id);
+        assertEquals(0, skipped.getPayloads().length);
+
+        Event renamed = page.notifications.get(10);
+        assertFalse(renamed.isSkipped());
+        assertNull(renamed.payload);
+        assertEquals(List.of("conversation.rename"), renamed.getTypes());
+        assertEquals(convId, renamed.getConversation());
+        assertEquals(alice.id, renamed.getPayloads()[0].from);
+        assertEquals("conversation.rename", renamed.payload[0].type);
+        assertNotNull(renamed.payload);
+
+        Event eager = api.retrieveNotifications(aliceClient, null, 1).notifications.get(0);
+        assertEquals("conversation.otr-message-add", eager.payload[0].type);
+        assertEquals(List.of("conversation.otr-message-add"), eager.getTypes());
+
+        List<Event> handled = new ArrayList<>();
+        NotificationCursor cursor = new NotificationCursor(new MemoryCursorStore(), aliceClient);
+        int read = new NotificationReader(NotificationSource.of(api, aliceClient, filter), cursor, 4)
+                .catchUp(handled::add);
+        assertEquals(16, read);
+        assertEquals(1, handled.size());
+        assertEquals(ids.get(10), handled.get(0).id);
+        assertEquals(ids.get(15), cursor.position());
+    }
+
+    @Test
+    public void testUserConversations() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        List<QualifiedId> created = backend.populate(alice, 250, 3, 1);
+
+        API api = new API(client, null, alice.getToken());
+        long listIds = backend.getRequests("conversations/list-ids");
+
+        List<Conversation> conversations = api.getUserConversations();
+        assertEquals(created.size(), conversations.size());
+        assertEquals(2, conversations.get(0).members.others.size());
+        assertEquals(3, backend.getRequests("conversations/list-ids") - listIds);
+
+        CompactConversations compact = api.getUserConversationsCompact();
+        assertEquals(conversations.size(), compact.size());
+        int i = compact.indexOfId(conversations.get(7).id);
+        assertEquals(conversations.get(7).name, compact.name(i));
+        assertEquals(2, compact.members(i).size());
+
+        // The plain id list is an ordinary mutable list, only the compact one is append-only
+        List<QualifiedId> ids = api.getUserConversationIds();
+        QualifiedIds compactIds = api.getUserConversationIdsCompact();
+        assertEquals(compactIds, ids);
+        ids.sort(Comparator.comparing((QualifiedId id) -> id.id));
+        ids.remove(0);
+        assertEquals(created.size() - 1, ids.size());
+        assertThrows(UnsupportedOperationException.class, () -> compactIds.remove(0));
+    }
+
+    @Test
+    public void testAdaptivePaging() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        backend.populate(alice, 1500, 2, 1);
+
+        API api = new API(client, null, alice.getToken());
+        api.setPageSizer(new PageSizer());
+        long listIds = backend.getRequests("conversations/list-ids");
+        long lists = backend.getRequests("conversations/list");
+
+        // Fast pages double from the initial 100 ids, where fixed paging takes 15 requests
+        assertEquals(1500, api.getUserConversations().size());
+        assertEquals(4, backend.getRequests("conversations/list-ids") - listIds);
+        assertEquals(800, api.getPageSizer().size(PageSizer.Endpoint.CONVERSATION_IDS));
+        assertEquals(2, backend.getRequests("conversations/list") - lists);
+    }
+
+    @Test
+    public void testPagesOnlyFeelTheBackend() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        backend.addNotifications(alice.id, backend.addConversation("paging", alice.id), 50, 64);
+
+        API api = new API(client, null, alice.getToken());
+        PageSizer pageSizer = new PageSizer(200, 4 << 20);
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 1_000, 5_000);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0, 0, 2.0);
+        api.setPageSizer(pageSizer);
+        api.setScheduler(scheduler);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // A page that waited 400 ms for its slot was still a fast page
+            CountDownLatch held = new CountDownLatch(1);
+            Future<Response> other = executor.submit(() -> scheduler.invoke(RequestScheduler.Priority.INTERACTIVE,
+                    () -> hold(held, new CountDownLatch(0), 400)));
+            held.await();
+            api.retrieveNotifications(aliceClient, null, 100);
+            other.get().close();
+            assertEquals(PageSizer.Endpoint.NOTIFICATIONS.initial, pageSizer.size(PageSizer.Endpoint.NOTIFICATIONS));
+
+            // No slot left is not a failed page
+            api.setConcurrencyLimiter(limiter);
+            CountDownLatch held2 = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            other = executor.submit(() -> limiter.invoke(ConcurrencyLimiter.EndpointClass.READS,
+                    () -> hold(held2, release, 0)));
+            held2.await();
+            assertThrows(ProcessingException.class, () -> api.retrieveNotifications(aliceClient, null, 100));
+            release.countDown();
+            other.get().close();
+            assertEquals(1, limiter.getRejected(ConcurrencyLimiter.EndpointClass.READS));
+            assertEquals(0, pageSizer.getFailures(PageSizer.Endpoint.NOTIFICATIONS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAssets() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        API api = new API(client, null, alice.getToken());
+
+        byte[] data = "encrypted asset".getBytes();
+        AssetKey assetKey = api.uploadAsset(new IAsset() {
+            public String getMimeType() {
+                return "application/octet-stream";
+            }
+
+            public String getRetention() {
+                return "volatile";
+            }
+
+            public byte[] getEncryptedData() {
+                return data;
+            }
+
+            public boolean isPublic() {
+                return false;
+            }
+
+            public long getExpires() {
+                return 0;
+            }
+
+            public String getDomain() {
+                return BackendSimulator.DOMAIN;
+            }
+        });
+
+        assertArrayEquals(data, api.downloadAsset(assetKey.id, assetKey.domain, assetKey.token));
+    }
+
+    @Test
+    public void testCoalescedReads() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        QualifiedId convId = backend.addConversation("coalesced", alice.id);
+        API api = new API(client, convId, alice.getToken());
+        api.setSingleFlight(SingleFlight.allEndpoints());
+
+        long before = backend.getRequests("conversations/get");
+        backend.getConfig().latencyMillis = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Conversation>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(api::getConversation));
+            }
+            for (Future<Conversation> result : results) {
+                assertEquals(convId, result.get().id);
+            }
+        } finally {
+            backend.getConfig().latencyMillis = 0;
+            executor.shutdown();
+        }
+
+        long sent = backend.getRequests("conversations/get") - before;
+        assertTrue(sent < 8);
+        assertEquals(8, sent + api.getSingleFlight().getShared(SingleFlight.Endpoint.CONVERSATION));
+    }
+
+    @Test
+    public void testConditionalCache() {
+        BackendSimulator.Account alice = backend.addAccount();
+        QualifiedId convId = backend.addConversation("cached", alice.id);
+        API api = new API(client, convId, alice.getToken());
+        ConditionalCache cache = new ConditionalCache(100, 0);
+        api.setConditionalCache(cache, alice.id.toString());
+
+        long before = backend.getRequests("conversations/get/not-modified");
+        assertEquals("cached", api.getConversation().name);
+        assertEquals("cached", api.getConversation().name);
+        assertEquals(1, backend.getRequests("conversations/get/not-modified") - before);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getRevalidations());
+
+        // A changed entity no longer matches the ETag
+        backend.rename(convId, "renamed");
+        assertEquals("renamed", api.getConversation().name);
+        assertEquals(2, cache.getMisses());
+
+        api.getSelf();
+        api.getSelf();
+        assertEquals(2, cache.getRevalidations());
+    }
+
+    @Test
+    public void testConditionalCacheSurvivesTokenRenewal() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        LoginClient loginClient = new LoginClient(client);
+        Access access = loginClient.login(alice.email, alice.password);
+        ConditionalCache cache = new ConditionalCache(100, 60_000);
+
+        API api = new API(client, null, access.getAccessToken());
+        api.setConditionalCache(cache, alice.id.toString());
+        api.getSelf();
+
+        Cookie cookie = new Cookie(access.getCookie().name, access.getCookie().value);
+        API renewed = new API(client, null, loginClient.renewAccessToken(null, cookie).getAccessToken());
+        renewed.setConditionalCache(cache, alice.id.toString());
+        assertEquals(alice.id, renewed.getSelf().id);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInjectedErrors() {
+        BackendSimulator.Account alice = backend.addAccount();
+        API api = new API(client, null, alice.getToken());
+
+        backend.getConfig().errorRate = 1.0;
+        try {
+            assertThrows(RuntimeException.class, () -> api.getPreKeys(missingFor(alice.id)));
+        } finally {
+            backend.getConfig().errorRate = 0;
+        }
+        assertTrue(backend.getInjectedErrors() > 0);
+    }
+
+    @Test
+    public void testConcurrencyLimiterGoodput() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        API api = new API(client, null, alice.getToken());
+
+        backend.getConfig().latencyMillis = 20;
+        backend.getConfig().maxConcurrentRequests = 8;
+        try {
+            long unlimited = goodput(api, 48, 1_500);
+
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+            api.setConcurrencyLimiter(limiter);
+            long limited = goodput(api, 48, 1_500);
+
+            assertTrue(limited > unlimited, "limited: " + limited + ", unlimited: " + unlimited);
+            assertTrue(limiter.getDropped(ConcurrencyLimiter.EndpointClass.PREKEYS) > 0);
+            assertTrue(limiter.getLimit(ConcurrencyLimiter.EndpointClass.PREKEYS) <= 16);
+        } finally {
+            backend.getConfig().latencyMillis = 0;
+            backend.getConfig().maxConcurrentRequests = 0;
+        }
+    }
+
+    @Test
+    public void testHedgedUsers() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        API api = new API(client, null, alice.getToken());
+        Hedger hedger = new Hedger(Executors.newCachedThreadPool(), 90, 0.2, 50);
+        api.setHedger(hedger);
+        QualifiedId bob = backend.addAccount().id;
+
+        backend.getConfig().latencyMillis = 5;
+        backend.getConfig().slowRate = 0.05;
+        backend.getConfig().slowMillis = 2_000;
+        int slow = 0;
+        try {
+            for (int i = 0; i < 300; i++) {
+                long start = System.nanoTime();
+                api.getUser(bob);
+                if (i >= 100 && System.nanoTime() - start > TimeUnit.SECONDS.toNanos(1)) {
+                    slow++;
+                }
+            }
+        } finally {
+            backend.getConfig().latencyMillis = 0;
+            backend.getConfig().slowRate = 0;
+        }
+
+        // Once the threshold is known slow answers are raced, within a budget of 20% extra requests.
+        // About 10 of the measured calls hit a slow node, a hedge only rarely hits one too.
+        assertTrue(slow <= 2, "slow calls: " + slow);
+        assertTrue(hedger.getHedgeWins(Hedger.Call.USER) > 0);
+        assertTrue(hedger.getHedges(Hedger.Call.USER) <= 0.2 * 300 + 10);
+    }
+
+    /**
+     * Occupies a request slot without a request
+     */
+    private static Response hold(CountDownLatch held, CountDownLatch release, long millis) {
+        held.countDown();
+        try {
+            release.await();
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Response.noContent().build();
+    }
+
+    /**
+     * @return prekey requests that succeeded within the given time
+     */
+    private static long goodput(API api, int callers, long millis) throws Exception {
+        Missing missing = missingFor(backend.addAccount().id);
+        AtomicLong succeeded = new AtomicLong();
+        long end = System.currentTimeMillis() + millis;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        for (int i = 0; i < callers; i++) {
+            executor.execute(() -> {
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        api.getPreKeys(missing);
+                        succeeded.incrementAndGet();
+                    } catch (RuntimeException ignored) {
+                        // throttled
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(millis + 10_000, TimeUnit.MILLISECONDS));
+        return succeeded.get();
+    }
+
+    private static Missing missingFor(QualifiedId userId) {
+        Missing missing = new Missing();
+        missing.add(userId, "1");
+        return missing;
+    }
+}
@@ -33,5 +33,6 @@ abstract public class DatabaseTestBase {
                 .load();
 
         flyway.migrate();
+        HeliumMigrations.configure(Flyway.configure().dataSource(jdbcUrl, user, password)).load().migrate();
     }
 }
@@ -4,8 +4,8 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.waz.model.Messages;
 import com.wire.bots.cryptobox.IStorage;
 import com.wire.helium.helpers.DummyAPI;
-import com.wire.helium.helpers.MemStorage;
 import com.wire.helium.helpers.Util;
+import com.wire.helium.storage.MemoryStorage;
 import com.wire.xenon.WireClient;
 import com.wire.xenon.WireClientBase;
 import com.wire.xenon.assets.MessageText;
@@ -77,7 +77,7 @@ public class End2EndTest extends DatabaseTestBase {
         QualifiedId aliceId = new QualifiedId(UUID.randomUUID(), UUID.randomUUID().toString());
         String client1 = "bob1";
 
-        MemStorage storage = new MemStorage();
+        MemoryStorage storage = new MemoryStorage();
 
         CryptoDatabase aliceCrypto = new CryptoDatabase(aliceId, storage, rootFolder + "/testAliceToBob");
         CryptoDatabase bobCrypto = new CryptoDatabase(bobId, storage, rootFolder + "/testAliceToBob");
@@ -0,0 +1,48 @@
+package com.wire.helium;
+
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import com.wire.helium.models.Cookie;
+import com.wire.helium.models.NotificationList;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeliumJsonProviderTest {
+    private final HeliumJsonProvider provider = new HeliumJsonProvider();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        UUID id = UUID.randomUUID();
+        String json = "{\"has_more\":true,\"notifications\":[{\"id\":\"" + id + "\",\"payload\":[{\"type\":\"conversation.otr-message-add\"}]}],\"unknown\":1}";
+
+        NotificationList list = read(NotificationList.class, json);
+        assertTrue(list.hasMore);
+        assertEquals(id, list.notifications.get(0).id);
+        assertEquals("conversation.otr-message-add", list.notifications.get(0).payload[0].type);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        provider.writeTo(list, NotificationList.class, NotificationList.class, null, MediaType.APPLICATION_JSON_TYPE, null, out);
+        assertEquals(id, read(NotificationList.class, out.toString(StandardCharsets.UTF_8)).notifications.get(0).id);
+    }
+
+    @Test
+    public void testSameSettingsAsJackson() throws Exception {
+        assertNull(read(NotificationList.class, ""));
+        // Models without @JsonIgnoreProperties still reject unknown properties
+        assertThrows(UnrecognizedPropertyException.class,
+                () -> read(Cookie.class, "{\"name\":\"zuid\",\"unknown\":1}"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(Class<T> type, String json) throws IOException {
+        return (T) provider.readFrom((Class<Object>) (Class<?>) type, type, null, MediaType.APPLICATION_JSON_TYPE, null,
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,127 @@
+package com.wire.helium.broadcast;
+
+import com.wire.helium.API;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.helpers.FakeCrypto;
+import com.wire.helium.http.Transport;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BroadcasterTest {
+    private static BackendSimulator backend;
+    private static Client client;
+
+    @BeforeAll
+    public static void before() throws Exception {
+        backend = new BackendSimulator();
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+        client = Transport.newClient(Transport.Engine.JERSEY);
+    }
+
+    @AfterAll
+    public static void after() {
+        client.close();
+        backend.close();
+        System.clearProperty(Const.WIRE_BOTS_SDK_API);
+    }
+
+    @Test
+    public void testSharedRecipientOpensOneSession() throws Exception {
+        BackendSimulator.Account bot = backend.addAccount();
+        String botClient = backend.addClient(bot.id);
+        QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+        String bobClient = backend.addClient(bob);
+
+        List<QualifiedId> conversations = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            QualifiedId other = backend.addUser(BackendSimulator.DOMAIN);
+            backend.addClient(other);
+            conversations.add(backend.addConversation("broadcast " + i, bot.id, bob, other));
+        }
+
+        FakeCrypto crypto = new FakeCrypto();
+        Map<QualifiedId, BroadcastResult> results = new ConcurrentHashMap<>();
+        long delivered = backend.getDeliveredMessages();
+        try (Broadcaster broadcaster = new Broadcaster(convId -> new API(client, convId, bot.getToken()), crypto,
+                botClient, 8, 0, 3)) {
+            Broadcaster.Summary summary = broadcaster.broadcast("hello".getBytes(StandardCharsets.UTF_8), conversations,
+                    result -> results.put(result.getConversationId(), result)).get(30, TimeUnit.SECONDS);
+
+            assertEquals(40, summary.getDelivered());
+            assertEquals(0, summary.getFailed());
+            assertEquals(80, broadcaster.getSends());
+        }
+
+        assertEquals(Set.copyOf(conversations), results.keySet());
+        assertTrue(results.values().stream().allMatch(r -> r.isDelivered() && r.getUnreachable() == 0));
+        assertEquals(delivered + 40, backend.getDeliveredMessages());
+        assertEquals(1, crypto.getOpened(bobClient));
+        assertEquals(2, backend.getLastMessage().getRecipients(0).getEntriesCount());
+    }
+
+    @Test
+    public void testFailuresAreReportedPerConversation() throws Exception {
+        BackendSimulator.Account bot = backend.addAccount();
+        String botClient = backend.addClient(bot.id);
+        QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+        backend.addClient(bob);
+        QualifiedId good = backend.addConversation("good", bot.id, bob);
+        QualifiedId unknown = new QualifiedId(UUID.randomUUID(), BackendSimulator.DOMAIN);
+
+        Map<QualifiedId, BroadcastResult> results = new ConcurrentHashMap<>();
+        try (Broadcaster broadcaster = new Broadcaster(convId -> new API(client, convId, bot.getToken()),
+                new FakeCrypto(), botClient, 2, 0, 3)) {
+            Broadcaster.Summary summary = broadcaster.broadcast(new byte[]{1}, List.of(good, unknown),
+                    result -> results.put(result.getConversationId(), result)).get(30, TimeUnit.SECONDS);
+
+            assertEquals(1, summary.getDelivered());
+            assertEquals(1, summary.getFailed());
+        }
+        assertTrue(results.get(good).isDelivered());
+        assertNotNull(results.get(unknown).getError());
+    }
+
+    @Test
+    public void testSendsArePacedAndThrottlingRetried() throws Exception {
+        BackendSimulator.Account bot = backend.addAccount();
+        String botClient = backend.addClient(bot.id);
+        List<QualifiedId> conversations = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            QualifiedId other = backend.addUser(BackendSimulator.DOMAIN);
+            backend.addClient(other);
+            conversations.add(backend.addConversation("paced " + i, bot.id, other));
+        }
+
+        backend.getConfig().latencyMillis = 20;
+        backend.getConfig().maxConcurrentRequests = 2;
+        try (Broadcaster broadcaster = new Broadcaster(convId -> new API(client, convId, bot.getToken()),
+                new FakeCrypto(), botClient, 4, 50, 10)) {
+            Broadcaster.Summary summary = broadcaster.broadcast(new byte[]{1}, conversations, null)
+                    .get(60, TimeUnit.SECONDS);
+
+            assertEquals(10, summary.getDelivered());
+            // 20 posts at 50 per second
+            assertTrue(summary.getElapsedMillis() >= 350, "elapsed: " + summary.getElapsedMillis());
+            assertTrue(broadcaster.getThrottled() > 0);
+            assertTrue(broadcaster.getSends() >= 20);
+        } finally {
+            backend.getConfig().latencyMillis = 0;
+            backend.getConfig().maxConcurrentRequests = 0;
+        }
+    }
+}
@@ -0,0 +1,1133 @@
+package com.wire.helium.helpers;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wire.helium.models.Event;
+import com.wire.messages.Otr;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Member;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.backend.models.User;
+import com.wire.xenon.models.otr.PreKey;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable stand-in for the Wire backend, serving the endpoints Helium calls over real HTTP.
+ * <p>
+ *     Unlike {@link DummyAPI} the whole client stack is exercised: Jersey, JSON and protobuf serialization and
+ *     the status code handling of {@link com.wire.helium.API}. Client mismatch (412) is computed from the registered
+ *     conversation members and their clients, honoring the mismatch strategy of the protobuf message.
+ * </p>
+ * <p>
+ *     Latency, error injection and throttling are set through {@link Config}; {@link #populate(Account, int, int, int)}
+ *     and {@link #addNotifications(QualifiedId, QualifiedId, int, int)} create large data sets for load tests.
+ * </p>
+ */
+public class BackendSimulator implements Closeable {
+    public static final String DOMAIN = "wire.local";
+    private static final String VERSION = "v6";
+    private static final int LAST_RESORT_PREKEY = 65535;
+
+    private final Config config;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Map<String, Account> accountsByToken = new ConcurrentHashMap<>();
+    private final Map<String, Account> accountsByEmail = new ConcurrentHashMap<>();
+    private final Map<String, Account> accountsByCookie = new ConcurrentHashMap<>();
+    private final Map<QualifiedId, UserState> users = new ConcurrentHashMap<>();
+    private final Map<QualifiedId, ConversationState> conversations = new ConcurrentHashMap<>();
+    private final List<QualifiedId> conversationOrder = new CopyOnWriteArrayList<>();
+    private final Map<QualifiedId, List<Event>> notifications = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> assets = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong deliveredMessages = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final Map<String, AtomicLong> requestsPerRoute = new ConcurrentHashMap<>();
+    private volatile Otr.QualifiedNewOtrMessage lastMessage;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public BackendSimulator() {
+        this(new Config());
+    }
+
+    static {
+        // Headers and body are written separately, with Nagle every response with a body would wait for a delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public BackendSimulator(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Starts listening on a random local port.
+     *
+     * @return base url, to be passed to Helium through the <code>wire.bots.sdk.api</code> system property
+     * @throws IOException when the server cannot bind
+     */
+    public String start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        executor = Executors.newFixedThreadPool(config.threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        return getHost();
+    }
+
+    public String getHost() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    // ---- data setup
+
+    public Account addAccount() {
+        return addAccount(DOMAIN);
+    }
+
+    public Account addAccount(String domain) {
+        QualifiedId id = addUser(domain);
+        Account account = new Account(id, "user-" + id.id + "@" + domain, "secret-" + id.id);
+        account.token = newToken();
+        accountsByToken.put(account.token, account);
+        accountsByEmail.put(account.email, account);
+        accountsByCookie.put(account.cookie, account);
+        return account;
+    }
+
+    public QualifiedId addUser(String domain) {
+        QualifiedId id = new QualifiedId(UUID.randomUUID(), domain);
+        users.put(id, new UserState(id));
+        notifications.put(id, new CopyOnWriteArrayList<>());
+        return id;
+    }
+
+    /**
+     * Registers a client with a dummy prekey, fine for tests that don't decrypt.
+     */
+    public String addClient(QualifiedId userId) {
+        PreKey preKey = new PreKey();
+        preKey.id = LAST_RESORT_PREKEY;
+        preKey.key = Base64.getEncoder().encodeToString(randomBytes(32));
+        return addClient(userId, preKey);
+    }
+
+    public String addClient(QualifiedId userId, PreKey lastPreKey) {
+        String clientId = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+        user(userId).clients.put(clientId, new ClientState(lastPreKey));
+        return clientId;
+    }
+
+    public void deleteClient(QualifiedId userId, String clientId) {
+        UserState user = user(userId);
+        user.clients.remove(clientId);
+        user.deletedClients.add(clientId);
+    }
+
+    public Collection<String> getClients(QualifiedId userId) {
+        return user(userId).clients.keySet();
+    }
+
+    public QualifiedId addConversation(String name, QualifiedId... members) {
+        QualifiedId id = new QualifiedId(UUID.randomUUID(), DOMAIN);
+        ConversationState conversation = new ConversationState(id, name);
+        conversation.members.addAll(Arrays.asList(members));
+        conversations.put(id, conversation);
+        conversationOrder.add(id);
+        return id;
+    }
+
+    public void addMembers(QualifiedId conversationId, QualifiedId... members) {
+        conversation(conversationId).members.addAll(Arrays.asList(members));
+    }
+
+    public void rename(QualifiedId conversationId, String name) {
+        conversation(conversationId).name = name;
+    }
+
+    public void removeConversation(QualifiedId conversationId) {
+        conversations.remove(conversationId);
+        conversationOrder.remove(conversationId);
+    }
+
+    /**
+     * Creates conversations of the given size for the account, with new members and clients.
+     *
+     * @return ids of the created conversations
+     */
+    public List<QualifiedId> populate(Account owner, int conversationCount, int membersPerConversation, int clientsPerUser) {
+        List<QualifiedId> created = new ArrayList<>(conversationCount);
+        for (int i = 0; i < conversationCount; i++) {
+            QualifiedId[] members = new QualifiedId[membersPerConversation];
+            members[0] = owner.id;
+            for (int m = 1; m < membersPerConversation; m++) {
+                members[m] = addUser(DOMAIN);
+                for (int c = 0; c < clientsPerUser; c++) {
+                    addClient(members[m]);
+                }
+            }
+            created.add(addConversation("conversation-" + i, members));
+        }
+        return created;
+    }
+
+    public UUID addNotification(QualifiedId userId, Payload payload) {
+        Event event = new Event();
+        event.id = UUID.randomUUID();
+        event.payload = new Payload[]{payload};
+        notifications.get(userId).add(event);
+        return event.id;
+    }
+
+    /**
+     * Appends <code>conversation.otr-message-add</code> events with random ciphertext to the user's stream.
+     */
+    public List<UUID> addNotifications(QualifiedId userId, QualifiedId conversationId, int count, int payloadSize) {
+        List<UUID> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Payload payload = new Payload();
+            payload.type = "conversation.otr-message-add";
+            payload.conversation = conversationId;
+            payload.from = userId;
+            payload.time = Instant.now().toString();
+            payload.data = new Payload.Data();
+            payload.data.sender = "1";
+            payload.data.recipient = "2";
+            payload.data.text = Base64.getEncoder().encodeToString(randomBytes(payloadSize));
+            ids.add(addNotification(userId, payload));
+        }
+        return ids;
+    }
+
+    /**
+     * Drops the oldest notifications of the user, as the backend does once they expire.
+     */
+    public void expireNotifications(QualifiedId userId, int count) {
+        List<Event> events = notifications.get(userId);
+        for (int i = 0; i < count && !events.isEmpty(); i++) {
+            events.remove(0);
+        }
+    }
+
+    // ---- inspection
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRequests(String route) {
+        AtomicLong count = requestsPerRoute.get(route);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     * @return bytes of all response bodies sent so far
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long getDeliveredMessages() {
+        return deliveredMessages.get();
+    }
+
+    public long getMismatches() {
+        return mismatches.get();
+    }
+
+    public Otr.QualifiedNewOtrMessage getLastMessage() {
+        return lastMessage;
+    }
+
+    // ---- HTTP
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        int concurrent = inFlight.incrementAndGet();
+        try {
+            byte[] body = readBody(exchange.getRequestBody());
+            if (config.maxConcurrentRequests > 0 && concurrent > config.maxConcurrentRequests) {
+                throttled.incrementAndGet();
+                sleep(config.latencyMillis / 4);
+                error(exchange, 429, "too-many-requests");
+                return;
+            }
+
+            sleep(config.latencyMillis + (config.jitterMillis > 0 ? ThreadLocalRandom.current().nextInt(config.jitterMillis) : 0));
+            if (config.slowRate > 0 && ThreadLocalRandom.current().nextDouble() < config.slowRate) {
+                sleep(config.slowMillis);
+            }
+
+            if (config.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < config.errorRate) {
+                injectedErrors.incrementAndGet();
+                error(exchange, config.errorStatus, "simulated-error");
+                return;
+            }
+
+            route(exchange, new Request(exchange, body));
+        } catch (Exception e) {
+            error(exchange, 500, e.toString());
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, Request req) throws IOException {
+        String method = req.method;
+        String[] p = req.segments;
+
+        if (p.length == 1 && p[0].equals("api-version")) {
+            count("api-version");
+            json(exchange, 200, Map.of("domain", DOMAIN, "federation", false,
+                    "supported", List.of(5, 6), "development", List.of(7)));
+            return;
+        }
+        if (p.length < 2 || !p[0].equals(VERSION)) {
+            error(exchange, 404, "no-endpoint");
+            return;
+        }
+
+        String resource = p[1];
+        switch (resource) {
+            case "login":
+                count("login");
+                login(exchange, req);
+                return;
+            case "access":
+                count(p.length > 2 ? "access/logout" : "access");
+                access(exchange, req, p.length > 2);
+                return;
+            default:
+                break;
+        }
+
+        Account account = authenticate(req);
+        if (account == null) {
+            count("unauthorized");
+            exchange.getResponseHeaders().set("Content-Type", "text/html");
+            send(exchange, 401, "<html>Unauthorized</html>".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        switch (resource) {
+            case "cookies":
+                count("cookies/remove");
+                json(exchange, 200, Map.of());
+                return;
+            case "self":
+                count("self");
+                cacheable(exchange, req, "self", toUser(account.id));
+                return;
+            case "clients":
+                clients(exchange, req, account);
+                return;
+            case "users":
+                users(exchange, req, account);
+                return;
+            case "conversations":
+                conversations(exchange, req, account);
+                return;
+            case "notifications":
+                notifications(exchange, req, account);
+                return;
+            case "assets":
+                assets(exchange, req);
+                return;
+            case "connections":
+                count("connections");
+                json(exchange, 200, Map.of("status", "accepted"));
+                return;
+            case "feature-configs":
+                count("feature-configs");
+                json(exchange, 200, Map.of("mls", Map.of("status", config.mlsEnabled ? "enabled" : "disabled",
+                        "config", Map.of("defaultProtocol", "proteus"))));
+                return;
+            case "mls":
+                mls(exchange, req);
+                return;
+            case "teams":
+                count("teams/conversations");
+                if (method.equals("DELETE") && p.length == 5) {
+                    conversations.keySet().removeIf(id -> id.id.toString().equals(p[4]));
+                    conversationOrder.removeIf(id -> id.id.toString().equals(p[4]));
+                    send(exchange, 200, new byte[0]);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        error(exchange, 404, "no-endpoint");
+    }
+
+    private void login(HttpExchange exchange, Request req) throws IOException {
+        JsonNode login = mapper.readTree(req.body);
+        Account account = accountsByEmail.get(login.path("email").asText());
+        if (account == null || !account.password.equals(login.path("password").asText())) {
+            error(exchange, 403, "invalid-credentials");
+            return;
+        }
+        exchange.getResponseHeaders().add("Set-Cookie", "zuid=" + account.cookie + "; Path=/access; HttpOnly");
+        json(exchange, 200, access(account));
+    }
+
+    private void access(HttpExchange exchange, Request req, boolean logout) throws IOException {
+        String cookie = req.cookie("zuid");
+        Account account = cookie != null ? accountsByCookie.get(cookie) : null;
+        if (account == null) {
+            error(exchange, 403, "invalid-credentials");
+            return;
+        }
+        if (logout) {
+            json(exchange, 200, Map.of());
+            return;
+        }
+        accountsByToken.remove(account.token);
+        account.token = newToken();
+        accountsByToken.put(account.token, account);
+        json(exchange, 200, access(account));
+    }
+
+    private Map<String, Object> access(Account account) {
+        return Map.of("user", account.id.id.toString(), "access_token", account.token,
+                "expires_in", 900, "token_type", "Bearer");
+    }
+
+    private void clients(HttpExchange exchange, Request req, Account account) throws IOException {
+        String[] p = req.segments;
+        UserState self = user(account.id);
+
+        if (p.length == 2 && req.method.equals("POST")) {
+            count("clients/register");
+            JsonNode newClient = mapper.readTree(req.body);
+            PreKey lastKey = mapper.treeToValue(newClient.path("lastkey"), PreKey.class);
+            String clientId = addClient(account.id, lastKey);
+            storePrekeys(self.clients.get(clientId), newClient.path("prekeys"));
+            json(exchange, 201, Map.of("id", clientId));
+            return;
+        }
+
+        ClientState client = p.length > 2 ? self.clients.get(p[2]) : null;
+        if (client == null) {
+            error(exchange, 404, "client-not-found");
+            return;
+        }
+
+        if (p.length == 3 && req.method.equals("PUT")) {
+            count("clients/update");
+            storePrekeys(client, mapper.readTree(req.body).path("prekeys"));
+            send(exchange, 200, new byte[0]);
+        } else if (p.length == 4 && p[3].equals("prekeys")) {
+            count("clients/prekeys");
+            json(exchange, 200, new ArrayList<>(client.prekeys.keySet()));
+        } else {
+            error(exchange, 404, "no-endpoint");
+        }
+    }
+
+    private void storePrekeys(ClientState client, JsonNode prekeys) throws IOException {
+        if (prekeys.isArray()) {
+            for (JsonNode node : prekeys) {
+                PreKey preKey = mapper.treeToValue(node, PreKey.class);
+                client.prekeys.put(preKey.id, preKey);
+            }
+        }
+    }
+
+    private void users(HttpExchange exchange, Request req, Account account) throws IOException {
+        String[] p = req.segments;
+        if (p.length == 3 && p[2].equals("list-prekeys")) {
+            count("users/list-prekeys");
+            listPrekeys(exchange, req);
+            return;
+        }
+        if (p.length >= 4) {
+            UserState user = users.get(new QualifiedId(UUID.fromString(p[3]), p[2]));
+            if (p.length == 4) {
+                count("users/get");
+                if (user == null) {
+                    error(exchange, 404, "not-found");
+                } else {
+                    json(exchange, 200, toUser(user.id));
+                }
+                return;
+            }
+            if (p.length == 6 && p[4].equals("clients")) {
+                count("users/clients");
+                if (user != null && user.clients.containsKey(p[5])) {
+                    json(exchange, 200, Map.of("id", p[5]));
+                } else {
+                    error(exchange, 404, "client-not-found");
+                }
+                return;
+            }
+        }
+        error(exchange, 404, "no-endpoint");
+    }
+
+    private void listPrekeys(HttpExchange exchange, Request req) throws IOException {
+        JsonNode missing = mapper.readTree(req.body);
+        Map<String, Map<String, Map<String, PreKey>>> result = new HashMap<>();
+        List<QualifiedId> failed = new ArrayList<>();
+
+        missing.fields().forEachRemaining(domain -> domain.getValue().fields().forEachRemaining(user -> {
+            QualifiedId userId = new QualifiedId(UUID.fromString(user.getKey()), domain.getKey());
+            UserState state = users.get(userId);
+            if (state == null) {
+                failed.add(userId);
+                return;
+            }
+            Map<String, PreKey> clients = result
+                    .computeIfAbsent(domain.getKey(), k -> new HashMap<>())
+                    .computeIfAbsent(user.getKey(), k -> new HashMap<>());
+            for (JsonNode clientId : user.getValue()) {
+                ClientState client = state.clients.get(clientId.asText());
+                clients.put(clientId.asText(), client == null ? null : client.claimPrekey());
+            }
+        }));
+
+        json(exchange, 200, Map.of("qualified_user_client_prekeys", result, "failed_to_list", failed));
+    }
+
+    private void conversations(HttpExchange exchange, Request req, Account account) throws IOException {
+        String[] p = req.segments;
+        String method = req.method;
+
+        if (p.length == 2 && method.equals("POST")) {
+            count("conversations/create");
+            createConversation(exchange, req, account);
+            return;
+        }
+        if (p.length == 3 && p[2].equals("one2one")) {
+            count("conversations/one2one");
+            createConversation(exchange, req, account);
+            return;
+        }
+        if (p.length == 3 && p[2].equals("list-ids")) {
+            count("conversations/list-ids");
+            listIds(exchange, req, account);
+            return;
+        }
+        if (p.length == 3 && p[2].equals("list")) {
+            count("conversations/list");
+            listConversations(exchange, req, account);
+            return;
+        }
+        if (p.length < 4) {
+            error(exchange, 404, "no-endpoint");
+            return;
+        }
+
+        QualifiedId conversationId = new QualifiedId(UUID.fromString(p[3]), p[2]);
+        ConversationState conversation = conversations.get(conversationId);
+        if (conversation == null || !conversation.members.contains(account.id)) {
+            count("conversations/not-found");
+            error(exchange, 404, "no-conversation");
+            return;
+        }
+
+        if (p.length == 4 && method.equals("GET")) {
+            count("conversations/get");
+            cacheable(exchange, req, "conversations/get", toConversation(conversation, account.id));
+        } else if (p.length == 6 && p[4].equals("proteus") && p[5].equals("messages")) {
+            count("conversations/proteus/messages");
+            proteusMessage(exchange, req, account, conversation);
+        } else if (p.length == 5 && p[4].equals("members") && method.equals("POST")) {
+            count("conversations/members");
+            JsonNode users = mapper.readTree(req.body).path("qualified_users");
+            for (JsonNode user : users) {
+                conversation.members.add(mapper.treeToValue(user, QualifiedId.class));
+            }
+            json(exchange, 200, Map.of());
+        } else if (p.length == 7 && p[4].equals("members") && method.equals("DELETE")) {
+            count("conversations/members/delete");
+            conversation.members.remove(new QualifiedId(UUID.fromString(p[6]), p[5]));
+            json(exchange, 200, Map.of());
+        } else if (p.length == 5 && p[4].equals("groupinfo")) {
+            count("conversations/groupinfo");
+            exchange.getResponseHeaders().set("Content-Type", "message/mls");
+            send(exchange, 200, conversation.groupInfo);
+        } else {
+            error(exchange, 404, "no-endpoint");
+        }
+    }
+
+    private void createConversation(HttpExchange exchange, Request req, Account account) throws IOException {
+        JsonNode newConv = mapper.readTree(req.body);
+        List<QualifiedId> members = new ArrayList<>();
+        members.add(account.id);
+        for (JsonNode user : newConv.path("qualified_users")) {
+            members.add(mapper.treeToValue(user, QualifiedId.class));
+        }
+        String name = newConv.hasNonNull("name") ? newConv.get("name").asText() : null;
+        QualifiedId id = addConversation(name, members.toArray(new QualifiedId[0]));
+        json(exchange, 201, toConversation(conversations.get(id), account.id));
+    }
+
+    private void listIds(HttpExchange exchange, Request req, Account account) throws IOException {
+        JsonNode paging = mapper.readTree(req.body);
+        int size = Math.min(Math.max(paging.path("size").asInt(100), 1), config.maxListIdsPage);
+        int from = paging.hasNonNull("paging_state") ? Integer.parseInt(paging.get("paging_state").asText()) : 0;
+
+        List<QualifiedId> page = new ArrayList<>(size);
+        int index = from;
+        for (; index < conversationOrder.size() && page.size() < size; index++) {
+            QualifiedId id = conversationOrder.get(index);
+            ConversationState conversation = conversations.get(id);
+            if (conversation != null && conversation.members.contains(account.id)) {
+                page.add(id);
+            }
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("qualified_conversations", page);
+        response.put("has_more", index < conversationOrder.size());
+        response.put("paging_state", Integer.toString(index));
+        if (config.perItemLatencyMicros > 0) {
+            sleepMicros((long) page.size() * config.perItemLatencyMicros);
+        }
+        json(exchange, 200, response);
+    }
+
+    private void listConversations(HttpExchange exchange, Request req, Account account) throws IOException {
+        JsonNode ids = mapper.readTree(req.body).path("qualified_ids");
+        if (ids.size() > config.maxConversationListIds) {
+            error(exchange, 400, "too-many-ids");
+            return;
+        }
+        List<Conversation> found = new ArrayList<>();
+        List<QualifiedId> notFound = new ArrayList<>();
+        for (JsonNode node : ids) {
+            QualifiedId id = mapper.treeToValue(node, QualifiedId.class);
+            ConversationState conversation = conversations.get(id);
+            if (conversation != null && conversation.members.contains(account.id)) {
+                found.add(toConversation(conversation, account.id));
+            } else {
+                notFound.add(id);
+            }
+        }
+        if (config.perItemLatencyMicros > 0) {
+            sleepMicros((long) ids.size() * config.perItemLatencyMicros);
+        }
+        json(exchange, 200, Map.of("found", found, "not_found", notFound, "failed", List.of()));
+    }
+
+    /**
+     * Computes the client mismatch the same way the backend does: clients of conversation members that are
+     * not in the message are missing, recipients outside of the conversation are redundant and recipients
+     * that were removed are deleted. Whether missing clients block the message depends on the strategy.
+     */
+    private void proteusMessage(HttpExchange exchange, Request req, Account account, ConversationState conversation) throws IOException {
+        Otr.QualifiedNewOtrMessage message = Otr.QualifiedNewOtrMessage.parseFrom(req.body);
+        String senderClient = Long.toHexString(message.getSender().getClient());
+
+        Map<QualifiedId, Set<String>> provided = new HashMap<>();
+        int recipients = 0;
+        for (Otr.QualifiedUserEntry domainEntry : message.getRecipientsList()) {
+            for (Otr.UserEntry userEntry : domainEntry.getEntriesList()) {
+                QualifiedId userId = new QualifiedId(toUUID(userEntry.getUser().getUuid()), domainEntry.getDomain());
+                Set<String> clients = provided.computeIfAbsent(userId, k -> new HashSet<>());
+                for (Otr.ClientEntry clientEntry : userEntry.getClientsList()) {
+                    clients.add(Long.toHexString(clientEntry.getClient().getClient()));
+                    recipients++;
+                }
+            }
+        }
+
+        Map<QualifiedId, Set<String>> missing = new HashMap<>();
+        for (QualifiedId member : conversation.members) {
+            UserState user = users.get(member);
+            if (user == null) {
+                continue;
+            }
+            Set<String> sent = provided.getOrDefault(member, Set.of());
+            for (String clientId : user.clients.keySet()) {
+                boolean isSender = member.equals(account.id) && clientId.equals(senderClient);
+                if (!isSender && !sent.contains(clientId)) {
+                    missing.computeIfAbsent(member, k -> new HashSet<>()).add(clientId);
+                }
+            }
+        }
+
+        Map<QualifiedId, Set<String>> redundant = new HashMap<>();
+        Map<QualifiedId, Set<String>> deleted = new HashMap<>();
+        for (Map.Entry<QualifiedId, Set<String>> entry : provided.entrySet()) {
+            UserState user = users.get(entry.getKey());
+            for (String clientId : entry.getValue()) {
+                if (user != null && user.deletedClients.contains(clientId)) {
+                    deleted.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).add(clientId);
+                } else if (user == null || !conversation.members.contains(entry.getKey()) || !user.clients.containsKey(clientId)) {
+                    redundant.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).add(clientId);
+                }
+            }
+        }
+
+        Set<QualifiedId> blocking = blockingUsers(message, req, missing.keySet());
+        boolean reject = missing.keySet().stream().anyMatch(blocking::contains);
+
+        Map<String, Object> mismatch = new HashMap<>();
+        mismatch.put("time", Instant.now().toString());
+        mismatch.put("missing", toMissing(missing));
+        mismatch.put("redundant", toMissing(redundant));
+        mismatch.put("deleted", toMissing(deleted));
+        mismatch.put("failed_to_send", Map.of());
+        mismatch.put("failed_to_confirm_clients", Map.of());
+
+        if (reject) {
+            mismatches.incrementAndGet();
+            json(exchange, 412, mismatch);
+            return;
+        }
+
+        lastMessage = message;
+        deliveredMessages.incrementAndGet();
+        if (config.perRecipientLatencyMicros > 0) {
+            sleepMicros((long) recipients * config.perRecipientLatencyMicros);
+        }
+        json(exchange, 201, mismatch);
+    }
+
+    private Set<QualifiedId> blockingUsers(Otr.QualifiedNewOtrMessage message, Request req, Set<QualifiedId> missing) {
+        if (message.hasIgnoreAll()) {
+            return Set.of();
+        }
+        if (message.hasReportOnly()) {
+            return toUserIds(message.getReportOnly().getUserIdsList());
+        }
+        if (message.hasIgnoreOnly()) {
+            Set<QualifiedId> blocking = new HashSet<>(missing);
+            blocking.removeAll(toUserIds(message.getIgnoreOnly().getUserIdsList()));
+            return blocking;
+        }
+        if (message.hasReportAll() || !"true".equals(req.query.get("ignore_missing"))) {
+            return missing;
+        }
+        return Set.of();
+    }
+
+    private void notifications(HttpExchange exchange, Request req, Account account) throws IOException {
+        List<Event> events = notifications.get(account.id);
+        String[] p = req.segments;
+
+        if (p.length == 3 && p[2].equals("last")) {
+            count("notifications/last");
+            if (events.isEmpty()) {
+                error(exchange, 404, "not-found");
+            } else {
+                json(exchange, 200, events.get(events.size() - 1));
+            }
+            return;
+        }
+
+        count("notifications");
+        int size = Math.min(Math.max(Integer.parseInt(req.query.getOrDefault("size", "1000")), 1), config.maxNotificationPage);
+        String since = req.query.get("since");
+
+        int from = 0;
+        boolean found = since == null;
+        if (since != null) {
+            UUID sinceId = UUID.fromString(since);
+            for (int i = 0; i < events.size(); i++) {
+                if (events.get(i).id.equals(sinceId)) {
+                    from = i + 1;
+                    found = true;
+                    break;
+                }
+            }
+        }
+
+        int to = Math.min(events.size(), from + size);
+        Map<String, Object> page = new HashMap<>();
+        page.put("has_more", to < events.size());
+        page.put("notifications", events.subList(from, to));
+        if (config.perItemLatencyMicros > 0) {
+            sleepMicros((long) (to - from) * config.perItemLatencyMicros);
+        }
+        // Like the backend, an unknown `since` is answered with 404 and the notifications still available
+        json(exchange, found ? 200 : 404, page);
+    }
+
+    private void assets(HttpExchange exchange, Request req) throws IOException {
+        String[] p = req.segments;
+        if (p.length == 2 && req.method.equals("POST")) {
+            count("assets/upload");
+            String key = "3-1-" + UUID.randomUUID();
+            assets.put(key, multipartData(req.body));
+            json(exchange, 201, Map.of("key", key, "token", UUID.randomUUID().toString(), "domain", DOMAIN));
+        } else if (p.length == 4 && req.method.equals("GET")) {
+            count("assets/download");
+            byte[] data = assets.get(p[3]);
+            if (data == null) {
+                error(exchange, 404, "not-found");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            send(exchange, 200, data);
+        } else {
+            error(exchange, 404, "no-endpoint");
+        }
+    }
+
+    private void mls(HttpExchange exchange, Request req) throws IOException {
+        String[] p = req.segments;
+        if (p.length == 3 && p[2].equals("public-keys")) {
+            count("mls/public-keys");
+            if (!config.mlsEnabled) {
+                error(exchange, 400, "mls-not-enabled");
+                return;
+            }
+            json(exchange, 200, Map.of("removal", Map.of("ed25519", Base64.getEncoder().encodeToString(randomBytes(32)))));
+        } else if (p.length == 5 && p[2].equals("key-packages")) {
+            count("mls/key-packages");
+            json(exchange, 201, Map.of());
+        } else if (p.length == 3 && p[2].equals("commit-bundles")) {
+            count("mls/commit-bundles");
+            json(exchange, 201, Map.of("events", List.of()));
+        } else {
+            error(exchange, 404, "no-endpoint");
+        }
+    }
+
+    // ---- helpers
+
+    private Account authenticate(Request req) {
+        String authorization = req.header("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return null;
+        }
+        return accountsByToken.get(authorization.substring("Bearer ".length()));
+    }
+
+    private User toUser(QualifiedId id) {
+        User user = new User();
+        user.id = id;
+        user.name = "user-" + id.id;
+        user.handle = id.id.toString().substring(0, 8);
+        return user;
+    }
+
+    private Conversation toConversation(ConversationState state, QualifiedId self) {
+        Conversation conversation = new Conversation();
+        conversation.id = state.id;
+        conversation.name = state.name;
+        conversation.protocol = Conversation.Protocol.PROTEUS;
+        conversation.members = new Payload.Members();
+        conversation.members.others = new ArrayList<>();
+        for (QualifiedId memberId : state.members) {
+            if (!memberId.equals(self)) {
+                Member member = new Member();
+                member.id = memberId;
+                member.status = 0;
+                conversation.members.others.add(member);
+            }
+        }
+        return conversation;
+    }
+
+    private static Map<String, Map<String, Collection<String>>> toMissing(Map<QualifiedId, Set<String>> clients) {
+        Map<String, Map<String, Collection<String>>> result = new HashMap<>();
+        clients.forEach((userId, ids) -> result
+                .computeIfAbsent(userId.domain, k -> new HashMap<>())
+                .put(userId.id.toString(), ids));
+        return result;
+    }
+
+    private static Set<QualifiedId> toUserIds(List<Otr.QualifiedUserId> ids) {
+        Set<QualifiedId> result = new HashSet<>();
+        for (Otr.QualifiedUserId id : ids) {
+            result.add(new QualifiedId(UUID.fromString(id.getId()), id.getDomain()));
+        }
+        return result;
+    }
+
+    private static UUID toUUID(ByteString bytes) {
+        ByteBuffer buffer = bytes.asReadOnlyByteBuffer();
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Extracts the data of the second part of the <code>multipart/mixed</code> upload built by API.uploadAsset.
+     */
+    private static byte[] multipartData(byte[] body) {
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        int secondPart = text.indexOf("--frontier", text.indexOf("--frontier") + 1);
+        int start = text.indexOf("\r\n\r\n", secondPart) + 4;
+        int end = text.lastIndexOf("\r\n--frontier--");
+        return Arrays.copyOfRange(body, start, end);
+    }
+
+    private void count(String route) {
+        requestsPerRoute.computeIfAbsent(route, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    private void json(HttpExchange exchange, int status, Object body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, status, mapper.writeValueAsBytes(body));
+    }
+
+    /**
+     * Answers with an ETag derived from the body, or 304 when the client already holds it.
+     */
+    private void cacheable(HttpExchange exchange, Request req, String route, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(req.header("If-None-Match"))) {
+            count(route + "/not-modified");
+            send(exchange, 304, new byte[0]);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        send(exchange, 200, bytes);
+    }
+
+    private void error(HttpExchange exchange, int status, String label) throws IOException {
+        json(exchange, status, Map.of("code", status, "label", label, "message", label));
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        responseBytes.addAndGet(body.length);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    private UserState user(QualifiedId userId) {
+        UserState user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("Unknown user " + userId);
+        }
+        return user;
+    }
+
+    private ConversationState conversation(QualifiedId conversationId) {
+        ConversationState conversation = conversations.get(conversationId);
+        if (conversation == null) {
+            throw new IllegalArgumentException("Unknown conversation " + conversationId);
+        }
+        return conversation;
+    }
+
+    private static String newToken() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes(24));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void sleep(int millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepMicros(long micros) {
+        if (micros <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Config {
+        // Fixed server time added to every request
+        public int latencyMillis;
+        // Random extra server time in [0, jitterMillis)
+        public int jitterMillis;
+        // Extra server time per returned notification, conversation id or conversation, to model payload size
+        public int perItemLatencyMicros;
+        // Extra server time per message recipient, to model fan-out cost
+        public int perRecipientLatencyMicros;
+        // Probability of a request hanging on a slow node for slowMillis extra
+        public double slowRate;
+        public int slowMillis;
+        // Probability of answering with errorStatus instead of handling the request
+        public double errorRate;
+        public int errorStatus = 503;
+        // Requests above this many in flight are answered with 429, 0 disables throttling
+        public int maxConcurrentRequests;
+        public int maxNotificationPage = 10_000;
+        public int maxListIdsPage = 1_000;
+        public int maxConversationListIds = 1_000;
+        public boolean mlsEnabled;
+        public int threads = 64;
+    }
+
+    public static class Account {
+        public final QualifiedId id;
+        public final String email;
+        public final String password;
+        final String cookie = newToken();
+        volatile String token;
+
+        Account(QualifiedId id, String email, String password) {
+            this.id = id;
+            this.email = email;
+            this.password = password;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private static class UserState {
+        final QualifiedId id;
+        final Map<String, ClientState> clients = new ConcurrentHashMap<>();
+        final Set<String> deletedClients = new CopyOnWriteArraySet<>();
+
+        UserState(QualifiedId id) {
+            this.id = id;
+        }
+    }
+
+    private static class ClientState {
+        final PreKey lastPreKey;
+        final Map<Integer, PreKey> prekeys = new ConcurrentHashMap<>();
+
+        ClientState(PreKey lastPreKey) {
+            this.lastPreKey = lastPreKey;
+        }
+
+        // One-time prekeys are handed out once, the last resort key forever
+        PreKey claimPrekey() {
+            for (Integer id : prekeys.keySet()) {
+                PreKey preKey = prekeys.remove(id);
+                if (preKey != null) {
+                    return preKey;
+                }
+            }
+            return lastPreKey;
+        }
+    }
+
+    private static class ConversationState {
+        final QualifiedId id;
+        final Set<QualifiedId> members = new CopyOnWriteArraySet<>();
+        final byte[] groupInfo = randomBytes(64);
+        volatile String name;
+
+        ConversationState(QualifiedId id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static class Request {
+        final String method;
+        final String[] segments;
+        final Map<String, String> query = new HashMap<>();
+        final byte[] body;
+        private final HttpExchange exchange;
+
+        Request(HttpExchange exchange, byte[] body) {
+            this.exchange = exchange;
+            this.method = exchange.getRequestMethod();
+            this.body = body;
+            this.segments = Arrays.stream(exchange.getRequestURI().getRawPath().split("/"))
+                    .filter(s -> !s.isEmpty())
+                    .map(s -> URLDecoder.decode(s, StandardCharsets.UTF_8))
+                    .toArray(String[]::new);
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery != null) {
+                for (String pair : rawQuery.split("&")) {
+                    int eq = pair.indexOf('=');
+                    if (eq > 0) {
+                        query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                                URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+
+        String header(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        String cookie(String name) {
+            List<String> cookies = exchange.getRequestHeaders().get("Cookie");
+            if (cookies == null) {
+                return null;
+            }
+            for (String header : cookies) {
+                for (String cookie : header.split(";")) {
+                    String[] pair = cookie.trim().split("=", 2);
+                    if (pair.length == 2 && pair[0].equals(name)) {
+                        return pair[1].replace("\"", "");
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.wire.helium.helpers;
+
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.crypto.Crypto;
+import com.wire.xenon.models.otr.Missing;
+import com.wire.xenon.models.otr.PreKey;
+import com.wire.xenon.models.otr.PreKeys;
+import com.wire.xenon.models.otr.Recipients;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Crypto box without cryptography, for tests that don't decrypt. Remembers which clients it has a session with,
+ * counting how often each session was opened.
+ */
+public class FakeCrypto implements Crypto {
+    private final Map<String, Integer> opened = new ConcurrentHashMap<>();
+
+    /**
+     * @return how often a session with the client was opened from a prekey
+     */
+    public int getOpened(String clientId) {
+        return opened.getOrDefault(clientId, 0);
+    }
+
+    @Override
+    public Recipients encrypt(PreKeys preKeys, byte[] content) {
+        Recipients recipients = new Recipients();
+        preKeys.qualifiedUserClientPrekeys.forEach((domain, users) -> users.forEach((user, clients) ->
+                clients.forEach((clientId, preKey) -> {
+                    opened.merge(clientId, 1, Integer::sum);
+                    recipients.add(new QualifiedId(user, domain), clientId, "cipher-" + preKey.id);
+                })));
+        return recipients;
+    }
+
+    @Override
+    public Recipients encrypt(Missing missing, byte[] content) {
+        Recipients recipients = new Recipients();
+        for (QualifiedId userId : missing.toUserIds()) {
+            for (String clientId : missing.toClients(userId)) {
+                if (opened.containsKey(clientId)) {
+                    recipients.add(userId, clientId, "cipher");
+                }
+            }
+        }
+        return recipients;
+    }
+
+    @Override
+    public byte[] getIdentity() {
+        return new byte[0];
+    }
+
+    @Override
+    public byte[] getLocalFingerprint() {
+        return new byte[0];
+    }
+
+    @Override
+    public PreKey newLastPreKey() {
+        return newPreKey(0xFFFF);
+    }
+
+    @Override
+    public ArrayList<PreKey> newPreKeys(int from, int count) {
+        ArrayList<PreKey> preKeys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            preKeys.add(newPreKey((from + i) % 0xFFFF));
+        }
+        return preKeys;
+    }
+
+    @Override
+    public String decrypt(QualifiedId userId, String clientId, String cypher) {
+        return cypher;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public void purge() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static PreKey newPreKey(int id) {
+        PreKey preKey = new PreKey();
+        preKey.id = id;
+        preKey.key = Base64.getEncoder().encodeToString(("key-" + id).getBytes());
+        return preKey;
+    }
+}
@@ -0,0 +1,74 @@
+package com.wire.helium.http;
+
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyLimiterTest {
+    private static final ConcurrencyLimiter.EndpointClass MESSAGES = ConcurrencyLimiter.EndpointClass.MESSAGES;
+    private static final ConcurrencyLimiter.EndpointClass READS = ConcurrencyLimiter.EndpointClass.READS;
+
+    @Test
+    public void testShrinksOnThrottlingAndGrowsBack() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, 1, 64, 1_000, 100, 2.0);
+
+        limiter.invoke(MESSAGES, () -> Response.status(429).build());
+        assertEquals(8, limiter.getLimit(MESSAGES));
+        assertEquals(16, limiter.getLimit(READS));
+        assertEquals(1, limiter.getDropped(MESSAGES));
+
+        // Growth needs the limit to be in use
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8 * 100; i++) {
+            executor.execute(() -> limiter.invoke(MESSAGES, () -> {
+                sleep(2);
+                return Response.ok().build();
+            }));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(limiter.getLimit(MESSAGES) > 8);
+        assertEquals(0, limiter.getInFlight(MESSAGES));
+    }
+
+    @Test
+    public void testRejectsAfterMaxWait() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 100, 10, 2.0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = new Thread(() -> limiter.invoke(READS, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Response.ok().build();
+        }));
+        holder.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertThrows(ProcessingException.class, () -> limiter.invoke(READS, () -> Response.ok().build()));
+        assertEquals(1, limiter.getRejected(READS));
+
+        release.countDown();
+        holder.join();
+        assertEquals(200, limiter.invoke(READS, () -> Response.ok().build()).getStatus());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
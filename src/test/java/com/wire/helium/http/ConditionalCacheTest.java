@@ -0,0 +1,115 @@
+package com.wire.helium.http;
+
+import com.wire.helium.models.Event;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConditionalCacheTest {
+
+    @Test
+    public void testStaleWindow() throws Exception {
+        ConditionalCache cache = new ConditionalCache(10, 100);
+        cache.store("alice", "/self", ConditionalCache.selfTag(), cache.generation(), "me", "\"1\"", null);
+
+        ConditionalCache.Entry entry = cache.lookup("alice", "/self");
+        assertTrue(cache.isFresh(entry));
+        assertNull(cache.lookup("bob", "/self"));
+
+        Thread.sleep(150);
+        assertFalse(cache.isFresh(entry));
+        cache.served(entry, true);
+        assertTrue(cache.isFresh(entry));
+        assertEquals(1, cache.getRevalidations());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ConditionalCache cache = new ConditionalCache(2, 0);
+        cache.store("alice", "/a", "a", cache.generation(), "a", null, null);
+        cache.store("alice", "/b", "b", cache.generation(), "b", null, null);
+        cache.lookup("alice", "/a");
+        cache.store("alice", "/c", "c", cache.generation(), "c", null, null);
+
+        assertNotNull(cache.lookup("alice", "/a"));
+        assertNull(cache.lookup("alice", "/b"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testEventsInvalidate() {
+        QualifiedId convId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        QualifiedId otherId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        ConditionalCache cache = new ConditionalCache(10, 60_000);
+        cache.store("alice", "/conv", ConditionalCache.conversationTag(convId), cache.generation(), "conv", "\"1\"", null);
+        cache.store("alice", "/other", ConditionalCache.conversationTag(otherId), cache.generation(), "other", "\"1\"", null);
+        cache.store("alice", "/self", ConditionalCache.selfTag(), cache.generation(), "me", "\"1\"", null);
+
+        cache.onEvent(event("conversation.member-join", convId));
+        assertNull(cache.lookup("alice", "/conv"));
+        assertNotNull(cache.lookup("alice", "/other"));
+
+        cache.onEvent(event("conversation.otr-message-add", otherId));
+        assertNotNull(cache.lookup("alice", "/other"));
+
+        cache.onEvent(event("user.update", null));
+        assertNull(cache.lookup("alice", "/self"));
+
+        cache.onResync(List.of());
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.getInvalidations());
+    }
+
+    @Test
+    public void testInvalidationDropsFetchInFlight() {
+        QualifiedId convId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        QualifiedId otherId = new QualifiedId(UUID.randomUUID(), "wire.com");
+        ConditionalCache cache = new ConditionalCache(10, 60_000);
+
+        // Both fetches were sent before the rename arrived, only the renamed conversation's response is outdated
+        long generation = cache.generation();
+        cache.onEvent(event("conversation.rename", convId));
+        cache.store("alice", "/conv", ConditionalCache.conversationTag(convId), generation, "old name", "\"1\"", null);
+        cache.store("alice", "/other", ConditionalCache.conversationTag(otherId), generation, "other", "\"1\"", null);
+        assertNull(cache.lookup("alice", "/conv"));
+        assertNotNull(cache.lookup("alice", "/other"));
+        assertEquals(1, cache.getDropped());
+
+        // Sent after the event
+        cache.store("alice", "/conv", ConditionalCache.conversationTag(convId), cache.generation(), "new name", "\"2\"", null);
+        assertEquals("new name", cache.lookup("alice", "/conv").getEntity());
+
+        // After a resync nothing fetched before it is kept
+        generation = cache.generation();
+        cache.onResync(List.of());
+        cache.store("alice", "/other", ConditionalCache.conversationTag(otherId), generation, "other", "\"1\"", null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testForgottenInvalidationsStayConservative() {
+        ConditionalCache cache = new ConditionalCache(2, 60_000);
+        long generation = cache.generation();
+        cache.invalidate("a");
+        cache.invalidate("b");
+        cache.invalidate("c");
+
+        // "a" is no longer tracked, a fetch older than its invalidation must not be stored anyway
+        cache.store("alice", "/a", "a", generation, "a", null, null);
+        assertNull(cache.lookup("alice", "/a"));
+    }
+
+    private static Event event(String type, QualifiedId conversation) {
+        Payload payload = new Payload();
+        payload.type = type;
+        payload.conversation = conversation;
+        Event event = new Event();
+        event.payload = new Payload[]{payload};
+        return event;
+    }
+}
@@ -0,0 +1,166 @@
+package com.wire.helium.http;
+
+import com.wire.helium.API;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.xenon.Const;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadlineTest {
+    private static BackendSimulator backend;
+
+    @BeforeAll
+    public static void before() throws Exception {
+        BackendSimulator.Config config = new BackendSimulator.Config();
+        config.latencyMillis = 300;
+        backend = new BackendSimulator(config);
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+    }
+
+    @AfterAll
+    public static void after() {
+        backend.close();
+        System.clearProperty(Const.WIRE_BOTS_SDK_API);
+    }
+
+    @Test
+    public void testDeadlineBoundsPagedLoad() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        backend.populate(alice, 1500, 2, 1);
+
+        for (Transport.Engine engine : Transport.Engine.values()) {
+            Client client = Transport.newClient(engine);
+            try {
+                API api = new API(client, null, alice.getToken());
+                PageSizer pageSizer = new PageSizer(10_000, 4 << 20);
+                ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+                api.setPageSizer(pageSizer);
+                api.setConcurrencyLimiter(limiter);
+                assertNotNull(Deadline.after(Duration.ofSeconds(5)).call(api::getSelf), engine.name());
+
+                // Pages of ids at 300 ms each, growing from 100 ids, do not fit in 700 ms
+                long listIds = backend.getRequests("conversations/list-ids");
+                long start = System.nanoTime();
+                DeadlineException e = assertThrows(DeadlineException.class,
+                        () -> Deadline.after(700, TimeUnit.MILLISECONDS).call(api::getUserConversations));
+                assertInstanceOf(TimeoutException.class, e.getCause(), engine.name());
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1_200), engine.name());
+                assertTrue(backend.getRequests("conversations/list-ids") - listIds <= 3, engine.name());
+
+                // The backend did not fail, so neither the page size nor the limit shrinks
+                assertEquals(0, pageSizer.getFailures(PageSizer.Endpoint.CONVERSATION_IDS), engine.name());
+                assertEquals(0, limiter.getDropped(ConcurrencyLimiter.EndpointClass.READS), engine.name());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCancelAbortsRequestInFlight() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        Client client = Transport.newClient(Transport.Engine.JERSEY);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            API api = new API(client, null, alice.getToken());
+            api.getSelf();  // the first request of a client is slow
+            Deadline deadline = Deadline.none();
+            executor.schedule(deadline::cancel, 50, TimeUnit.MILLISECONDS);
+
+            long start = System.nanoTime();
+            DeadlineException e = assertThrows(DeadlineException.class, () -> deadline.call(api::getSelf));
+            assertInstanceOf(CancellationException.class, e.getCause());
+            long elapsed = System.nanoTime() - start;
+            assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(250), elapsed / 1_000_000 + " ms");
+
+            // Cancelled for good: nothing is sent anymore
+            long requests = backend.getRequests();
+            assertThrows(ProcessingException.class, () -> deadline.call(api::getSelf));
+            assertEquals(requests, backend.getRequests());
+        } finally {
+            executor.shutdownNow();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testCancelAbortsJdkExchange() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        Client client = Transport.newClient(Transport.Engine.JDK);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            WebTarget self = client.target(backend.getHost()).path("self");
+            self.request().header(HttpHeaders.AUTHORIZATION, "Bearer " + alice.getToken()).get().close();
+
+            // Watched on the connector's own callback: the exchange ends when cancelled, not when the backend answers
+            Deadline deadline = Deadline.none();
+            CompletableFuture<Response> outcome = new CompletableFuture<>();
+            long start = System.nanoTime();
+            self.request()
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + alice.getToken())
+                    .property(Deadline.PROPERTY, deadline)
+                    .async()
+                    .get(new InvocationCallback<Response>() {
+                        @Override
+                        public void completed(Response response) {
+                            outcome.complete(response);
+                        }
+
+                        @Override
+                        public void failed(Throwable throwable) {
+                            outcome.completeExceptionally(throwable);
+                        }
+                    });
+            executor.schedule(deadline::cancel, 50, TimeUnit.MILLISECONDS);
+
+            Exception e = assertThrows(Exception.class, () -> outcome.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(CancellationException.class, rootCause(e));
+            long elapsed = System.nanoTime() - start;
+            assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(250), elapsed / 1_000_000 + " ms");
+        } finally {
+            executor.shutdownNow();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testNestedDeadlines() throws Exception {
+        Deadline outer = Deadline.after(100, TimeUnit.MILLISECONDS);
+        Deadline inner = Deadline.after(10, TimeUnit.SECONDS);
+        assertNull(Deadline.current());
+
+        long remaining = outer.call(() -> inner.call(() -> Deadline.current().remainingMillis()));
+        assertTrue(remaining <= 100, Long.toString(remaining));
+        assertNull(Deadline.current());
+
+        Deadline cancelled = Deadline.none();
+        cancelled.cancel();
+        assertThrows(DeadlineException.class, () -> cancelled.call(() -> inner.call(() -> "never")));
+        assertFalse(inner.isCancelled());
+        assertEquals(Long.MAX_VALUE, Deadline.none().remainingMillis());
+    }
+
+    private static Throwable rootCause(Throwable failure) {
+        while (failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+}
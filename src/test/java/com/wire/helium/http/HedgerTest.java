@@ -0,0 +1,142 @@
+package com.wire.helium.http;
+
+import com.wire.xenon.exceptions.HttpException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HedgerTest {
+
+    @Test
+    public void testSlowCallIsHedged() throws Exception {
+        // Started threads, as warming up ran on the test thread, so the first attempt starts before the hedge does
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        executor.prestartAllCoreThreads();
+        Hedger hedger = new Hedger(executor, 90, 1.0, 10);
+        warmUp(hedger, Hedger.Call.USER);
+        assertTrue(hedger.getThresholdMillis(Hedger.Call.USER) > 0);
+
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+        String result = hedger.execute(Hedger.Call.USER, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                Thread.sleep(5_000);
+                return "slow";
+            }
+            return "hedge";
+        });
+
+        assertEquals("hedge", result);
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        assertEquals(1, hedger.getHedges(Hedger.Call.USER));
+        assertEquals(1, hedger.getHedgeWins(Hedger.Call.USER));
+    }
+
+    @Test
+    public void testBudgetCapsHedges() throws Exception {
+        Hedger hedger = new Hedger(Executors.newCachedThreadPool(), 50, 0.0, 10);
+        warmUp(hedger, Hedger.Call.ASSET);
+
+        // Without deposits only the initial burst of hedges is allowed
+        for (int i = 0; i < 15; i++) {
+            hedger.execute(Hedger.Call.ASSET, () -> {
+                Thread.sleep(20);
+                return "slow";
+            });
+        }
+        assertEquals(10, hedger.getHedges(Hedger.Call.ASSET));
+        assertEquals(5, hedger.getBudgetExhausted(Hedger.Call.ASSET));
+    }
+
+    @Test
+    public void testFailureBeforeThresholdIsThrown() {
+        Hedger hedger = new Hedger(Executors.newCachedThreadPool(), 90, 1.0, 10);
+        HttpException e = assertThrows(HttpException.class, () -> hedger.execute(Hedger.Call.USER, () -> {
+            throw new HttpException("gone", 404);
+        }));
+        assertEquals(404, e.getCode());
+        assertEquals(0, hedger.getHedges(Hedger.Call.USER));
+    }
+
+    @Test
+    public void testRunsInlineUntilThreshold() throws Exception {
+        Hedger hedger = new Hedger(Executors.newCachedThreadPool(), 90, 1.0, 10);
+        Thread caller = Thread.currentThread();
+        assertSame(caller, hedger.execute(Hedger.Call.USER, Thread::currentThread));
+
+        warmUp(hedger, Hedger.Call.USER);
+        assertNotSame(caller, hedger.execute(Hedger.Call.USER, Thread::currentThread));
+    }
+
+    @Test
+    public void testLoserIsAbortedAndCountsAgainstBudget() throws Exception {
+        Hedger hedger = new Hedger(Executors.newCachedThreadPool(), 50, 0.0, 10);
+        warmUp(hedger, Hedger.Call.ASSET);
+
+        // Primaries that ignore interrupts, like blocking socket reads, and only end when released
+        CountDownLatch release = new CountDownLatch(1);
+        List<Deadline> losers = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            AtomicInteger attempts = new AtomicInteger();
+            String result = hedger.execute(Hedger.Call.ASSET, () -> {
+                if (attempts.incrementAndGet() == 1) {
+                    losers.add(Deadline.current());
+                    awaitUninterruptibly(release);
+                    return "slow";
+                }
+                return "hedge";
+            });
+            assertEquals("hedge", result);
+        }
+        assertEquals(5, losers.size());
+        assertTrue(losers.stream().allMatch(Deadline::isCancelled));
+        assertEquals(5, hedger.getLosersRunning());
+
+        // Half of the burst was spent on hedges, the other half is held by the losers still running
+        hedger.execute(Hedger.Call.ASSET, () -> {
+            Thread.sleep(20);
+            return "slow";
+        });
+        assertEquals(5, hedger.getHedges(Hedger.Call.ASSET));
+        assertEquals(1, hedger.getBudgetExhausted(Hedger.Call.ASSET));
+
+        release.countDown();
+        for (int i = 0; i < 500 && hedger.getLosersRunning() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, hedger.getLosersRunning());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void warmUp(Hedger hedger, Hedger.Call call) throws Exception {
+        for (int i = 0; i < 64; i++) {
+            hedger.execute(call, () -> {
+                Thread.sleep(1);
+                return "fast";
+            });
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.wire.helium.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageSizerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2_000);
+
+    @Test
+    public void testFastFullPagesGrowUpToTheLimit() {
+        PageSizer sizer = new PageSizer(1_000, Long.MAX_VALUE);
+        PageSizer.Endpoint endpoint = PageSizer.Endpoint.CONVERSATION_IDS;
+        assertEquals(100, sizer.size(endpoint));
+
+        sizer.record(endpoint, 100, true, FAST, -1);
+        assertEquals(200, sizer.size(endpoint));
+
+        // The last page says nothing about a bigger one
+        sizer.record(endpoint, 50, false, FAST, -1);
+        assertEquals(200, sizer.size(endpoint));
+
+        for (int i = 0; i < 10; i++) {
+            sizer.record(endpoint, sizer.size(endpoint), true, FAST, -1);
+        }
+        assertEquals(1_000, sizer.size(endpoint));
+        assertEquals(12, sizer.getPages(endpoint));
+    }
+
+    @Test
+    public void testSlowPagesAndFailuresShrink() {
+        PageSizer sizer = new PageSizer(1_000, Long.MAX_VALUE);
+        PageSizer.Endpoint endpoint = PageSizer.Endpoint.NOTIFICATIONS;
+
+        sizer.record(endpoint, 500, true, TimeUnit.MILLISECONDS.toNanos(1_250), -1);
+        assertEquals(400, sizer.size(endpoint));
+        sizer.record(endpoint, 400, true, SLOW, -1);
+        assertEquals(200, sizer.size(endpoint));
+        // Shrinks by half at most, and never below the endpoint's minimum
+        sizer.record(endpoint, 200, true, SLOW * 10, -1);
+        assertEquals(100, sizer.size(endpoint));
+        sizer.failed(endpoint);
+        assertEquals(100, sizer.size(endpoint));
+        assertEquals(1, sizer.getFailures(endpoint));
+
+        // Endpoints are sized independently
+        assertEquals(1_000, sizer.size(PageSizer.Endpoint.CONVERSATIONS));
+        sizer.failed(PageSizer.Endpoint.CONVERSATIONS);
+        assertEquals(500, sizer.size(PageSizer.Endpoint.CONVERSATIONS));
+    }
+
+    @Test
+    public void testLargeItemsCapThePage() {
+        PageSizer sizer = new PageSizer(1_000, 1 << 20);
+        PageSizer.Endpoint endpoint = PageSizer.Endpoint.NOTIFICATIONS;
+
+        // 4 KB per notification: 256 fit in 1 MB
+        sizer.record(endpoint, 500, true, FAST, 500 * 4096);
+        assertEquals(256, sizer.size(endpoint));
+        sizer.record(endpoint, 256, true, FAST, 256 * 4096);
+        assertEquals(256, sizer.size(endpoint));
+    }
+}
@@ -0,0 +1,218 @@
+package com.wire.helium.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestSchedulerTest {
+
+    @Test
+    public void testInteractiveGoesFirst() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 60_000, 10_000);
+        List<RequestScheduler.Priority> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = start(scheduler, RequestScheduler.Priority.BULK, order, release);
+        awaitRunning(scheduler, RequestScheduler.Priority.BULK, 1);
+
+        Thread bulk = start(scheduler, RequestScheduler.Priority.BULK, order, null);
+        awaitQueued(scheduler, RequestScheduler.Priority.BULK, 1);
+        Thread normal = start(scheduler, RequestScheduler.Priority.NORMAL, order, null);
+        awaitQueued(scheduler, RequestScheduler.Priority.NORMAL, 1);
+        Thread interactive = start(scheduler, RequestScheduler.Priority.INTERACTIVE, order, null);
+        awaitQueued(scheduler, RequestScheduler.Priority.INTERACTIVE, 1);
+
+        release.countDown();
+        for (Thread thread : List.of(holder, bulk, normal, interactive)) {
+            thread.join(5_000);
+        }
+        assertEquals(List.of(RequestScheduler.Priority.BULK, RequestScheduler.Priority.INTERACTIVE,
+                RequestScheduler.Priority.NORMAL, RequestScheduler.Priority.BULK), order);
+    }
+
+    @Test
+    public void testBulkBudgetKeepsSlotsFree() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(2, 2, 1, 60_000, 10_000);
+        CountDownLatch release = new CountDownLatch(1);
+        List<RequestScheduler.Priority> order = new CopyOnWriteArrayList<>();
+
+        Thread first = start(scheduler, RequestScheduler.Priority.BULK, order, release);
+        awaitRunning(scheduler, RequestScheduler.Priority.BULK, 1);
+        Thread second = start(scheduler, RequestScheduler.Priority.BULK, order, null);
+        awaitQueued(scheduler, RequestScheduler.Priority.BULK, 1);
+
+        // The second slot is still free for interactive requests
+        assertEquals(200, scheduler.invoke(RequestScheduler.Priority.INTERACTIVE, () -> Response.ok().build()).getStatus());
+
+        release.countDown();
+        first.join(5_000);
+        second.join(5_000);
+        assertEquals(3, scheduler.getCompleted(RequestScheduler.Priority.BULK) + scheduler.getCompleted(RequestScheduler.Priority.INTERACTIVE));
+    }
+
+    @Test
+    public void testAgingPreventsStarvation() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 50, 10_000);
+        List<RequestScheduler.Priority> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = start(scheduler, RequestScheduler.Priority.NORMAL, order, release);
+        awaitRunning(scheduler, RequestScheduler.Priority.NORMAL, 1);
+        Thread bulk = start(scheduler, RequestScheduler.Priority.BULK, order, null);
+        awaitQueued(scheduler, RequestScheduler.Priority.BULK, 1);
+
+        // Waited for more than two aging periods, so it ranks above a fresh normal request
+        Thread.sleep(150);
+        Thread normal = start(scheduler, RequestScheduler.Priority.NORMAL, order, null);
+        awaitQueued(scheduler, RequestScheduler.Priority.NORMAL, 1);
+
+        release.countDown();
+        for (Thread thread : List.of(holder, bulk, normal)) {
+            thread.join(5_000);
+        }
+        assertEquals(List.of(RequestScheduler.Priority.NORMAL, RequestScheduler.Priority.BULK,
+                RequestScheduler.Priority.NORMAL), order);
+        assertEquals(1, scheduler.getPromoted());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxWait() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 60_000, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = start(scheduler, RequestScheduler.Priority.BULK, new CopyOnWriteArrayList<>(), release);
+        awaitRunning(scheduler, RequestScheduler.Priority.BULK, 1);
+
+        assertThrows(ProcessingException.class,
+                () -> scheduler.invoke(RequestScheduler.Priority.INTERACTIVE, () -> Response.ok().build()));
+        assertEquals(1, scheduler.getTimedOut());
+        assertEquals(0, scheduler.getQueued(RequestScheduler.Priority.INTERACTIVE));
+
+        release.countDown();
+        holder.join(5_000);
+    }
+
+    private static Thread start(RequestScheduler scheduler, RequestScheduler.Priority priority,
+                                List<RequestScheduler.Priority> order, CountDownLatch release) {
+        Thread thread = new Thread(() -> scheduler.invoke(priority, () -> {
+            order.add(priority);
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return Response.ok().build();
+        }).close());
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testBodyIsReadWithinTheSlot() throws Exception {
+        // The second half of the body arrives 300 ms after the headers
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 8);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write("body".getBytes(StandardCharsets.UTF_8));
+                body.flush();
+                Thread.sleep(300);
+                body.write("body".getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        Client client = Transport.newClient(Transport.Engine.JERSEY);
+        try {
+            RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 60_000, 10_000);
+            Invocation invocation = client.target("http://127.0.0.1:" + server.getAddress().getPort()).request().buildGet();
+
+            long start = System.nanoTime();
+            Response response = scheduler.invoke(RequestScheduler.Priority.NORMAL, invocation::invoke);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+            assertEquals(0, scheduler.getRunning(RequestScheduler.Priority.NORMAL));
+            assertEquals("bodybody", response.readEntity(String.class));
+        } finally {
+            client.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBulkBodyIsStreamedWithinTheSlot() throws Exception {
+        // A large asset whose second half is only sent once the test lets it
+        byte[] half = new byte[4 * 1024 * 1024];
+        CountDownLatch rest = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 2L * half.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(half);
+                body.flush();
+                rest.await(5, TimeUnit.SECONDS);
+                body.write(half);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        Client client = Transport.newClient(Transport.Engine.JERSEY);
+        try {
+            RequestScheduler scheduler = new RequestScheduler(1, 1, 1, 60_000, 10_000);
+            Invocation invocation = client.target("http://127.0.0.1:" + server.getAddress().getPort()).request().buildGet();
+
+            // Not buffered, which would wait for the rest, but the slot is still held
+            long start = System.nanoTime();
+            Response response = scheduler.invoke(RequestScheduler.Priority.BULK, invocation::invoke);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertEquals(1, scheduler.getRunning(RequestScheduler.Priority.BULK));
+
+            rest.countDown();
+            try (InputStream in = response.readEntity(InputStream.class)) {
+                assertEquals(2L * half.length, in.transferTo(OutputStream.nullOutputStream()));
+                assertEquals(0, scheduler.getRunning(RequestScheduler.Priority.BULK));
+            }
+
+            // Closed without reading the body
+            Response unread = scheduler.invoke(RequestScheduler.Priority.BULK, invocation::invoke);
+            assertEquals(1, scheduler.getRunning(RequestScheduler.Priority.BULK));
+            unread.close();
+            unread.close();
+            assertEquals(0, scheduler.getRunning(RequestScheduler.Priority.BULK));
+            assertEquals(2, scheduler.getCompleted(RequestScheduler.Priority.BULK));
+        } finally {
+            client.close();
+            server.stop(0);
+        }
+    }
+
+    private static void awaitRunning(RequestScheduler scheduler, RequestScheduler.Priority priority, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && scheduler.getRunning(priority) < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, scheduler.getRunning(priority));
+    }
+
+    private static void awaitQueued(RequestScheduler scheduler, RequestScheduler.Priority priority, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && scheduler.getQueued(priority) < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, scheduler.getQueued(priority));
+    }
+}
@@ -0,0 +1,186 @@
+package com.wire.helium.http;
+
+import com.wire.xenon.exceptions.HttpException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+    private static final int CALLERS = 8;
+
+    @Test
+    public void testConcurrentCallsShareOneRequest() throws Exception {
+        SingleFlight singleFlight = SingleFlight.allEndpoints();
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = runConcurrently(() -> singleFlight.execute(SingleFlight.Endpoint.USER, "token", "alice", () -> {
+            fetches.incrementAndGet();
+            release.await();
+            return "Alice";
+        }), release);
+
+        for (Future<String> result : results) {
+            assertEquals("Alice", result.get());
+        }
+        assertEquals(1, fetches.get());
+        assertEquals(1, singleFlight.getRequests(SingleFlight.Endpoint.USER));
+        assertEquals(CALLERS - 1, singleFlight.getShared(SingleFlight.Endpoint.USER));
+
+        // Nothing is cached once the request completed
+        singleFlight.execute(SingleFlight.Endpoint.USER, "token", "alice", fetches::incrementAndGet);
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void testExceptionReachesAllWaiters() throws Exception {
+        SingleFlight singleFlight = SingleFlight.allEndpoints();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = runConcurrently(() -> singleFlight.execute(SingleFlight.Endpoint.CONVERSATION, "token", "conv", () -> {
+            release.await();
+            throw new HttpException("gone", 404);
+        }), release);
+
+        for (Future<String> result : results) {
+            Exception e = assertThrows(Exception.class, result::get);
+            HttpException cause = assertInstanceOf(HttpException.class, e.getCause());
+            assertEquals(404, cause.getCode());
+        }
+    }
+
+    @Test
+    public void testLeaderDeadlineIsNotPassedOn() throws Exception {
+        SingleFlight singleFlight = SingleFlight.allEndpoints();
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Fetch<String, Exception> fetch = () -> {
+            if (fetches.incrementAndGet() == 1) {
+                release.await();
+            }
+            Deadline.checkCurrent();
+            return "Alice";
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Deadline leaderDeadline = Deadline.after(100, TimeUnit.MILLISECONDS);
+            Future<String> leader = executor.submit(() -> leaderDeadline
+                    .call(() -> singleFlight.execute(SingleFlight.Endpoint.USER, "token", "alice", fetch)));
+            awaitCount(() -> singleFlight.getRequests(SingleFlight.Endpoint.USER));
+            Future<String> waiter = executor.submit(() -> Deadline.after(10, TimeUnit.SECONDS)
+                    .call(() -> singleFlight.execute(SingleFlight.Endpoint.USER, "token", "alice", fetch)));
+            awaitCount(() -> singleFlight.getShared(SingleFlight.Endpoint.USER));
+
+            // The leader fails on its deadline only, the waiter still has time and sends the request again
+            awaitCount(() -> leaderDeadline.isExpired() ? 1 : 0);
+            release.countDown();
+            Exception e = assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(DeadlineException.class, e.getCause());
+            assertEquals("Alice", waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(2, fetches.get());
+            assertEquals(2, singleFlight.getRequests(SingleFlight.Endpoint.USER));
+            assertEquals(0, singleFlight.getShared(SingleFlight.Endpoint.USER));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaiterKeepsItsOwnDeadline() throws Exception {
+        SingleFlight singleFlight = SingleFlight.allEndpoints();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> singleFlight.execute(SingleFlight.Endpoint.USER, "token", "alice", () -> {
+                release.await();
+                return "Alice";
+            }));
+            awaitCount(() -> singleFlight.getRequests(SingleFlight.Endpoint.USER));
+
+            long start = System.nanoTime();
+            DeadlineException e = assertThrows(DeadlineException.class, () -> Deadline.after(100, TimeUnit.MILLISECONDS)
+                    .call(() -> singleFlight.execute(SingleFlight.Endpoint.USER, "token", "alice", () -> "never")));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+            Deadline cancelled = Deadline.none();
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+            try {
+                scheduler.schedule(cancelled::cancel, 50, TimeUnit.MILLISECONDS);
+                e = assertThrows(DeadlineException.class, () -> cancelled
+                        .call(() -> singleFlight.execute(SingleFlight.Endpoint.USER, "token", "alice", () -> "never")));
+                assertInstanceOf(CancellationException.class, e.getCause());
+            } finally {
+                scheduler.shutdownNow();
+            }
+
+            // The request itself goes on for its own caller
+            release.countDown();
+            assertEquals("Alice", leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOptInPerEndpointAndToken() throws Exception {
+        SingleFlight singleFlight = new SingleFlight().enable(EnumSet.of(SingleFlight.Endpoint.SELF));
+        assertFalse(singleFlight.isEnabled(SingleFlight.Endpoint.USER));
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger fetches = new AtomicInteger();
+        AtomicInteger caller = new AtomicInteger();
+
+        List<Future<String>> results = runConcurrently(() -> {
+            String token = "token-" + caller.incrementAndGet() % 2;
+            return singleFlight.execute(SingleFlight.Endpoint.SELF, token, null, () -> {
+                fetches.incrementAndGet();
+                release.await();
+                return token;
+            });
+        }, release);
+        for (Future<String> result : results) {
+            result.get();
+        }
+
+        // One request per token
+        assertEquals(2, fetches.get());
+    }
+
+    private static void awaitCount(LongSupplier count) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count.getAsLong() == 0) {
+            assertTrue(System.nanoTime() - until < 0);
+            Thread.sleep(1);
+        }
+    }
+
+    private static <T> List<Future<T>> runConcurrently(java.util.concurrent.Callable<T> call, CountDownLatch release) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<T>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(call));
+        }
+        // Give every caller the time to join before the request completes
+        Thread.sleep(200);
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        return results;
+    }
+}
@@ -0,0 +1,88 @@
+package com.wire.helium.http;
+
+import com.wire.helium.API;
+import com.wire.helium.LoginClient;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.models.Access;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.AuthException;
+import com.wire.xenon.exceptions.HttpException;
+import com.wire.xenon.models.otr.Devices;
+import com.wire.xenon.models.otr.OtrMessage;
+import com.wire.xenon.models.otr.Recipients;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Cookie;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransportTest {
+    private static BackendSimulator backend;
+
+    @BeforeAll
+    public static void before() throws Exception {
+        backend = new BackendSimulator();
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+    }
+
+    @AfterAll
+    public static void after() {
+        backend.close();
+        System.clearProperty(Const.WIRE_BOTS_SDK_API);
+    }
+
+    @Test
+    public void testLoginAndRenew() throws Exception {
+        for (Transport.Engine engine : Transport.Engine.values()) {
+            Client client = Transport.newClient(engine);
+            try {
+                BackendSimulator.Account account = backend.addAccount();
+                LoginClient loginClient = new LoginClient(client);
+                assertThrows(AuthException.class, () -> loginClient.login(account.email, "wrong"));
+
+                Access access = loginClient.login(account.email, account.password);
+                assertTrue(access.hasCookie(), engine.name());
+
+                Cookie cookie = new Cookie(access.getCookie().name, access.getCookie().value);
+                Access renewed = loginClient.renewAccessToken(null, cookie);
+                assertEquals(account.id, new API(client, null, renewed.getAccessToken()).getSelf().id);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testMessagesAndAssets() throws Exception {
+        for (Transport.Engine engine : Transport.Engine.values()) {
+            Client client = Transport.newClient(engine);
+            try {
+                BackendSimulator.Account alice = backend.addAccount();
+                String aliceClient = backend.addClient(alice.id);
+                QualifiedId bob = backend.addUser(BackendSimulator.DOMAIN);
+                String bobClient = backend.addClient(bob);
+                QualifiedId convId = backend.addConversation("transport", alice.id, bob);
+                API api = new API(client, convId, alice.getToken());
+
+                // 412 with a JSON body, then 201 for a protobuf body
+                Devices devices = api.sendMessage(new OtrMessage(aliceClient, new Recipients()), false);
+                assertEquals(List.of(bobClient), List.copyOf(devices.missing.toClients(bob)), engine.name());
+
+                Recipients recipients = new Recipients();
+                recipients.add(bob, bobClient, "cipher");
+                assertTrue(api.sendMessage(new OtrMessage(aliceClient, recipients), false).missing.isEmpty());
+
+                HttpException e = assertThrows(HttpException.class, () -> api.downloadAsset("unknown", BackendSimulator.DOMAIN, null));
+                assertEquals(404, e.getCode());
+                assertEquals("transport", api.getConversation().name);
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.wire.helium.models;
+
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Member;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.backend.models.Service;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QualifiedIdsTest {
+    @Test
+    public void testRoundTripAndLookup() {
+        List<QualifiedId> expected = new ArrayList<>();
+        QualifiedIds ids = new QualifiedIds(1);
+        for (int i = 0; i < 1000; i++) {
+            QualifiedId id = new QualifiedId(UUID.randomUUID(), i % 3 == 0 ? null : "domain" + (i % 4));
+            expected.add(id);
+            ids.add(id);
+            if (i == 500) {
+                // Builds the index halfway, later adds must keep it up to date
+                assertEquals(i, ids.indexOf(id));
+            }
+        }
+
+        assertEquals(expected, ids);
+        assertEquals(expected.hashCode(), ids.hashCode());
+        assertEquals(4, ids.domainCount());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, ids.indexOf(expected.get(i)));
+        }
+        assertFalse(ids.contains(new QualifiedId(expected.get(1).id, "other")));
+        assertFalse(ids.contains(new QualifiedId(UUID.randomUUID(), "domain1")));
+        assertFalse(ids.contains("not an id"));
+
+        // The first of equal ids is found
+        ids.add(expected.get(7));
+        assertEquals(7, ids.indexOf(expected.get(7)));
+        assertEquals(1000, ids.lastIndexOf(expected.get(7)));
+        assertThrows(IndexOutOfBoundsException.class, () -> ids.get(1001));
+    }
+
+    @Test
+    public void testConversations() {
+        Conversation full = new Conversation();
+        full.id = new QualifiedId(UUID.randomUUID(), "wire.com");
+        full.name = "full";
+        full.mlsGroupId = "group";
+        full.protocol = Conversation.Protocol.MIXED;
+        full.creator = UUID.randomUUID();
+        full.members = new Payload.Members();
+        full.members.others = new ArrayList<>();
+        Member user = new Member();
+        user.id = new QualifiedId(UUID.randomUUID(), "wire.com");
+        user.status = 0;
+        Member bot = new Member();
+        bot.id = new QualifiedId(UUID.randomUUID(), "bots.wire.com");
+        bot.service = new Service();
+        bot.service.id = UUID.randomUUID();
+        bot.service.providerId = UUID.randomUUID();
+        full.members.others.add(user);
+        full.members.others.add(bot);
+
+        Conversation bare = new Conversation();
+        bare.id = new QualifiedId(UUID.randomUUID(), "wire.com");
+        Conversation empty = new Conversation();
+        empty.id = new QualifiedId(UUID.randomUUID(), "wire.com");
+        empty.members = new Payload.Members();
+
+        CompactConversations conversations = new CompactConversations(1);
+        conversations.addAll(List.of(full, bare, empty));
+
+        assertEquals(3, conversations.size());
+        assertEquals(2, conversations.indexOfId(empty.id));
+        assertEquals("full", conversations.name(0));
+        assertEquals(List.of(user.id, bot.id), conversations.members(0));
+        assertTrue(conversations.members(1).isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> conversations.ids().add(bare.id));
+
+        Conversation copy = conversations.get(0);
+        assertEquals(full.id, copy.id);
+        assertEquals(full.name, copy.name);
+        assertEquals(full.mlsGroupId, copy.mlsGroupId);
+        assertEquals(full.protocol, copy.protocol);
+        assertEquals(full.creator, copy.creator);
+        assertEquals(2, copy.members.others.size());
+        assertEquals(0, copy.members.others.get(0).status);
+        assertNull(copy.members.others.get(0).service);
+        assertNull(copy.members.others.get(1).status);
+        assertEquals(bot.service.providerId, copy.members.others.get(1).service.providerId);
+
+        Conversation copyOfBare = conversations.get(1);
+        assertNull(copyOfBare.name);
+        assertNull(copyOfBare.protocol);
+        assertNull(copyOfBare.creator);
+        assertNull(copyOfBare.members);
+        assertNotNull(conversations.get(2).members);
+        assertNull(conversations.get(2).members.others);
+    }
+}
@@ -0,0 +1,43 @@
+package com.wire.helium.notifications;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileCursorStoreTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testKeysStayInsideTheDirectory() throws Exception {
+        Path directory = tempDir.resolve("cursors");
+        FileCursorStore store = new FileCursorStore(directory);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        store.save("../escaped", first);
+        store.save("bot/client:1", second);
+
+        assertEquals(first, store.load("../escaped"));
+        assertEquals(second, store.load("bot/client:1"));
+        assertNull(store.load("unknown"));
+        assertFalse(Files.exists(tempDir.resolve("escaped.cursor")));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void testClearedPosition() throws Exception {
+        FileCursorStore store = new FileCursorStore(tempDir);
+        store.save("key", UUID.randomUUID());
+        store.save("key", null);
+        assertNull(store.load("key"));
+    }
+}
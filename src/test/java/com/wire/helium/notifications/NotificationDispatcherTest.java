@@ -0,0 +1,119 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.models.Event;
+import com.wire.helium.models.NotificationList;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotificationDispatcherTest {
+
+    @Test
+    public void testKeepsOrderPerConversation() throws Exception {
+        List<QualifiedId> conversations = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            conversations.add(new QualifiedId(UUID.randomUUID(), "wire.com"));
+        }
+        List<Event> events = new ArrayList<>();
+        Map<QualifiedId, List<UUID>> expected = new ConcurrentHashMap<>();
+        for (int i = 0; i < 2_000; i++) {
+            QualifiedId conversation = conversations.get(i % conversations.size());
+            Event event = event(conversation);
+            events.add(event);
+            expected.computeIfAbsent(conversation, k -> new ArrayList<>()).add(event.id);
+        }
+
+        Map<QualifiedId, List<UUID>> seen = new ConcurrentHashMap<>();
+        MemoryCursorStore store = new MemoryCursorStore();
+        NotificationReader reader = new NotificationReader(source(events), new NotificationCursor(store, "key"), 100);
+
+        try (NotificationDispatcher dispatcher = new NotificationDispatcher(event -> {
+            if (ThreadLocalRandom.current().nextInt(50) == 0) {
+                Thread.sleep(1);
+            }
+            seen.computeIfAbsent(event.payload[0].conversation, k -> new ArrayList<>()).add(event.id);
+        }, 4, 64)) {
+            assertEquals(events.size(), reader.catchUp(dispatcher));
+        }
+
+        assertEquals(expected, seen);
+        assertEquals(events.get(events.size() - 1).id, store.load("key"));
+    }
+
+    @Test
+    public void testFailureStopsBeforeFailedEvent() throws Exception {
+        QualifiedId conversation = new QualifiedId(UUID.randomUUID(), "wire.com");
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            events.add(event(conversation));
+        }
+        UUID poison = events.get(150).id;
+
+        MemoryCursorStore store = new MemoryCursorStore();
+        NotificationReader reader = new NotificationReader(source(events), new NotificationCursor(store, "key"), 100);
+        try (NotificationDispatcher dispatcher = new NotificationDispatcher(event -> {
+            if (event.id.equals(poison)) {
+                throw new IllegalStateException("crash");
+            }
+        }, 4, 64)) {
+            assertThrows(IllegalStateException.class, () -> reader.catchUp(dispatcher));
+        }
+
+        assertEquals(events.get(149).id, store.load("key"));
+    }
+
+    @Test
+    public void testSubmitAfterCloseIsRejected() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(event -> {
+        }, 1, 1);
+        Event first = event(new QualifiedId(UUID.randomUUID(), "wire.com"));
+        assertTrue(dispatcher.submit(first));
+        dispatcher.awaitIdle();
+        dispatcher.close();
+
+        assertThrows(IllegalStateException.class, () -> dispatcher.submit(event(first.payload[0].conversation)));
+        NotificationDispatcher.Progress progress = dispatcher.progress();
+        assertEquals(first.id, progress.position);
+        assertEquals(1, progress.count);
+        // Nothing is left pending
+        dispatcher.awaitIdle();
+    }
+
+    private static Event event(QualifiedId conversation) {
+        Payload payload = new Payload();
+        payload.conversation = conversation;
+        Event event = new Event();
+        event.id = UUID.randomUUID();
+        event.payload = new Payload[]{payload};
+        return event;
+    }
+
+    private static NotificationSource source(List<Event> events) {
+        return (since, size) -> {
+            int from = since == null ? 0 : indexOf(events, since) + 1;
+            int to = Math.min(events.size(), from + size);
+            NotificationList list = new NotificationList();
+            list.notifications = new ArrayList<>(events.subList(from, to));
+            list.hasMore = to < events.size();
+            return list;
+        };
+    }
+
+    private static int indexOf(List<Event> events, UUID id) {
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).id.equals(id)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(id.toString());
+    }
+}
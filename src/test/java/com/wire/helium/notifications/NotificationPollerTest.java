@@ -0,0 +1,137 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.models.Event;
+import com.wire.helium.models.NotificationList;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotificationPollerTest {
+
+    @Test
+    public void testIntervalsAdaptToActivity() throws Exception {
+        AtomicInteger busyEvents = new AtomicInteger();
+        try (NotificationPoller poller = new NotificationPoller(2, 0, 20, 160, 100)) {
+            NotificationPoller.Subscription idle = poller.register("idle", source(0),
+                    new NotificationCursor(new MemoryCursorStore(), "idle"), event -> fail());
+            NotificationPoller.Subscription busy = poller.register("busy", source(1),
+                    new NotificationCursor(new MemoryCursorStore(), "busy"), event -> busyEvents.incrementAndGet());
+
+            // The idle account backs off from 20 to 160 ms in four empty polls, the busy one stays at the minimum
+            awaitTrue(() -> idle.getIntervalMillis() == 160 && busy.getPolls() >= 10);
+            assertEquals(20, busy.getIntervalMillis());
+            long polls = busy.getPolls();
+            assertTrue(busyEvents.get() >= polls && busyEvents.get() <= polls + 1, busyEvents.get() + " vs " + polls);
+            assertNotNull(busy.getCursor().position());
+            assertNull(idle.getCursor().position());
+        }
+    }
+
+    @Test
+    public void testRequestRateIsBounded() throws Exception {
+        long start = System.nanoTime();
+        try (NotificationPoller poller = new NotificationPoller(4, 20, 1, 1, 100)) {
+            for (int i = 0; i < 50; i++) {
+                String key = "account-" + i;
+                poller.register(key, source(1), new NotificationCursor(new MemoryCursorStore(), key), event -> {
+                });
+            }
+            assertEquals(50, poller.size());
+
+            // Requests are paced to one per 50 ms from the first one, a slow machine only sends fewer
+            awaitTrue(() -> poller.getRequests() >= 10);
+            long requests = poller.getRequests();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(requests <= elapsedMillis / 50 + 1, requests + " requests in " + elapsedMillis + " ms");
+        }
+    }
+
+    @Test
+    public void testFailuresBackOffAndCancelStops() throws Exception {
+        Map<String, Exception> failures = new ConcurrentHashMap<>();
+        try (NotificationPoller poller = new NotificationPoller(1, 0, 10, 80, 100)) {
+            poller.setFailureListener(failures::put);
+            NotificationPoller.Subscription broken = poller.register("broken", (since, size) -> {
+                throw new IllegalStateException("down");
+            }, new NotificationCursor(new MemoryCursorStore(), "broken"), event -> fail());
+
+            awaitTrue(() -> broken.getIntervalMillis() == 80 && failures.containsKey("broken"));
+            assertTrue(poller.getFailures() > 0);
+            assertEquals("down", failures.get("broken").getMessage());
+
+            // A poll running while cancelling still completes, none starts afterwards
+            long polls = broken.getPolls();
+            broken.cancel();
+            assertNull(poller.getSubscription("broken"));
+            Thread.sleep(300);
+            assertTrue(broken.getPolls() <= polls + 1, broken.getPolls() + " vs " + polls);
+        }
+    }
+
+    @Test
+    public void testFailingListenerOrHandlerKeepsPolling() throws Exception {
+        try (NotificationPoller poller = new NotificationPoller(1, 0, 10, 20, 100)) {
+            poller.setFailureListener((key, e) -> {
+                throw new IllegalStateException("listener broken");
+            });
+            NotificationPoller.Subscription broken = poller.register("broken", (since, size) -> {
+                throw new IllegalStateException("down");
+            }, new NotificationCursor(new MemoryCursorStore(), "broken"), event -> fail());
+            NotificationPoller.Subscription crashing = poller.register("crashing", source(1),
+                    new NotificationCursor(new MemoryCursorStore(), "crashing"), event -> {
+                        throw new AssertionError("handler crashed");
+                    });
+
+            awaitTrue(() -> broken.getPolls() >= 3 && crashing.getPolls() >= 3);
+        }
+    }
+
+    @Test
+    public void testMissingHasMoreEndsThePoll() throws Exception {
+        AtomicInteger handled = new AtomicInteger();
+        try (NotificationPoller poller = new NotificationPoller(1, 0, 10, 20, 100)) {
+            NotificationPoller.Subscription subscription = poller.register("account", (since, size) -> {
+                NotificationList list = new NotificationList();
+                Event event = new Event();
+                event.id = UUID.randomUUID();
+                list.notifications.add(event);
+                return list;    // no has_more in the response
+            }, new NotificationCursor(new MemoryCursorStore(), "account"), event -> handled.incrementAndGet());
+
+            awaitTrue(() -> subscription.getPolls() >= 3);
+            assertEquals(0, poller.getFailures());
+            assertTrue(handled.get() >= 3);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - until < 0, "condition not met within 10 s");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * @return endless stream handing out the given number of new events per request
+     */
+    private static NotificationSource source(int perPage) {
+        return (since, size) -> {
+            NotificationList list = new NotificationList();
+            list.hasMore = false;
+            for (int i = 0; i < perPage; i++) {
+                Event event = new Event();
+                event.id = UUID.randomUUID();
+                list.notifications.add(event);
+            }
+            return list;
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.models.Event;
+import com.wire.helium.models.NotificationList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotificationReaderTest {
+    private static final String KEY = "alice-client1";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testCheckpointsInBatches() throws Exception {
+        List<Event> events = events(250);
+        CountingStore store = new CountingStore();
+        NotificationCursor cursor = new NotificationCursor(store, KEY, 50, Long.MAX_VALUE);
+        NotificationReader reader = new NotificationReader(source(events), cursor, 100);
+
+        List<UUID> seen = new ArrayList<>();
+        int processed = reader.catchUp(event -> seen.add(event.id));
+
+        assertEquals(250, processed);
+        assertEquals(250, seen.size());
+        assertEquals(events.get(249).id, store.load(KEY));
+        assertEquals(5, store.saves);
+    }
+
+    @Test
+    public void testResumesAfterFailure() throws Exception {
+        List<Event> events = events(250);
+        FileCursorStore store = new FileCursorStore(tempDir);
+        NotificationReader reader = new NotificationReader(source(events), new NotificationCursor(store, KEY, 50, Long.MAX_VALUE), 100);
+
+        UUID poison = events.get(120).id;
+        assertThrows(IllegalStateException.class, () -> reader.catchUp(event -> {
+            if (event.id.equals(poison)) {
+                throw new IllegalStateException("crash");
+            }
+        }));
+        assertEquals(events.get(119).id, store.load(KEY));
+
+        List<UUID> seen = new ArrayList<>();
+        NotificationReader resumed = new NotificationReader(source(events), new NotificationCursor(store, KEY, 50, Long.MAX_VALUE), 100);
+        int processed = resumed.catchUp(event -> seen.add(event.id));
+
+        assertEquals(130, processed);
+        assertEquals(poison, seen.get(0));
+        assertEquals(events.get(249).id, store.load(KEY));
+    }
+
+    @Test
+    public void testGapIsReported() throws Exception {
+        MemoryCursorStore store = new MemoryCursorStore();
+        UUID lost = UUID.randomUUID();
+        store.save(KEY, lost);
+        List<Event> available = events(3);
+
+        NotificationSource source = (since, size) -> {
+            NotificationList list = new NotificationList();
+            list.notifications = new ArrayList<>(available);
+            list.hasMore = true;
+            list.gap = true;
+            return list;
+        };
+        NotificationReader reader = new NotificationReader(source, new NotificationCursor(store, KEY));
+
+        // The notifications still available are handled before the gap is reported
+        List<UUID> seen = new ArrayList<>();
+        NotificationGapException e = assertThrows(NotificationGapException.class, () -> reader.catchUp(event -> seen.add(event.id)));
+        assertEquals(lost, e.getSince());
+        assertEquals(3, seen.size());
+        assertEquals(available.get(2).id, store.load(KEY));
+    }
+
+    private static List<Event> events(int count) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Event event = new Event();
+            event.id = UUID.randomUUID();
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static NotificationSource source(List<Event> events) {
+        return (since, size) -> {
+            int from = 0;
+            if (since != null) {
+                while (!events.get(from).id.equals(since)) {
+                    from++;
+                }
+                from++;
+            }
+            int to = Math.min(events.size(), from + size);
+            NotificationList list = new NotificationList();
+            list.notifications = new ArrayList<>(events.subList(from, to));
+            list.hasMore = to < events.size();
+            return list;
+        };
+    }
+
+    private static class CountingStore extends MemoryCursorStore {
+        int saves;
+
+        @Override
+        public void save(String key, UUID lastEventId) {
+            saves++;
+            super.save(key, lastEventId);
+        }
+    }
+}
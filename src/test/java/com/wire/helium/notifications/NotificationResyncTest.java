@@ -0,0 +1,105 @@
+package com.wire.helium.notifications;
+
+import com.wire.helium.API;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.http.Transport;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.HttpException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NotificationResyncTest {
+    private static BackendSimulator backend;
+    private static Client client;
+
+    @BeforeAll
+    public static void before() throws Exception {
+        backend = new BackendSimulator();
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+        client = Transport.newClient(Transport.Engine.JERSEY);
+    }
+
+    @AfterAll
+    public static void after() {
+        client.close();
+        backend.close();
+        System.clearProperty(Const.WIRE_BOTS_SDK_API);
+    }
+
+    @Test
+    public void testReloadsAndMovesCursor() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        List<QualifiedId> conversations = backend.populate(alice, 2_500, 2, 1);
+        List<UUID> events = backend.addNotifications(alice.id, conversations.get(0), 5, 64);
+
+        MemoryCursorStore store = new MemoryCursorStore();
+        NotificationResync resync = new NotificationResync(new API(client, null, alice.getToken()), aliceClient);
+        AtomicInteger reloaded = new AtomicInteger();
+        resync.addListener(list -> reloaded.set(list.size()));
+
+        NotificationResync.Result result = resync.resync(new NotificationCursor(store, "key"));
+        assertEquals(2_500, result.conversations.size());
+        assertEquals(2_500, reloaded.get());
+        assertEquals(events.get(4), store.load("key"));
+    }
+
+    @Test
+    public void testEmptyStreamClearsCursor() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        backend.populate(alice, 10, 2, 1);
+
+        // The stored id is gone and there is nothing newer to move to
+        MemoryCursorStore store = new MemoryCursorStore();
+        store.save("key", UUID.randomUUID());
+        API api = new API(client, null, alice.getToken());
+        NotificationResync.Result result = new NotificationResync(api, aliceClient).resync(new NotificationCursor(store, "key"));
+        assertNull(result.lastEventId);
+        assertEquals(10, result.conversations.size());
+        assertNull(store.load("key"));
+
+        // Catching up starts from the beginning instead of reporting the same gap again
+        NotificationReader reader = new NotificationReader(NotificationSource.of(api, aliceClient), new NotificationCursor(store, "key"));
+        assertEquals(0, reader.catchUp(event -> fail()));
+    }
+
+    @Test
+    public void testFailedChunkChangesNothing() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        String aliceClient = backend.addClient(alice.id);
+        List<QualifiedId> conversations = backend.populate(alice, 2_500, 2, 1);
+        backend.addNotifications(alice.id, conversations.get(0), 5, 64);
+
+        // The last chunk fails, a partial result would look like the user left those conversations
+        API api = new API(client, null, alice.getToken()) {
+            @Override
+            public List<Conversation> listConversations(List<QualifiedId> conversationIds) throws HttpException {
+                if (conversationIds.size() < API.CONVERSATION_LIST_LIMIT) {
+                    throw new HttpException("Unavailable", 503);
+                }
+                return super.listConversations(conversationIds);
+            }
+        };
+
+        MemoryCursorStore store = new MemoryCursorStore();
+        UUID position = UUID.randomUUID();
+        store.save("key", position);
+        NotificationResync resync = new NotificationResync(api, aliceClient);
+        resync.addListener(list -> fail());
+
+        HttpException e = assertThrows(HttpException.class, () -> resync.resync(new NotificationCursor(store, "key")));
+        assertEquals(503, e.getCode());
+        assertEquals(position, store.load("key"));
+    }
+}
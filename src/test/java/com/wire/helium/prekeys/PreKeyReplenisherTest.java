@@ -0,0 +1,140 @@
+package com.wire.helium.prekeys;
+
+import com.wire.helium.API;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.helpers.FakeCrypto;
+import com.wire.helium.http.Transport;
+import com.wire.xenon.Const;
+import com.wire.xenon.models.otr.Missing;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.client.Client;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PreKeyReplenisherTest {
+    private static BackendSimulator backend;
+    private static Client client;
+
+    @BeforeAll
+    public static void before() throws Exception {
+        backend = new BackendSimulator();
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+        client = Transport.newClient(Transport.Engine.JERSEY);
+    }
+
+    @AfterAll
+    public static void after() {
+        client.close();
+        backend.close();
+        System.clearProperty(Const.WIRE_BOTS_SDK_API);
+    }
+
+    @Test
+    public void testRefillsInBatches() throws Exception {
+        BackendSimulator.Account bot = backend.addAccount();
+        String botClient = backend.addClient(bot.id);
+        API api = new API(client, null, bot.getToken());
+        long uploads = backend.getRequests("clients/update");
+
+        try (PreKeyReplenisher replenisher = new PreKeyReplenisher(api, new FakeCrypto(), botClient, new MemoryPreKeyIdStore(), 40, 100, 30, 60_000)) {
+            assertEquals(100, replenisher.check());
+            assertEquals(100, api.getAvailablePrekeys(botClient).size());
+            assertEquals(uploads + 4, backend.getRequests("clients/update"));
+
+            // Enough left, nothing to do
+            claim(bot, botClient, 50);
+            assertEquals(50, replenisher.check());
+            assertEquals(uploads + 4, backend.getRequests("clients/update"));
+
+            // New ids continue after the ones uploaded before
+            claim(bot, botClient, 20);
+            assertEquals(100, replenisher.check());
+            List<Integer> ids = api.getAvailablePrekeys(botClient);
+            assertEquals(100, new HashSet<>(ids).size());
+            assertTrue(ids.stream().allMatch(id -> id < 170));
+            assertEquals(70, ids.stream().filter(id -> id >= 100).count());
+            assertEquals(170, replenisher.getUploaded());
+        }
+    }
+
+    @Test
+    public void testConsumedTriggersRefill() throws Exception {
+        BackendSimulator.Account bot = backend.addAccount();
+        String botClient = backend.addClient(bot.id);
+        API api = new API(client, null, bot.getToken());
+
+        try (PreKeyReplenisher replenisher = new PreKeyReplenisher(api, new FakeCrypto(), botClient, new MemoryPreKeyIdStore(), 40, 100, 50, 60_000)) {
+            replenisher.start();
+            waitFor(() -> replenisher.getEstimate() == 100);
+
+            claim(bot, botClient, 70);
+            replenisher.consumed(70);
+            waitFor(() -> replenisher.getChecks() >= 2 && replenisher.getEstimate() == 100);
+            assertEquals(100, api.getAvailablePrekeys(botClient).size());
+            assertEquals(0, replenisher.getFailures());
+        }
+    }
+
+    @Test
+    public void testIdsMoveForwardAcrossRestarts() throws Exception {
+        BackendSimulator.Account bot = backend.addAccount();
+        String botClient = backend.addClient(bot.id);
+        API api = new API(client, null, bot.getToken());
+        PreKeyIdStore idStore = new FilePreKeyIdStore(Files.createTempDirectory("prekeys"));
+
+        try (PreKeyReplenisher replenisher = new PreKeyReplenisher(api, new FakeCrypto(), botClient, idStore, 40, 100, 50, 60_000)) {
+            assertEquals(100, replenisher.check());
+        }
+
+        // Drained while the bot was down: nothing on the backend tells where the ids stopped
+        claim(bot, botClient, 100);
+        assertTrue(api.getAvailablePrekeys(botClient).stream().allMatch(id -> id == PreKeyReplenisher.LAST_RESORT_ID));
+
+        try (PreKeyReplenisher replenisher = new PreKeyReplenisher(api, new FakeCrypto(), botClient, idStore, 40, 100, 50, 60_000)) {
+            assertEquals(100, replenisher.check());
+        }
+        List<Integer> ids = api.getAvailablePrekeys(botClient);
+        assertEquals(100, ids.size());
+        assertTrue(ids.stream().allMatch(id -> id >= 100 && id < 200));
+        assertEquals(200, idStore.load(botClient));
+    }
+
+    @Test
+    public void testConsumedAfterCloseIsIgnored() throws Exception {
+        BackendSimulator.Account bot = backend.addAccount();
+        String botClient = backend.addClient(bot.id);
+        API api = new API(client, null, bot.getToken());
+
+        PreKeyReplenisher replenisher = new PreKeyReplenisher(api, new FakeCrypto(), botClient, new MemoryPreKeyIdStore(), 40, 100, 50, 60_000);
+        assertEquals(100, replenisher.check());
+        replenisher.close();
+
+        assertDoesNotThrow(() -> replenisher.consumed(100));
+        assertEquals(1, replenisher.getChecks());
+    }
+
+    private static void claim(BackendSimulator.Account bot, String botClient, int count) {
+        BackendSimulator.Account peer = backend.addAccount();
+        API peerApi = new API(client, null, peer.getToken());
+        Missing missing = new Missing();
+        missing.add(bot.id, botClient);
+        for (int i = 0; i < count; i++) {
+            peerApi.getPreKeys(missing);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
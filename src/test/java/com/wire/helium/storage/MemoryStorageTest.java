@@ -0,0 +1,285 @@
+package com.wire.helium.storage;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryStorageTest {
+
+    @Test
+    public void testConcurrentUpdatesAreNotLost() throws Exception {
+        final int threads = 16;
+        final int updates = 2_000;
+        final int sessions = 8;
+        MemoryStorage storage = new MemoryStorage();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < updates; i++) {
+                    IRecord record = storage.fetchSession("bot", "session-" + i % sessions);
+                    record.persist(increment(record.getData()));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (int s = 0; s < sessions; s++) {
+            IRecord record = storage.fetchSession("bot", "session-" + s);
+            total += ByteBuffer.wrap(record.getData()).getLong();
+            record.persist(record.getData());
+        }
+        assertEquals((long) threads * updates, total);
+        assertEquals(0, storage.getLockTimeouts());
+    }
+
+    @Test
+    public void testEvictionSpillsAndRestores() throws Exception {
+        MapSpill spill = new MapSpill();
+        MemoryStorage storage = new MemoryStorage(10, spill, 1_000);
+
+        for (int i = 0; i < 100; i++) {
+            storage.fetchSession("bot", "session-" + i).persist(new byte[]{(byte) i});
+        }
+
+        assertTrue(storage.getSessionCount() <= 10);
+        assertEquals(100 - storage.getSessionCount(), storage.getEvictions());
+        assertEquals(storage.getEvictions(), spill.sessions.size());
+
+        IRecord record = storage.fetchSession("bot", "session-0");
+        assertArrayEquals(new byte[]{0}, record.getData());
+        record.persist(record.getData());
+
+        storage.purge("bot");
+        assertEquals(0, storage.getSessionCount());
+        assertTrue(spill.sessions.isEmpty());
+        assertNull(storage.fetchSession("bot", "session-1").getData());
+    }
+
+    @Test
+    public void testEvictionRacingFetchLosesNothing() throws Exception {
+        final int threads = 4;
+        final int updates = 250;
+        final int sessions = 3;
+        SlowSpill spill = new SlowSpill();
+        MemoryStorage storage = new MemoryStorage(1, spill, 10_000);
+
+        // Every fetch of a session not in memory evicts another one, which is being spilled while it is fetched again
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < updates; i++) {
+                    IRecord record = storage.fetchSession("bot", "session-" + (i + offset) % sessions);
+                    record.persist(increment(record.getData()));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        long total = 0;
+        for (int s = 0; s < sessions; s++) {
+            IRecord record = storage.fetchSession("bot", "session-" + s);
+            total += ByteBuffer.wrap(record.getData()).getLong();
+            record.persist(record.getData());
+        }
+        assertEquals((long) threads * updates, total);
+        assertTrue(storage.getEvictions() > 0);
+        assertEquals(0, spill.overlaps.get());
+    }
+
+    @Test
+    public void testUnpersistedSessionIsTakenOver() throws Exception {
+        MemoryStorage storage = new MemoryStorage(0, null, 50);
+
+        IRecord stale = storage.fetchSession("bot", "session");
+        AtomicReference<IRecord> taken = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                taken.set(storage.fetchSession("bot", "session"));
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        other.start();
+        other.join();
+        IRecord current = taken.get();
+        assertEquals(1, storage.getLockTimeouts());
+
+        current.persist(new byte[]{2});
+        stale.persist(new byte[]{1});
+
+        IRecord record = storage.fetchSession("bot", "session");
+        assertArrayEquals(new byte[]{2}, record.getData());
+        record.persist(record.getData());
+        assertEquals(1, storage.getLockTimeouts());
+    }
+
+    @Test
+    public void testAbandonedSessionIsReleased() throws Exception {
+        MemoryStorage storage = new MemoryStorage(0, null, 10_000);
+        storage.fetchSession("bot", "session").persist(new byte[]{1});
+
+        // Fetched but never persisted, as when cryptobox fails on its session files
+        storage.fetchSession("bot", "session");
+        long start = System.nanoTime();
+        IRecord record = storage.fetchSession("bot", "session");
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertArrayEquals(new byte[]{1}, record.getData());
+        assertEquals(1, storage.getAbandoned());
+
+        // Released explicitly, another thread does not wait either
+        assertEquals(1, storage.releaseHeldSessions());
+        assertEquals(0, storage.releaseHeldSessions());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            IRecord other = executor.submit(() -> storage.fetchSession("bot", "session")).get(1, TimeUnit.SECONDS);
+            assertArrayEquals(new byte[]{1}, other.getData());
+            other.persist(new byte[]{2});
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, storage.getLockTimeouts());
+    }
+
+    @Test
+    public void testFailedRestoreIsRetried() throws Exception {
+        AtomicInteger failures = new AtomicInteger(2);
+        MapSpill stored = new MapSpill();
+        stored.spill("bot", "session", new byte[]{1});
+        SessionSpill spill = new SessionSpill() {
+            @Override
+            public void spill(String id, String sid, byte[] data) {
+                stored.spill(id, sid, data);
+            }
+
+            @Override
+            public byte[] restore(String id, String sid) throws IOException {
+                switch (failures.getAndDecrement()) {
+                    case 2:
+                        throw new IllegalStateException("Spill broken");
+                    case 1:
+                        throw new IOException("Spill unavailable");
+                    default:
+                        return stored.restore(id, sid);
+                }
+            }
+
+            @Override
+            public void purge(String id) {
+                stored.purge(id);
+            }
+        };
+        MemoryStorage storage = new MemoryStorage(10, spill, 10_000);
+
+        assertThrows(IllegalStateException.class, () -> storage.fetchSession("bot", "session"));
+        assertThrows(StorageException.class, () -> storage.fetchSession("bot", "session"));
+        assertEquals(0, storage.getSessionCount());
+
+        // Neither failure left a locked or empty session behind
+        long start = System.nanoTime();
+        IRecord record = storage.fetchSession("bot", "session");
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertArrayEquals(new byte[]{1}, record.getData());
+        record.persist(record.getData());
+        assertEquals(1, storage.getSessionCount());
+        assertEquals(0, storage.getLockTimeouts());
+    }
+
+    @Test
+    public void testPrekeys() {
+        MemoryStorage storage = new MemoryStorage();
+        assertNull(storage.fetchPrekeys("bot"));
+
+        storage.insertPrekey("bot", 1, new byte[]{1});
+        storage.insertPrekey("bot", 1, new byte[]{2});
+        storage.insertPrekey("bot", 2, new byte[]{3});
+
+        assertEquals(2, storage.fetchPrekeys("bot").length);
+    }
+
+    private static byte[] increment(byte[] data) {
+        long value = data == null ? 0 : ByteBuffer.wrap(data).getLong();
+        return ByteBuffer.allocate(Long.BYTES).putLong(value + 1).array();
+    }
+
+    private static class MapSpill implements SessionSpill {
+        final Map<String, byte[]> sessions = new ConcurrentHashMap<>();
+
+        @Override
+        public void spill(String id, String sid, byte[] data) {
+            sessions.put(id + "/" + sid, data);
+        }
+
+        @Override
+        public byte[] restore(String id, String sid) {
+            return sessions.remove(id + "/" + sid);
+        }
+
+        @Override
+        public void purge(String id) {
+            sessions.keySet().removeIf(key -> key.startsWith(id + "/"));
+        }
+    }
+
+    private static class SlowSpill extends MapSpill {
+        final Set<String> busy = ConcurrentHashMap.newKeySet();
+        final AtomicInteger overlaps = new AtomicInteger();
+
+        @Override
+        public void spill(String id, String sid, byte[] data) {
+            enter(id + "/" + sid);
+            try {
+                Thread.sleep(1);
+                super.spill(id, sid, data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                busy.remove(id + "/" + sid);
+            }
+        }
+
+        @Override
+        public byte[] restore(String id, String sid) {
+            enter(id + "/" + sid);
+            try {
+                return super.restore(id, sid);
+            } finally {
+                busy.remove(id + "/" + sid);
+            }
+        }
+
+        private void enter(String key) {
+            if (!busy.add(key)) {
+                overlaps.incrementAndGet();
+            }
+        }
+    }
+}
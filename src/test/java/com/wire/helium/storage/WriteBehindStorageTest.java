@@ -0,0 +1,166 @@
+package com.wire.helium.storage;
+
+import com.wire.bots.cryptobox.IRecord;
+import com.wire.bots.cryptobox.StorageException;
+import com.wire.helium.DatabaseTestBase;
+import com.wire.xenon.crypto.storage.JdbiStorage;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindStorageTest extends DatabaseTestBase {
+
+    @Test
+    public void testWriteBehindFlushesInBatches() throws Exception {
+        String id = UUID.randomUUID().toString();
+        JdbiStorage reference = new JdbiStorage(jdbi);
+
+        try (WriteBehindStorage storage = new WriteBehindStorage(jdbi, WriteBehindStorage.Mode.WRITE_BEHIND, 60_000, 1_000, 0)) {
+            for (int i = 0; i < 100; i++) {
+                IRecord record = storage.fetchSession(id, "session-" + i % 10);
+                record.persist(new byte[]{(byte) i});
+            }
+            storage.insertPrekey(id, 1, new byte[]{42});
+
+            // Nothing written yet, but visible through the storage itself
+            assertEquals(10, storage.getDirtyCount());
+            assertNull(reference.fetchSession(id, "session-0").getData());
+            assertEquals(1, storage.fetchPrekeys(id).length);
+
+            storage.flush();
+            assertEquals(0, storage.getDirtyCount());
+            assertEquals(1, storage.getFlushes());
+            assertEquals(10, storage.getFlushedSessions());
+        }
+
+        assertArrayEquals(new byte[]{90}, reference.fetchSession(id, "session-0").getData());
+        assertArrayEquals(new byte[]{99}, reference.fetchSession(id, "session-9").getData());
+        assertEquals(1, reference.fetchPrekeys(id).length);
+    }
+
+    @Test
+    public void testSyncModeWritesImmediately() throws Exception {
+        String id = UUID.randomUUID().toString();
+
+        try (WriteBehindStorage storage = new WriteBehindStorage(jdbi, WriteBehindStorage.Mode.SYNC, 0, 1, 0)) {
+            storage.fetchSession(id, "session").persist(new byte[]{1});
+            assertEquals(0, storage.getDirtyCount());
+            assertArrayEquals(new byte[]{1}, new JdbiStorage(jdbi).fetchSession(id, "session").getData());
+        }
+    }
+
+    @Test
+    public void testSyncFailureKeepsStoredState() throws Exception {
+        String id = UUID.randomUUID().toString();
+        AtomicBoolean down = new AtomicBoolean();
+        Jdbi flaky = Jdbi.create(() -> {
+            if (down.get()) {
+                throw new SQLException("Database down");
+            }
+            return jdbi.open().getConnection();
+        }).installPlugin(new SqlObjectPlugin());
+
+        try (WriteBehindStorage storage = new WriteBehindStorage(flaky, WriteBehindStorage.Mode.SYNC, 0, 1, 0)) {
+            storage.fetchSession(id, "session").persist(new byte[]{1});
+            IRecord record = storage.fetchSession(id, "session");
+            down.set(true);
+            assertThrows(JdbiException.class, () -> record.persist(new byte[]{2}));
+            down.set(false);
+
+            // The lock was released on the state the table still holds
+            assertArrayEquals(new byte[]{1}, storage.fetchSession(id, "session").getData());
+        }
+    }
+
+    @Test
+    public void testPersistAfterCloseIsWritten() throws Exception {
+        String id = UUID.randomUUID().toString();
+
+        WriteBehindStorage storage = new WriteBehindStorage(jdbi, WriteBehindStorage.Mode.WRITE_BEHIND, 60_000, 1, 0);
+        IRecord record = storage.fetchSession(id, "session");
+        storage.close();
+        record.persist(new byte[]{1});
+
+        assertEquals(0, storage.getDirtyCount());
+        assertArrayEquals(new byte[]{1}, new JdbiStorage(jdbi).fetchSession(id, "session").getData());
+    }
+
+    @Test
+    public void testRestartReadsLatestVersion() throws Exception {
+        String id = UUID.randomUUID().toString();
+
+        try (WriteBehindStorage storage = new WriteBehindStorage(jdbi, WriteBehindStorage.Mode.WRITE_BEHIND, 60_000, 1_000, 2)) {
+            // Only two sessions stay in memory, the others are written on eviction
+            for (int i = 0; i < 5; i++) {
+                storage.fetchSession(id, "session-" + i).persist(new byte[]{(byte) i});
+            }
+            IRecord record = storage.fetchSession(id, "session-0");
+            assertArrayEquals(new byte[]{0}, record.getData());
+            record.persist(new byte[]{10});
+        }
+
+        try (WriteBehindStorage storage = new WriteBehindStorage(jdbi)) {
+            IRecord record = storage.fetchSession(id, "session-0");
+            assertArrayEquals(new byte[]{10}, record.getData());
+            record.persist(new byte[]{11});
+            storage.flush();
+        }
+
+        assertArrayEquals(new byte[]{11}, new JdbiStorage(jdbi).fetchSession(id, "session-0").getData());
+    }
+
+    @Test
+    public void testFailedRestoreKeepsVersion() throws Exception {
+        String id = UUID.randomUUID().toString();
+        try (WriteBehindStorage storage = new WriteBehindStorage(jdbi, WriteBehindStorage.Mode.SYNC, 0, 1, 0)) {
+            for (int i = 1; i <= 3; i++) {
+                storage.fetchSession(id, "session").persist(new byte[]{(byte) i});
+            }
+        }
+
+        AtomicBoolean down = new AtomicBoolean();
+        Jdbi flaky = Jdbi.create(() -> {
+            if (down.get()) {
+                throw new SQLException("Database down");
+            }
+            return jdbi.open().getConnection();
+        }).installPlugin(new SqlObjectPlugin());
+
+        try (WriteBehindStorage storage = new WriteBehindStorage(flaky, WriteBehindStorage.Mode.SYNC, 0, 1, 0)) {
+            down.set(true);
+            assertThrows(StorageException.class, () -> storage.fetchSession(id, "session"));
+            down.set(false);
+
+            // Read again from the table, so the next write is newer than the stored version
+            IRecord record = storage.fetchSession(id, "session");
+            assertArrayEquals(new byte[]{3}, record.getData());
+            record.persist(new byte[]{4});
+        }
+
+        assertArrayEquals(new byte[]{4}, new JdbiStorage(jdbi).fetchSession(id, "session").getData());
+    }
+
+    @Test
+    public void testPurge() throws Exception {
+        String id = UUID.randomUUID().toString();
+
+        try (WriteBehindStorage storage = new WriteBehindStorage(jdbi)) {
+            storage.insertIdentity(id, new byte[]{1});
+            storage.insertPrekey(id, 1, new byte[]{2});
+            storage.fetchSession(id, "session").persist(new byte[]{3});
+            storage.flush();
+
+            storage.purge(id);
+            assertNull(storage.fetchIdentity(id));
+            assertNull(storage.fetchPrekeys(id));
+            assertNull(storage.fetchSession(id, "session").getData());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.wire.helium.sync;
+
+import com.wire.helium.API;
+import com.wire.helium.helpers.BackendSimulator;
+import com.wire.helium.http.Transport;
+import com.wire.helium.models.Event;
+import com.wire.helium.models.QualifiedIds;
+import com.wire.xenon.Const;
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.exceptions.HttpException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.ws.rs.client.Client;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConversationSyncTest {
+    private static BackendSimulator backend;
+    private static Client client;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    public static void before() throws Exception {
+        backend = new BackendSimulator();
+        System.setProperty(Const.WIRE_BOTS_SDK_API, backend.start());
+        client = Transport.newClient(Transport.Engine.JERSEY);
+    }
+
+    @AfterAll
+    public static void after() {
+        client.close();
+        backend.close();
+        System.clearProperty(Const.WIRE_BOTS_SDK_API);
+    }
+
+    @Test
+    public void testRestartFetchesOnlyChanges() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        List<QualifiedId> created = backend.populate(alice, 300, 5, 1);
+        API api = new API(client, null, alice.getToken());
+        FileSnapshotStore store = new FileSnapshotStore(tempDir);
+
+        long bytes = backend.getResponseBytes();
+        ConversationSync.Result first = new ConversationSync(api, store, "alice").sync();
+        long fullBytes = backend.getResponseBytes() - bytes;
+        assertEquals(300, first.added.size());
+        assertTrue(first.removed.isEmpty());
+
+        ConversationSync sync = new ConversationSync(api, store, "alice");
+        assertEquals(300, sync.size());
+        QualifiedId renamed = created.get(0);
+        QualifiedId touched = created.get(1);
+        QualifiedId left = created.get(2);
+        backend.rename(renamed, "renamed");
+        sync.onEvent(event("conversation.rename", renamed));
+        sync.onEvent(event("conversation.member-update", touched));
+        sync.onEvent(event("conversation.otr-message-add", created.get(3)));
+        backend.removeConversation(left);
+        QualifiedId joined = backend.addConversation("new", alice.id);
+
+        // Restarted: the marks come from the store
+        sync = new ConversationSync(api, store, "alice");
+        long lists = backend.getRequests("conversations/list");
+        bytes = backend.getResponseBytes();
+        ConversationSync.Result second = sync.sync();
+        long incrementalBytes = backend.getResponseBytes() - bytes;
+
+        assertEquals(List.of(joined), ids(second.added));
+        assertEquals(List.of(renamed), ids(second.changed));
+        assertEquals("renamed", second.changed.get(0).name);
+        assertEquals(List.of(left), second.removed);
+        assertEquals(1, second.unchanged);
+        assertEquals(300, second.total);
+        assertEquals(lists + 1, backend.getRequests("conversations/list"));
+        assertTrue(incrementalBytes * 5 < fullBytes, incrementalBytes + " vs " + fullBytes);
+
+        ConversationSync.Result third = new ConversationSync(api, store, "alice").sync();
+        assertTrue(third.added.isEmpty() && third.changed.isEmpty() && third.removed.isEmpty());
+        assertEquals(0, third.unchanged);
+        assertEquals(lists + 1, backend.getRequests("conversations/list"));
+    }
+
+    @Test
+    public void testStartsFromMappedSnapshot() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        List<QualifiedId> created = backend.populate(alice, 50, 3, 1);
+        API api = new API(client, null, alice.getToken());
+        new ConversationSync(api, new MappedSnapshotStore(tempDir), "alice").sync();
+
+        ConversationSync sync = new ConversationSync(api, new MappedSnapshotStore(tempDir), "alice");
+        assertEquals(50, sync.size());
+        assertEquals(2, sync.getConversation(created.get(0)).members.others.size());
+
+        long lists = backend.getRequests("conversations/list");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ConversationSync.Result result = sync.syncAsync(executor).get(10, TimeUnit.SECONDS);
+            assertTrue(result.added.isEmpty() && result.removed.isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(lists, backend.getRequests("conversations/list"));
+        assertEquals(50, sync.getConversations().size());
+    }
+
+    @Test
+    public void testFailedListingKeepsSnapshot() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        backend.populate(alice, 10, 2, 1);
+        ConversationSync sync = new ConversationSync(new API(client, null, alice.getToken()), new MemorySnapshotStore(), "alice");
+        sync.sync();
+
+        ConversationSync unauthorized = new ConversationSync(new API(client, null, "invalid"), new MemorySnapshotStore(), "alice");
+        assertThrows(Exception.class, unauthorized::sync);
+        assertEquals(10, sync.size());
+        assertEquals(0, unauthorized.size());
+    }
+
+    @Test
+    public void testFailedDetailsFailTheSync() throws Exception {
+        BackendSimulator.Account alice = backend.addAccount();
+        List<QualifiedId> created = backend.populate(alice, 10, 2, 1);
+        MemorySnapshotStore store = new MemorySnapshotStore();
+        new ConversationSync(new API(client, null, alice.getToken()), store, "alice").sync();
+
+        QualifiedId joined = backend.addConversation("new", alice.id);
+        QualifiedId renamed = created.get(0);
+        backend.rename(renamed, "renamed");
+        API failing = new API(client, null, alice.getToken()) {
+            @Override
+            public void listConversations(List<QualifiedId> conversationIds, List<Conversation> into) throws HttpException {
+                throw new HttpException("simulated-error", 503);
+            }
+        };
+        ConversationSync sync = new ConversationSync(failing, store, "alice");
+        sync.markDirty(renamed);
+        assertThrows(HttpException.class, sync::sync);
+        assertEquals(10, sync.size());
+
+        // Nothing was lost, the next sync fetches both
+        ConversationSync.Result result = new ConversationSync(new API(client, null, alice.getToken()), store, "alice").sync();
+        assertEquals(List.of(joined), ids(result.added));
+        assertEquals(List.of(renamed), ids(result.changed));
+    }
+
+    @Test
+    public void testKeysStayInsideTheDirectory() throws Exception {
+        Path directory = tempDir.resolve("snapshots");
+        FileSnapshotStore store = new FileSnapshotStore(directory);
+        ConversationSnapshot snapshot = new ConversationSnapshot();
+        Conversation conversation = new Conversation();
+        conversation.id = new QualifiedId(UUID.randomUUID(), "wire.com");
+        snapshot.put(conversation, ConversationSync.hash(conversation));
+
+        store.save("../escaped", snapshot);
+        store.markDirty("../escaped", conversation.id);
+
+        ConversationSnapshot loaded = store.load("../escaped");
+        assertEquals(1, loaded.size());
+        assertEquals(Set.of(conversation.id), loaded.dirty());
+        assertFalse(Files.exists(tempDir.resolve("escaped.snapshot")));
+        assertFalse(Files.exists(tempDir.resolve("escaped.dirty")));
+    }
+
+    @Test
+    public void testDiffIsLinear() throws Exception {
+        final int count = 100_000;
+        QualifiedIds listed = new QualifiedIds(count);
+        MemorySnapshotStore store = new MemorySnapshotStore();
+        ConversationSnapshot snapshot = new ConversationSnapshot();
+        for (int i = 0; i < count; i++) {
+            Conversation conversation = new Conversation();
+            conversation.id = new QualifiedId(UUID.randomUUID(), "wire.com");
+            listed.add(conversation.id);
+            snapshot.put(conversation, 0);
+        }
+        QualifiedId left = new QualifiedId(UUID.randomUUID(), "wire.com");
+        Conversation gone = new Conversation();
+        gone.id = left;
+        snapshot.put(gone, 0);
+        for (int i = 0; i < 1_000; i++) {
+            snapshot.dirty().add(new QualifiedId(UUID.randomUUID(), "wire.com"));
+        }
+        store.save("alice", snapshot);
+
+        API api = new API(client, null, "token") {
+            @Override
+            public QualifiedIds listUserConversationIdsCompact() {
+                return listed;
+            }
+        };
+        ConversationSync sync = new ConversationSync(api, store, "alice");
+
+        // Scanning the listed ids for every snapshot entry takes minutes at this size
+        ConversationSync.Result result = assertTimeoutPreemptively(Duration.ofSeconds(10), sync::sync);
+        assertEquals(List.of(left), result.removed);
+        assertTrue(result.added.isEmpty());
+        assertEquals(count, sync.size());
+        assertTrue(store.load("alice").dirty().isEmpty());
+    }
+
+    private static Event event(String type, QualifiedId conversation) {
+        Payload payload = new Payload();
+        payload.type = type;
+        payload.conversation = conversation;
+        Event event = new Event();
+        event.id = UUID.randomUUID();
+        event.payload = new Payload[]{payload};
+        return event;
+    }
+
+    private static List<QualifiedId> ids(List<Conversation> conversations) {
+        return conversations.stream().map(c -> c.id).toList();
+    }
+}
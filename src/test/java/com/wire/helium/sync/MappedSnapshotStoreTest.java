@@ -0,0 +1,113 @@
+package com.wire.helium.sync;
+
+import com.wire.xenon.backend.models.Conversation;
+import com.wire.xenon.backend.models.Member;
+import com.wire.xenon.backend.models.Payload;
+import com.wire.xenon.backend.models.QualifiedId;
+import com.wire.xenon.backend.models.Service;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedSnapshotStoreTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<Conversation> conversations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            conversations.add(conversation(i));
+        }
+        ConversationSnapshot snapshot = new ConversationSnapshot();
+        for (Conversation conversation : conversations) {
+            snapshot.put(conversation, ConversationSync.hash(conversation));
+        }
+        QualifiedId dirty = conversations.get(7).id;
+        snapshot.dirty().add(dirty);
+
+        MappedSnapshotStore store = new MappedSnapshotStore(tempDir);
+        store.save("bot", snapshot);
+        QualifiedId marked = conversations.get(8).id;
+        store.markDirty("bot", marked);
+
+        ConversationSnapshot loaded = store.load("bot");
+        assertEquals(100, loaded.size());
+        assertEquals(Set.of(dirty, marked), loaded.dirty());
+        for (Conversation conversation : conversations) {
+            ConversationSnapshot.Entry entry = loaded.get(conversation.id);
+            assertEquals(ConversationSync.hash(conversation), entry.hash);
+            assertEquals(entry.hash, ConversationSync.hash(entry.getConversation()));
+        }
+    }
+
+    @Test
+    public void testLazyEntriesSurviveRewrite() throws Exception {
+        MappedSnapshotStore store = new MappedSnapshotStore(tempDir);
+        ConversationSnapshot snapshot = new ConversationSnapshot();
+        Conversation first = conversation(1);
+        snapshot.put(first, ConversationSync.hash(first));
+        store.save("bot", snapshot);
+
+        ConversationSnapshot loaded = store.load("bot");
+        ConversationSnapshot replaced = new ConversationSnapshot();
+        Conversation second = conversation(2);
+        replaced.put(second, ConversationSync.hash(second));
+        store.save("bot", replaced);
+
+        assertEquals(first.name, loaded.get(first.id).getConversation().name);
+        assertEquals(List.of(second.id), List.copyOf(store.load("bot").ids()));
+        assertEquals(0, store.load("other").size());
+    }
+
+    @Test
+    public void testKeysStayInsideTheDirectory() throws Exception {
+        Path directory = tempDir.resolve("snapshots");
+        MappedSnapshotStore store = new MappedSnapshotStore(directory);
+        ConversationSnapshot snapshot = new ConversationSnapshot();
+        Conversation conversation = conversation(0);
+        snapshot.put(conversation, ConversationSync.hash(conversation));
+
+        store.save("../escaped", snapshot);
+        store.markDirty("../escaped", conversation.id);
+
+        ConversationSnapshot loaded = store.load("../escaped");
+        assertEquals(1, loaded.size());
+        assertEquals(Set.of(conversation.id), loaded.dirty());
+        assertFalse(Files.exists(tempDir.resolve("escaped.snap")));
+        assertFalse(Files.exists(tempDir.resolve("escaped.dirty")));
+    }
+
+    private static Conversation conversation(int i) {
+        Conversation conversation = new Conversation();
+        conversation.id = new QualifiedId(UUID.randomUUID(), i % 2 == 0 ? "wire.com" : "other.example");
+        conversation.name = i % 5 == 0 ? null : "Conversation " + i + " ✓";
+        conversation.mlsGroupId = i % 3 == 0 ? "group-" + i : null;
+        conversation.protocol = i % 3 == 0 ? Conversation.Protocol.MLS : Conversation.Protocol.PROTEUS;
+        conversation.creator = i % 4 == 0 ? null : UUID.randomUUID();
+        if (i % 7 != 0) {
+            conversation.members = new Payload.Members();
+            conversation.members.others = new ArrayList<>();
+            for (int m = 0; m < i % 4; m++) {
+                Member member = new Member();
+                member.id = new QualifiedId(UUID.randomUUID(), "wire.com");
+                member.status = m == 0 ? null : 0;
+                if (m == 2) {
+                    member.service = new Service();
+                    member.service.id = UUID.randomUUID();
+                    member.service.providerId = UUID.randomUUID();
+                }
+                conversation.members.others.add(member);
+            }
+        }
+        return conversation;
+    }
+}